@@ -0,0 +1,53 @@
+package bd.benchmark;
+
+import java.io.FileNotFoundException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import bd.biopart.Device;
+import bd.gene_network.DesignSpace;
+import bd.gene_network.GeneNetworkBuilder;
+import bd.gene_network.logic.LogicGeneNetworkSettings;
+import bd.model.Model0;
+
+/**
+ * A device of a logic gene network, the middle device of its design space, so
+ * that the same device is measured each time with the same database. The
+ * settings are not visual and do not export the model, so a simulation does
+ * not write files.
+ * @author Bastiaan van den Berg
+ *
+ */
+@State(Scope.Benchmark)
+public class DeviceState {
+
+	@Param({"DLatch0", "Decoder0", "Demultiplexer0"})
+	public String deviceName;
+
+	public LogicGeneNetworkSettings settings;
+	public Device device;
+	public Model0 model;
+
+	/**
+	 * @throws FileNotFoundException If the device settings do not exist.
+	 * @throws IllegalStateException If the device has no devices with this
+	 * database.
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws FileNotFoundException {
+		GeneNetworkBuilder ldb = new GeneNetworkBuilder(deviceName);
+		settings = ldb.getLogicGeneNetworkSettings();
+		settings.setVisual(false);
+		settings.setExportModel(false);
+		DesignSpace space = ldb.getDesignSpace();
+		if(space.size() == 0) {
+			throw new IllegalStateException(deviceName + " has no devices with this database.");
+		}
+		device = space.unrank(space.size() / 2);
+		model = new Model0(device);
+	}
+}
@@ -0,0 +1,67 @@
+package bd.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.jdom.JDOMException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fern.network.fernml.FernMLNetwork;
+
+import bd.model.FernMLWriter;
+
+/**
+ * Writing the model of a device with the FernMLWriter and reading it back as
+ * a FernMLNetwork, and reading the shipped models. The models are written to
+ * a temporary directory, not to the model directory.
+ * @author Bastiaan van den Berg
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FernMLBenchmark {
+
+	private File dir;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("fernml").toFile();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		for(File file : dir.listFiles()) {
+			file.delete();
+		}
+		dir.delete();
+	}
+
+	@Benchmark
+	public FernMLNetwork roundTrip(DeviceState state) throws IOException, JDOMException {
+		File file = new File(dir, state.deviceName + ".fernml");
+		new FernMLWriter().writeModel(state.model, file);
+		return new FernMLNetwork(file);
+	}
+
+	@Benchmark
+	public FernMLNetwork read(ShippedModelState state) throws IOException, JDOMException {
+		return new FernMLNetwork(state.file);
+	}
+}
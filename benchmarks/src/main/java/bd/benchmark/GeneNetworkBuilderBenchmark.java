@@ -0,0 +1,55 @@
+package bd.benchmark;
+
+import java.io.FileNotFoundException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bd.gene_network.DesignSpace;
+import bd.gene_network.GeneNetworkBuilder;
+
+/**
+ * Enumeration of the design space of a logic gene network: all wirings of
+ * the template and their promoter libraries.
+ * @author Bastiaan van den Berg
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class GeneNetworkBuilderBenchmark {
+
+	@Param({"DLatch0", "Decoder0", "Demultiplexer0"})
+	public String deviceName;
+
+	private GeneNetworkBuilder ldb;
+
+	@Setup(Level.Trial)
+	public void setup() throws FileNotFoundException {
+		ldb = new GeneNetworkBuilder(deviceName);
+	}
+
+	@Benchmark
+	public DesignSpace designSpace() {
+		return ldb.getDesignSpace();
+	}
+
+	@Benchmark
+	public DesignSpace representatives() {
+		return ldb.getDesignSpace(true);
+	}
+}
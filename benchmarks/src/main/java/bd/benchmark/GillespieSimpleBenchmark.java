@@ -0,0 +1,54 @@
+package bd.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.jdom.JDOMException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fern.network.fernml.FernMLNetwork;
+import fern.simulation.algorithm.GillespieSimple;
+import fern.tools.Stochastics;
+
+/**
+ * A stochastic simulation of one state of a shipped model with FERN's
+ * GillespieSimple, from the initial amounts and without signals or
+ * observers.
+ * @author Bastiaan van den Berg
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class GillespieSimpleBenchmark {
+
+	private GillespieSimple sim;
+	private int stateTime;
+
+	@Setup(Level.Trial)
+	public void setup(ShippedModelState state) throws IOException, JDOMException {
+		// GillespieSimple uses the shared random stream of FERN
+		Stochastics.getInstance().setSeed(1);
+		sim = new GillespieSimple(new FernMLNetwork(state.file));
+		stateTime = state.settings.getStateTime();
+	}
+
+	@Benchmark
+	public double simulate() {
+		sim.start(stateTime);
+		return sim.getTime();
+	}
+}
@@ -0,0 +1,38 @@
+package bd.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import bd.gene_network.logic.LogicGeneNetworkSimulation;
+
+/**
+ * The simulation of all states of the timing diagram of a device and its
+ * score, as in a sweep, with a fixed seed. A simulation takes seconds, so
+ * there are fewer and longer iterations than in the other benchmarks.
+ * @author Bastiaan van den Berg
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MINUTES)
+@Warmup(iterations = 1, time = 20)
+@Measurement(iterations = 3, time = 20)
+@Fork(1)
+public class LogicGeneNetworkSimulationBenchmark {
+
+	@Benchmark
+	public double[] run(DeviceState state) {
+		return LogicGeneNetworkSimulation.run(state.device, state.settings, 1);
+	}
+
+	@Benchmark
+	public double[] runOde(DeviceState state) {
+		return LogicGeneNetworkSimulation.runOde(state.device, state.settings);
+	}
+}
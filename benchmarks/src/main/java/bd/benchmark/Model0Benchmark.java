@@ -0,0 +1,40 @@
+package bd.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import bd.model.Model0;
+
+/**
+ * Construction of the model of a device, and of the FERN network that is
+ * simulated.
+ * @author Bastiaan van den Berg
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class Model0Benchmark {
+
+	@Benchmark
+	public Model0 model(DeviceState state) {
+		return new Model0(state.device);
+	}
+
+	@Benchmark
+	public void network(DeviceState state, Blackhole blackhole) {
+		Model0 model = new Model0(state.device);
+		blackhole.consume(model);
+		blackhole.consume(model.toNetwork());
+	}
+}
@@ -0,0 +1,44 @@
+package bd.benchmark;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import bd.global.Constants;
+import bd.gene_network.logic.LogicGeneNetworkSettings;
+
+/**
+ * The model of a logic gene network as it is shipped in the model directory,
+ * together with the settings of the logic gene network. These do not need the
+ * bioparts database, so every shipped model can be measured.
+ * @author Bastiaan van den Berg
+ *
+ */
+@State(Scope.Benchmark)
+public class ShippedModelState {
+
+	@Param({"DLatch0", "Decoder0", "Demultiplexer0"})
+	public String deviceName;
+
+	public File file;
+	public LogicGeneNetworkSettings settings;
+
+	/**
+	 * @throws FileNotFoundException If the model or the device settings do not
+	 * exist.
+	 */
+	@Setup(Level.Trial)
+	public void setup() throws FileNotFoundException {
+		file = new File(Constants.TMP_MODEL_DIR + deviceName + ".fernml");
+		if(!file.exists()) {
+			throw new FileNotFoundException("The model " + file.getAbsolutePath() + " does not exist.");
+		}
+		settings = new LogicGeneNetworkSettings(Constants.LOGIC_DEVICE_DIR + deviceName +
+				File.separator + "settings.xml");
+	}
+}
@@ -3,6 +3,7 @@ import java.util.Scanner;
 
 import bd.biopart.BioPartDatabase;
 import bd.biopart.BioPartDatabaseBuilder;
+import bd.gene_network.logic.OptimizeLogicGeneNetwork;
 import bd.gene_network.logic.SimAllLogicGeneNetworks;
 import bd.gene_network.logic.SimLogicGeneNetwork;
 import bd.gene_network.logic.SimRandomLogicGeneNetwork;
@@ -33,7 +34,8 @@ public class GeneNetworkDesigner {
 			System.out.println(    "*  1. Simulate a random logic gene network       *");
 			System.out.println(    "*  2. Simulate a logic gene network              *");
 			System.out.println(    "*  3. Simulate all possible logic gene networks  *");
-			System.out.println(    "*  4. (Re)Build bioparts database                *");
+			System.out.println(    "*  4. Optimize a logic gene network              *");
+			System.out.println(    "*  5. (Re)Build bioparts database                *");
 			System.out.println(    "*                                                *");
 			System.out.println(    "**************************************************");
 			System.out.print("Choose the program you want to run or 'q' to quit: ");
@@ -56,6 +58,10 @@ public class GeneNetworkDesigner {
 					correctChoice = true;
 				}
 				else if(choice.equals("4")) {
+					OptimizeLogicGeneNetwork.main(new String[0]);
+					correctChoice = true;
+				}
+				else if(choice.equals("5")) {
 					BioPartDatabaseBuilder.main(new String[0]);
 					// reload the rebuild parts registry
 					BioPartDatabase.instance().destroy();
@@ -66,7 +72,7 @@ public class GeneNetworkDesigner {
 					System.exit(0);
 				}
 				else {
-					System.out.print("Incorrect input, please enter 1, 2, 3, 4, or q: ");
+					System.out.print("Incorrect input, please enter 1, 2, 3, 4, 5, or q: ");
 				}
 			}
 		}
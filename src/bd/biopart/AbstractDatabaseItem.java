@@ -29,6 +29,11 @@ public abstract class AbstractDatabaseItem implements DatabaseItem {
 	 */
 	protected final String name;
 	
+	/**
+	 * True if the data of this item is read from its xml file.
+	 */
+	private boolean stored;
+	
 	/**
 	 * Constructs a new database item object with the given name. The
 	 * data for this item is fetched from the xml file.
@@ -43,17 +48,37 @@ public abstract class AbstractDatabaseItem implements DatabaseItem {
 		if(file.exists()) {
 			Document doc = getDocument(file);
 			init(doc);
+			stored = true;
 		}
 		else {
 			// System.out.println("File does not exist: " + getPath() + name + ".xml");
 		}
 	}
 	
+	/**
+	 * Constructs a database item with data from a database snapshot. The xml 
+	 * file is not read, the data is set by the constructor of the subclass.
+	 * @param name The name (unique identifier) of the database item.
+	 * @param snapshot The snapshot that provides the data.
+	 */
+	AbstractDatabaseItem(String name, BioPartSnapshot snapshot) {
+		this.name = name;
+		this.stored = true;
+	}
+	
 	/**
 	 * @param document
 	 */
 	protected void init(Document document) {}
 	
+	/**
+	 * @return True if the data of this item is read from the database, false
+	 * if there is no xml file for this item.
+	 */
+	public boolean isStored() {
+		return stored;
+	}
+	
 	/**
 	 * @return The path to the different item types
 	 */
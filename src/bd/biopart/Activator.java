@@ -55,6 +55,30 @@ public class Activator extends TF {
 		}
 	}
 	
+	/**
+	 * Construct an activator with data from a database snapshot.
+	 * @param name
+	 * @param snapshot
+	 * @param k_deg_protein
+	 * @param p1
+	 * @param p2
+	 * @param k_bind_protein
+	 * @param k_unbind_protein
+	 * @param k_transcription
+	 * @param environmentalSignal
+	 * @param k_bind_smallMolecule
+	 * @param k_unbind_smallMolecule
+	 */
+	Activator(String name, BioPartSnapshot snapshot, double k_deg_protein, 
+			TFSub p1, TFSub p2, double k_bind_protein, double k_unbind_protein, 
+			double k_transcription, EnvironmentalSignal environmentalSignal, 
+			double k_bind_smallMolecule, double k_unbind_smallMolecule) {
+		super(name, snapshot, k_deg_protein, p1, p2, k_bind_protein, 
+				k_unbind_protein, environmentalSignal, k_bind_smallMolecule, 
+				k_unbind_smallMolecule);
+		this.k_transcription = k_transcription;
+	}
+	
 	/**
 	 * @return An empty activator instance.
 	 */
@@ -72,7 +96,7 @@ public class Activator extends TF {
 		ArrayList<Activator> result = new ArrayList<Activator>();
 		List<String> names = emptyInstance().getAllNames();
 		for(String name : names) {
-			Activator activator = new Activator(name);
+			Activator activator = BioPartDatabase.activator(name);
 			EnvironmentalSignal other = activator.getSmallMolecule();
 			if(other != null && other.equals(environmentalSignal)) {
 				result.add(activator);
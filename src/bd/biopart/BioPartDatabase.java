@@ -1,13 +1,22 @@
 package bd.biopart;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
 
 /**
  * A class that loads the whole database into memory so that it can be used
  * in a fast way. All xml files containing the data are read and stored into 
  * database item objects.
  * Uses the singleton pattern, so that the database will only be loaded once.
+ * 
+ * The class also keeps a cache with one instance per part. Parts should be 
+ * obtained through the static part methods (for example inhibitor(name)), so 
+ * that each xml file is parsed once and the same part is always the same 
+ * object.
  * @author Bastiaan van den Berg
  *
  */
@@ -28,9 +37,18 @@ public class BioPartDatabase {
 	// singleton design pattern
 	private static BioPartDatabase instance = null;
 	
+	// canonical part instances per part type, by name
+	private static Map<Class<?>, Map<String, AbstractDatabaseItem>> parts = 
+		new HashMap<Class<?>, Map<String, AbstractDatabaseItem>>();
+	
 	// subdivided into libraries
 	private List<List<Promoter>> allPromoters;
 	private List<Promoter> onePromoterPerLibrary;
+	// promoter library per set of bound TFs, see tfSetKey
+	private Map<String, List<Promoter>> libraryPerTFSet;
+	// one promoter per library that can be used for a regulation pattern and 
+	// a (sub)set of bound TFs, see patternKey
+	private Map<String, List<Promoter>> librariesPerPattern;
 	private List<ProteinCoding> allPC;
 	private List<RBS> allRBS;
 	private List<Terminator> allTerminators;
@@ -52,14 +70,54 @@ public class BioPartDatabase {
 		System.out.println(", done.");
 	}
 	
+	/**
+	 * Construct the database from parts that are loaded from a snapshot. The
+	 * lists must be in the same order as they would be read from the xml 
+	 * files.
+	 * @param allPromoters Promoters, subdivided into libraries.
+	 * @param allRBS
+	 * @param allPC
+	 * @param allTerminators
+	 * @param allInhibitors All inhibitors, also the ones that are activated 
+	 * by a signal.
+	 * @param allActivators All activators.
+	 */
+	BioPartDatabase(List<List<Promoter>> allPromoters, List<RBS> allRBS, 
+			List<ProteinCoding> allPC, List<Terminator> allTerminators, 
+			List<Inhibitor> allInhibitors, List<Activator> allActivators) {
+		this.allPromoters = allPromoters;
+		this.allRBS = allRBS;
+		this.allPC = allPC;
+		this.allTerminators = allTerminators;
+		initOnePromoterPerLibrary();
+		allActiveInhibitors = new ArrayList<Inhibitor>();
+		for(Inhibitor inhibitor : allInhibitors) {
+			if(!inhibitor.activated()) {
+				allActiveInhibitors.add(inhibitor);
+			}
+		}
+		allActiveActivators = new ArrayList<Activator>();
+		for(Activator activator : allActivators) {
+			if(!activator.activated()) {
+				allActiveActivators.add(activator);
+			}
+		}
+	}
+	
 	/**
 	 * This function loads the bioparts database when this is not done yet,
-	 * otherwise it simply returns the allready loaded database.
+	 * otherwise it simply returns the allready loaded database. The database
+	 * is loaded from the snapshot file if it is up to date with the xml files.
+	 * Otherwise the xml files are read and a new snapshot is written.
 	 * @return The bioparts database
 	 */
-	public static BioPartDatabase instance() {
+	public static synchronized BioPartDatabase instance() {
 		if (instance == null) {
-			instance = new BioPartDatabase();
+			instance = BioPartSnapshot.load();
+			if(instance == null) {
+				instance = new BioPartDatabase();
+				BioPartSnapshot.write(instance);
+			}
 		}
 		return instance;
 	}
@@ -72,13 +130,26 @@ public class BioPartDatabase {
 	 * @return A list of promoters.
 	 */
 	public List<Promoter> getPromoterLibrary(List<TF> tfs) {
-		for(List<Promoter> library : allPromoters) {
-			if(library.get(0).getTFs().containsAll(tfs) &&
-					tfs.containsAll(library.get(0).getTFs())) {
-				return library;
-			}
+		return libraryPerTFSet.get(tfSetKey(tfs));
+	}
+	
+	/**
+	 * This function returns one promoter per promoter library that has the
+	 * given regulation pattern and that binds (at least) all transcription
+	 * factors in tfs. Libraries that bind TFs that must be activated by a 
+	 * small molecule are left out. This gives the same result as 
+	 * Promoter.allPromoters(getOnePromoterPerLibrary(), pattern, tfs).
+	 * @param pattern The regulation pattern, e.g. "+-".
+	 * @param tfs A list of transcription factors, may be a part of the TFs 
+	 * that bind the promoter.
+	 * @return A list of promoters, empty if there is no suitable library.
+	 */
+	public List<Promoter> getPromoterLibraries(String pattern, List<TF> tfs) {
+		List<Promoter> result = librariesPerPattern.get(patternKey(pattern, tfSetKey(tfs)));
+		if(result == null) {
+			return Collections.emptyList();
 		}
-		return null;
+		return result;
 	}
 	
 	/**
@@ -145,7 +216,7 @@ public class BioPartDatabase {
 		List<String> names = Promoter.emptyInstance().getAllNames();
 		allPromoters = new ArrayList<List<Promoter>>();
 		for(String n : names) {
-			Promoter pm = new Promoter(n);
+			Promoter pm = promoter(n);
 			boolean libAvailable = false;
 			// add promoter to library if it already exists
 			for(List<Promoter> library : allPromoters) {
@@ -162,20 +233,99 @@ public class BioPartDatabase {
 				allPromoters.add(library);
 			}
 		}
-		
+		initOnePromoterPerLibrary();
+	}
+	
+	private void initOnePromoterPerLibrary() {
 		// fill onePromoterPerLibrary (simply one promoter per library...)
 		onePromoterPerLibrary = new ArrayList<Promoter>();
 		for(List<Promoter> library : allPromoters) {
 			// just pick the first out of the library
 			onePromoterPerLibrary.add(library.get(0));
 		}
+		initLibraryIndex();
+	}
+	
+	/**
+	 * Fills the hash tables that are used to look up promoter libraries by 
+	 * bound TFs, so that the libraries do not have to be scanned for each
+	 * lookup.
+	 */
+	private void initLibraryIndex() {
+		libraryPerTFSet = new HashMap<String, List<Promoter>>();
+		librariesPerPattern = new HashMap<String, List<Promoter>>();
+		for(List<Promoter> library : allPromoters) {
+			Promoter promoter = library.get(0);
+			String key = tfSetKey(promoter.getTFs());
+			// the first library with these TFs, as the scan used to return
+			if(!libraryPerTFSet.containsKey(key)) {
+				libraryPerTFSet.put(key, Collections.unmodifiableList(library));
+			}
+			if(promoter.bindsActivatedTFs()) {
+				continue;
+			}
+			// add the library for all subsets of its TFs
+			List<String> names = new ArrayList<String>(tfNames(promoter.getTFs()));
+			for(int subset = 0; subset < 1 << names.size(); subset++) {
+				TreeSet<String> subNames = new TreeSet<String>();
+				for(int i = 0; i < names.size(); i++) {
+					if((subset & 1 << i) != 0) {
+						subNames.add(names.get(i));
+					}
+				}
+				String subKey = patternKey(promoter.regulationPattern(), join(subNames));
+				List<Promoter> libraries = librariesPerPattern.get(subKey);
+				if(libraries == null) {
+					libraries = new ArrayList<Promoter>();
+					librariesPerPattern.put(subKey, libraries);
+				}
+				libraries.add(promoter);
+			}
+		}
+		for(Map.Entry<String, List<Promoter>> entry : librariesPerPattern.entrySet()) {
+			entry.setValue(Collections.unmodifiableList(entry.getValue()));
+		}
+	}
+	
+	/**
+	 * Lookup key for a set of TFs, the sorted TF names without duplicates. 
+	 * The order of the TFs and the number of times a TF is in the list do not
+	 * matter, just like with the containsAll checks on the lists.
+	 * @param tfs
+	 * @return The key, or null if tfs contains null.
+	 */
+	private static String tfSetKey(List<TF> tfs) {
+		if(tfs.contains(null)) {
+			return null;
+		}
+		return join(tfNames(tfs));
+	}
+	
+	private static TreeSet<String> tfNames(List<TF> tfs) {
+		TreeSet<String> names = new TreeSet<String>();
+		for(TF tf : tfs) {
+			names.add(tf.getName());
+		}
+		return names;
+	}
+	
+	private static String join(TreeSet<String> names) {
+		StringBuilder result = new StringBuilder();
+		for(String name : names) {
+			result.append(name).append(',');
+		}
+		return result.toString();
+	}
+	
+	private static String patternKey(String pattern, String tfSetKey) {
+		return pattern + "|" + tfSetKey;
 	}
 	
 	private void loadRBS() {
 		List<String> names = RBS.emptyInstance().getAllNames();
 		allRBS = new ArrayList<RBS>(names.size());
 		for(String name : names) {
-			allRBS.add(new RBS(name));
+			allRBS.add(rbs(name));
 		}
 	}
 	
@@ -183,7 +333,7 @@ public class BioPartDatabase {
 		List<String> names = ProteinCoding.emptyInstance().getAllNames();
 		allPC = new ArrayList<ProteinCoding>(names.size());
 		for(String name : names) {
-			allPC.add(new ProteinCoding(name));
+			allPC.add(proteinCoding(name));
 		}
 	}
 	
@@ -191,7 +341,7 @@ public class BioPartDatabase {
 		List<String> names = Terminator.emptyInstance().getAllNames();
 		allTerminators = new ArrayList<Terminator>(names.size());
 		for(String name : names) {
-			allTerminators.add(new Terminator(name));
+			allTerminators.add(terminator(name));
 		}
 	}
 	
@@ -199,7 +349,7 @@ public class BioPartDatabase {
 		List<String> names = Inhibitor.emptyInstance().getAllNames();
 		allActiveInhibitors = new ArrayList<Inhibitor>();
 		for(String name : names) {
-			Inhibitor inhibitor = new Inhibitor(name);
+			Inhibitor inhibitor = inhibitor(name);
 			if(!inhibitor.activated()) {
 				allActiveInhibitors.add(inhibitor);
 			}
@@ -210,14 +360,180 @@ public class BioPartDatabase {
 		List<String> names = Activator.emptyInstance().getAllNames();
 		allActiveActivators = new ArrayList<Activator>();
 		for(String name : names) {
-			Activator activator = new Activator(name);
+			Activator activator = activator(name);
 			if(!activator.activated()) {
 				allActiveActivators.add(activator);
 			}
 		}
 	}
 	
+	/**
+	 * Removes the loaded database and the part cache, so that the database is
+	 * loaded again the next time it is used.
+	 */
 	public void destroy() {
-    	instance = null;
+		reset();
     }
+	
+	/**
+	 * Removes the loaded database and empties the part cache. Must be called 
+	 * when parts are deleted or changed on disk.
+	 */
+	public static synchronized void reset() {
+		instance = null;
+		parts.clear();
+	}
+	
+	/**
+	 * @param name
+	 * @return The promoter with this name.
+	 */
+	public static Promoter promoter(String name) {
+		return (Promoter) part(Promoter.class, name);
+	}
+	
+	/**
+	 * @param name
+	 * @return The ribosome binding site with this name.
+	 */
+	public static RBS rbs(String name) {
+		return (RBS) part(RBS.class, name);
+	}
+	
+	/**
+	 * @param name
+	 * @return The protein coding part with this name.
+	 */
+	public static ProteinCoding proteinCoding(String name) {
+		return (ProteinCoding) part(ProteinCoding.class, name);
+	}
+	
+	/**
+	 * @param name
+	 * @return The terminator with this name.
+	 */
+	public static Terminator terminator(String name) {
+		return (Terminator) part(Terminator.class, name);
+	}
+	
+	/**
+	 * @param name
+	 * @return The inhibitor with this name.
+	 */
+	public static Inhibitor inhibitor(String name) {
+		return (Inhibitor) part(Inhibitor.class, name);
+	}
+	
+	/**
+	 * @param name
+	 * @return The activator with this name.
+	 */
+	public static Activator activator(String name) {
+		return (Activator) part(Activator.class, name);
+	}
+	
+	/**
+	 * @param name
+	 * @return The transcription factor subprotein with this name.
+	 */
+	public static TFSub tfSub(String name) {
+		return (TFSub) part(TFSub.class, name);
+	}
+	
+	/**
+	 * @param name
+	 * @return The reporter with this name.
+	 */
+	public static Reporter reporter(String name) {
+		return (Reporter) part(Reporter.class, name);
+	}
+	
+	/**
+	 * @param name
+	 * @return The environmental signal with this name.
+	 */
+	public static EnvironmentalSignal environmentalSignal(String name) {
+		return (EnvironmentalSignal) part(EnvironmentalSignal.class, name);
+	}
+	
+	/**
+	 * Adds a part to the cache, unless a part with the same type and name is
+	 * already in the cache.
+	 * @param item The part.
+	 * @return The cached part with the same type and name as item.
+	 */
+	static synchronized AbstractDatabaseItem canonical(AbstractDatabaseItem item) {
+		Map<String, AbstractDatabaseItem> items = parts.get(item.getClass());
+		if(items == null) {
+			items = new HashMap<String, AbstractDatabaseItem>();
+			parts.put(item.getClass(), items);
+		}
+		AbstractDatabaseItem cached = items.get(item.getName());
+		if(cached == null) {
+			items.put(item.getName(), item);
+			cached = item;
+		}
+		return cached;
+	}
+	
+	/**
+	 * Returns the cached part, the part is read from the database if it is not
+	 * in the cache yet. Parts that do not exist in the database are not cached.
+	 * The lock is reentrant, parts that refer to other parts (a TF that binds 
+	 * a signal) get these from the cache while they are read.
+	 * @param type The type of the part.
+	 * @param name The name of the part.
+	 * @return The part.
+	 */
+	private static synchronized AbstractDatabaseItem part(Class<?> type, String name) {
+		Map<String, AbstractDatabaseItem> items = parts.get(type);
+		if(items == null) {
+			items = new HashMap<String, AbstractDatabaseItem>();
+			parts.put(type, items);
+		}
+		AbstractDatabaseItem item = items.get(name);
+		if(item == null) {
+			item = read(type, name);
+			if(item.isStored()) {
+				items.put(name, item);
+			}
+		}
+		return item;
+	}
+	
+	/**
+	 * @param type The type of the part.
+	 * @param name The name of the part.
+	 * @return A new part, read from its xml file.
+	 */
+	private static AbstractDatabaseItem read(Class<?> type, String name) {
+		if(type == Promoter.class) {
+			return new Promoter(name);
+		}
+		else if(type == RBS.class) {
+			return new RBS(name);
+		}
+		else if(type == ProteinCoding.class) {
+			return new ProteinCoding(name);
+		}
+		else if(type == Terminator.class) {
+			return new Terminator(name);
+		}
+		else if(type == Inhibitor.class) {
+			return new Inhibitor(name);
+		}
+		else if(type == Activator.class) {
+			return new Activator(name);
+		}
+		else if(type == TFSub.class) {
+			return new TFSub(name);
+		}
+		else if(type == Reporter.class) {
+			return new Reporter(name);
+		}
+		else if(type == EnvironmentalSignal.class) {
+			return new EnvironmentalSignal(name);
+		}
+		throw new IllegalArgumentException("Not a part type: " + type.getName());
+	}
 }
@@ -124,6 +124,8 @@ public class BioPartDatabaseBuilder {
 		
 		// *** terminator ***
 		terminator();
+		
+		snapshot();
 	}
 	
 	// different wires
@@ -193,6 +195,8 @@ public class BioPartDatabaseBuilder {
 		
 		// *** terminator ***
 		terminator();
+		
+		snapshot();
 	}
 	
 	public static void largeDatabase() {
@@ -248,6 +252,8 @@ public class BioPartDatabaseBuilder {
 		
 		// *** terminator ***
 		terminator();
+		
+		snapshot();
 	}
 	
 	// demux
@@ -283,6 +289,8 @@ public class BioPartDatabaseBuilder {
 		
 		// *** terminator ***
 		terminator();
+		
+		snapshot();
 	}
 	
 	// demux
@@ -320,6 +328,8 @@ public class BioPartDatabaseBuilder {
 		
 		// *** terminator ***
 		terminator();
+		
+		snapshot();
 	}
 	
 	// c-element
@@ -361,6 +371,8 @@ public class BioPartDatabaseBuilder {
 		
 		// *** terminator ***
 		terminator();
+		
+		snapshot();
 	}
 	
 	// c-element
@@ -407,6 +419,8 @@ public class BioPartDatabaseBuilder {
 		
 		// *** terminator ***
 		terminator();
+		
+		snapshot();
 	}
 	
 	// d-latch
@@ -446,6 +460,8 @@ public class BioPartDatabaseBuilder {
 		
 		// *** terminator ***
 		terminator();
+		
+		snapshot();
 	}
 	
 	/**
@@ -670,6 +686,13 @@ public class BioPartDatabaseBuilder {
 		t.writeDocument();
 	}
 	
+	// load the new database from the xml files, which writes the snapshot
+	// that is used to load the database fast
+	private static void snapshot() {
+		BioPartDatabase.reset();
+		BioPartDatabase.instance();
+	}
+	
 	private static double randomParam(double[] range, Random rnd) {
 		return range[0] + rnd.nextDouble()*(range[1]-range[0]);
 	}
@@ -695,6 +718,8 @@ public class BioPartDatabaseBuilder {
 		Activator.emptyInstance().deleteAllItems();
 		TFSub.emptyInstance().deleteAllItems();
 		EnvironmentalSignal.emptyInstance().deleteAllItems();
+		BioPartDatabase.reset();
+		BioPartSnapshot.delete();
 		iim = new ArrayList<Protein>();
 		i0m = new ArrayList<Protein>();
 		i0d = new ArrayList<Protein>();
@@ -0,0 +1,571 @@
+package bd.biopart;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import bd.global.Constants;
+
+/**
+ * A binary snapshot of the bioparts database. Reading all xml files of a large
+ * database takes seconds, the snapshot contains the same data in one file
+ * that is memory mapped and read in milliseconds.
+ *
+ * The snapshot is stale when one of the part directories or xml files is
+ * modified after the snapshot was written, or when the number of parts
+ * changed. A stale snapshot is not used, the database is then read from the
+ * xml files and a new snapshot is written.
+ *
+ * File layout: a header (magic number, version, number of xml files per part
+ * directory) followed by one section per part type, and a trailer with the
+ * length and the CRC-32 checksum of everything before it. The parts in a 
+ * section are stored in the order in which they are read from the xml files,
+ * parts refer to other parts by their index in the section of the other part
+ * type.
+ *
+ * Several sweep processes can write the snapshot at the same time, each
+ * writes its own temporary file and moves it over the snapshot at once. A
+ * snapshot of which the length or checksum does not match is not used.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class BioPartSnapshot {
+
+	private static final int MAGIC = 0x42504453;
+	private static final int VERSION = 2;
+	// length (long) and checksum (int) after the data
+	private static final int TRAILER_SIZE = 12;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// protein types, used for references to proteins
+	private static final byte NONE = 0;
+	private static final byte INHIBITOR = 1;
+	private static final byte ACTIVATOR = 2;
+	private static final byte TF_SUB = 3;
+	private static final byte REPORTER = 4;
+
+	// the directories with part xml files, in the order of the header
+	private static final String[] PART_DIRS = {
+		Constants.SM_DIR,
+		Constants.TF_SUB_DIR,
+		Constants.REPORTER_DIR,
+		Constants.INHIBITOR_DIR,
+		Constants.ACTIVATOR_DIR,
+		Constants.PC_DIR,
+		Constants.RBS_DIR,
+		Constants.TENMINATOR_DIR,
+		Constants.PROMOTER_DIR
+	};
+
+	// parts that are read or written, by section
+	private List<EnvironmentalSignal> signals = new ArrayList<EnvironmentalSignal>();
+	private List<TFSub> tfSubs = new ArrayList<TFSub>();
+	private List<Reporter> reporters = new ArrayList<Reporter>();
+	private List<Inhibitor> inhibitors = new ArrayList<Inhibitor>();
+	private List<Activator> activators = new ArrayList<Activator>();
+
+	// index of each part in its section, used when writing. Parts are equal
+	// when they have the same name, the cached instances are used as keys.
+	private Map<AbstractDatabaseItem, Integer> index = new IdentityHashMap<AbstractDatabaseItem, Integer>();
+
+	private BioPartSnapshot() {}
+
+	/**
+	 * @return The snapshot file.
+	 */
+	public static File getFile() {
+		return new File(Constants.DNA_DATABASE_DIR + "bioparts.snapshot");
+	}
+
+	/**
+	 * Deletes the snapshot file.
+	 */
+	public static void delete() {
+		getFile().delete();
+	}
+
+	/**
+	 * Loads the database from the snapshot file. The loaded parts are added
+	 * to the part cache of the database.
+	 * @return The database, null if there is no snapshot or if it is stale.
+	 */
+	public static BioPartDatabase load() {
+		File file = getFile();
+		if(!file.exists()) {
+			return null;
+		}
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				if(buffer.limit() < 8 + TRAILER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+					return null;
+				}
+				if(!checksum(buffer)) {
+					System.out.println("\nThe bioparts database snapshot is damaged, it is not used.");
+					return null;
+				}
+				int[] counts = new int[PART_DIRS.length];
+				for(int i = 0; i < counts.length; i++) {
+					counts[i] = buffer.getInt();
+				}
+				if(stale(file.lastModified(), counts)) {
+					return null;
+				}
+				return new BioPartSnapshot().read(buffer);
+			}
+			finally {
+				raf.close();
+			}
+		}
+		catch(Exception e) {
+			// a damaged snapshot, the xml files will be used
+			System.out.println("\nThe bioparts database snapshot could not be read: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Checks the length and checksum in the trailer of a snapshot, and sets
+	 * the limit of the buffer to the end of the data.
+	 * @param buffer The mapped snapshot file.
+	 * @return false if the snapshot is incomplete or damaged.
+	 */
+	private static boolean checksum(ByteBuffer buffer) {
+		int end = buffer.limit() - TRAILER_SIZE;
+		if(buffer.getLong(end) != end) {
+			return false;
+		}
+		ByteBuffer data = buffer.duplicate();
+		data.position(0);
+		data.limit(end);
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		if(buffer.getInt(end + 8) != (int) crc.getValue()) {
+			return false;
+		}
+		buffer.limit(end);
+		return true;
+	}
+
+	/**
+	 * Writes a snapshot of the database. The file is written to a new 
+	 * temporary file in the same directory first, which then replaces the 
+	 * snapshot at once, so that a damaged snapshot is never used.
+	 * @param database A database that is read from the xml files.
+	 * @return true if the snapshot is written.
+	 */
+	public static boolean write(BioPartDatabase database) {
+		File file = getFile();
+		Path tmpFile = null;
+		try {
+			tmpFile = Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), 
+					file.getName(), ".tmp");
+			// temporary files are private, the snapshot is read by everyone
+			tmpFile.toFile().setReadable(true, false);
+			CheckedOutputStream checked = new CheckedOutputStream(new FileOutputStream(tmpFile.toFile()), 
+					new CRC32());
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(checked));
+			try {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				for(String dir : PART_DIRS) {
+					out.writeInt(names(dir).length);
+				}
+				new BioPartSnapshot().write(database, out);
+				out.flush();
+				int length = out.size();
+				int crc = (int) checked.getChecksum().getValue();
+				out.writeLong(length);
+				out.writeInt(crc);
+			}
+			finally {
+				out.close();
+			}
+			Files.move(tmpFile, file.toPath(), StandardCopyOption.ATOMIC_MOVE, 
+					StandardCopyOption.REPLACE_EXISTING);
+			return true;
+		}
+		catch(IOException ioe) {
+			System.out.println("\nThe bioparts database snapshot could not be written: " + ioe.getMessage());
+			if(tmpFile != null) {
+				tmpFile.toFile().delete();
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * @param time The time the snapshot was written.
+	 * @param counts The number of xml files per part directory in the snapshot.
+	 * @return true if the xml files are changed after the snapshot was written.
+	 */
+	private static boolean stale(long time, int[] counts) {
+		for(int i = 0; i < PART_DIRS.length; i++) {
+			File dir = new File(PART_DIRS[i]);
+			String[] names = names(PART_DIRS[i]);
+			if(names.length != counts[i] || dir.lastModified() > time) {
+				return true;
+			}
+			for(String name : names) {
+				if(new File(dir, name).lastModified() > time) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param path A part directory.
+	 * @return The files in the directory, an empty array if the directory does
+	 * not exist.
+	 */
+	private static String[] names(String path) {
+		File dir = new File(path);
+		List<String> result = new ArrayList<String>();
+		String[] names = dir.list();
+		if(names != null) {
+			for(String name : names) {
+				if(!new File(dir, name).isDirectory()) {
+					result.add(name);
+				}
+			}
+		}
+		return result.toArray(new String[result.size()]);
+	}
+
+	/* ***** reading ***** */
+
+	private BioPartDatabase read(ByteBuffer in) {
+
+		int n = in.getInt();
+		for(int i = 0; i < n; i++) {
+			String name = readString(in);
+			boolean inhibitor = in.get() == 1;
+			signals.add((EnvironmentalSignal) BioPartDatabase.canonical(
+					new EnvironmentalSignal(name, this, inhibitor)));
+		}
+
+		// sub proteins are stored after the sub proteins they consist of
+		n = in.getInt();
+		for(int i = 0; i < n; i++) {
+			String name = readString(in);
+			double kDeg = in.getDouble();
+			Protein p1 = readProtein(in);
+			Protein p2 = readProtein(in);
+			double kBind = in.getDouble();
+			double kUnbind = in.getDouble();
+			tfSubs.add((TFSub) BioPartDatabase.canonical(
+					new TFSub(name, this, kDeg, p1, p2, kBind, kUnbind)));
+		}
+
+		n = in.getInt();
+		for(int i = 0; i < n; i++) {
+			String name = readString(in);
+			double kDeg = in.getDouble();
+			reporters.add((Reporter) BioPartDatabase.canonical(
+					new Reporter(name, this, kDeg)));
+		}
+
+		n = in.getInt();
+		for(int i = 0; i < n; i++) {
+			String name = readString(in);
+			double kDeg = in.getDouble();
+			TFSub p1 = (TFSub) readProtein(in);
+			TFSub p2 = (TFSub) readProtein(in);
+			double kBind = in.getDouble();
+			double kUnbind = in.getDouble();
+			EnvironmentalSignal signal = readSignal(in);
+			double kBindSignal = in.getDouble();
+			double kUnbindSignal = in.getDouble();
+			inhibitors.add((Inhibitor) BioPartDatabase.canonical(
+					new Inhibitor(name, this, kDeg, p1, p2, kBind, kUnbind,
+							signal, kBindSignal, kUnbindSignal)));
+		}
+
+		n = in.getInt();
+		for(int i = 0; i < n; i++) {
+			String name = readString(in);
+			double kDeg = in.getDouble();
+			TFSub p1 = (TFSub) readProtein(in);
+			TFSub p2 = (TFSub) readProtein(in);
+			double kBind = in.getDouble();
+			double kUnbind = in.getDouble();
+			double kTranscription = in.getDouble();
+			EnvironmentalSignal signal = readSignal(in);
+			double kBindSignal = in.getDouble();
+			double kUnbindSignal = in.getDouble();
+			activators.add((Activator) BioPartDatabase.canonical(
+					new Activator(name, this, kDeg, p1, p2, kBind, kUnbind,
+							kTranscription, signal, kBindSignal, kUnbindSignal)));
+		}
+
+		n = in.getInt();
+		List<ProteinCoding> allPC = new ArrayList<ProteinCoding>(n);
+		for(int i = 0; i < n; i++) {
+			String name = readString(in);
+			Protein protein = readProtein(in);
+			double kDegMrna = in.getDouble();
+			allPC.add((ProteinCoding) BioPartDatabase.canonical(
+					new ProteinCoding(name, this, protein, kDegMrna)));
+		}
+
+		n = in.getInt();
+		List<RBS> allRBS = new ArrayList<RBS>(n);
+		for(int i = 0; i < n; i++) {
+			String name = readString(in);
+			double kTranslation = in.getDouble();
+			allRBS.add((RBS) BioPartDatabase.canonical(new RBS(name, this, kTranslation)));
+		}
+
+		n = in.getInt();
+		List<Terminator> allTerminators = new ArrayList<Terminator>(n);
+		for(int i = 0; i < n; i++) {
+			String name = readString(in);
+			allTerminators.add((Terminator) BioPartDatabase.canonical(new Terminator(name, this)));
+		}
+
+		int numLibraries = in.getInt();
+		List<List<Promoter>> allPromoters = new ArrayList<List<Promoter>>(numLibraries);
+		for(int lib = 0; lib < numLibraries; lib++) {
+			n = in.getInt();
+			List<Promoter> library = new ArrayList<Promoter>(n);
+			for(int i = 0; i < n; i++) {
+				String name = readString(in);
+				double kTranscription = in.getDouble();
+				int numOperators = in.getInt();
+				List<Operator> operators = new ArrayList<Operator>(numOperators);
+				for(int o = 0; o < numOperators; o++) {
+					TF tf = (TF) readProtein(in);
+					double kBind = in.getDouble();
+					double kUnbind = in.getDouble();
+					operators.add(new Operator(kBind, kUnbind, tf));
+				}
+				library.add((Promoter) BioPartDatabase.canonical(
+						new Promoter(name, this, operators, kTranscription)));
+			}
+			allPromoters.add(library);
+		}
+
+		System.out.println("\n- Loaded bioparts database snapshot.");
+		return new BioPartDatabase(allPromoters, allRBS, allPC, allTerminators,
+				inhibitors, activators);
+	}
+
+	private String readString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getShort() & 0xffff];
+		in.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	private Protein readProtein(ByteBuffer in) {
+		byte type = in.get();
+		int i = in.getInt();
+		switch(type) {
+			case INHIBITOR: return inhibitors.get(i);
+			case ACTIVATOR: return activators.get(i);
+			case TF_SUB: return tfSubs.get(i);
+			case REPORTER: return reporters.get(i);
+			default: return null;
+		}
+	}
+
+	private EnvironmentalSignal readSignal(ByteBuffer in) {
+		int i = in.getInt();
+		return i < 0 ? null : signals.get(i);
+	}
+
+	/* ***** writing ***** */
+
+	private void write(BioPartDatabase database, DataOutputStream out) throws IOException {
+
+		// pool parts, in the order of the xml files
+		for(String name : EnvironmentalSignal.emptyInstance().getAllNames()) {
+			signals.add(BioPartDatabase.environmentalSignal(name));
+		}
+		for(String name : TFSub.emptyInstance().getAllNames()) {
+			addTFSub(BioPartDatabase.tfSub(name));
+		}
+		for(String name : Reporter.emptyInstance().getAllNames()) {
+			reporters.add(BioPartDatabase.reporter(name));
+		}
+		for(String name : Inhibitor.emptyInstance().getAllNames()) {
+			inhibitors.add(BioPartDatabase.inhibitor(name));
+		}
+		for(String name : Activator.emptyInstance().getAllNames()) {
+			activators.add(BioPartDatabase.activator(name));
+		}
+		indexAll(signals);
+		indexAll(tfSubs);
+		indexAll(reporters);
+		indexAll(inhibitors);
+		indexAll(activators);
+
+		out.writeInt(signals.size());
+		for(EnvironmentalSignal signal : signals) {
+			writeString(out, signal.getName());
+			out.writeByte(signal.getInhibitor() ? 1 : 0);
+		}
+
+		out.writeInt(tfSubs.size());
+		for(TFSub tfSub : tfSubs) {
+			writeString(out, tfSub.getName());
+			out.writeDouble(tfSub.getKDegProtein());
+			writeProtein(out, tfSub.getP1());
+			writeProtein(out, tfSub.getP2());
+			out.writeDouble(tfSub.getKBindProtein());
+			out.writeDouble(tfSub.getKUnbindProtein());
+		}
+
+		out.writeInt(reporters.size());
+		for(Reporter reporter : reporters) {
+			writeString(out, reporter.getName());
+			out.writeDouble(reporter.getKDegProtein());
+		}
+
+		out.writeInt(inhibitors.size());
+		for(Inhibitor inhibitor : inhibitors) {
+			writeTF(out, inhibitor);
+			writeSignal(out, inhibitor);
+		}
+
+		out.writeInt(activators.size());
+		for(Activator activator : activators) {
+			writeTF(out, activator);
+			out.writeDouble(activator.getKTranscription());
+			writeSignal(out, activator);
+		}
+
+		// parts, in the order in which they are in the database
+		out.writeInt(database.getAllPC().size());
+		for(ProteinCoding pc : database.getAllPC()) {
+			writeString(out, pc.getName());
+			writeProtein(out, pc.getProtein());
+			out.writeDouble(pc.getKDegMrna());
+		}
+
+		out.writeInt(database.getAllRBS().size());
+		for(RBS rbs : database.getAllRBS()) {
+			writeString(out, rbs.getName());
+			out.writeDouble(rbs.getKTranslation());
+		}
+
+		out.writeInt(database.getAllTerminators().size());
+		for(Terminator t : database.getAllTerminators()) {
+			writeString(out, t.getName());
+		}
+
+		out.writeInt(database.getAllPromoters().size());
+		for(List<Promoter> library : database.getAllPromoters()) {
+			out.writeInt(library.size());
+			for(Promoter pm : library) {
+				writeString(out, pm.getName());
+				out.writeDouble(pm.getKTranscription());
+				out.writeInt(pm.getOperators().size());
+				for(Operator operator : pm.getOperators()) {
+					writeProtein(out, operator.getTF());
+					out.writeDouble(operator.getKBindTF());
+					out.writeDouble(operator.getKUnbindTF());
+				}
+			}
+		}
+	}
+
+	// recursive, sub proteins are added after the ones they consist of
+	private void addTFSub(TFSub tfSub) {
+		if(tfSubs.contains(tfSub)) {
+			return;
+		}
+		if(tfSub.getP1() instanceof TFSub) {
+			addTFSub((TFSub) tfSub.getP1());
+		}
+		if(tfSub.getP2() instanceof TFSub) {
+			addTFSub((TFSub) tfSub.getP2());
+		}
+		tfSubs.add(tfSub);
+	}
+
+	private void indexAll(List<? extends AbstractDatabaseItem> items) {
+		for(int i = 0; i < items.size(); i++) {
+			index.put(items.get(i), i);
+		}
+	}
+
+	private void writeTF(DataOutputStream out, TF tf) throws IOException {
+		writeString(out, tf.getName());
+		out.writeDouble(tf.getKDegProtein());
+		writeProtein(out, tf.getP1());
+		writeProtein(out, tf.getP2());
+		out.writeDouble(tf.getKBindProtein());
+		out.writeDouble(tf.getKUnbindProtein());
+	}
+
+	private void writeSignal(DataOutputStream out, TF tf) throws IOException {
+		EnvironmentalSignal signal = tf.getSmallMolecule();
+		if(signal == null) {
+			out.writeInt(-1);
+		}
+		else {
+			out.writeInt(indexOf(signal));
+		}
+		out.writeDouble(tf.getKBindSignal());
+		out.writeDouble(tf.getKUnbindSignal());
+	}
+
+	private void writeProtein(DataOutputStream out, Protein protein) throws IOException {
+		if(protein == null) {
+			out.writeByte(NONE);
+			out.writeInt(-1);
+			return;
+		}
+		if(protein instanceof Inhibitor) {
+			out.writeByte(INHIBITOR);
+		}
+		else if(protein instanceof Activator) {
+			out.writeByte(ACTIVATOR);
+		}
+		else if(protein instanceof TFSub) {
+			out.writeByte(TF_SUB);
+		}
+		else if(protein instanceof Reporter) {
+			out.writeByte(REPORTER);
+		}
+		else {
+			throw new IOException("Unknown protein type: " + protein.getName());
+		}
+		out.writeInt(indexOf(protein));
+	}
+
+	private int indexOf(AbstractDatabaseItem item) throws IOException {
+		Integer i = index.get(item);
+		if(i == null) {
+			throw new IOException("Part is not in the database: " + item.getName());
+		}
+		return i;
+	}
+
+	private void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(UTF8);
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+}
@@ -74,7 +74,7 @@ public class Device extends AbstractDatabaseItem {
 		List list = document.getRootElement().getChildren("small_molecule");
 		for(Object o : list) {
 			Element element = (Element)o;
-			environmentalSignals.add(new EnvironmentalSignal(element.getAttributeValue("name")));
+			environmentalSignals.add(BioPartDatabase.environmentalSignal(element.getAttributeValue("name")));
 		}
 	}
 	
@@ -107,10 +107,10 @@ public class Device extends AbstractDatabaseItem {
 	}
 
 	private void addProteinGenerator(Element pg) {
-		Promoter promoter = new Promoter(pg.getChildTextTrim("promoter"));
-		RBS rbs = new RBS(pg.getChildTextTrim("rbs"));
-		ProteinCoding pc = new ProteinCoding(pg.getChildTextTrim("protein_coding"));
-		Terminator ter = new Terminator(pg.getChildTextTrim("terminator"));
+		Promoter promoter = BioPartDatabase.promoter(pg.getChildTextTrim("promoter"));
+		RBS rbs = BioPartDatabase.rbs(pg.getChildTextTrim("rbs"));
+		ProteinCoding pc = BioPartDatabase.proteinCoding(pg.getChildTextTrim("protein_coding"));
+		Terminator ter = BioPartDatabase.terminator(pg.getChildTextTrim("terminator"));
 		proteinGenerators.add(new ProteinGenerator(promoter, rbs, pc, ter));
 	}
 	
@@ -494,7 +494,7 @@ public class Device extends AbstractDatabaseItem {
 		String essString = s.substring(startIndex+1, endIndex);
 		String[] esStrings = essString.split(",");
 		for(String esString : esStrings) {
-			ess.add(new EnvironmentalSignal(esString.trim()));
+			ess.add(BioPartDatabase.environmentalSignal(esString.trim()));
 		}
 		
 		return new Device(deviceName, pgs, ess);
@@ -0,0 +1,144 @@
+package bd.biopart;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jdom.output.Format;
+import org.jdom.output.XMLOutputter;
+
+/**
+ * A fingerprint of the structure of a device. Parts are equal when their
+ * names are equal, and all devices of a template have the same name, so
+ * devices can not be compared by their objects. The canonical form of a
+ * device describes each protein generator by the data of its parts as they
+ * are stored in the database (the xml document with the kinetic constants),
+ * together with the parts that they refer to: the transcription factors that
+ * bind the operators of the promoter, the protein of the protein coding, the
+ * subunits of proteins and the signals of transcription factors. Two devices
+ * with the same canonical form give the same model.
+ *
+ * The canonical forms of the parts are kept, the parts should not change
+ * while a fingerprint is used.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class DeviceFingerprint {
+
+	// canonical form by class and part name
+	private Map<String, String> parts = new ConcurrentHashMap<String, String>();
+
+	/**
+	 * @param device
+	 * @return The canonical form of the device, its protein generators in
+	 * order and its signals sorted by name.
+	 */
+	public String canonicalForm(Device device) {
+		StringBuilder result = new StringBuilder();
+		for(ProteinGenerator pg : device.getProteinGenerators()) {
+			result.append("pg(");
+			result.append(canonicalForm(pg.getPromoter())).append(';');
+			result.append(canonicalForm(pg.getRBS())).append(';');
+			result.append(canonicalForm(pg.getProteinCoding())).append(';');
+			result.append(canonicalForm(pg.getTerminator())).append(")\n");
+		}
+		List<String> signals = new ArrayList<String>();
+		for(EnvironmentalSignal es : device.getSignals()) {
+			signals.add(canonicalForm(es));
+		}
+		Collections.sort(signals);
+		result.append("signals(");
+		for(String signal : signals) {
+			result.append(signal).append(';');
+		}
+		result.append(")\n");
+		return result.toString();
+	}
+
+	/**
+	 * @param item A part, protein or signal, or null.
+	 * @return The canonical form of the item and the parts that it refers to.
+	 */
+	public String canonicalForm(DatabaseItem item) {
+		if(item == null) {
+			return "-";
+		}
+		String key = item.getClass().getName() + ":" + item.getName();
+		String form = parts.get(key);
+		if(form == null) {
+			StringBuilder result = new StringBuilder();
+			result.append(item.getClass().getSimpleName()).append('{');
+			if(item instanceof AbstractDatabaseItem) {
+				// an outputter is not thread safe
+				XMLOutputter outputter = new XMLOutputter(Format.getCompactFormat().setLineSeparator(""));
+				result.append(outputter.outputString(((AbstractDatabaseItem) item).getDocument().getRootElement()));
+			}
+			else {
+				result.append(item.getName());
+			}
+			if(item instanceof Promoter) {
+				for(Operator operator : ((Promoter) item).getOperators()) {
+					result.append(canonicalForm(operator.getTF()));
+				}
+			}
+			if(item instanceof ProteinCoding) {
+				result.append(canonicalForm(((ProteinCoding) item).getProtein()));
+			}
+			if(item instanceof Protein) {
+				result.append(canonicalForm(((Protein) item).getP1()));
+				result.append(canonicalForm(((Protein) item).getP2()));
+			}
+			if(item instanceof TF) {
+				result.append(canonicalForm(((TF) item).getSmallMolecule()));
+			}
+			result.append('}');
+			form = result.toString();
+			parts.put(key, form);
+		}
+		return form;
+	}
+
+	/**
+	 * @param context Describes what else the result depends on, for example
+	 * the settings of a simulation.
+	 * @param device
+	 * @return The SHA-256 hash of the context and the canonical form of the
+	 * device.
+	 */
+	public byte[] fingerprint(String context, Device device) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(context.getBytes("UTF-8"));
+			digest.update((byte) '\n');
+			digest.update(canonicalForm(device).getBytes("UTF-8"));
+			return digest.digest();
+		}
+		catch(NoSuchAlgorithmException nsae) {
+			// every Java platform has SHA-256
+			throw new RuntimeException(nsae);
+		}
+		catch(UnsupportedEncodingException uee) {
+			// every Java platform has UTF-8
+			throw new RuntimeException(uee);
+		}
+	}
+
+	/**
+	 * @param device
+	 * @return The first 8 bytes of the fingerprint of the device without a
+	 * context, equal for devices with the same canonical form.
+	 */
+	public long hash(Device device) {
+		byte[] fingerprint = fingerprint("", device);
+		long result = 0;
+		for(int i = 0; i < 8; i++) {
+			result = (result << 8) | (fingerprint[i] & 0xFF);
+		}
+		return result;
+	}
+}
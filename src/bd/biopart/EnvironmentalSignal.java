@@ -35,6 +35,17 @@ public class EnvironmentalSignal extends Pool {
 		this.inhibitor = inhibitor;
 	}
 	
+	/**
+	 * Construct an environmental signal with data from a database snapshot.
+	 * @param name
+	 * @param snapshot
+	 * @param inhibitor
+	 */
+	EnvironmentalSignal(String name, BioPartSnapshot snapshot, boolean inhibitor) {
+		super(name, snapshot);
+		this.inhibitor = inhibitor;
+	}
+	
 	/* (non-Javadoc)
 	 * @see gnd.biopart.AbstractDatabaseItem#init(org.jdom.Document)
 	 */
@@ -40,6 +40,28 @@ public class Inhibitor extends TF {
 				k_unbind_smallMolecule);
 	}
 
+	/**
+	 * Construct an inhibitor with data from a database snapshot.
+	 * @param name
+	 * @param snapshot
+	 * @param k_deg_protein
+	 * @param p1
+	 * @param p2
+	 * @param k_bind_protein
+	 * @param k_unbind_protein
+	 * @param environmentalSignal
+	 * @param k_bind_smallMolecule
+	 * @param k_unbind_smallMolecule
+	 */
+	Inhibitor(String name, BioPartSnapshot snapshot, double k_deg_protein, 
+			TFSub p1, TFSub p2, double k_bind_protein, double k_unbind_protein, 
+			EnvironmentalSignal environmentalSignal, double k_bind_smallMolecule, 
+			double k_unbind_smallMolecule) {
+		super(name, snapshot, k_deg_protein, p1, p2, k_bind_protein, 
+				k_unbind_protein, environmentalSignal, k_bind_smallMolecule, 
+				k_unbind_smallMolecule);
+	}
+
 	public static Inhibitor emptyInstance() {
 		return new Inhibitor("",0.0,null,null,0.0,0.0,null,0.0,0.0);
 	}
@@ -52,7 +74,7 @@ public class Inhibitor extends TF {
 		ArrayList<Inhibitor> result = new ArrayList<Inhibitor>();
 		List<String> names = emptyInstance().getAllNames();
 		for(String name : names) {
-			Inhibitor inhibitor = new Inhibitor(name);
+			Inhibitor inhibitor = BioPartDatabase.inhibitor(name);
 			EnvironmentalSignal other = inhibitor.getSmallMolecule();
 			if(other != null && other.equals(environmentalSignal)) {
 				result.add(inhibitor);
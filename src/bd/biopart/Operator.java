@@ -48,10 +48,10 @@ public class Operator {
 		String tfName = element.getChildTextTrim("tf");
 		String type = element.getChild("tf").getAttributeValue("type");
 		if(type.equals("inhibitor")) {
-			tf = new Inhibitor(tfName);
+			tf = BioPartDatabase.inhibitor(tfName);
 		}
 		else if(type.equals("activator")) {
-			tf = new Activator(tfName);
+			tf = BioPartDatabase.activator(tfName);
 		}
 	}
 	
@@ -12,4 +12,12 @@ public abstract class Part extends AbstractDatabaseItem {
 	public Part(String name) {
 		super(name);
 	}
+	
+	/**
+	 * @param name
+	 * @param snapshot
+	 */
+	Part(String name, BioPartSnapshot snapshot) {
+		super(name, snapshot);
+	}
 }
@@ -12,4 +12,12 @@ public abstract class Pool extends AbstractDatabaseItem {
 	public Pool(String name) {
 		super(name);
 	}
+	
+	/**
+	 * @param name
+	 * @param snapshot
+	 */
+	Pool(String name, BioPartSnapshot snapshot) {
+		super(name, snapshot);
+	}
 }
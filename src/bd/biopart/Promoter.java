@@ -1,6 +1,7 @@
 package bd.biopart;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.jdom.Document;
@@ -20,6 +21,13 @@ public class Promoter extends Part {
 	 * 
 	 */
 	private double k_transcription;
+	/**
+	 * The TFs that bind the operators and the regulation pattern, these are 
+	 * derived from the operators once, because they are used for every 
+	 * promoter library lookup.
+	 */
+	private List<TF> tfs;
+	private String regulationPattern;
 	
 	/**
 	 * @param name
@@ -41,9 +49,24 @@ public class Promoter extends Part {
 		else {
 			this.operators = operators;
 			this.k_transcription = k_transcription;
+			initTFs();
 		}
 	}
 	
+	/**
+	 * Constructs a promoter with data from a database snapshot.
+	 * @param name
+	 * @param snapshot
+	 * @param operators
+	 * @param k_transcription
+	 */
+	Promoter(String name, BioPartSnapshot snapshot, List<Operator> operators, double k_transcription) {
+		super(name, snapshot);
+		this.operators = operators;
+		this.k_transcription = k_transcription;
+		initTFs();
+	}
+	
 	/**
 	 * @return
 	 */
@@ -77,24 +100,7 @@ public class Promoter extends Part {
 	 * @return
 	 */
 	public String regulationPattern() {
-		String result = "";
-		List<TF> tfs = new ArrayList<TF>();
-		for(Operator operator : operators) {
-			// to make sure that operators that bind the same tfs get the 
-			// correct pattern. A promoter with two TetR operators should get
-			// the pattern "-" and not "--".
-			if(!tfs.contains(operator.getTF())) {
-				if(operator.getTF() instanceof Activator) {
-					result = "+" + result;
-				}
-				else {
-					assert operator.getTF() instanceof Inhibitor;
-					result += "-";
-				}
-				tfs.add(operator.getTF());
-			}
-		}
-		return result;
+		return regulationPattern;
 	}
 	
 	// only the ones that bind normally on tfs
@@ -136,6 +142,7 @@ public class Promoter extends Part {
 			Element operator = (Element)o;
 			addOperator(operator);
 		}
+		initTFs();
 	}
 	
 	/**
@@ -146,6 +153,39 @@ public class Promoter extends Part {
 		operators.add(operator);
 	}
 	
+	/**
+	 * Derives the bound TFs and the regulation pattern from the operators.
+	 */
+	private void initTFs() {
+		if(operators == null) {
+			return;
+		}
+		List<TF> result = new ArrayList<TF>(operators.size());
+		for(Operator operator : operators) {
+			result.add(operator.getTF());
+		}
+		tfs = Collections.unmodifiableList(result);
+		
+		String pattern = "";
+		List<TF> distinct = new ArrayList<TF>();
+		for(TF tf : tfs) {
+			// to make sure that operators that bind the same tfs get the 
+			// correct pattern. A promoter with two TetR operators should get
+			// the pattern "-" and not "--".
+			if(!distinct.contains(tf)) {
+				if(tf instanceof Activator) {
+					pattern = "+" + pattern;
+				}
+				else {
+					assert tf instanceof Inhibitor;
+					pattern += "-";
+				}
+				distinct.add(tf);
+			}
+		}
+		regulationPattern = pattern;
+	}
+	
 	/**
 	 * @param document
 	 */
@@ -221,14 +261,11 @@ public class Promoter extends Part {
 	}
 	
 	/**
-	 * @return
+	 * @return The TFs that bind the operators, in operator order. The list 
+	 * can not be modified.
 	 */
-	public ArrayList<TF> getTFs() {
-		ArrayList<TF> result = new ArrayList<TF>();
-		for(Operator operator : operators) {
-			result.add(operator.getTF());
-		}
-		return result;
+	public List<TF> getTFs() {
+		return tfs;
 	}
 	
 	/* (non-Javadoc)
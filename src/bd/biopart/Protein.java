@@ -37,6 +37,26 @@ public abstract class Protein extends Pool {
 		super(name);
 	}
 	
+	/**
+	 * Constructs a protein with data from a database snapshot.
+	 * @param name
+	 * @param snapshot
+	 * @param k_deg_protein
+	 * @param p1
+	 * @param p2
+	 * @param k_bind_protein
+	 * @param k_unbind_protein
+	 */
+	Protein(String name, BioPartSnapshot snapshot, double k_deg_protein, 
+			Protein p1, Protein p2, double k_bind_protein, double k_unbind_protein) {
+		super(name, snapshot);
+		this.k_deg_protein = k_deg_protein;
+		this.p1 = p1;
+		this.p2 = p2;
+		this.k_bind_protein = k_bind_protein;
+		this.k_unbind_protein = k_unbind_protein;
+	}
+	
 	/* (non-Javadoc)
 	 * @see gnd.biopart.AbstractDatabaseItem#init(org.jdom.Document)
 	 */
@@ -46,6 +46,19 @@ public class ProteinCoding extends Part {
 		}
 	}
 	
+	/**
+	 * Constructs a protein coding part with data from a database snapshot.
+	 * @param name
+	 * @param snapshot
+	 * @param protein
+	 * @param k_deg_mRNA
+	 */
+	ProteinCoding(String name, BioPartSnapshot snapshot, Protein protein, double k_deg_mRNA) {
+		super(name, snapshot);
+		this.protein = protein;
+		this.k_deg_mrna = k_deg_mRNA;
+	}
+	
 	/* (non-Javadoc)
 	 * @see gnd.biopart.AbstractDatabaseItem#init(org.jdom.Document)
 	 */
@@ -63,16 +76,16 @@ public class ProteinCoding extends Part {
 		String type = proteinElement.getAttributeValue("type");
 		String proteinName = proteinElement.getTextTrim();
 		if(type.equals("inhibitor")) {
-			protein = new Inhibitor(proteinName);
+			protein = BioPartDatabase.inhibitor(proteinName);
 		}
 		else if(type.equals("activator")) {
-			protein = new Activator(proteinName);
+			protein = BioPartDatabase.activator(proteinName);
 		}
 		else if(type.equals("tf_sub")) {
-			protein = new TFSub(proteinName);
+			protein = BioPartDatabase.tfSub(proteinName);
 		}
 		else if(type.equals("reporter")) {
-			protein = new Reporter(proteinName);
+			protein = BioPartDatabase.reporter(proteinName);
 		}
 		else {
 			System.out.println("Wrong protein type in protein coding part: " + name);
@@ -134,7 +147,7 @@ public class ProteinCoding extends Part {
 		}
 		List<String> names = emptyInstance().getAllNames();
 		for(String name : names) {
-			ProteinCoding pc = new ProteinCoding(name);
+			ProteinCoding pc = BioPartDatabase.proteinCoding(name);
 			if(pc.getProtein().equals(protein)) {
 				return pc;
 			}
@@ -39,10 +39,10 @@ public class ProteinGenerator {
 	public static ProteinGenerator fromStringRepresentation(String s) {
 		String pgString = s.substring(1, s.length()-1);
 		String[] partStrings = pgString.split(",");
-		Promoter pm = new Promoter(partStrings[0]);
-		RBS rbs = new RBS(partStrings[1]);
-		ProteinCoding pc = new ProteinCoding(partStrings[2]);
-		Terminator t = new Terminator(partStrings[3]);
+		Promoter pm = BioPartDatabase.promoter(partStrings[0]);
+		RBS rbs = BioPartDatabase.rbs(partStrings[1]);
+		ProteinCoding pc = BioPartDatabase.proteinCoding(partStrings[2]);
+		Terminator t = BioPartDatabase.terminator(partStrings[3]);
 		return new ProteinGenerator(pm, rbs, pc, t);
 	}
 	
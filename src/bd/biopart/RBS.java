@@ -38,6 +38,17 @@ public class RBS extends Part {
 		}
 	}
 	
+	/**
+	 * Constructs a ribosome binding site with data from a database snapshot.
+	 * @param name
+	 * @param snapshot
+	 * @param k_translation
+	 */
+	RBS(String name, BioPartSnapshot snapshot, double k_translation) {
+		super(name, snapshot);
+		this.k_translation = k_translation;
+	}
+	
 	/* (non-Javadoc)
 	 * @see gnd.biopart.AbstractDatabaseItem#init(org.jdom.Document)
 	 */
@@ -82,7 +93,7 @@ public class RBS extends Part {
 		List<String> allNames = RBS.emptyInstance().getAllNames();
 		ArrayList<Part> result = new ArrayList<Part>();
 		for(String name : allNames) {
-			result.add(new RBS(name));
+			result.add(BioPartDatabase.rbs(name));
 		}
 		return result;
 	}
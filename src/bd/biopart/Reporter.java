@@ -38,6 +38,16 @@ public class Reporter extends Protein {
 		}
 	}
 	
+	/**
+	 * Constructs a reporter with data from a database snapshot.
+	 * @param name
+	 * @param snapshot
+	 * @param k_deg_protein
+	 */
+	Reporter(String name, BioPartSnapshot snapshot, double k_deg_protein) {
+		super(name, snapshot, k_deg_protein, null, null, 0.0, 0.0);
+	}
+	
 	/**
 	 * @return
 	 */
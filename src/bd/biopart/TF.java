@@ -51,6 +51,29 @@ public abstract class TF extends Protein {
 		}
 	}
 
+	/**
+	 * Constructs a transcription factor with data from a database snapshot.
+	 * @param name
+	 * @param snapshot
+	 * @param k_deg_protein
+	 * @param p1
+	 * @param p2
+	 * @param k_bind_protein
+	 * @param k_unbind_protein
+	 * @param environmentalSignal
+	 * @param k_bind_smallMolecule
+	 * @param k_unbind_smallMolecule
+	 */
+	TF(String name, BioPartSnapshot snapshot, double k_deg_protein, TFSub p1, 
+			TFSub p2, double k_bind_protein, double k_unbind_protein, 
+			EnvironmentalSignal environmentalSignal, double k_bind_smallMolecule, 
+			double k_unbind_smallMolecule) {
+		super(name, snapshot, k_deg_protein, p1, p2, k_bind_protein, k_unbind_protein);
+		this.environmentalSignal = environmentalSignal;
+		this.k_bind_environmentalSignal = k_bind_smallMolecule;
+		this.k_unbind_environmentalSignal = k_unbind_smallMolecule;
+	}
+
 	/* (non-Javadoc)
 	 * @see gnd.biopart.Protein#init(org.jdom.Document)
 	 */
@@ -66,8 +89,8 @@ public abstract class TF extends Protein {
 	protected void setDimer(Document document) {
 		Element dimer = document.getRootElement().getChild("dimer");
 		if(dimer != null) {
-			p1 = new TFSub(dimer.getChild("p1").getValue());
-			p2 = new TFSub(dimer.getChild("p2").getValue());
+			p1 = BioPartDatabase.tfSub(dimer.getChild("p1").getValue());
+			p2 = BioPartDatabase.tfSub(dimer.getChild("p2").getValue());
 			k_bind_protein = Double.valueOf(dimer.getChild("k_bind_protein").getValue());
 			k_unbind_protein = Double.valueOf(dimer.getChild("k_unbind_protein").getValue());
 		}
@@ -79,7 +102,7 @@ public abstract class TF extends Protein {
 	private void addSmallMolecule(Document document) {
 		Element element = document.getRootElement().getChild("small_molecule");
 		if(element != null) {
-			environmentalSignal = new EnvironmentalSignal(element.getAttributeValue("name"));
+			environmentalSignal = BioPartDatabase.environmentalSignal(element.getAttributeValue("name"));
 			k_bind_environmentalSignal = Double.valueOf(element.getChildTextTrim("k_bind_smallMolecule"));
 			k_unbind_environmentalSignal = Double.valueOf(element.getChildTextTrim("k_unbind_smallMolecule"));
 		}
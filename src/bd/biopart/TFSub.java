@@ -40,6 +40,21 @@ public class TFSub extends Protein {
 		}
 	}
 	
+	/**
+	 * Constructs a subprotein with data from a database snapshot.
+	 * @param name
+	 * @param snapshot
+	 * @param k_deg_protein
+	 * @param p1
+	 * @param p2
+	 * @param k_bind_protein
+	 * @param k_unbind_protein
+	 */
+	TFSub(String name, BioPartSnapshot snapshot, double k_deg_protein, 
+			Protein p1, Protein p2, double k_bind_protein, double k_unbind_protein) {
+		super(name, snapshot, k_deg_protein, p1, p2, k_bind_protein, k_unbind_protein);
+	}
+	
 	/**
 	 * @return
 	 */
@@ -63,8 +78,8 @@ public class TFSub extends Protein {
 	protected void setDimer(Document document) {
 		Element dimer = document.getRootElement().getChild("dimer");
 		if(dimer != null) {
-			p1 = new TFSub(dimer.getChild("p1").getValue());
-			p2 = new TFSub(dimer.getChild("p2").getValue());
+			p1 = BioPartDatabase.tfSub(dimer.getChild("p1").getValue());
+			p2 = BioPartDatabase.tfSub(dimer.getChild("p2").getValue());
 			k_bind_protein = Double.valueOf(dimer.getChild("k_bind_protein").getValue());
 			k_unbind_protein = Double.valueOf(dimer.getChild("k_unbind_protein").getValue());
 		}
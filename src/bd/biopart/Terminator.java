@@ -16,6 +16,15 @@ public class Terminator extends Part {
 		super(name);
 	}
 	
+	/**
+	 * Constructs a terminator that is stored in a database snapshot.
+	 * @param name
+	 * @param snapshot
+	 */
+	Terminator(String name, BioPartSnapshot snapshot) {
+		super(name, snapshot);
+	}
+	
 	/**
 	 * @return
 	 */
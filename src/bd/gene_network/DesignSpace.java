@@ -0,0 +1,410 @@
+package bd.gene_network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+
+import bd.biopart.DatabaseItem;
+import bd.biopart.Device;
+import bd.biopart.EnvironmentalSignal;
+import bd.biopart.Promoter;
+import bd.biopart.ProteinCoding;
+import bd.biopart.ProteinGenerator;
+import bd.biopart.RBS;
+import bd.biopart.Terminator;
+
+/**
+ * All devices of a gene network template, numbered in the order of
+ * GeneNetworkBuilder.getGeneNetworkIterator(), without building them. The
+ * possible wirings are enumerated once, per wiring the promoter library and
+ * protein coding per vertice are kept, and the index of the first device of
+ * the wiring. Within a wiring the index of a device is a mixed radix number
+ * with a digit per vertice (the last vertice changes fastest), a digit is the
+ * index of the promoter in its library times the number of RBSs plus the
+ * index of the RBS.
+ *
+ * This gives any device by its index (unrank) and the index of a device
+ * (rank) without going through the devices before it, so that a sweep can be
+ * split, resumed or sampled at any device.
+ *
+ * A design space can hold one representative wiring of each class of
+ * equivalent wirings (see WiringSymmetry), it then also counts the devices of
+ * the other wirings that it represents.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class DesignSpace {
+
+	private String name;
+	private Set<EnvironmentalSignal> environmentalSignals;
+	private List<RBS> rbss;
+	private Terminator t;
+	private int numVertices;
+
+	// per wiring the possible parts per vertice
+	private List<List<List<Promoter>>> promoters = new ArrayList<List<List<Promoter>>>();
+	private List<ProteinCoding[]> pcs = new ArrayList<ProteinCoding[]>();
+	// per wiring the index of its first device, and the number of devices
+	private long[] start;
+	private long size;
+	// wirings by the names of their protein codings, to rank a device
+	private Map<String, List<Integer>> wiringsByProducts = new HashMap<String, List<Integer>>();
+	// the wirings and devices of the design space and of the equivalent wirings
+	private int numRepresentedWirings;
+	private long numRepresented;
+
+	/**
+	 * Use GeneNetworkBuilder.getDesignSpace().
+	 * @param name The name of the devices.
+	 * @param environmentalSignals The signals of the devices.
+	 * @param rbss The RBSs that can be used for each vertice.
+	 * @param t The terminator of each protein generator.
+	 * @param numVertices The number of vertices of the template.
+	 */
+	DesignSpace(String name, Set<EnvironmentalSignal> environmentalSignals, List<RBS> rbss,
+			Terminator t, int numVertices) {
+		this.name = name;
+		this.environmentalSignals = environmentalSignals;
+		this.rbss = rbss;
+		this.t = t;
+		this.numVertices = numVertices;
+		this.start = new long[16];
+	}
+
+	/**
+	 * Adds the devices of a wiring, after those of the wirings that are added
+	 * before. A wiring without devices is skipped.
+	 * @param promotersPerVertice The promoter library per vertice.
+	 * @param pcsPerVertice The protein coding per vertice.
+	 * @throws ArithmeticException If the number of devices does not fit in a
+	 * long.
+	 */
+	void addWiring(List<List<Promoter>> promotersPerVertice, ProteinCoding[] pcsPerVertice) {
+		long numDevices = numDevices(promotersPerVertice);
+		if(numDevices == 0) {
+			return;
+		}
+		numRepresentedWirings++;
+		numRepresented = Math.addExact(numRepresented, numDevices);
+
+		int wiring = promoters.size();
+		if(wiring == start.length) {
+			start = Arrays.copyOf(start, 2 * start.length);
+		}
+		start[wiring] = size;
+		size = Math.addExact(size, numDevices);
+		promoters.add(promotersPerVertice);
+		pcs.add(pcsPerVertice);
+
+		String key = productsKey(pcsPerVertice);
+		List<Integer> wirings = wiringsByProducts.get(key);
+		if(wirings == null) {
+			wirings = new ArrayList<Integer>(1);
+			wiringsByProducts.put(key, wirings);
+		}
+		wirings.add(wiring);
+	}
+
+	/**
+	 * Counts the devices of a wiring that is equivalent to a wiring of the
+	 * design space, without adding them. A wiring without devices is skipped.
+	 * @param promotersPerVertice The promoter library per vertice.
+	 * @throws ArithmeticException If the number of devices does not fit in a
+	 * long.
+	 */
+	void addEquivalentWiring(List<List<Promoter>> promotersPerVertice) {
+		long numDevices = numDevices(promotersPerVertice);
+		if(numDevices == 0) {
+			return;
+		}
+		numRepresentedWirings++;
+		numRepresented = Math.addExact(numRepresented, numDevices);
+	}
+
+	/**
+	 * @param promotersPerVertice The promoter library per vertice.
+	 * @return The number of devices of a wiring, 0 if a vertice has no 
+	 * promoters.
+	 * @throws ArithmeticException If the number of devices does not fit in a
+	 * long.
+	 */
+	long numDevices(List<List<Promoter>> promotersPerVertice) {
+		long numDevices = 1;
+		for(int i = 0; i < numVertices; i++) {
+			long radix = (long) promotersPerVertice.get(i).size() * rbss.size();
+			numDevices = Math.multiplyExact(numDevices, radix);
+		}
+		return numDevices;
+	}
+
+	/**
+	 * @return The number of devices.
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @return The number of wirings that can be implemented.
+	 */
+	public int getNumWirings() {
+		return promoters.size();
+	}
+
+	/**
+	 * @return The number of devices of the wirings of the design space and of
+	 * the wirings that they represent, size() if all wirings are in the design
+	 * space.
+	 */
+	public long getNumRepresented() {
+		return numRepresented;
+	}
+
+	/**
+	 * @return The number of wirings of the design space and of the wirings
+	 * that they represent, getNumWirings() if all wirings are in the design
+	 * space.
+	 */
+	public int getNumRepresentedWirings() {
+		return numRepresentedWirings;
+	}
+
+	/**
+	 * Builds a device by its index.
+	 * @param index The index of the device, from 0 to size()-1.
+	 * @return The device with this index.
+	 * @throws IndexOutOfBoundsException If there is no device with this index.
+	 */
+	public Device unrank(long index) {
+		if(index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Device " + index + " of " + size + " devices.");
+		}
+		int wiring = wiringOf(index);
+		return build(wiring, digits(wiring, index));
+	}
+
+	/**
+	 * Looks up the index of a device.
+	 * @param device A device of the gene network template.
+	 * @return The index of the device, unrank(rank(device)) gives an equal
+	 * device.
+	 * @throws IllegalArgumentException If the device is not in the design
+	 * space.
+	 */
+	public long rank(Device device) {
+		long index = find(device);
+		if(index < 0) {
+			throw new IllegalArgumentException("The device " + device + " is not in the design space.");
+		}
+		return index;
+	}
+
+	/**
+	 * @param device
+	 * @return True if the device is one of the devices of the template, for
+	 * example after it is changed by a mutation.
+	 */
+	public boolean contains(Device device) {
+		return find(device) >= 0;
+	}
+
+	/**
+	 * @param device
+	 * @return The index of the device, -1 if it is not in the design space.
+	 */
+	private long find(Device device) {
+		List<ProteinGenerator> pgs = device.getProteinGenerators();
+		if(pgs.size() != numVertices) {
+			return -1;
+		}
+		ProteinCoding[] products = new ProteinCoding[numVertices];
+		for(int i = 0; i < numVertices; i++) {
+			products[i] = pgs.get(i).getProteinCoding();
+		}
+		List<Integer> wirings = wiringsByProducts.get(productsKey(products));
+		if(wirings != null) {
+			// the promoters tell the wirings with the same products apart
+			for(int wiring : wirings) {
+				List<List<Promoter>> pms = promoters.get(wiring);
+				long index = 0;
+				for(int i = 0; i < numVertices && index >= 0; i++) {
+					int pm = indexOf(pms.get(i), pgs.get(i).getPromoter());
+					int rbs = indexOf(rbss, pgs.get(i).getRBS());
+					Terminator terminator = pgs.get(i).getTerminator();
+					if(pm < 0 || rbs < 0 || terminator == null || !t.getName().equals(terminator.getName())) {
+						index = -1;
+					}
+					else {
+						index = index * pms.get(i).size() * rbss.size() + pm * rbss.size() + rbs;
+					}
+				}
+				if(index >= 0) {
+					return start[wiring] + index;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param random
+	 * @return A device that is drawn uniformly from all devices.
+	 * @throws NoSuchElementException If there are no devices.
+	 */
+	public Device sample(Random random) {
+		return unrank(randomIndex(random));
+	}
+
+	/**
+	 * @param random
+	 * @return An index that is drawn uniformly from 0 to size()-1.
+	 * @throws NoSuchElementException If there are no devices.
+	 */
+	public long randomIndex(Random random) {
+		if(size == 0) {
+			throw new NoSuchElementException("There are no devices.");
+		}
+		// rejection of the last incomplete range of values, as in Random.nextInt(n)
+		long bits;
+		long index;
+		do {
+			bits = random.nextLong() >>> 1;
+			index = bits % size;
+		} while(bits - index + (size - 1) < 0);
+		return index;
+	}
+
+	/**
+	 * @param first The index of the first device.
+	 * @return An iterator over the devices from the first device on, in the
+	 * same order as GeneNetworkBuilder.getGeneNetworkIterator().
+	 */
+	public Iterator<Device> iterator(long first) {
+		return new RangeIterator(first);
+	}
+
+	/**
+	 * @param index
+	 * @return The wiring of the device with the index.
+	 */
+	private int wiringOf(long index) {
+		int wiring = Arrays.binarySearch(start, 0, promoters.size(), index);
+		// not found: the wiring before the insertion point
+		return wiring >= 0 ? wiring : -wiring - 2;
+	}
+
+	/**
+	 * @param wiring
+	 * @param index The index of a device of the wiring.
+	 * @return The protein generator index per vertice of the device.
+	 */
+	private int[] digits(int wiring, long index) {
+		int[] digits = new int[numVertices];
+		long rest = index - start[wiring];
+		List<List<Promoter>> pms = promoters.get(wiring);
+		for(int i = numVertices - 1; i >= 0; i--) {
+			long radix = (long) pms.get(i).size() * rbss.size();
+			digits[i] = (int) (rest % radix);
+			rest /= radix;
+		}
+		return digits;
+	}
+
+	/**
+	 * @param wiring
+	 * @param digits The protein generator index per vertice.
+	 * @return The device.
+	 */
+	private Device build(int wiring, int[] digits) {
+		List<List<Promoter>> pms = promoters.get(wiring);
+		ProteinCoding[] wiringPcs = pcs.get(wiring);
+		List<ProteinGenerator> pgs = new ArrayList<ProteinGenerator>(numVertices);
+		for(int i = 0; i < numVertices; i++) {
+			Promoter pm = pms.get(i).get(digits[i] / rbss.size());
+			RBS rbs = rbss.get(digits[i] % rbss.size());
+			pgs.add(new ProteinGenerator(pm,rbs,wiringPcs[i],t));
+		}
+		return new Device(name,pgs,environmentalSignals);
+	}
+
+	/**
+	 * Parts are compared by name, a device that is read from a result file
+	 * has other part objects.
+	 */
+	private static <T extends DatabaseItem> int indexOf(List<T> parts, T part) {
+		if(part == null) {
+			return -1;
+		}
+		for(int i = 0; i < parts.size(); i++) {
+			if(parts.get(i).getName().equals(part.getName())) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static String productsKey(ProteinCoding[] products) {
+		StringBuilder key = new StringBuilder();
+		for(ProteinCoding pc : products) {
+			key.append(pc == null ? "" : pc.getName()).append(';');
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Iterates from a device on, with the mixed radix counter of the
+	 * DeviceIterator of the GeneNetworkBuilder.
+	 */
+	private class RangeIterator implements Iterator<Device> {
+
+		private int wiring;
+		private int[] digits;
+		private long index;
+
+		public RangeIterator(long first) {
+			index = first;
+			digits = new int[numVertices];
+			if(first < size) {
+				wiring = wiringOf(first);
+				digits = digits(wiring, first);
+			}
+		}
+
+		public boolean hasNext() {
+			return index < size;
+		}
+
+		public Device next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Device device = build(wiring, digits);
+
+			// increase the counter, go to the next wiring on overflow
+			List<List<Promoter>> pms = promoters.get(wiring);
+			int i = numVertices - 1;
+			while(i >= 0 && digits[i] == pms.get(i).size() * rbss.size() - 1) {
+				digits[i] = 0;
+				i--;
+			}
+			if(i >= 0) {
+				digits[i]++;
+			}
+			else {
+				wiring++;
+			}
+			index++;
+			return device;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -5,14 +5,17 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Set;
 
-import bd.biopart.Activator;
 import bd.biopart.Device;
 import bd.biopart.EnvironmentalSignal;
 import bd.biopart.Inhibitor;
@@ -25,6 +28,7 @@ import bd.biopart.RBS;
 import bd.biopart.Reporter;
 import bd.biopart.TF;
 import bd.biopart.Terminator;
+import bd.gene_network.logic.BooleanAbstraction;
 import bd.gene_network.logic.LogicGeneNetworkSettings;
 import bd.gene_network.template.Edge;
 import bd.gene_network.template.GeneNetworkTemplate;
@@ -51,6 +55,13 @@ public class GeneNetworkBuilder {
 	private Map<String, Reporter> outputMapping;
 	
 	private Map<Edge,List<Protein>> possibleProteinsPerEdge;
+	// by index in the template: per edge the vertices that it regulates, per
+	// vertice its input edges and its regulation pattern
+	private int[][] verticesPerEdge;
+	private int[][] inputsPerVertice;
+	private String[] patterns;
+	// rejects wirings that can not give the binary timing diagram
+	private BooleanAbstraction booleanAbstraction;
 	private Set<EnvironmentalSignal> environmentalSignals;
 	
 	private BioPartDatabase pr;
@@ -95,6 +106,8 @@ public class GeneNetworkBuilder {
 		// calculate and store all possible TFs per edge
 		initPossibleProteinsPerEdge();
 		//System.out.println(possibleProteinsPerEdge.toString());
+		initWiringConstraints();
+		booleanAbstraction = new BooleanAbstraction(geneNetworkSettings);
 		
 		// init the set of small molecules
 		environmentalSignals = new HashSet<EnvironmentalSignal>();
@@ -170,57 +183,125 @@ public class GeneNetworkBuilder {
 	
 	/**
 	 * @return All possible networks for the given template with the available parts
-	 * in the database.
+	 * in the database. All devices are kept in memory, use 
+	 * getGeneNetworkIterator() for large design spaces.
+	 * @throws ArithmeticException If the number of devices does not fit in a
+	 * list.
 	 */
 	public List<Device> getAllGeneNetworks() {
 		
-		List<Device> allDevices = new ArrayList<Device>();
+		DesignSpace space = getDesignSpace();
+		List<Device> allDevices = new ArrayList<Device>(Math.toIntExact(space.size()));
 		
-		// get all possible wirings
-		List<Map<Edge,Protein>> wirings = allPossibleWirings();
-		System.out.println("\nnumber of possible wirings: " + wirings.size());
+		System.out.println("\nnumber of possible wirings: " + space.getNumWirings());
 		
-		// for each of the wirings
-		for(Map<Edge,Protein> wiring : wirings) {
-			// build list of all possible protein generators per vertice
-			List<List<ProteinGenerator>> pgsPerVertice = new ArrayList<List<ProteinGenerator>>();
-			for(Vertice v : geneNetworkTemplate.getVertices()) {
-				List<ProteinGenerator> pgs = new ArrayList<ProteinGenerator>();
-				// get promoter library
-				List<TF> tfs = new ArrayList<TF>();
-				for(Edge input : v.getInput()) {
-					tfs.add((TF)wiring.get(input));
-				}
-				List<Promoter> pms = pr.getPromoterLibrary(tfs);
-				// get protein coding part
-				ProteinCoding pc = ProteinCoding.getProteinCoding(wiring.get(v.getOutput()));
-				// get terminator
-				Terminator t = new Terminator(Terminator.emptyInstance().getAllNames().get(0));
-				// build the list of possible protein generators for this wiring
-				for(Promoter pm : pms) {
-					for(RBS rbs : pr.getAllRBS()) {
-						pgs.add(new ProteinGenerator(pm,rbs,pc,t));
-					}
-				}
-				// add list to list of lists
-				pgsPerVertice.add(pgs);				
-			}			
-			List<List<ProteinGenerator>> result = new ArrayList<List<ProteinGenerator>>();
-			int numVertices = geneNetworkTemplate.getVertices().size();
-			List<ProteinGenerator> current = new ArrayList<ProteinGenerator>(numVertices);
-			for(int i = 0; i < numVertices; i++) {
-				current.add(null);
-			}
-			pgCombinationsRec(pgsPerVertice,current,0,result);
-			for(List<ProteinGenerator> pgList : result) {
-				allDevices.add(new Device(name,pgList,environmentalSignals));
-			}
+		Iterator<Device> iter = space.iterator(0);
+		while(iter.hasNext()) {
+			allDevices.add(iter.next());
 		}
 
 		System.out.println("number of devices: " + allDevices.size());
 		return allDevices;
 	}
 	
+	/**
+	 * Returns an iterator over all possible networks for the given template 
+	 * with the available parts in the database. The devices are built when
+	 * they are requested, one wiring at a time, so the memory use does not 
+	 * depend on the number of possible devices. The devices are returned in 
+	 * the same order as by getAllGeneNetworks().
+	 * @return Iterator over all possible devices.
+	 */
+	public Iterator<Device> getGeneNetworkIterator() {
+		return new DeviceIterator();
+	}
+	
+	/**
+	 * Enumerates the possible wirings once, after that any device can be
+	 * built by its index without building the devices before it.
+	 * @return The devices of getGeneNetworkIterator(), by index.
+	 * @throws ArithmeticException If the number of devices does not fit in a
+	 * long.
+	 */
+	public DesignSpace getDesignSpace() {
+		return getDesignSpace(false);
+	}
+	
+	/**
+	 * Enumerates the possible wirings once, after that any device can be
+	 * built by its index without building the devices before it.
+	 * @param representatives If true, only the first wiring of each class of
+	 * equivalent wirings is in the design space (see WiringSymmetry), the
+	 * other wirings are only counted.
+	 * @return The devices of getGeneNetworkIterator(), or of the representative
+	 * wirings, by index.
+	 * @throws ArithmeticException If the number of devices does not fit in a
+	 * long.
+	 */
+	public DesignSpace getDesignSpace(boolean representatives) {
+		List<Vertice> vertices = geneNetworkTemplate.getVertices();
+		DesignSpace space = new DesignSpace(name, environmentalSignals, pr.getAllRBS(), 
+				pr.getAllTerminators().get(0), vertices.size());
+		WiringSymmetry symmetry = representatives ? new WiringSymmetry(geneNetworkTemplate) : null;
+		Set<String> classes = new HashSet<String>();
+		WiringIterator iter = new WiringIterator();
+		while(iter.hasNext()) {
+			Map<Edge,Protein> wiring = iter.next();
+			List<List<Promoter>> promotersPerVertice = new ArrayList<List<Promoter>>(vertices.size());
+			ProteinCoding[] pcs = new ProteinCoding[vertices.size()];
+			for(int i = 0; i < vertices.size(); i++) {
+				Vertice v = vertices.get(i);
+				promotersPerVertice.add(promoterLibrary(v, wiring));
+				pcs[i] = ProteinCoding.getProteinCoding(wiring.get(v.getOutput()), pr.getAllPC());
+			}
+			if(space.numDevices(promotersPerVertice) == 0) {
+				// a wiring without devices does not represent its class
+				continue;
+			}
+			if(symmetry == null || classes.add(symmetry.canonicalForm(wiring))) {
+				space.addWiring(promotersPerVertice, pcs);
+			}
+			else {
+				space.addEquivalentWiring(promotersPerVertice);
+			}
+		}
+		return space;
+	}
+	
+	/**
+	 * @return The number of possible wirings of the gene network template.
+	 */
+	public long countWirings() {
+		long count = 0;
+		WiringIterator iter = new WiringIterator();
+		while(iter.hasNext()) {
+			iter.next();
+			count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Counts the possible networks without building them. For each wiring the
+	 * number of devices is the product of the number of possible protein 
+	 * generators per vertice.
+	 * @return The number of devices returned by getGeneNetworkIterator().
+	 */
+	public long countGeneNetworks() {
+		long count = 0;
+		int numRBS = pr.getAllRBS().size();
+		WiringIterator iter = new WiringIterator();
+		while(iter.hasNext()) {
+			Map<Edge,Protein> wiring = iter.next();
+			long numDevices = 1;
+			for(Vertice v : geneNetworkTemplate.getVertices()) {
+				numDevices *= promoterLibrary(v, wiring).size() * numRBS;
+			}
+			count += numDevices;
+		}
+		return count;
+	}
+	
 	public List<Device> getVariations(Device basis) {
 		
 		// the list with devices which will be returned as result
@@ -291,102 +372,237 @@ public class GeneNetworkBuilder {
 		return result;
 	}
 	
-	// recursive!!!
-	private void pgCombinationsRec(List<List<ProteinGenerator>> pgsPerVertice, 
-			List<ProteinGenerator> current, int vertice, 
-			List<List<ProteinGenerator>> result) {
-		// stop condition
-		if(vertice == geneNetworkTemplate.getVertices().size()) {
-			List<ProteinGenerator> pgCombi = new ArrayList<ProteinGenerator>();
-			for(int i = 0; i < current.size(); i++) {
-				pgCombi.add(current.get(i));
-			}
-			result.add(pgCombi);
-			return;
+	/**
+	 * @param v A vertice of the gene network template.
+	 * @param wiring The proteins mapped to the edges.
+	 * @return The promoter library that implements the input of the vertice.
+	 */
+	private List<Promoter> promoterLibrary(Vertice v, Map<Edge,Protein> wiring) {
+		List<TF> tfs = new ArrayList<TF>();
+		for(Edge input : v.getInput()) {
+			tfs.add((TF)wiring.get(input));
 		}
-		// list with possible proteins for edge with edgeIndex
-		List<ProteinGenerator> pgs = pgsPerVertice.get(vertice);
-		// iterate over the possible protein generators
-		for(int pgIndex = 0; pgIndex < pgs.size(); pgIndex++) {
-			current.set(vertice, pgs.get(pgIndex));
-			pgCombinationsRec(pgsPerVertice, current, vertice+1, result);
+		List<Promoter> pms = pr.getPromoterLibrary(tfs);
+		if(pms == null) {
+			pms = new ArrayList<Promoter>();
 		}
-		// backtracking step, reset the mapping for the current edge.
-		current.set(vertice, null);
+		return pms;
 	}
 	
 	/**
-	 * A depth first search for all possible wirings of the gene network
-	 * @return
+	 * A depth first search for all possible wirings of the gene network. The 
+	 * search state is kept on an explicit stack, the next wiring is searched 
+	 * when it is requested.
 	 */
-	private List<Map<Edge,Protein>> allPossibleWirings() {
+	private class WiringIterator implements Iterator<Map<Edge,Protein>> {
 		
-		// convert to list of lists
-		int numWires = geneNetworkTemplate.getEdges().size();
-		List<List<Protein>> input = new ArrayList<List<Protein>>();
-		for(int i = 0; i < numWires; i++) {
-			input.add(possibleProteinsPerEdge.get(geneNetworkTemplate.getEdges().get(i)));
+		private List<Edge> edges;
+		private List<List<Protein>> input;
+		// current mapping of proteins to edges
+		private List<Protein> current;
+		// the proteins of the current mapping
+		private Set<Protein> used = new HashSet<Protein>();
+		// per edge the index of the next protein to try
+		private int[] nextProtein;
+		private int edgeIndex;
+		private Map<Edge,Protein> next;
+		
+		public WiringIterator() {
+			// convert to list of lists
+			edges = geneNetworkTemplate.getEdges();
+			input = new ArrayList<List<Protein>>();
+			for(int i = 0; i < edges.size(); i++) {
+				input.add(possibleProteinsPerEdge.get(edges.get(i)));
+			}
+			// init current mapping with all edge mapping to null
+			current = new ArrayList<Protein>(input.size());
+			for(int i = 0; i < input.size(); i++) {
+				current.add(null);
+			}
+			nextProtein = new int[input.size()];
+			edgeIndex = 0;
+			next = search();
 		}
 		
-		// init current mapping with all edge mapping to null
-		List<Protein> current = new ArrayList<Protein>(input.size());
-		for(int i = 0; i < input.size(); i++) {
-			current.add(null);
+		public boolean hasNext() {
+			return next != null;
 		}
 		
-		// init result list of mappings
-		List<List<Protein>> mappings = new ArrayList<List<Protein>>();
+		public Map<Edge,Protein> next() {
+			if(next == null) {
+				throw new NoSuchElementException();
+			}
+			Map<Edge,Protein> result = next;
+			next = search();
+			return result;
+		}
 		
-		// fill the result list
-		allPossibleWiringsRec(input, current, 0, mappings);
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
 		
-		// convert the list to mapping
-		List<Map<Edge,Protein>> possibleWirings = new ArrayList<Map<Edge,Protein>>();
-		for(List<Protein> mapping : mappings) {
-			Map<Edge,Protein> map = new HashMap<Edge,Protein>();
-			for(int i = 0; i < numWires; i++) {
-				map.put(geneNetworkTemplate.getEdges().get(i),mapping.get(i));
+		/**
+		 * Continues the depth first search until the next mapping is found.
+		 * @return The next wiring, null if there are no more wirings.
+		 */
+		private Map<Edge,Protein> search() {
+			while(edgeIndex >= 0) {
+				
+				// bottom of the tree reached, a mapping found
+				if(edgeIndex == input.size()) {
+					Map<Edge,Protein> map = new HashMap<Edge,Protein>();
+					for(int i = 0; i < edges.size(); i++) {
+						map.put(edges.get(i), current.get(i));
+					}
+					// continue with the next protein for the last edge
+					edgeIndex--;
+					// skip the mapping if its logic can not give the timing diagram
+					if(booleanAbstraction.isPossible(map)) {
+						return map;
+					}
+					continue;
+				}
+				
+				// list with possible proteins for edge with edgeIndex
+				List<Protein> proteins = input.get(edgeIndex);
+				
+				// unmap the protein that was tried last
+				if(current.get(edgeIndex) != null) {
+					used.remove(current.get(edgeIndex));
+					current.set(edgeIndex, null);
+				}
+				
+				// iterate over the possible proteins
+				boolean descend = false;
+				while(!descend && nextProtein[edgeIndex] < proteins.size()) {
+					// get current protein
+					Protein protein = proteins.get(nextProtein[edgeIndex]);
+					nextProtein[edgeIndex]++;
+					// if not already used for the mapping (prevent cross talk)
+					if(used.add(protein)) {
+						// map the protein to the edge
+						current.set(edgeIndex, protein);
+						// if the mapping is valid (there are promoters available 
+						// that can implement this mapping) go to the next edge
+						descend = checkEdge(input, current, used, edgeIndex);
+						if(!descend) {
+							used.remove(protein);
+							current.set(edgeIndex, null);
+						}
+					}
+				}
+				
+				if(descend) {
+					edgeIndex++;
+				}
+				else {
+					// backtracking step, reset the mapping for the current edge.
+					nextProtein[edgeIndex] = 0;
+					edgeIndex--;
+				}
 			}
-			possibleWirings.add(map);
+			return null;
 		}
-		return possibleWirings;
 	}
 	
-	// recursive!!!
-	private void allPossibleWiringsRec(List<List<Protein>> input, List<Protein> current, int edgeIndex, List<List<Protein>> mappings) {
+	/**
+	 * Iterates over all devices. Per wiring the possible promoters per vertice
+	 * are looked up, the protein generator combinations are enumerated with a
+	 * mixed radix counter (one digit per vertice, the last vertice changes 
+	 * fastest, per vertice the rbs changes faster than the promoter).
+	 */
+	private class DeviceIterator implements Iterator<Device> {
 		
-		// stop condition, bottom of the tree reached, a mapping found
-		if(edgeIndex == input.size()) {
-			//System.out.println(current.toString());
-			List<Protein> mapping = new ArrayList<Protein>();
-			for(int i = 0; i < current.size(); i++) {
-				mapping.add(current.get(i));
+		private List<Vertice> vertices;
+		private List<RBS> rbss;
+		private Terminator t;
+		private WiringIterator wirings;
+		
+		// possible parts for the current wiring
+		private List<List<Promoter>> promotersPerVertice;
+		private ProteinCoding[] pcs;
+		
+		// protein generator index per vertice and number of possible ones
+		private int[] digits;
+		private int[] radix;
+		private boolean hasNext;
+		
+		public DeviceIterator() {
+			vertices = geneNetworkTemplate.getVertices();
+			rbss = pr.getAllRBS();
+			t = pr.getAllTerminators().get(0);
+			wirings = new WiringIterator();
+			promotersPerVertice = new ArrayList<List<Promoter>>();
+			pcs = new ProteinCoding[vertices.size()];
+			digits = new int[vertices.size()];
+			radix = new int[vertices.size()];
+			hasNext = nextWiring();
+		}
+		
+		public boolean hasNext() {
+			return hasNext;
+		}
+		
+		public Device next() {
+			if(!hasNext) {
+				throw new NoSuchElementException();
+			}
+			
+			// build the protein generators for the current digits
+			List<ProteinGenerator> pgs = new ArrayList<ProteinGenerator>(vertices.size());
+			for(int i = 0; i < vertices.size(); i++) {
+				Promoter pm = promotersPerVertice.get(i).get(digits[i] / rbss.size());
+				RBS rbs = rbss.get(digits[i] % rbss.size());
+				pgs.add(new ProteinGenerator(pm,rbs,pcs[i],t));
+			}
+			Device device = new Device(name,pgs,environmentalSignals);
+			
+			// increase the counter, go to the next wiring on overflow
+			int i = vertices.size() - 1;
+			while(i >= 0 && digits[i] == radix[i] - 1) {
+				digits[i] = 0;
+				i--;
 			}
-			mappings.add(mapping);
-			return;
+			if(i >= 0) {
+				digits[i]++;
+			}
+			else {
+				hasNext = nextWiring();
+			}
+			return device;
 		}
-
-		// list with possible proteins for edge with edgeIndex
-		List<Protein> proteins = input.get(edgeIndex);
 		
-		// iterate over the possible proteins
-		for(int proteinIndex = 0; proteinIndex < proteins.size(); proteinIndex++) {
-			// get current protein
-			Protein protein = input.get(edgeIndex).get(proteinIndex);
-			// if not already used for the mapping (prevent cross talk)
-			if(!current.contains(protein)) {
-				// map the protein to the edge
-				current.set(edgeIndex, protein);
-				// if the mapping is valid (there are promoters available that
-				// can implement this mapping)
-				if(checkMappingList(current)) {
-					// go to the next edge
-					allPossibleWiringsRec(input, current, edgeIndex+1, mappings);
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+		/**
+		 * Looks up the possible parts per vertice for the next wiring that can 
+		 * be implemented.
+		 * @return false if there are no more wirings.
+		 */
+		private boolean nextWiring() {
+			while(wirings.hasNext()) {
+				Map<Edge,Protein> wiring = wirings.next();
+				promotersPerVertice.clear();
+				boolean possible = true;
+				for(int i = 0; i < vertices.size(); i++) {
+					Vertice v = vertices.get(i);
+					List<Promoter> pms = promoterLibrary(v, wiring);
+					promotersPerVertice.add(pms);
+					pcs[i] = ProteinCoding.getProteinCoding(wiring.get(v.getOutput()), pr.getAllPC());
+					digits[i] = 0;
+					radix[i] = pms.size() * rbss.size();
+					if(radix[i] == 0) {
+						possible = false;
+					}
+				}
+				if(possible) {
+					return true;
 				}
 			}
+			return false;
 		}
-		// backtracking step, reset the mapping for the current edge.
-		current.set(edgeIndex, null);
 	}
 	
 	private Map<Edge,Protein> randomWiring() {
@@ -413,7 +629,7 @@ public class GeneNetworkBuilder {
 		}
 		
 		// fill current with first mapping found
-		firstPossibleWiringRec(input, current, 0);
+		firstPossibleWiringRec(input, current, new HashSet<Protein>(), 0);
 		
 		// convert the list to mapping
 		Map<Edge,Protein> map = new HashMap<Edge,Protein>();
@@ -424,11 +640,17 @@ public class GeneNetworkBuilder {
 		return map;
 	}
 	
-	private boolean firstPossibleWiringRec(List<List<Protein>> input, List<Protein> current, int edgeIndex) {
+	private boolean firstPossibleWiringRec(List<List<Protein>> input, List<Protein> current, Set<Protein> used, 
+			int edgeIndex) {
 		
-		// stop condition, bottom of the tree reached, a mapping found
+		// stop condition, bottom of the tree reached, a mapping found if its
+		// logic can give the timing diagram
 		if(edgeIndex == input.size()) {
-			return true;
+			Map<Edge,Protein> map = new HashMap<Edge,Protein>();
+			for(int i = 0; i < current.size(); i++) {
+				map.put(geneNetworkTemplate.getEdges().get(i), current.get(i));
+			}
+			return booleanAbstraction.isPossible(map);
 		}
 
 		// list with possible proteins for edge with edgeIndex
@@ -439,18 +661,19 @@ public class GeneNetworkBuilder {
 			// get current protein
 			Protein protein = input.get(edgeIndex).get(proteinIndex);
 			// if not already used for the mapping (prevent cross talk)
-			if(!current.contains(protein)) {
+			if(used.add(protein)) {
 				// map the protein to the edge
 				current.set(edgeIndex, protein);
 				// if the mapping is valid (there are promoters available that
 				// can implement this mapping)
-				if(checkMappingList(current)) {
+				if(checkEdge(input, current, used, edgeIndex)) {
 					// go to the next edge
-					boolean found = firstPossibleWiringRec(input, current, edgeIndex+1);
+					boolean found = firstPossibleWiringRec(input, current, used, edgeIndex+1);
 					if(found) {
 						return true;
 					}
 				}
+				used.remove(protein);
 			}
 		}
 		// backtracking step, reset the mapping for the current edge.
@@ -494,26 +717,14 @@ public class GeneNetworkBuilder {
 			}
 			// all inhibitor edges
 			else if(edge.getType().equals("-")) {
-				List<String> names = Inhibitor.emptyInstance().getAllNames();
-				for(String name : names) {
-					Inhibitor inhibitor = new Inhibitor(name);
-					// leave out tfs that need to be activated
-					if(!inhibitor.activated()) {
-						proteins.add(inhibitor);
-					}
-				}
+				// copy, the lists are shuffled for random wirings
+				proteins.addAll(pr.getAllActiveInhibitors());
 				possibleProteinsPerEdge.put(edge, proteins);
 			}
 			// all activator edges
 			else if(edge.getType().equals("+")) {
-				List<String> names = Activator.emptyInstance().getAllNames();
-				for(String name : names) {
-					Activator activator = new Activator(name);
-					// leave out tfs that need to be activated
-					if(!activator.activated()) {
-						proteins.add(new Activator(name));
-					}
-				}
+				// copy, the lists are shuffled for random wirings
+				proteins.addAll(pr.getAllActiveActivators());
 				possibleProteinsPerEdge.put(edge, proteins);
 			}
 			else {
@@ -522,30 +733,112 @@ public class GeneNetworkBuilder {
 		}
 	}
 	
-	private boolean checkMappingList(List<Protein> mappingList) {
-		// for each vertice
-		for(Vertice vertice : geneNetworkTemplate.getVertices()) {
+	/**
+	 * Stores per edge the vertices that it regulates, and per vertice its
+	 * input edges and regulation pattern, to check a wiring while it is built.
+	 */
+	private void initWiringConstraints() {
+		List<Edge> edges = geneNetworkTemplate.getEdges();
+		List<Vertice> vertices = geneNetworkTemplate.getVertices();
+		List<List<Integer>> regulated = new ArrayList<List<Integer>>(edges.size());
+		for(int i = 0; i < edges.size(); i++) {
+			regulated.add(new ArrayList<Integer>());
+		}
+		inputsPerVertice = new int[vertices.size()][];
+		patterns = new String[vertices.size()];
+		for(int v = 0; v < vertices.size(); v++) {
+			List<Edge> inputs = vertices.get(v).getInput();
+			inputsPerVertice[v] = new int[inputs.size()];
+			for(int i = 0; i < inputs.size(); i++) {
+				int edgeIndex = edges.indexOf(inputs.get(i));
+				inputsPerVertice[v][i] = edgeIndex;
+				if(!regulated.get(edgeIndex).contains(v)) {
+					regulated.get(edgeIndex).add(v);
+				}
+			}
+			patterns[v] = vertices.get(v).regulationPattern();
+		}
+		verticesPerEdge = new int[edges.size()][];
+		for(int i = 0; i < edges.size(); i++) {
+			verticesPerEdge[i] = new int[regulated.get(i).size()];
+			for(int k = 0; k < verticesPerEdge[i].length; k++) {
+				verticesPerEdge[i][k] = regulated.get(i).get(k);
+			}
+		}
+	}
+	
+	/**
+	 * Checks a partial wiring after a protein is mapped to an edge, the
+	 * vertices that are not regulated by the edge were checked before. Each
+	 * vertice that is regulated by the edge needs a promoter library that 
+	 * binds its mapped transcription factors. Forward checking: each input 
+	 * edge of the vertice that is not mapped yet needs a possible protein 
+	 * that is not used yet and for which there is a promoter library as well,
+	 * otherwise the wiring can not be completed.
+	 * @param input The possible proteins per edge.
+	 * @param mappingList The protein per edge, null if not mapped yet.
+	 * @param used The mapped proteins.
+	 * @param edgeIndex The edge that is mapped last.
+	 * @return False if there is no wiring with this mapping.
+	 */
+	private boolean checkEdge(List<List<Protein>> input, List<Protein> mappingList, Set<Protein> used, 
+			int edgeIndex) {
+		for(int v : verticesPerEdge[edgeIndex]) {
 			// get all TFs that must bind to the promoter
 			List<TF> tfs = new ArrayList<TF>();
-			for(Edge edge : vertice.getInput()) {
-				TF tf = (TF)mappingList.get(geneNetworkTemplate.getEdges().indexOf(edge));
-				//TF tf = (TF)mapping.get(edge);
+			for(int e : inputsPerVertice[v]) {
+				TF tf = (TF)mappingList.get(e);
 				if(tf != null) {
 					tfs.add(tf);
 				}
 			}
-			// get the regulation pattern
-			String pattern = vertice.regulationPattern();
 			// return false if there is no suitable promoter library available
-			if(Promoter.allPromoters(pr.getOnePromoterPerLibrary(), pattern, tfs).isEmpty()) {
+			if(pr.getPromoterLibraries(patterns[v], tfs).isEmpty()) {
 				return false;
 			}
+			for(int e : inputsPerVertice[v]) {
+				if(mappingList.get(e) == null && !canMap(input.get(e), used, patterns[v], tfs)) {
+					return false;
+				}
+			}
 		}
 		return true;
 	}
 	
-	// not used
+	/**
+	 * @return True if one of the proteins is not used and there is a promoter
+	 * library with the pattern that binds it together with the TFs.
+	 */
+	private boolean canMap(List<Protein> proteins, Set<Protein> used, String pattern, List<TF> tfs) {
+		for(Protein protein : proteins) {
+			if(!used.contains(protein)) {
+				tfs.add((TF)protein);
+				boolean possible = !pr.getPromoterLibraries(pattern, tfs).isEmpty();
+				tfs.remove(tfs.size() - 1);
+				if(possible) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Replaces the RBS of a random protein generator by a random RBS.
+	 * @param device The device, its protein generator is changed.
+	 * @return False if the RBS is the same.
+	 */
 	public boolean mutateRBS(Device device) {
+		return mutateRBS(device, rnd);
+	}
+	
+	/**
+	 * Replaces the RBS of a random protein generator by a random RBS.
+	 * @param device The device, its protein generator is changed.
+	 * @param rnd
+	 * @return False if the RBS is the same.
+	 */
+	public boolean mutateRBS(Device device, Random rnd) {
 		// pick a random protein generator
 		ProteinGenerator pg = device.getProteinGenerators().get(rnd.nextInt(device.getNumProteinGenerators()));
 		// store old rbs
@@ -556,8 +849,24 @@ public class GeneNetworkBuilder {
 		return !oldRBS.equals(newRBS);
 	}
 	
-	// not used
+	/**
+	 * Replaces the promoter of a random protein generator by a random promoter
+	 * of the same library, so with the same operators but another strength.
+	 * @param device The device, its protein generator is changed.
+	 * @return False if the promoter is the same.
+	 */
 	public boolean mutatePromoterStrength(Device device) {
+		return mutatePromoterStrength(device, rnd);
+	}
+	
+	/**
+	 * Replaces the promoter of a random protein generator by a random promoter
+	 * of the same library, so with the same operators but another strength.
+	 * @param device The device, its protein generator is changed.
+	 * @param rnd
+	 * @return False if the promoter is the same.
+	 */
+	public boolean mutatePromoterStrength(Device device, Random rnd) {
 		// pich a random protein generator
 		ProteinGenerator pg = device.getProteinGenerators().get(rnd.nextInt(device.getNumProteinGenerators()));
 		// store old promoter
@@ -569,18 +878,53 @@ public class GeneNetworkBuilder {
 		return !oldPromoter.equals(newPromoter);
 	}
 	
-	// not used
+	/**
+	 * Replaces one of the internal transcription factors of the device by
+	 * another one of the same kind (inhibitor or activator) that is not used
+	 * yet: the protein codings that produce it and the promoters that it 
+	 * binds are replaced. The transcription factors of the inputs are never
+	 * replaced, they are fixed by the settings.
+	 * @param device The device, its protein generators are changed.
+	 * @return False if the device is not changed.
+	 */
 	public boolean mutateTF(Device device) {
+		return mutateTF(device, rnd);
+	}
+	
+	/**
+	 * Replaces one of the internal transcription factors of the device, see
+	 * mutateTF(Device).
+	 * @param device The device, its protein generators are changed.
+	 * @param rnd
+	 * @return False if the device is not changed.
+	 */
+	public boolean mutateTF(Device device, Random rnd) {
 		
 		// get the list of protein generators
 		List<ProteinGenerator> pgs = device.getProteinGenerators();
 		
-		// get all used TFs
-		Set<Protein> usedTFs = new HashSet<Protein>();
-		device.getTFMonomers(usedTFs);
+		// get all used TFs, as they bind the promoters (the monomers of a 
+		// dimer TF are not in the wiring)
+		Set<TF> usedTFs = new HashSet<TF>();
+		for(ProteinGenerator pg : pgs) {
+			usedTFs.addAll(pg.getPromoter().getTFs());
+		}
+		
+		// the input TFs can not be replaced, the input signals bind them
+		List<TF> mutableTFs = new ArrayList<TF>(usedTFs);
+		mutableTFs.removeAll(inputMapping.values());
+		if(mutableTFs.isEmpty()) {
+			return false;
+		}
+		// sorted, so that the same random numbers give the same mutation
+		Collections.sort(mutableTFs, new Comparator<TF>() {
+			public int compare(TF tf1, TF tf2) {
+				return tf1.getName().compareTo(tf2.getName());
+			}
+		});
 		
 		// pick a random TF out of the used ones (the one to be mutated)
-		TF oldTF = (TF)usedTFs.toArray()[(rnd.nextInt(usedTFs.size()))];
+		TF oldTF = mutableTFs.get(rnd.nextInt(mutableTFs.size()));
 		
 		// pick a new TF which should replace it
 		TF newTF = null;
@@ -601,7 +945,7 @@ public class GeneNetworkBuilder {
 		// get possible promoter libraries per promoter that binds the TF that 
 		// we want to mutate
 		Map<ProteinGenerator,List<Promoter>> posPmPerPG = 
-			new HashMap<ProteinGenerator,List<Promoter>>();
+			new LinkedHashMap<ProteinGenerator,List<Promoter>>();
 		for(ProteinGenerator pg : pgs) {
 			Promoter pm = pg.getPromoter();
 			String pattern = pm.regulationPattern();
@@ -610,7 +954,7 @@ public class GeneNetworkBuilder {
 				List<TF> newTFs = new ArrayList<TF>(tfs);
 				newTFs.remove(oldTF);
 				newTFs.add(newTF);
-				posPmPerPG.put(pg, Promoter.allPromoters(pr.getOnePromoterPerLibrary(), pattern, newTFs));
+				posPmPerPG.put(pg, pr.getPromoterLibraries(pattern, newTFs));
 			}
 		}
 		
@@ -636,11 +980,11 @@ public class GeneNetworkBuilder {
 		}
 		
 		// have all protein coding parts that produce the old TF to produce 
-		// the new TF
+		// the new TF, they code for the monomer of the TF
+		ProteinCoding oldPC = ProteinCoding.getProteinCoding(oldTF, pr.getAllPC());
 		ProteinCoding newPC = ProteinCoding.getProteinCoding(newTF, pr.getAllPC());
 		for(ProteinGenerator pg : pgs) {
-			ProteinCoding pc = pg.getProteinCoding();
-			if(pc.getProtein().equals(oldTF)) {
+			if(pg.getProteinCoding().equals(oldPC)) {
 				pg.setProteinCoding(newPC);
 			}
 		}
@@ -0,0 +1,176 @@
+package bd.gene_network;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import bd.biopart.Protein;
+import bd.biopart.TF;
+import bd.gene_network.template.Edge;
+import bd.gene_network.template.GeneNetworkTemplate;
+import bd.gene_network.template.Vertice;
+
+/**
+ * Recognizes wirings of a gene network template that are equivalent. Each
+ * transcription factor is used for one edge at most, so a wiring in which
+ * two transcription factors of the same kind are swapped gives devices that
+ * only differ in the parameter values of the parts, which are drawn from the
+ * same ranges for parts of the same kind (see BioPartDatabaseBuilder). The
+ * kind of a transcription factor is its type (inhibitor or activator), its
+ * oligomer number and the signal that it binds. The same holds for wirings
+ * that are mapped onto each other by a symmetry (automorphism) of the
+ * template, a permutation of the vertices that keeps the edges, their types
+ * and the input order of each vertice. The input and output edges are bound
+ * to fixed parts by the settings, a symmetry keeps them in place.
+ *
+ * The canonical form of a wiring is the smallest of the sequences of the
+ * kinds per edge over all symmetries, equivalent wirings have the same
+ * canonical form. The equivalence is statistical, equivalent devices do not
+ * have the same score, but the best devices of equivalent wirings are
+ * equally likely to be good.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class WiringSymmetry {
+
+	private List<Edge> edges;
+	// per symmetry the index of the image of each edge
+	private List<int[]> symmetries = new ArrayList<int[]>();
+
+	/**
+	 * Finds the symmetries of the template.
+	 * @param template
+	 */
+	public WiringSymmetry(GeneNetworkTemplate template) {
+		this.edges = template.getEdges();
+		List<Vertice> vertices = template.getVertices();
+		searchSymmetries(vertices, new int[vertices.size()], new boolean[vertices.size()], 0);
+	}
+
+	/**
+	 * @return The number of symmetries of the template, including the
+	 * identity.
+	 */
+	public int getNumSymmetries() {
+		return symmetries.size();
+	}
+
+	/**
+	 * @param wiring The protein of each edge.
+	 * @return The canonical form of the wiring.
+	 */
+	public String canonicalForm(Map<Edge,Protein> wiring) {
+		String result = null;
+		for(int[] symmetry : symmetries) {
+			StringBuilder form = new StringBuilder();
+			for(int i = 0; i < edges.size(); i++) {
+				Edge edge = edges.get(symmetry[i]);
+				Protein protein = wiring.get(edge);
+				form.append(fixed(edge) ? "=" + protein.getName() : kind(protein)).append(',');
+			}
+			if(result == null || form.toString().compareTo(result) < 0) {
+				result = form.toString();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param protein A transcription factor or reporter.
+	 * @return The kind of the protein, proteins of the same kind can be
+	 * swapped in a wiring.
+	 */
+	public static String kind(Protein protein) {
+		String result = protein.getClass().getSimpleName() + protein.getOligomerNumber();
+		if(protein instanceof TF && ((TF) protein).getSmallMolecule() != null) {
+			result += "+" + ((TF) protein).getSmallMolecule().getName();
+		}
+		return result;
+	}
+
+	/**
+	 * @return True if the protein of the edge is given by the settings, an
+	 * input (regulated by a signal) or an output edge with a reporter.
+	 */
+	private static boolean fixed(Edge edge) {
+		return edge.isRegulatedEdge() || edge.getType() == null || edge.getType().equals("0");
+	}
+
+	/**
+	 * Depth first search for the vertice permutations that are symmetries.
+	 * @param vertices
+	 * @param image The image of each vertice that is assigned.
+	 * @param used The vertices that are the image of an assigned vertice.
+	 * @param index The vertice that is assigned next.
+	 */
+	private void searchSymmetries(List<Vertice> vertices, int[] image, boolean[] used, int index) {
+		if(index == vertices.size()) {
+			int[] edgeImage = edgeImage(vertices, image);
+			if(edgeImage != null) {
+				symmetries.add(edgeImage);
+			}
+			return;
+		}
+		Vertice v = vertices.get(index);
+		for(int w = 0; w < vertices.size(); w++) {
+			Vertice other = vertices.get(w);
+			if(!used[w] && other.getInput().size() == v.getInput().size() &&
+					other.regulationPattern().equals(v.regulationPattern())) {
+				image[index] = w;
+				used[w] = true;
+				searchSymmetries(vertices, image, used, index + 1);
+				used[w] = false;
+			}
+		}
+	}
+
+	/**
+	 * @param vertices
+	 * @param image The image of each vertice.
+	 * @return The index of the image of each edge, null if the vertice
+	 * permutation is not a symmetry.
+	 */
+	private int[] edgeImage(List<Vertice> vertices, int[] image) {
+		int[] result = new int[edges.size()];
+		for(int i = 0; i < edges.size(); i++) {
+			Edge edge = edges.get(i);
+			result[i] = -1;
+			for(int j = 0; j < edges.size() && result[i] < 0; j++) {
+				Edge other = edges.get(j);
+				if(same(edge.getType(), other.getType()) && same(edge.getSignal(), other.getSignal()) &&
+						image(vertices, image, edge.getSrcs()).equals(new HashSet<Vertice>(other.getSrcs())) &&
+						image(vertices, image, edge.getDsts()).equals(new HashSet<Vertice>(other.getDsts()))) {
+					result[i] = j;
+				}
+			}
+			if(result[i] < 0 || (fixed(edge) && result[i] != i)) {
+				return null;
+			}
+		}
+		// the inputs of a vertice stay in the same order
+		for(int i = 0; i < vertices.size(); i++) {
+			List<Edge> input = vertices.get(i).getInput();
+			List<Edge> imageInput = vertices.get(image[i]).getInput();
+			for(int k = 0; k < input.size(); k++) {
+				if(result[edges.indexOf(input.get(k))] != edges.indexOf(imageInput.get(k))) {
+					return null;
+				}
+			}
+		}
+		return result;
+	}
+
+	private static Set<Vertice> image(List<Vertice> vertices, int[] image, List<Vertice> vs) {
+		Set<Vertice> result = new HashSet<Vertice>();
+		for(Vertice v : vs) {
+			result.add(vertices.get(image[vertices.indexOf(v)]));
+		}
+		return result;
+	}
+
+	private static boolean same(String s1, String s2) {
+		return s1 == null ? s2 == null : s1.equals(s2);
+	}
+}
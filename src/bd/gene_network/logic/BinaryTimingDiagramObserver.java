@@ -14,17 +14,17 @@ import fern.simulation.observer.Observer;
  */
 public class BinaryTimingDiagramObserver extends Observer {
 
-	// fixed...
+	// fixed... (also used by the EnsembleDeviceSimulator)
 	// low concentration molecule count input environmental signal
-	private final int lowInput = 0;
+	static final int lowInput = 0;
 	// high concentration molecule count input environmental signal
-	private final int highInput = 100;
+	static final int highInput = 100;
 	// when signal is set to low, it first drops to this value, before set to zero...
 	// otherwise errors occur...
-	private final int droppedInput = 10;
+	static final int droppedInput = 10;
 	// for the initialization of the system
-	private final int lowOutput = 0;
-	private final int highOutput = 10;
+	static final int lowOutput = 0;
+	static final int highOutput = 10;
 	
 	//*** user input ***/
 	// 
@@ -43,6 +43,12 @@ public class BinaryTimingDiagramObserver extends Observer {
 	
 	private int state;
 	
+	// optional, checks if the simulation can be stopped at each state change
+	private EarlyStop earlyStop;
+	
+	// the number of reactions that fired, of all runs
+	private long numReactionEvents;
+	
 	// stateTransition contains two Strings: state before, state after. The length of these strings
 	// are input.size()+output.size(). 0 is low 1 is high
 	public BinaryTimingDiagramObserver(
@@ -60,9 +66,33 @@ public class BinaryTimingDiagramObserver extends Observer {
 		this.simTime = simTime;
 	}
 
+	/**
+	 * Forgets the drained species of previous runs, so that the observer can
+	 * be reused for another device.
+	 */
+	void reset() {
+		drainedSpecies.clear();
+	}
+
+	/**
+	 * @param earlyStop Is told about each state change, null for none.
+	 */
+	void setEarlyStop(EarlyStop earlyStop) {
+		this.earlyStop = earlyStop;
+	}
+
+	/**
+	 * @return The number of reactions that fired since the observer was 
+	 * created, in all runs. The leaps of tau leaping are not counted.
+	 */
+	long getNumReactionEvents() {
+		return numReactionEvents;
+	}
+
 	@Override
 	public void activateReaction(int mu, double tau, FireType fireType,
 			int times) {
+		numReactionEvents += times;
 	}
 
 	@Override
@@ -130,6 +160,10 @@ public class BinaryTimingDiagramObserver extends Observer {
 			
 			// set new Theta
 			setTheta((state + 1) * stateTime);
+			
+			if(earlyStop != null) {
+				earlyStop.stateFinished();
+			}
 		}
 	}
 }
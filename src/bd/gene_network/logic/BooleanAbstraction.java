@@ -0,0 +1,309 @@
+package bd.gene_network.logic;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import bd.biopart.Activator;
+import bd.biopart.Inhibitor;
+import bd.biopart.Protein;
+import bd.biopart.TF;
+import bd.gene_network.template.Edge;
+import bd.gene_network.template.GeneNetworkTemplate;
+import bd.gene_network.template.Vertice;
+
+/**
+ * Checks whether a wiring can implement the binary timing diagram of a logic
+ * gene network at all, before any of its devices is simulated. The wiring is
+ * abstracted to a Boolean network: a protein is present (1) or not (0), and
+ * a transcription factor is active when it is present and, if it binds a
+ * small molecule, the signal is absent (inhibited TF) or present (activated
+ * TF). A vertice is a gate that follows the promoter model (see
+ * Promoter.getKTranscription): it is off when an active inhibitor is bound,
+ * otherwise on if it has no activator operators or an active activator is
+ * bound. Vertices without inputs are always on.
+ *
+ * The states of the timing diagram are simulated in order, starting from the
+ * stable state of the previous state, so latches keep their value. Ternary
+ * simulation is used (the values 0, 1 and X for unknown): first each vertice
+ * that can change becomes X, then the X's that are determined by the new
+ * inputs are resolved. A vertice that ends as X depends on a race or
+ * oscillates, the state before the first state is unknown (all X). A wiring
+ * is rejected when an output is 0 or 1 where the timing diagram has the other
+ * value; an unknown output is never a reason to reject. The first state is
+ * not compared, like in the simulation it only initializes the system.
+ *
+ * The abstraction only depends on the kind of the transcription factor per
+ * edge, so the result is kept per kind of wiring and most wirings are not
+ * simulated.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class BooleanAbstraction {
+
+	private static final char ZERO = '0';
+	private static final char ONE = '1';
+	private static final char UNKNOWN = 'X';
+
+	private List<Edge> edges;
+	private List<Vertice> vertices;
+	// per vertice its input edges, per edge its source vertices, by index
+	private int[][] inputs;
+	private int[][] sources;
+	// output edges and the plots of the timing diagram
+	private Map<String, Edge> outputEdges = new HashMap<String, Edge>();
+	private Map<String, boolean[]> diagram;
+	private int numStates;
+	// the input of which the signal binds the TF, by signal name
+	private Map<String, String> inputBySignal = new HashMap<String, String>();
+
+	// result per kind of wiring
+	private Map<String, Boolean> possible = new HashMap<String, Boolean>();
+
+	/**
+	 * @param settings The template, inputs, outputs and timing diagram.
+	 */
+	public BooleanAbstraction(LogicGeneNetworkSettings settings) {
+		GeneNetworkTemplate template = settings.getGeneNetwork();
+		this.edges = template.getEdges();
+		this.vertices = template.getVertices();
+		this.diagram = settings.getBinaryTimingDiagram();
+		for(boolean[] plot : diagram.values()) {
+			numStates = Math.max(numStates, plot.length);
+		}
+		for(Map.Entry<String, TF> entry : settings.getInput().entrySet()) {
+			if(entry.getValue().getSmallMolecule() != null) {
+				inputBySignal.put(entry.getValue().getSmallMolecule().getName(), entry.getKey());
+			}
+		}
+		for(String id : settings.getOutput().keySet()) {
+			outputEdges.put(id, template.getOutput(id));
+		}
+
+		inputs = new int[vertices.size()][];
+		for(int v = 0; v < vertices.size(); v++) {
+			List<Edge> in = vertices.get(v).getInput();
+			inputs[v] = new int[in.size()];
+			for(int i = 0; i < in.size(); i++) {
+				inputs[v][i] = edges.indexOf(in.get(i));
+			}
+		}
+		sources = new int[edges.size()][];
+		for(int e = 0; e < edges.size(); e++) {
+			List<Vertice> srcs = edges.get(e).getSrcs();
+			sources[e] = new int[srcs == null ? 0 : srcs.size()];
+			for(int i = 0; i < sources[e].length; i++) {
+				sources[e][i] = vertices.indexOf(srcs.get(i));
+			}
+		}
+	}
+
+	/**
+	 * @param wiring The protein of each edge.
+	 * @return False if the Boolean abstraction of the wiring gives an output
+	 * value that differs from the timing diagram.
+	 */
+	public synchronized boolean isPossible(Map<Edge,Protein> wiring) {
+		String key = kind(wiring);
+		Boolean result = possible.get(key);
+		if(result == null) {
+			Map<String, String> outputs = simulate(wiring);
+			result = true;
+			for(Map.Entry<String, String> entry : outputs.entrySet()) {
+				if(!matches(entry.getValue(), diagram.get(entry.getKey()))) {
+					result = false;
+				}
+			}
+			possible.put(key, result);
+			if(!result) {
+				System.out.println("\nWirings are skipped, their Boolean abstraction can not give the " +
+						"binary timing diagram:");
+				for(Map.Entry<String, String> entry : outputs.entrySet()) {
+					System.out.println("  " + entry.getKey() + ": " + entry.getValue() + ", expected " +
+							plot(diagram.get(entry.getKey())));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Simulates the Boolean abstraction of a wiring over the states of the
+	 * timing diagram.
+	 * @param wiring The protein of each edge.
+	 * @return Per output the value in each state, 0, 1 or X.
+	 */
+	public Map<String, String> simulate(Map<Edge,Protein> wiring) {
+		Protein[] proteins = new Protein[edges.size()];
+		for(int e = 0; e < edges.size(); e++) {
+			proteins[e] = wiring.get(edges.get(e));
+		}
+		Map<String, StringBuilder> outputs = new HashMap<String, StringBuilder>();
+		for(String id : outputEdges.keySet()) {
+			outputs.put(id, new StringBuilder());
+		}
+
+		char[] state = new char[vertices.size()];
+		for(int v = 0; v < state.length; v++) {
+			state[v] = UNKNOWN;
+		}
+		for(int s = 0; s < numStates; s++) {
+			char[] edgeValues = new char[edges.size()];
+			// every vertice that can change becomes unknown
+			boolean changed = true;
+			while(changed) {
+				changed = false;
+				edgeValues(proteins, state, s, edgeValues);
+				for(int v = 0; v < state.length; v++) {
+					if(state[v] != UNKNOWN && gate(v, proteins, edgeValues) != state[v]) {
+						state[v] = UNKNOWN;
+						changed = true;
+					}
+				}
+			}
+			// resolve the unknown vertices that are determined
+			changed = true;
+			while(changed) {
+				changed = false;
+				edgeValues(proteins, state, s, edgeValues);
+				for(int v = 0; v < state.length; v++) {
+					char value = gate(v, proteins, edgeValues);
+					if(value != state[v]) {
+						state[v] = value;
+						changed = true;
+					}
+				}
+			}
+			edgeValues(proteins, state, s, edgeValues);
+			for(Map.Entry<String, Edge> entry : outputEdges.entrySet()) {
+				outputs.get(entry.getKey()).append(edgeValues[edges.indexOf(entry.getValue())]);
+			}
+		}
+
+		Map<String, String> result = new HashMap<String, String>();
+		for(Map.Entry<String, StringBuilder> entry : outputs.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().toString());
+		}
+		return result;
+	}
+
+	/**
+	 * @return The kind of the wiring, the kind of the protein of each edge.
+	 */
+	private String kind(Map<Edge,Protein> wiring) {
+		StringBuilder result = new StringBuilder();
+		for(Edge edge : edges) {
+			Protein protein = wiring.get(edge);
+			if(protein instanceof Inhibitor) {
+				result.append('-');
+			}
+			else if(protein instanceof Activator) {
+				result.append('+');
+			}
+			else {
+				result.append('0');
+			}
+			if(protein instanceof TF && ((TF) protein).bindsSmallMolecule()) {
+				TF tf = (TF) protein;
+				result.append(tf.inhibited() ? "i" : "a").append(tf.getSmallMolecule().getName());
+			}
+			result.append(',');
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Derives the value of each edge, whether its protein is present and
+	 * active, from the values of the vertices and the signals in state s.
+	 */
+	private void edgeValues(Protein[] proteins, char[] state, int s, char[] edgeValues) {
+		for(int e = 0; e < edgeValues.length; e++) {
+			// produced by any of its sources
+			char value = ZERO;
+			for(int v : sources[e]) {
+				value = or(value, state[v]);
+			}
+			if(proteins[e] instanceof TF && ((TF) proteins[e]).bindsSmallMolecule()) {
+				TF tf = (TF) proteins[e];
+				char signal = signal(tf.getSmallMolecule().getName(), s);
+				value = and(value, tf.inhibited() ? not(signal) : signal);
+			}
+			edgeValues[e] = value;
+		}
+	}
+
+	/**
+	 * @return The value of the signal in state s, X if it is not in the
+	 * timing diagram.
+	 */
+	private char signal(String name, int s) {
+		String input = inputBySignal.get(name);
+		boolean[] plot = input == null ? null : diagram.get(input);
+		if(plot == null || s >= plot.length) {
+			return UNKNOWN;
+		}
+		return plot[s] ? ONE : ZERO;
+	}
+
+	/**
+	 * @return The value of vertice v: off when an active inhibitor is bound,
+	 * otherwise on without activators or with an active activator.
+	 */
+	private char gate(int v, Protein[] proteins, char[] edgeValues) {
+		char inhibited = ZERO;
+		char activated = ZERO;
+		boolean activators = false;
+		for(int e : inputs[v]) {
+			if(proteins[e] instanceof Activator) {
+				activators = true;
+				activated = or(activated, edgeValues[e]);
+			}
+			else {
+				inhibited = or(inhibited, edgeValues[e]);
+			}
+		}
+		return and(not(inhibited), activators ? activated : ONE);
+	}
+
+	private static boolean matches(String values, boolean[] plot) {
+		if(plot == null) {
+			return true;
+		}
+		// the first state is not scored
+		for(int s = 1; s < values.length() && s < plot.length; s++) {
+			char value = values.charAt(s);
+			if(value != UNKNOWN && (value == ONE) != plot[s]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static String plot(boolean[] plot) {
+		StringBuilder result = new StringBuilder();
+		if(plot != null) {
+			for(boolean b : plot) {
+				result.append(b ? ONE : ZERO);
+			}
+		}
+		return result.toString();
+	}
+
+	private static char not(char a) {
+		return a == UNKNOWN ? UNKNOWN : a == ONE ? ZERO : ONE;
+	}
+
+	private static char or(char a, char b) {
+		if(a == ONE || b == ONE) {
+			return ONE;
+		}
+		return a == UNKNOWN || b == UNKNOWN ? UNKNOWN : ZERO;
+	}
+
+	private static char and(char a, char b) {
+		if(a == ZERO || b == ZERO) {
+			return ZERO;
+		}
+		return a == UNKNOWN || b == UNKNOWN ? UNKNOWN : ONE;
+	}
+}
@@ -0,0 +1,157 @@
+package bd.gene_network.logic;
+
+import cern.jet.stat.Descriptive;
+
+/**
+ * The default score of a logic gene network simulation. For each output the
+ * correlation between the desired and measured output is calculated, together
+ * with the mean of the minimum amount in the low states and the mean of the
+ * maximum amount in the high states. The score is the product of the
+ * correlations times the difference between the (combined) max high and min
+ * low values.
+ *
+ * The means, variances and covariance are updated with each sample (Welford's
+ * method), so the samples do not have to be stored.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class CorrelationScore implements ScoreFunction {
+
+	public static final int RESULTS_PER_OUTPUT = 3;
+	public static final int CORRELATION = 0;
+	public static final int MEAN_MIN_LOW = 1;
+	public static final int MEAN_MAX_HIGH = 2;
+
+	// per output: number of samples, means, and sums of squared deviations
+	private int[] count;
+	private double[] meanDes;
+	private double[] meanMeas;
+	private double[] m2Des;
+	private double[] m2Meas;
+	private double[] coMoment;
+
+	// per output: min or max of the current state, and sums over the states
+	private boolean[] high;
+	private boolean[] inState;
+	private double[] extreme;
+	private double[] sumMinLow;
+	private double[] sumMaxHigh;
+	private int[] countLow;
+	private int[] countHigh;
+
+	/* (non-Javadoc)
+	 * @see bd.gene_network.logic.ScoreFunction#start(int)
+	 */
+	public void start(int numOutputs) {
+		count = new int[numOutputs];
+		meanDes = new double[numOutputs];
+		meanMeas = new double[numOutputs];
+		m2Des = new double[numOutputs];
+		m2Meas = new double[numOutputs];
+		coMoment = new double[numOutputs];
+		high = new boolean[numOutputs];
+		inState = new boolean[numOutputs];
+		extreme = new double[numOutputs];
+		sumMinLow = new double[numOutputs];
+		sumMaxHigh = new double[numOutputs];
+		countLow = new int[numOutputs];
+		countHigh = new int[numOutputs];
+	}
+
+	/* (non-Javadoc)
+	 * @see bd.gene_network.logic.ScoreFunction#state(int, boolean)
+	 */
+	public void state(int output, boolean high) {
+		endState(output);
+		this.high[output] = high;
+		inState[output] = false;
+	}
+
+	/* (non-Javadoc)
+	 * @see bd.gene_network.logic.ScoreFunction#sample(int, double, double)
+	 */
+	public void sample(int output, double desired, double measured) {
+		// correlation
+		count[output]++;
+		int n = count[output];
+		double deltaDes = desired - meanDes[output];
+		meanDes[output] += deltaDes / n;
+		double deltaMeas = measured - meanMeas[output];
+		meanMeas[output] += deltaMeas / n;
+		m2Des[output] += deltaDes * (desired - meanDes[output]);
+		m2Meas[output] += deltaMeas * (measured - meanMeas[output]);
+		coMoment[output] += deltaDes * (measured - meanMeas[output]);
+
+		// min of a low state, max of a high state
+		if(!inState[output]) {
+			extreme[output] = measured;
+			inState[output] = true;
+		}
+		else if(high[output] ? measured > extreme[output] : measured < extreme[output]) {
+			extreme[output] = measured;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see bd.gene_network.logic.ScoreFunction#getResult()
+	 */
+	public double[] getResult() {
+		int numOutputs = count.length;
+
+		// the +1 is for the calculated score
+		double[] result = new double[numOutputs*RESULTS_PER_OUTPUT + 1];
+
+		for(int out = 0; out < numOutputs; out++) {
+			endState(out);
+			// calculate correlation per output
+			int n = count[out];
+			// colt's bias corrected standard deviation, as used for the 
+			// correlation from the start
+			double stdDes = Descriptive.sampleStandardDeviation(n, m2Des[out] / (n-1));
+			double stdMeas = Descriptive.sampleStandardDeviation(n, m2Meas[out] / (n-1));
+			double correlation = (coMoment[out] / (n-1)) / (stdDes * stdMeas);
+			// set correlation to zero when it is negative (to avoid negative times negative is positive later on)
+			if(correlation < 0) {
+				result[out*RESULTS_PER_OUTPUT + CORRELATION] = 0;
+			}
+			else {
+				result[out*RESULTS_PER_OUTPUT + CORRELATION] = correlation;
+			}
+			result[out*RESULTS_PER_OUTPUT + MEAN_MIN_LOW] = sumMinLow[out]/countLow[out];
+			result[out*RESULTS_PER_OUTPUT + MEAN_MAX_HIGH] = sumMaxHigh[out]/countHigh[out];
+		}
+
+		// calculate the score
+		double combinedCorrelation = result[CORRELATION];
+		double combinedMinValue = result[MEAN_MIN_LOW];
+		double combinedMaxValue = result[MEAN_MAX_HIGH];
+		for(int i = 1; i < numOutputs; i++) {
+			int start = i * RESULTS_PER_OUTPUT;
+			combinedCorrelation *= result[start + CORRELATION];
+			combinedMinValue += result[start + MEAN_MIN_LOW];
+			combinedMaxValue *= result[start + MEAN_MAX_HIGH];
+		}
+		double totalScore = combinedCorrelation * (combinedMaxValue-combinedMinValue);
+		result[RESULTS_PER_OUTPUT*numOutputs] = totalScore;
+
+		return result;
+	}
+
+	/**
+	 * Adds the min or max of the current state of an output to the sums.
+	 * @param output
+	 */
+	private void endState(int output) {
+		if(inState[output]) {
+			if(high[output]) {
+				sumMaxHigh[output] += extreme[output];
+				countHigh[output]++;
+			}
+			else {
+				sumMinLow[output] += extreme[output];
+				countLow[output]++;
+			}
+			inState[output] = false;
+		}
+	}
+}
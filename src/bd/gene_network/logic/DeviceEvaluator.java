@@ -0,0 +1,229 @@
+package bd.gene_network.logic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import bd.biopart.Device;
+import bd.gene_network.DesignSpace;
+
+/**
+ * Scores the devices that a search of the design space visits, see
+ * EvolutionaryOptimizer. The devices of a generation are simulated in
+ * parallel on a work stealing pool.
+ *
+ * The seed of a device simulation is derived from the seed of the search and
+ * the fingerprint of the device, the same way as in a sweep (see 
+ * ParallelSweep), so a device gets the same score as in a sweep with the 
+ * same seed. The scores are kept by device index, a device that is
+ * visited again is not simulated again.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class DeviceEvaluator {
+
+	private LogicGeneNetworkSettings settings;
+	private DesignSpace space;
+	private long seed;
+	private double prescreen = Double.NEGATIVE_INFINITY;
+	private ForkJoinPool pool;
+
+	// scores by device index
+	private Map<Long, double[]> scores = new HashMap<Long, double[]>();
+	private ResultWriter writer;
+	private ScoreCache cache;
+	private long numEvaluations;
+
+	/**
+	 * @param settings The settings of the logic gene network.
+	 * @param space The design space of the devices.
+	 * @param numWorkers The number of simulations that run in parallel.
+	 * @param seed The seed from which the device seeds are derived.
+	 */
+	public DeviceEvaluator(LogicGeneNetworkSettings settings, DesignSpace space, int numWorkers, long seed) {
+		if(numWorkers < 1) {
+			throw new IllegalArgumentException("The number of workers should be at least 1.");
+		}
+		this.settings = settings;
+		this.space = space;
+		this.seed = seed;
+		this.pool = new ForkJoinPool(numWorkers);
+	}
+
+	/**
+	 * Devices of which the score of the deterministic (ODE) trajectory is
+	 * below the prescreen score get their ODE score, see
+	 * ParallelSweep.setPrescreen.
+	 * @param prescreen The ODE score that a device should reach,
+	 * Double.NEGATIVE_INFINITY to simulate all devices stochastically.
+	 */
+	public void setPrescreen(double prescreen) {
+		this.prescreen = prescreen;
+	}
+
+	/**
+	 * @param writer The writer to which the score of each device is written
+	 * once, null for none. It is not closed.
+	 */
+	public void setResultWriter(ResultWriter writer) {
+		this.writer = writer;
+	}
+
+	/**
+	 * @param cache The cache in which the scores of devices that were
+	 * simulated before are looked up, and to which new scores are added,
+	 * null for none. It is not closed. See ParallelSweep.setScoreCache.
+	 */
+	public void setScoreCache(ScoreCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Scores a list of devices, the devices that were not scored before are
+	 * simulated in parallel.
+	 * @param devices Devices of the design space.
+	 * @return The score of each device.
+	 * @throws RuntimeException If the simulation of a device failed.
+	 */
+	public double[][] evaluate(List<Device> devices) {
+		long[] indices = new long[devices.size()];
+		List<Long> newIndices = new ArrayList<Long>();
+		List<Device> newDevices = new ArrayList<Device>();
+		List<DeviceTask> callables = new ArrayList<DeviceTask>();
+		List<ForkJoinTask<double[]>> tasks = new ArrayList<ForkJoinTask<double[]>>();
+		for(int i = 0; i < devices.size(); i++) {
+			indices[i] = space.rank(devices.get(i));
+			if(!scores.containsKey(indices[i]) && !newIndices.contains(indices[i])) {
+				newIndices.add(indices[i]);
+				newDevices.add(devices.get(i));
+				DeviceTask task = new DeviceTask(devices.get(i), indices[i]);
+				callables.add(task);
+				tasks.add(pool.submit(task));
+			}
+		}
+
+		try {
+			for(int i = 0; i < tasks.size(); i++) {
+				double[] score = tasks.get(i).get();
+				scores.put(newIndices.get(i), score);
+				if(writer != null) {
+					writer.write(score, newDevices.get(i), callables.get(i).status);
+				}
+			}
+		}
+		catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Evaluation interrupted.", ie);
+		}
+		catch(ExecutionException ee) {
+			throw new RuntimeException("Simulation of a device failed.", ee.getCause());
+		}
+		catch(IOException ioe) {
+			throw new RuntimeException("Writing the score of a device failed.", ioe);
+		}
+		finally {
+			// the other simulations are not needed anymore after an error
+			for(ForkJoinTask<double[]> task : tasks) {
+				task.cancel(false);
+			}
+		}
+
+		double[][] result = new double[devices.size()][];
+		for(int i = 0; i < devices.size(); i++) {
+			result[i] = scores.get(indices[i]);
+		}
+		numEvaluations += devices.size();
+		return result;
+	}
+
+	/**
+	 * @param device A device of the design space.
+	 * @return The score of the device.
+	 * @throws RuntimeException If the simulation of the device failed.
+	 */
+	public double[] evaluate(Device device) {
+		return evaluate(Collections.singletonList(device))[0];
+	}
+
+	/**
+	 * @param score The score of a device.
+	 * @return The total score, Double.NEGATIVE_INFINITY if it is not a number,
+	 * so that a higher fitness is always better.
+	 */
+	public static double fitness(double[] score) {
+		double total = score[score.length-1];
+		return Double.isNaN(total) ? Double.NEGATIVE_INFINITY : total;
+	}
+
+	/**
+	 * @return The number of devices that were scored, including the ones that
+	 * were scored before.
+	 */
+	public long getNumEvaluations() {
+		return numEvaluations;
+	}
+
+	/**
+	 * @return The number of different devices that were simulated.
+	 */
+	public long getNumSimulated() {
+		return scores.size();
+	}
+
+	/**
+	 * Stops the worker threads.
+	 */
+	public void close() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Simulation of one device.
+	 */
+	private class DeviceTask implements Callable<double[]> {
+
+		private Device device;
+		private long index;
+		// how the score was obtained, see ResultWriter
+		private byte status = ResultWriter.SIMULATED;
+
+		public DeviceTask(Device device, long index) {
+			this.device = device;
+			this.index = index;
+		}
+
+		public double[] call() {
+			if(prescreen > Double.NEGATIVE_INFINITY) {
+				double[] score = cache == null ? null : cache.getOde(device);
+				if(score == null) {
+					score = LogicGeneNetworkSimulation.runOde(device, settings);
+					if(cache != null) {
+						cache.putOde(device, score);
+					}
+				}
+				if(!(score[score.length-1] >= prescreen)) {
+					status = ResultWriter.PRESCREENED;
+					return score;
+				}
+			}
+			double[] score = cache == null ? null : cache.get(device, seed);
+			if(score == null) {
+				CorrelationScore scoreFunction = new CorrelationScore();
+				LogicGeneNetworkSimulation.run(device, settings, 
+						ParallelSweep.deviceSeed(seed, device), scoreFunction);
+				score = scoreFunction.getResult();
+				if(cache != null) {
+					cache.put(device, seed, score);
+				}
+			}
+			return score;
+		}
+	}
+}
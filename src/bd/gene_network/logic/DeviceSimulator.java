@@ -0,0 +1,232 @@
+package bd.gene_network.logic;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import fern.network.Network;
+import fern.simulation.Simulator;
+import fern.simulation.observer.AmountIntervalObserver;
+
+import bd.biopart.Device;
+import bd.biopart.EnvironmentalSignal;
+import bd.biopart.Reporter;
+import bd.biopart.TF;
+import bd.model.Model0;
+import bd.model.ModelNetwork;
+import bd.simulation.AmountSampleObserver;
+import bd.simulation.Seedable;
+
+/**
+ * The simulator of a device network together with its observers. Devices
+ * with the same topology (see Model0.topologyKey) have the same species and
+ * reactions, so the simulator of one of them can be reused for the others:
+ * only the rate constants of the network are replaced and the simulator and
+ * observers are reset. This gives the same results as a new simulator.
+ * @author Bastiaan van den Berg
+ *
+ */
+class DeviceSimulator {
+
+	private ModelNetwork net;
+	private Simulator sim;
+	private BinaryTimingDiagramObserver stio;
+	private AmountSampleObserver aso;
+	// only when the simulation is visualized
+	private AmountIntervalObserver vaio;
+
+	// binary timing diagram per output
+	private boolean[][] outputPlots;
+	private int simTime;
+	private int numSamples;
+
+	/**
+	 * Creates the simulator and observers for a network.
+	 * @param net The network of a device.
+	 * @param settings
+	 * @param seed The seed for the random number generator of the simulator.
+	 * @param measurementsPerState The number of samples per state.
+	 */
+	public DeviceSimulator(ModelNetwork net, LogicGeneNetworkSettings settings, int seed,
+			int measurementsPerState) {
+
+		this.net = net;
+
+		// get data from the settings
+		Map<String, TF> input = settings.getInput();
+		Map<String, Reporter> output = settings.getOutput();
+		Map<String, boolean[]> binaryTimingDiagram = settings.getBinaryTimingDiagram();
+		int stateTime = settings.getStateTime();
+
+		// new simulator is needed because not able to remove listeners
+		// create simulator for the network, visualized runs of the ensemble
+		// simulator are simulated one by one
+		sim = settings.getSimulator().create(net, seed);
+
+		// translate TFs to input species int id values
+		Map<String, Integer> intInputMapping = new HashMap<String, Integer>();
+		for(String id : input.keySet()) {
+			TF tf = input.get(id);
+			EnvironmentalSignal sm = tf.getSmallMolecule();
+			intInputMapping.put(id, sim.getNet().getSpeciesByName(sm.getName()));
+		}
+		// translate Reporters to output species int id values
+		Map<String, Integer> intOutputMapping = new HashMap<String, Integer>();
+		for(String id : output.keySet()) {
+			Reporter rep = output.get(id);
+			intOutputMapping.put(id, sim.getNet().getSpeciesByName(rep.getName()));
+		}
+
+		// calculate the number of state transitions
+		int numInputs = input.keySet().size();
+		int numOutputs = output.keySet().size();
+		Object[] plots = binaryTimingDiagram.values().toArray();
+		int numStates = ((boolean[]) plots[0]).length;
+		// calculate the simulation time
+		simTime = numStates * stateTime;
+
+		// make lists of keys to ensure the same ordering...
+		String[] inputKeys = orderedKeys(input.keySet());
+		String[] outputKeys = orderedKeys(output.keySet());
+		// make lists of species numbers with the same ordering...
+		int[] intInput = new int[numInputs];
+		for(int i = 0; i < numInputs; i++) {
+			intInput[i] = intInputMapping.get(inputKeys[i]);
+		}
+		int[] intOutput = new int[numOutputs];
+		for(int i = 0; i < numOutputs; i++) {
+			intOutput[i] = intOutputMapping.get(outputKeys[i]);
+		}
+
+		// calculate the stepsize to use
+		int stepSize = stateTime/measurementsPerState;
+
+		// add input and output observers to simulator
+		stio = new BinaryTimingDiagramObserver(
+				sim,
+				binaryTimingDiagram,
+				intInputMapping,
+				intOutputMapping,
+				stateTime,
+				simTime);
+		sim.addObserver(stio);
+
+		// for visualization, slow...
+		if(settings.isVisual()) {
+			// get the species to track
+			int[] all = new int[numInputs + numOutputs];
+			int j = 0;
+			for(int i = 0; i < numInputs; i++) {
+				all[j] = intInput[i];
+				j++;
+			}
+			for(int i = 0; i < numOutputs; i++) {
+				all[j] = intOutput[i];
+				j++;
+			}
+
+			// add amount interval observer
+			vaio = new AmountIntervalObserver(sim, stepSize, all);
+			//vaio = new AmountIntervalObserver(sim, stepSize, intOutput);
+			sim.addObserver(vaio);
+		}
+
+		// add observer to observe amounts
+		numSamples = numStates * measurementsPerState;
+		aso = new AmountSampleObserver(sim, stepSize, numSamples, intOutput);
+		sim.addObserver(aso);
+
+		// binary timing diagram per output
+		outputPlots = new boolean[numOutputs][];
+		for(int out = 0; out < numOutputs; out++) {
+			outputPlots[out] = binaryTimingDiagram.get(outputKeys[out]);
+		}
+	}
+
+	/**
+	 * @param keys The input or output ids.
+	 * @return The ids in the order in which the species are simulated and 
+	 * scored.
+	 */
+	static String[] orderedKeys(Set<String> keys) {
+		String[] result = new String[keys.size()];
+		int index = result.length-1;
+		for(String key : keys) {
+			result[index] = key;
+			index--;
+		}
+		return result;
+	}
+
+	/**
+	 * Prepares the simulator for another device with the same topology. The
+	 * visualization observer is not reset, so a visualized simulation should
+	 * not be reused.
+	 * @param device A device with the same topology as the network.
+	 * @param seed The seed for the random number generator of the simulator.
+	 */
+	public void reuse(Device device, int seed) {
+		net.setRateConstants(Model0.rateConstants(device));
+		((Seedable)sim).setSeed(seed);
+		stio.reset();
+		stio.setEarlyStop(null);
+		aso.reset();
+	}
+
+	/**
+	 * @return The network.
+	 */
+	public Network getNet() {
+		return net;
+	}
+
+	/**
+	 * @return The simulator.
+	 */
+	public Simulator getSimulator() {
+		return sim;
+	}
+
+	/**
+	 * @return The observer that sets the inputs.
+	 */
+	public BinaryTimingDiagramObserver getBinaryTimingDiagramObserver() {
+		return stio;
+	}
+
+	/**
+	 * @return The observer that samples the outputs.
+	 */
+	public AmountSampleObserver getAmountSampleObserver() {
+		return aso;
+	}
+
+	/**
+	 * @return The observer that samples the inputs and outputs for the
+	 * visualization, null if the simulation is not visualized.
+	 */
+	public AmountIntervalObserver getVisualObserver() {
+		return vaio;
+	}
+
+	/**
+	 * @return The binary timing diagram of each output.
+	 */
+	public boolean[][] getOutputPlots() {
+		return outputPlots;
+	}
+
+	/**
+	 * @return The simulation time of a run.
+	 */
+	public int getSimTime() {
+		return simTime;
+	}
+
+	/**
+	 * @return The number of samples of an output per run.
+	 */
+	public int getNumSamples() {
+		return numSamples;
+	}
+}
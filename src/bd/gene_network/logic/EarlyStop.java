@@ -0,0 +1,152 @@
+package bd.gene_network.logic;
+
+import fern.simulation.Simulator;
+import fern.simulation.controller.SimulationController;
+import bd.simulation.AmountSampleObserver;
+
+/**
+ * Stops the simulation of a device as soon as it is unlikely to reach the 
+ * score cutoff. This is checked after each run and at each state change 
+ * within a run, once the minimal number of runs is done (at least 2).
+ *
+ * The check uses an optimistic estimate of the final score. The runs that are
+ * not done yet are assumed to average to an upper confidence bound of each 
+ * sample: the mean of the finished runs plus CONFIDENCE standard errors in the
+ * high states, and minus CONFIDENCE standard errors (but not below zero) in
+ * the low states. The estimate is the score of the average of the finished
+ * runs, the current run so far, and these optimistic runs. An output that is 
+ * the same in all runs and never changes has an undefined correlation, such a
+ * device is stopped as well.
+ * @author Bastiaan van den Berg
+ *
+ */
+class EarlyStop implements SimulationController {
+
+	// number of standard errors of the upper confidence bound
+	private static final double CONFIDENCE = 3.0;
+
+	private ScoreCutoff cutoff;
+	private AmountSampleObserver observer;
+	// binary timing diagram per output
+	private boolean[][] plots;
+	private int numRuns;
+	private int samplesPerState;
+	private double simTime;
+
+	// number of finished runs, and per output and sample the mean and the 
+	// sum of squared deviations of these runs (Welford's method)
+	private int runs;
+	private double[][] mean;
+	private double[][] m2;
+
+	private boolean stopped;
+	private double[][] estimate;
+	private CorrelationScore score = new CorrelationScore();
+
+	/**
+	 * @param cutoff The score that should be reachable.
+	 * @param observer The observer that samples the amounts of the outputs.
+	 * @param plots The binary timing diagram of each output.
+	 * @param numRuns The number of runs that are averaged.
+	 * @param samplesPerState The number of samples per state.
+	 * @param simTime The simulation time of a run.
+	 */
+	public EarlyStop(ScoreCutoff cutoff, AmountSampleObserver observer,
+			boolean[][] plots, int numRuns, int samplesPerState, double simTime) {
+		this.cutoff = cutoff;
+		this.observer = observer;
+		this.plots = plots;
+		this.numRuns = numRuns;
+		this.samplesPerState = samplesPerState;
+		this.simTime = simTime;
+		int numSamples = plots[0].length * samplesPerState;
+		mean = new double[plots.length][numSamples];
+		m2 = new double[plots.length][numSamples];
+		estimate = new double[plots.length][numSamples];
+	}
+
+	/* (non-Javadoc)
+	 * @see fern.simulation.controller.SimulationController#goOn(fern.simulation.Simulator)
+	 */
+	public boolean goOn(Simulator sim) {
+		return !stopped && sim.getTime() < simTime;
+	}
+
+	/**
+	 * Called by the BinaryTimingDiagramObserver when the state changes.
+	 */
+	public void stateFinished() {
+		check(observer.getNumCurrentSamples());
+	}
+
+	/**
+	 * Called after a run is finished.
+	 */
+	public void runFinished() {
+		runs++;
+		int numCurrent = observer.getNumCurrentSamples();
+		for(int out = 0; out < plots.length; out++) {
+			double[] current = observer.getCurrentSamples(out);
+			for(int j = 0; j < numCurrent; j++) {
+				double delta = current[j] - mean[out][j];
+				mean[out][j] += delta / runs;
+				m2[out][j] += delta * (current[j] - mean[out][j]);
+			}
+		}
+		check(0);
+	}
+
+	/**
+	 * @return True if the simulation is stopped.
+	 */
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * @return The estimated samples per output at the moment the simulation
+	 * was stopped.
+	 */
+	public double[][] getEstimate() {
+		return estimate;
+	}
+
+	/**
+	 * Stops the simulation if the estimated score is below the cutoff.
+	 * @param numCurrent The number of samples of the current run.
+	 */
+	private void check(int numCurrent) {
+		if(runs < Math.max(2, cutoff.getMinRuns()) || runs >= numRuns) {
+			return;
+		}
+		// the runs that are not finished, including the current run
+		int remaining = numRuns - runs;
+		for(int out = 0; out < plots.length; out++) {
+			double[] current = observer.getCurrentSamples(out);
+			for(int j = 0; j < estimate[out].length; j++) {
+				double error = CONFIDENCE * Math.sqrt(m2[out][j] / (runs-1) / remaining);
+				double optimistic;
+				if(plots[out][j / samplesPerState]) {
+					optimistic = mean[out][j] + error;
+				}
+				else {
+					optimistic = Math.max(0, mean[out][j] - error);
+				}
+				double sum = runs * mean[out][j];
+				if(j < numCurrent) {
+					sum += current[j] + (remaining-1) * optimistic;
+				}
+				else {
+					sum += remaining * optimistic;
+				}
+				estimate[out][j] = sum / numRuns;
+			}
+		}
+		LogicGeneNetworkSimulation.score(estimate, plots, samplesPerState, score);
+		double[] result = score.getResult();
+		double total = result[result.length-1];
+		if(Double.isNaN(total) || total < cutoff.getCutoff()) {
+			stopped = true;
+		}
+	}
+}
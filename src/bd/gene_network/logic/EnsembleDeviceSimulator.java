@@ -0,0 +1,155 @@
+package bd.gene_network.logic;
+
+import java.util.Map;
+
+import bd.biopart.Device;
+import bd.biopart.Reporter;
+import bd.biopart.TF;
+import bd.model.Model0;
+import bd.simulation.EnsembleSimulator;
+import fern.network.Network;
+
+/**
+ * Simulates all runs of a device at once with an EnsembleSimulator, instead of
+ * one run after the other with a simulator and observers. The inputs of the
+ * binary timing diagram are set for all runs at each state change, with the
+ * same rules as the BinaryTimingDiagramObserver, and the outputs of all runs
+ * are sampled at the same times as the AmountSampleObserver does.
+ *
+ * Like a DeviceSimulator, it can be reused for devices with the same topology.
+ * @author Bastiaan van den Berg
+ *
+ */
+class EnsembleDeviceSimulator {
+
+	private EnsembleSimulator ensemble;
+
+	// species and binary timing diagram per input and output
+	private int[] inputSpecies;
+	private boolean[][] inputPlots;
+	private int[] outputSpecies;
+	private boolean[][] outputPlots;
+
+	private int stateTime;
+	private int stepSize;
+	private int numSamples;
+
+	/**
+	 * @param net The network of a device.
+	 * @param settings
+	 * @param seed The seed for the random number generators of the runs.
+	 * @param measurementsPerState The number of samples per state.
+	 * @param numRuns The number of runs.
+	 */
+	public EnsembleDeviceSimulator(Network net, LogicGeneNetworkSettings settings, int seed,
+			int measurementsPerState, int numRuns) {
+
+		ensemble = settings.getSimulator().createEnsemble(net, numRuns, seed);
+
+		Map<String, TF> input = settings.getInput();
+		Map<String, Reporter> output = settings.getOutput();
+		Map<String, boolean[]> binaryTimingDiagram = settings.getBinaryTimingDiagram();
+
+		// same ordering as the DeviceSimulator
+		String[] inputKeys = DeviceSimulator.orderedKeys(input.keySet());
+		inputSpecies = new int[inputKeys.length];
+		inputPlots = new boolean[inputKeys.length][];
+		for(int i = 0; i < inputKeys.length; i++) {
+			TF tf = input.get(inputKeys[i]);
+			inputSpecies[i] = net.getSpeciesByName(tf.getSmallMolecule().getName());
+			inputPlots[i] = binaryTimingDiagram.get(inputKeys[i]);
+		}
+		String[] outputKeys = DeviceSimulator.orderedKeys(output.keySet());
+		outputSpecies = new int[outputKeys.length];
+		outputPlots = new boolean[outputKeys.length][];
+		for(int i = 0; i < outputKeys.length; i++) {
+			outputSpecies[i] = net.getSpeciesByName(output.get(outputKeys[i]).getName());
+			outputPlots[i] = binaryTimingDiagram.get(outputKeys[i]);
+		}
+
+		stateTime = settings.getStateTime();
+		stepSize = stateTime/measurementsPerState;
+		numSamples = outputPlots[0].length * measurementsPerState;
+	}
+
+	/**
+	 * Prepares the ensemble for another device with the same topology.
+	 * @param device A device with the same topology as the network.
+	 * @param seed The seed for the random number generators of the runs.
+	 */
+	public void reuse(Device device, int seed) {
+		ensemble.setRateConstants(Model0.rateConstants(device));
+		ensemble.reset(seed);
+	}
+
+	/**
+	 * Simulates all runs.
+	 * @return Per output the samples averaged over all runs.
+	 */
+	public double[][] run() {
+		int numStates = outputPlots[0].length;
+		int numRuns = ensemble.getNumReplicates();
+
+		// initial molecule counts
+		for(int i = 0; i < inputSpecies.length; i++) {
+			ensemble.setAmount(inputSpecies[i], inputPlots[i][0] ?
+					BinaryTimingDiagramObserver.highInput : BinaryTimingDiagramObserver.lowInput);
+		}
+		for(int i = 0; i < outputSpecies.length; i++) {
+			ensemble.setAmount(outputSpecies[i], outputPlots[i][0] ?
+					BinaryTimingDiagramObserver.highOutput : BinaryTimingDiagramObserver.lowOutput);
+		}
+
+		double[][] samples = new double[outputSpecies.length][numSamples];
+		int state = 0;
+		for(int k = 0; k < numSamples; k++) {
+			double time = k * stepSize;
+			// a state change at the time of a sample comes first
+			while(state + 1 < numStates && (state + 1) * stateTime <= time) {
+				state++;
+				ensemble.advance(state * stateTime);
+				setInputs(state);
+			}
+			ensemble.advance(time);
+			for(int out = 0; out < outputSpecies.length; out++) {
+				double sum = 0;
+				for(int r = 0; r < numRuns; r++) {
+					sum += ensemble.getAmount(r, outputSpecies[out]);
+				}
+				samples[out][k] = sum / numRuns;
+			}
+		}
+		return samples;
+	}
+
+	/**
+	 * Sets the inputs of all runs for a new state.
+	 * @param state
+	 */
+	private void setInputs(int state) {
+		for(int r = 0; r < ensemble.getNumReplicates(); r++) {
+			for(int i = 0; i < inputSpecies.length; i++) {
+				int species = inputSpecies[i];
+				int newAmount = inputPlots[i][state] ?
+						BinaryTimingDiagramObserver.highInput : BinaryTimingDiagramObserver.lowInput;
+				int oldAmount = ensemble.getAmount(r, species);
+				if(oldAmount == 0 && newAmount != 0) {
+					// just set the amount to high level
+					ensemble.setAmount(r, species, newAmount);
+					ensemble.setDrained(r, species, false);
+				}
+				else if(oldAmount != 0 && newAmount == 0) {
+					ensemble.setAmount(r, species, BinaryTimingDiagramObserver.droppedInput);
+					ensemble.setDrained(r, species, true);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return The binary timing diagram of each output.
+	 */
+	public boolean[][] getOutputPlots() {
+		return outputPlots;
+	}
+}
@@ -0,0 +1,273 @@
+package bd.gene_network.logic;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import bd.biopart.Device;
+import bd.biopart.ProteinGenerator;
+import bd.gene_network.DesignSpace;
+import bd.gene_network.GeneNetworkBuilder;
+
+/**
+ * A genetic algorithm that searches for good devices in design spaces that
+ * are too large to simulate all devices. The first generation is drawn
+ * uniformly from the design space. Each next generation keeps the best
+ * (elite) devices, the other devices are children of parents that are
+ * chosen by tournament selection. A child is a uniform crossover of the
+ * protein generators of two parents, or a copy of one parent, and it is
+ * mutated with the mutation operators of the GeneNetworkBuilder (RBS,
+ * promoter strength or transcription factor).
+ *
+ * Crossovers of parents with a different wiring and mutations can give
+ * devices that are not in the design space, these are tried again a few
+ * times. The devices of a generation are scored in parallel by a
+ * DeviceEvaluator.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class EvolutionaryOptimizer {
+
+	// number of tries to get a valid device from a crossover or mutation
+	private static final int MAX_TRIES = 10;
+
+	private GeneNetworkBuilder builder;
+	private DesignSpace space;
+	private DeviceEvaluator evaluator;
+	private OptimizerSettings settings;
+	private Random rnd;
+
+	// the best device so far
+	private Device best;
+	private double[] bestScore;
+
+	/**
+	 * @param builder The builder of which the mutation operators are used.
+	 * @param space The design space of the builder.
+	 * @param evaluator Scores the devices.
+	 * @param settings
+	 */
+	public EvolutionaryOptimizer(GeneNetworkBuilder builder, DesignSpace space, DeviceEvaluator evaluator,
+			OptimizerSettings settings) {
+		this.builder = builder;
+		this.space = space;
+		this.evaluator = evaluator;
+		this.settings = settings;
+		this.rnd = new Random(settings.getSeed());
+	}
+
+	/**
+	 * Runs all generations.
+	 * @param statistics The statistics of each generation are written to it
+	 * as CSV, and flushed after each generation.
+	 * @return The best device.
+	 * @throws IOException If the statistics can not be written.
+	 */
+	public Device run(Writer statistics) throws IOException {
+		statistics.write("generation,simulated,best,mean,worst,unique,best_so_far,best_device\n");
+
+		List<Device> population = new ArrayList<Device>();
+		for(int i = 0; i < settings.getPopulationSize(); i++) {
+			population.add(space.sample(rnd));
+		}
+		double[] fitness = evaluate(population);
+		report(0, population, fitness, statistics);
+
+		for(int generation = 1; generation <= settings.getNumGenerations(); generation++) {
+			// the best devices first
+			Integer[] order = rank(fitness);
+			List<Device> next = new ArrayList<Device>(population.size());
+			for(int i = 0; i < settings.getNumElite(); i++) {
+				next.add(population.get(order[i]));
+			}
+			while(next.size() < settings.getPopulationSize()) {
+				next.add(child(population, fitness));
+			}
+			population = next;
+			fitness = evaluate(population);
+			report(generation, population, fitness, statistics);
+		}
+		return best;
+	}
+
+	/**
+	 * @return The best device so far.
+	 */
+	public Device getBest() {
+		return best;
+	}
+
+	/**
+	 * @return The score of the best device so far.
+	 */
+	public double[] getBestScore() {
+		return bestScore;
+	}
+
+	/**
+	 * Scores the devices and keeps the best one.
+	 * @return The fitness of each device.
+	 */
+	private double[] evaluate(List<Device> population) {
+		double[][] scores = evaluator.evaluate(population);
+		double[] fitness = new double[scores.length];
+		for(int i = 0; i < scores.length; i++) {
+			fitness[i] = DeviceEvaluator.fitness(scores[i]);
+			if(best == null || fitness[i] > DeviceEvaluator.fitness(bestScore)) {
+				best = population.get(i);
+				bestScore = scores[i];
+			}
+		}
+		return fitness;
+	}
+
+	/**
+	 * @return The indices of the devices, the best first.
+	 */
+	private Integer[] rank(final double[] fitness) {
+		Integer[] order = new Integer[fitness.length];
+		for(int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i1, Integer i2) {
+				return Double.compare(fitness[i2], fitness[i1]);
+			}
+		});
+		return order;
+	}
+
+	/**
+	 * @return The index of the best of a number of random devices.
+	 */
+	private int tournament(double[] fitness) {
+		int winner = rnd.nextInt(fitness.length);
+		for(int i = 1; i < settings.getTournamentSize(); i++) {
+			int other = rnd.nextInt(fitness.length);
+			if(fitness[other] > fitness[winner]) {
+				winner = other;
+			}
+		}
+		return winner;
+	}
+
+	/**
+	 * @return A new device, from one or two parents of the population.
+	 */
+	private Device child(List<Device> population, double[] fitness) {
+		Device parent = population.get(tournament(fitness));
+		Device child;
+		if(rnd.nextDouble() < settings.getCrossoverRate()) {
+			child = crossover(parent, population.get(tournament(fitness)));
+		}
+		else {
+			child = copy(parent);
+		}
+		if(rnd.nextDouble() < settings.getMutationRate()) {
+			child = mutate(child);
+		}
+		return child;
+	}
+
+	/**
+	 * Uniform crossover, each protein generator is taken from one of the
+	 * parents.
+	 * @return The child, a copy of the first parent if no valid child is found.
+	 */
+	private Device crossover(Device parent1, Device parent2) {
+		List<ProteinGenerator> pgs1 = parent1.getProteinGenerators();
+		List<ProteinGenerator> pgs2 = parent2.getProteinGenerators();
+		for(int tries = 0; tries < MAX_TRIES; tries++) {
+			List<ProteinGenerator> pgs = new ArrayList<ProteinGenerator>(pgs1.size());
+			for(int i = 0; i < pgs1.size(); i++) {
+				pgs.add(copy(rnd.nextBoolean() ? pgs1.get(i) : pgs2.get(i)));
+			}
+			Device child = new Device(parent1.getName(), pgs, parent1.getSignals());
+			if(space.contains(child)) {
+				return child;
+			}
+		}
+		return copy(parent1);
+	}
+
+	/**
+	 * Applies a random mutation operator.
+	 * @return The mutated device, the device itself if no mutation was
+	 * possible.
+	 */
+	private Device mutate(Device device) {
+		for(int tries = 0; tries < MAX_TRIES; tries++) {
+			Device mutant = copy(device);
+			boolean changed;
+			switch(rnd.nextInt(3)) {
+			case 0:
+				changed = builder.mutateRBS(mutant, rnd);
+				break;
+			case 1:
+				changed = builder.mutatePromoterStrength(mutant, rnd);
+				break;
+			default:
+				changed = builder.mutateTF(mutant, rnd);
+			}
+			if(changed && space.contains(mutant)) {
+				return mutant;
+			}
+		}
+		return device;
+	}
+
+	/**
+	 * @return A copy of the device, of which the protein generators can be
+	 * changed without changing the device.
+	 */
+	private static Device copy(Device device) {
+		List<ProteinGenerator> pgs = new ArrayList<ProteinGenerator>();
+		for(ProteinGenerator pg : device.getProteinGenerators()) {
+			pgs.add(copy(pg));
+		}
+		return new Device(device.getName(), pgs, device.getSignals());
+	}
+
+	private static ProteinGenerator copy(ProteinGenerator pg) {
+		return new ProteinGenerator(pg.getPromoter(), pg.getRBS(), pg.getProteinCoding(), pg.getTerminator());
+	}
+
+	/**
+	 * Writes the statistics of a generation.
+	 */
+	private void report(int generation, List<Device> population, double[] fitness, Writer statistics)
+			throws IOException {
+		double max = Double.NEGATIVE_INFINITY;
+		double min = Double.POSITIVE_INFINITY;
+		double sum = 0;
+		int count = 0;
+		Set<Long> unique = new HashSet<Long>();
+		for(int i = 0; i < fitness.length; i++) {
+			max = Math.max(max, fitness[i]);
+			min = Math.min(min, fitness[i]);
+			if(fitness[i] > Double.NEGATIVE_INFINITY) {
+				sum += fitness[i];
+				count++;
+			}
+			unique.add(space.rank(population.get(i)));
+		}
+		double mean = count > 0 ? sum / count : Double.NaN;
+		double bestFitness = DeviceEvaluator.fitness(bestScore);
+
+		statistics.write(generation + "," + evaluator.getNumSimulated() + "," + max + "," + mean + "," +
+				min + "," + unique.size() + "," + bestFitness + ",\"" + best + "\"\n");
+		statistics.flush();
+
+		DecimalFormat df = new DecimalFormat("0.000");
+		System.out.println("Generation " + generation + ": best " + df.format(max) + ", mean " +
+				df.format(mean) + ", " + unique.size() + " different devices, best so far " +
+				df.format(bestFitness) + " (" + evaluator.getNumSimulated() + " devices simulated)");
+	}
+}
@@ -0,0 +1,200 @@
+package bd.gene_network.logic;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import bd.biopart.Device;
+import bd.gene_network.DesignSpace;
+import bd.gene_network.GeneNetworkBuilder;
+
+/**
+ * Local search in the design space, from one device to one of its
+ * neighbours. The neighbours of a device are the variations of the
+ * GeneNetworkBuilder, the devices that differ in the promoter (from the same
+ * library) or the RBS of one protein generator. All neighbours of the current
+ * device are scored in parallel by a DeviceEvaluator, which keeps the scores
+ * of the devices that were visited before, so going back and forth between
+ * devices does not cost new simulations.
+ *
+ * Hill climbing moves to the best neighbour as long as it is better than the
+ * current device, and stops in a local optimum. Simulated annealing looks at
+ * the neighbours in random order and moves to the first one that is accepted:
+ * a better neighbour is always accepted, a worse neighbour with probability
+ * exp(-loss / temperature). The temperature decreases after each step, and
+ * the search stops after the maximal number of steps.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class LocalSearch {
+
+	private GeneNetworkBuilder builder;
+	private DesignSpace space;
+	private DeviceEvaluator evaluator;
+	private OptimizerSettings settings;
+	private Random rnd;
+
+	// the best device so far
+	private Device best;
+	private double[] bestScore;
+
+	/**
+	 * @param builder The builder of which the variations are used.
+	 * @param space The design space of the builder.
+	 * @param evaluator Scores the devices.
+	 * @param settings The method (HILL_CLIMBING or SIMULATED_ANNEALING), the
+	 * number of steps and the temperature.
+	 */
+	public LocalSearch(GeneNetworkBuilder builder, DesignSpace space, DeviceEvaluator evaluator,
+			OptimizerSettings settings) {
+		this.builder = builder;
+		this.space = space;
+		this.evaluator = evaluator;
+		this.settings = settings;
+		this.rnd = new Random(settings.getSeed());
+	}
+
+	/**
+	 * Runs the search.
+	 * @param start The first device, null for a random device.
+	 * @param statistics The statistics of each step are written to it as CSV,
+	 * and flushed after each step.
+	 * @return The best device.
+	 * @throws IllegalArgumentException If the start device is not in the
+	 * design space.
+	 * @throws IOException If the statistics can not be written.
+	 */
+	public Device run(Device start, Writer statistics) throws IOException {
+		boolean annealing = settings.getMethod().equals(OptimizerSettings.SIMULATED_ANNEALING);
+		double temperature = annealing ? settings.getTemperature() : 0;
+
+		// the device of the design space, with the parts of the database
+		Device current = start == null ? space.sample(rnd) : space.unrank(space.rank(start));
+		double[] currentScore = evaluator.evaluate(current);
+		best = current;
+		bestScore = currentScore;
+
+		statistics.write("step,simulated,current,best_so_far,temperature,neighbours,best_device\n");
+		report(0, currentScore, temperature, 0, statistics);
+
+		for(int step = 1; step <= settings.getNumSteps(); step++) {
+			List<Device> neighbours = neighbours(current);
+			if(neighbours.isEmpty()) {
+				break;
+			}
+			double[][] scores = evaluator.evaluate(neighbours);
+			for(int i = 0; i < scores.length; i++) {
+				if(DeviceEvaluator.fitness(scores[i]) > DeviceEvaluator.fitness(bestScore)) {
+					best = neighbours.get(i);
+					bestScore = scores[i];
+				}
+			}
+
+			int next = annealing ? accept(scores, currentScore, temperature) : climb(scores, currentScore);
+			if(next >= 0) {
+				current = neighbours.get(next);
+				currentScore = scores[next];
+			}
+			report(step, currentScore, temperature, neighbours.size(), statistics);
+			if(next < 0 && !annealing) {
+				// local optimum
+				break;
+			}
+			temperature *= settings.getCooling();
+		}
+		return best;
+	}
+
+	/**
+	 * @return The best device so far.
+	 */
+	public Device getBest() {
+		return best;
+	}
+
+	/**
+	 * @return The score of the best device so far.
+	 */
+	public double[] getBestScore() {
+		return bestScore;
+	}
+
+	/**
+	 * @return The different variations of the device that are in the design
+	 * space, without the device itself.
+	 */
+	private List<Device> neighbours(Device device) {
+		Set<Long> indices = new HashSet<Long>();
+		indices.add(space.rank(device));
+		List<Device> neighbours = new ArrayList<Device>();
+		for(Device variation : builder.getVariations(device)) {
+			if(space.contains(variation) && indices.add(space.rank(variation))) {
+				neighbours.add(variation);
+			}
+		}
+		return neighbours;
+	}
+
+	/**
+	 * @return The index of the best neighbour, -1 if it is not better than the
+	 * current device.
+	 */
+	private int climb(double[][] scores, double[] currentScore) {
+		int next = -1;
+		double bestFitness = DeviceEvaluator.fitness(currentScore);
+		for(int i = 0; i < scores.length; i++) {
+			if(DeviceEvaluator.fitness(scores[i]) > bestFitness) {
+				next = i;
+				bestFitness = DeviceEvaluator.fitness(scores[i]);
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * @return The index of the first accepted neighbour in random order, -1 if
+	 * none is accepted.
+	 */
+	private int accept(double[][] scores, double[] currentScore, double temperature) {
+		List<Integer> order = new ArrayList<Integer>(scores.length);
+		for(int i = 0; i < scores.length; i++) {
+			order.add(i);
+		}
+		Collections.shuffle(order, rnd);
+		double currentFitness = DeviceEvaluator.fitness(currentScore);
+		for(int i : order) {
+			double fitness = DeviceEvaluator.fitness(scores[i]);
+			if(fitness >= currentFitness) {
+				return i;
+			}
+			if(rnd.nextDouble() < Math.exp((fitness - currentFitness) / temperature)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Writes the statistics of a step.
+	 */
+	private void report(int step, double[] currentScore, double temperature, int numNeighbours, Writer statistics)
+			throws IOException {
+		double currentFitness = DeviceEvaluator.fitness(currentScore);
+		double bestFitness = DeviceEvaluator.fitness(bestScore);
+
+		statistics.write(step + "," + evaluator.getNumSimulated() + "," + currentFitness + "," + bestFitness +
+				"," + temperature + "," + numNeighbours + ",\"" + best + "\"\n");
+		statistics.flush();
+
+		DecimalFormat df = new DecimalFormat("0.000");
+		System.out.println("Step " + step + ": current " + df.format(currentFitness) + ", best so far " +
+				df.format(bestFitness) + " (" + numNeighbours + " neighbours, " + evaluator.getNumSimulated() +
+				" devices simulated)");
+	}
+}
@@ -16,11 +16,11 @@ import org.jdom.Element;
 import org.jdom.JDOMException;
 import org.jdom.input.SAXBuilder;
 
-import bd.biopart.Activator;
-import bd.biopart.Inhibitor;
+import bd.biopart.BioPartDatabase;
 import bd.biopart.Reporter;
 import bd.biopart.TF;
 import bd.gene_network.template.GeneNetworkTemplate;
+import bd.simulation.SimulatorType;
 
 /**
  * This class holds the global parameters for the Device optimization problem. 
@@ -38,6 +38,8 @@ public final class LogicGeneNetworkSettings {
     private Map<String,boolean[]> binaryTimingDiagram = new HashMap<String,boolean[]>();
     private int stateTime;
     private boolean visual;
+    private boolean exportModel;
+    private SimulatorType simulator;
 	
     /**
      * Constructor for objects of class ProblemSettings
@@ -114,6 +116,35 @@ public final class LogicGeneNetworkSettings {
 	public void setVisual(boolean visual) {
 		this.visual = visual;
 	}
+	
+	/**
+	 * @return True if the model of each simulated device should also be 
+	 * written to a FernML file in the tmp models directory.
+	 */
+	public boolean isExportModel() {
+		return exportModel;
+	}
+	
+	/**
+	 * @param exportModel
+	 */
+	public void setExportModel(boolean exportModel) {
+		this.exportModel = exportModel;
+	}
+	
+	/**
+	 * @return The simulation algorithm that is used to simulate the devices.
+	 */
+	public SimulatorType getSimulator() {
+		return simulator;
+	}
+	
+	/**
+	 * @param simulator
+	 */
+	public void setSimulator(SimulatorType simulator) {
+		this.simulator = simulator;
+	}
     
     private Document getDocument(File file) {
 		Document doc = null;
@@ -152,10 +183,10 @@ public final class LogicGeneNetworkSettings {
 			String tfName = element.getValue();
 			TF tf = null;
 			if(geneNetworkTemplate.getInput(inputID).getSignal().equals("-")) {
-				tf = new Inhibitor(tfName);
+				tf = BioPartDatabase.inhibitor(tfName);
 			}
 			else {
-				tf = new Activator(tfName);
+				tf = BioPartDatabase.activator(tfName);
 			}
 			input.put(inputID,tf);
 		}
@@ -167,13 +198,18 @@ public final class LogicGeneNetworkSettings {
 			Element element = (Element)o;
 			String inputID = element.getAttributeValue("id");
 			String reporterName = element.getValue();
-			output.put(inputID,new Reporter(reporterName));
+			output.put(inputID,BioPartDatabase.reporter(reporterName));
 		}
     }
     
     private void loadNumbers(Element root) {
     	stateTime = Integer.valueOf(root.getChildTextTrim("state_time"));
     	visual = root.getChildTextTrim("visual").equals("true");
+    	// optional, the models are not written to file by default
+    	exportModel = "true".equals(root.getChildTextTrim("export_model"));
+    	// optional, the exact direct method by default
+    	String sim = root.getChildTextTrim("simulator");
+    	simulator = sim == null ? SimulatorType.DIRECT : SimulatorType.fromName(sim);
     }
     
     private void loadBinaryTimingDiagram(Element root) {
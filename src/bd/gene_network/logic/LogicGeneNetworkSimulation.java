@@ -1,9 +1,6 @@
 package bd.gene_network.logic;
 
-import fern.network.Network;
-import fern.network.fernml.FernMLNetwork;
 import fern.simulation.Simulator;
-import fern.simulation.algorithm.GillespieSimple;
 import fern.simulation.observer.AmountIntervalObserver;
 import fern.tools.gnuplot.GnuPlot;
 
@@ -11,25 +8,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-
-import org.jdom.JDOMException;
 
 import bd.biopart.Device;
-import bd.biopart.EnvironmentalSignal;
 import bd.biopart.ProteinGenerator;
-import bd.biopart.Reporter;
-import bd.biopart.TF;
 import bd.global.Constants;
 import bd.model.Model0;
-
-import cern.colt.list.DoubleArrayList;
-import cern.jet.stat.Descriptive;
+import bd.model.ModelNetwork;
+import bd.simulation.AmountSampleObserver;
+import bd.simulation.TauLeaping;
 
 /**
  * Class used to run stochastic simulations on a gene network.
@@ -41,141 +27,185 @@ public class LogicGeneNetworkSimulation {
 	private static final int numSimulationRuns = 20;
 	private static final int measurementsPerState = 100;
 	
-	public static final int RESULTS_PER_OUTPUT = 3;
-	public static final int CORRELATION = 0;
-	public static final int MEAN_MIN_LOW = 1;
-	public static final int MEAN_MAX_HIGH = 2;
+	// layout of the result of the default score, see CorrelationScore
+	public static final int RESULTS_PER_OUTPUT = CorrelationScore.RESULTS_PER_OUTPUT;
+	public static final int CORRELATION = CorrelationScore.CORRELATION;
+	public static final int MEAN_MIN_LOW = CorrelationScore.MEAN_MIN_LOW;
+	public static final int MEAN_MAX_HIGH = CorrelationScore.MEAN_MAX_HIGH;
+	
+	// networks and simulators per topology, each simulation thread has its own
+	private static final ThreadLocal<TopologyCache> topologyCache = new ThreadLocal<TopologyCache>() {
+		@Override
+		protected TopologyCache initialValue() {
+			return new TopologyCache();
+		}
+	};
 	
 	/**
-	 * Run a simulation on a gene network device. Very long method, should be split. The score 
-	 * calculation is part of this method. This should be separated so that it can easily be 
-	 * changed, or multiple score implementations can be used.
+	 * Run a simulation on a gene network device. The device is scored with 
+	 * the default score, see CorrelationScore.
 	 * @param device
 	 * @param settings
 	 * @return score for this simulation.
 	 */
 	public static double[] run(Device device, LogicGeneNetworkSettings settings) {
+		return run(device, settings, (int)System.nanoTime());
+	}
+	
+	/**
+	 * Run a simulation on a gene network device with a given random seed. The 
+	 * simulation only uses objects of its own and the random stream that is 
+	 * seeded with seed, so that multiple simulations can be run in parallel.
+	 * @param device
+	 * @param settings
+	 * @param seed The seed for the random number generator of the simulator.
+	 * @return score for this simulation.
+	 */
+	public static double[] run(Device device, LogicGeneNetworkSettings settings, int seed) {
+		return run(device, settings, seed, (ScoreCutoff) null);
+	}
+	
+	/**
+	 * Run a simulation on a gene network device, that is stopped early when
+	 * the device is unlikely to reach the score cutoff, see EarlyStop. 
+	 * @param device
+	 * @param settings
+	 * @param seed The seed for the random number generator of the simulator.
+	 * @param cutoff The score cutoff, null to always do all simulation runs.
+	 * @return score for this simulation, an optimistic estimate that is below
+	 * the cutoff if the simulation was stopped early.
+	 */
+	public static double[] run(Device device, LogicGeneNetworkSettings settings, int seed, 
+			ScoreCutoff cutoff) {
+		CorrelationScore score = new CorrelationScore();
+		run(device, settings, seed, cutoff, score);
+		return score.getResult();
+	}
+	
+	/**
+	 * Run a simulation on a gene network device and pass the averaged samples
+	 * of the output species to the score functions. The results can be 
+	 * obtained from the score functions afterwards.
+	 * @param device
+	 * @param settings
+	 * @param seed The seed for the random number generator of the simulator.
+	 * @param scoreFunctions The score functions that score this simulation.
+	 */
+	public static void run(Device device, LogicGeneNetworkSettings settings, int seed, 
+			ScoreFunction... scoreFunctions) {
+		run(device, settings, seed, null, scoreFunctions);
+	}
+	
+	/**
+	 * Run a simulation on a gene network device and pass the averaged samples
+	 * of the output species to the score functions. If the simulation is 
+	 * stopped early, because the device is unlikely to reach the cutoff, the score 
+	 * functions get the optimistic estimate of the samples instead.
+	 * @param device
+	 * @param settings
+	 * @param seed The seed for the random number generator of the simulator.
+	 * @param cutoff The score cutoff, null to always do all simulation runs.
+	 * @param scoreFunctions The score functions that score this simulation.
+	 * @return False if the simulation was stopped early.
+	 */
+	public static boolean run(Device device, LogicGeneNetworkSettings settings, int seed, 
+			ScoreCutoff cutoff, ScoreFunction... scoreFunctions) {
+		return run(device, settings, seed, cutoff, null, scoreFunctions);
+	}
+	
+	/**
+	 * Run a simulation on a gene network device, see run(Device, 
+	 * LogicGeneNetworkSettings, int, ScoreCutoff, ScoreFunction...), and add
+	 * the time of the compile, simulate and score phases and the number of 
+	 * reactions that fired to the metrics of a sweep.
+	 * @param device
+	 * @param settings
+	 * @param seed The seed for the random number generator of the simulator.
+	 * @param cutoff The score cutoff, null to always do all simulation runs.
+	 * @param metrics The metrics of the sweep, null for none.
+	 * @param scoreFunctions The score functions that score this simulation.
+	 * @return False if the simulation was stopped early.
+	 * @throws IllegalArgumentException If a cutoff is given for the ensemble
+	 * simulator, its runs can not be stopped early.
+	 */
+	public static boolean run(Device device, LogicGeneNetworkSettings settings, int seed, 
+			ScoreCutoff cutoff, SweepMetrics metrics, ScoreFunction... scoreFunctions) {
 				
-		// get data from the settings
-		Map<String, TF> input = settings.getInput();
-		Map<String, Reporter> output = settings.getOutput();
-		Map<String, boolean[]> binaryTimingDiagram = settings.getBinaryTimingDiagram();
-		int stateTime = settings.getStateTime();
 		boolean visual = settings.isVisual();
+		long time = System.nanoTime();
 		
-		// device -> model -> network... (inefficient!!!)
-		Model0 model = new Model0(device);
-		//System.out.println(model.toString());
-		model.toFernMl();
-		File file = new File(Constants.TMP_MODEL_DIR+device.getName()+".fernml");
-		Network net = null;
-		try {
-			net = new FernMLNetwork(file);
-		} 
-		catch (IOException e) {
-			e.printStackTrace();
-		} 
-		catch (JDOMException e) {
-			e.printStackTrace();
+		// device -> model -> network, the network is built in memory
+		if(settings.isExportModel()) {
+			new Model0(device).toFernMl();
 		}
 		
-		// new simulator is needed because not able to remove listeners
-		// create simulator for the network
-		Simulator sim = new GillespieSimple(net);
-		
-		// translate TFs to input species int id values
-		Map<String, Integer> intInputMapping = new HashMap<String, Integer>();
-		for(String id : input.keySet()) {
-			TF tf = input.get(id);
-			EnvironmentalSignal sm = tf.getSmallMolecule();
-			intInputMapping.put(id, sim.getNet().getSpeciesByName(sm.getName())); 
-		}
-		// translate Reporters to output species int id values
-		Map<String, Integer> intOutputMapping = new HashMap<String, Integer>();
-		for(String id : output.keySet()) {
-			Reporter rep = output.get(id);
-			intOutputMapping.put(id, sim.getNet().getSpeciesByName(rep.getName()));	
+		// all runs at once, the runs can not be stopped early because they 
+		// all finish at the same time
+		if(settings.getSimulator().isEnsemble() && !visual) {
+			if(cutoff != null) {
+				throw new IllegalArgumentException("The runs of the ensemble simulator can not be stopped early, " +
+						"use another simulator or no score cutoff.");
+			}
+			EnsembleDeviceSimulator ensemble = topologyCache.get().getEnsemble(device, settings, seed, 
+					measurementsPerState, numSimulationRuns);
+			time = phase(metrics, SweepMetrics.COMPILE, time);
+			double[][] samples = ensemble.run();
+			time = phase(metrics, SweepMetrics.SIMULATE, time);
+			score(samples, ensemble.getOutputPlots(), measurementsPerState, scoreFunctions);
+			phase(metrics, SweepMetrics.SCORE, time);
+			return true;
 		}
 		
-		// update the score based on the simulation results
-		// calculate the number of state transitions
-		int numInputs = input.keySet().size();
-		int numOutputs = output.keySet().size();
-		Object[] plots = binaryTimingDiagram.values().toArray();
-		int numStates = ((boolean[]) plots[0]).length;
-		// calculate the simulation time
-		int simTime = numStates * stateTime;
-		
-		// make lists of keys to ensure the same ordering...
-		String[] inputKeys = new String[numInputs];
-		int index = numInputs-1;
-		for(String key : input.keySet()) {
-			inputKeys[index] = key;
-			index--;
-		}
-		String[] outputKeys = new String[numOutputs];
-		index = numOutputs-1;
-		for(String key : output.keySet()) {
-			outputKeys[index] = key;
-			index--;
-		}
-		// make lists of species numbers with the same ordering...
-		int[] intInput = new int[numInputs];
-		for(int i = 0; i < numInputs; i++) {
-			intInput[i] = intInputMapping.get(inputKeys[i]);
+		DeviceSimulator deviceSimulator;
+		if(visual) {
+			// the visualization observer can not be reset
+			ModelNetwork net = (ModelNetwork)new Model0(device).toNetwork();
+			deviceSimulator = new DeviceSimulator(net, settings, seed, measurementsPerState);
 		}
-		int[] intOutput = new int[numOutputs];
-		for(int i = 0; i < numOutputs; i++) {
-			intOutput[i] = intOutputMapping.get(outputKeys[i]);
+		else {
+			// reuse the network and simulator of a device with the same topology
+			deviceSimulator = topologyCache.get().get(device, settings, seed, measurementsPerState);
 		}
-		
-		// calculate the stepsize to use
-		int stepSize = stateTime/measurementsPerState;
-		
-		// add input and output observers to simulator
-		BinaryTimingDiagramObserver stio = new BinaryTimingDiagramObserver(
-				sim, 
-				binaryTimingDiagram,
-				intInputMapping, 
-				intOutputMapping, 
-				stateTime,
-				simTime);
-		sim.addObserver(stio);
+		Simulator sim = deviceSimulator.getSimulator();
+		BinaryTimingDiagramObserver stio = deviceSimulator.getBinaryTimingDiagramObserver();
+		AmountSampleObserver aso = deviceSimulator.getAmountSampleObserver();
+		AmountIntervalObserver vaio = deviceSimulator.getVisualObserver();
+		boolean[][] outputPlots = deviceSimulator.getOutputPlots();
+		int numOutputs = outputPlots.length;
+		int simTime = deviceSimulator.getSimTime();
+		int numSamples = deviceSimulator.getNumSamples();
+		long numReactionEvents = numReactionEvents(sim, stio);
+		time = phase(metrics, SweepMetrics.COMPILE, time);
 			
 		// for visualization, slow...
 		GnuPlot gp = null;
-		AmountIntervalObserver vaio = null;
 		if(visual) {
-			// get the species to track
-			int[] all = new int[numInputs + numOutputs];
-			int j = 0;
-			for(int i = 0; i < numInputs; i++) {
-				all[j] = intInput[i];
-				j++;
-			}
-			for(int i = 0; i < numOutputs; i++) {
-				all[j] = intOutput[i];
-				j++;
-			}
-			
 			// create plot
 			gp = new GnuPlot(); 
 			gp.setDefaultStyle("with lines");
-			// add amount interval observer
-			vaio = new AmountIntervalObserver(sim, stepSize, all);
-			//vaio = new AmountIntervalObserver(sim, stepSize, intOutput);
-			sim.addObserver(vaio);
 		}
 		
-		// add observer to observe amounts
-		AmountIntervalObserver aio = new AmountIntervalObserver(sim, stepSize, intOutput);
-		sim.addObserver(aio);
+		// stop early if the device is unlikely to reach the cutoff
+		EarlyStop earlyStop = null;
+		if(cutoff != null) {
+			earlyStop = new EarlyStop(cutoff, aso, outputPlots, numSimulationRuns, 
+					measurementsPerState, simTime);
+			stio.setEarlyStop(earlyStop);
+		}
 		
 		boolean gnuErrorDisplayed = false;
 		
 		// run simulation state transition numSimulationRuns times
 		for(int i = 0; i < numSimulationRuns; i++) {
-			sim.start(simTime);
+			if(earlyStop == null) {
+				sim.start(simTime);
+			}
+			else {
+				sim.start(earlyStop);
+				if(!earlyStop.isStopped()) {
+					earlyStop.runFinished();
+				}
+			}
 			if(visual) {
 				try {
 					vaio.toGnuplot(gp);
@@ -194,14 +224,14 @@ public class LogicGeneNetworkSimulation {
 				gp.setVisible(true);
 				gp.clearData();
 			}
+			if(earlyStop != null && earlyStop.isStopped()) {
+				break;
+			}
 		}
 		
-		// get the date after numSimulation runs
-		GnuPlot data = new GnuPlot();
-		try {
-			aio.toGnuplot(data);
-			// save data if visual
-			if(visual) {
+		// save data if visual
+		if(visual) {
+			try {
 				// creat tmp dir if it is not already there
 				File tmpDir = new File(Constants.TMP_DATA_DIR);
 				if(!tmpDir.exists()) {
@@ -217,112 +247,134 @@ public class LogicGeneNetworkSimulation {
 				vaio.toGnuplot(gp);
 				gp.saveData(dataFile);
 				dataFile.setReadOnly();
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
 		
-		// calculate score from obtained data
-		Iterator<String> iter = data.getAxes().get(0).iterator();
-		
-		// ignore first state... initialize the system...
-		for(int i = 0; i < measurementsPerState; i++) {
-			iter.next();
+		time = phase(metrics, SweepMetrics.SIMULATE, time);
+		if(metrics != null) {
+			metrics.addReactionEvents(numReactionEvents(sim, stio) - numReactionEvents);
 		}
 		
-		// create desired output
-		int numMeasurements = (numStates-1) * measurementsPerState;
-		double[][] desired = new double[numOutputs][numMeasurements];
-		for(int i = 0; i < numOutputs; i++) {
-			// plot for this output
-			boolean[] plot = binaryTimingDiagram.get(outputKeys[i]);
-			for(int state = 1; state < numStates; state++) {
-				int stateStart = (state - 1) * measurementsPerState;
-				int stateEnd = (state * measurementsPerState) - 1;
-				int value = plot[state] ? 1 : 0;
-				Arrays.fill(desired[i], stateStart, stateEnd, value);
-			}
+		if(earlyStop != null && earlyStop.isStopped()) {
+			score(earlyStop.getEstimate(), outputPlots, measurementsPerState, scoreFunctions);
+			phase(metrics, SweepMetrics.SCORE, time);
+			return false;
 		}
-		List<DoubleArrayList> desiredLists = new ArrayList<DoubleArrayList>();
-		for(int out = 0; out < numOutputs; out++) {
-			desiredLists.add(new DoubleArrayList(desired[out]));
+		
+		if(aso.getNumSamples() < numSamples) {
+			throw new IllegalStateException("Simulation of " + device + " gave " + 
+					aso.getNumSamples() + " samples, expected " + numSamples + ".");
 		}
 		
-		// create arrays with the measured output
-		double[][] measured = new double[numOutputs][numMeasurements];
-		for(int measurement = 0; measurement < numMeasurements; measurement++) {
-			String[] values = iter.next().split("\t");
-			for(int out = 0; out < numOutputs; out++) {
-				measured[out][measurement] = Double.valueOf(values[out+1]);
-			}
-		}		
-		List<DoubleArrayList> measuredLists = new ArrayList<DoubleArrayList>();
+		double[][] samples = new double[numOutputs][];
 		for(int out = 0; out < numOutputs; out++) {
-			measuredLists.add(new DoubleArrayList(measured[out]));
+			samples[out] = aso.getSamples(out);
+		}
+		score(samples, outputPlots, measurementsPerState, scoreFunctions);
+		phase(metrics, SweepMetrics.SCORE, time);
+		return true;
+	}
+	
+	/**
+	 * @return The number of reactions that fired since the simulator was 
+	 * created, the exact steps and the leaps of tau leaping.
+	 */
+	private static long numReactionEvents(Simulator sim, BinaryTimingDiagramObserver stio) {
+		long result = stio.getNumReactionEvents();
+		if(sim instanceof TauLeaping) {
+			result += ((TauLeaping) sim).getNumLeapedReactions();
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the time of a phase to the metrics.
+	 * @param metrics The metrics, null for none.
+	 * @param phase
+	 * @param start The start time of the phase (ns).
+	 * @return The end time of the phase, the start of the next phase.
+	 */
+	private static long phase(SweepMetrics metrics, int phase, long start) {
+		if(metrics == null) {
+			return start;
+		}
+		long end = System.nanoTime();
+		metrics.add(phase, end - start);
+		return end;
+	}
+	
+	/**
+	 * Simulates the deterministic mass action equations of a gene network 
+	 * device, see OdeDeviceSimulator, and scores the trajectory with the 
+	 * default score. This is much faster than the stochastic simulation and 
+	 * can be used to skip devices that are clearly hopeless.
+	 * @param device
+	 * @param settings
+	 * @return The score of the deterministic trajectory.
+	 */
+	public static double[] runOde(Device device, LogicGeneNetworkSettings settings) {
+		CorrelationScore score = new CorrelationScore();
+		runOde(device, settings, score);
+		return score.getResult();
+	}
+	
+	/**
+	 * Simulates the deterministic mass action equations of a gene network 
+	 * device and passes the samples of the output species to the score 
+	 * functions.
+	 * @param device
+	 * @param settings
+	 * @param scoreFunctions The score functions that score this simulation.
+	 */
+	public static void runOde(Device device, LogicGeneNetworkSettings settings, 
+			ScoreFunction... scoreFunctions) {
+		OdeDeviceSimulator ode = topologyCache.get().getOde(device, settings, measurementsPerState);
+		score(ode.run(), ode.getOutputPlots(), measurementsPerState, scoreFunctions);
+	}
+	
+	/**
+	 * Passes the samples of the outputs to the score functions, state by state.
+	 * The first state is skipped, it is used to initialize the system.
+	 * @param samples The samples per output.
+	 * @param plots The binary timing diagram per output.
+	 * @param samplesPerState The number of samples per state.
+	 * @param scoreFunctions
+	 */
+	static void score(double[][] samples, boolean[][] plots, int samplesPerState, 
+			ScoreFunction... scoreFunctions) {
+		int numOutputs = samples.length;
+		for(ScoreFunction scoreFunction : scoreFunctions) {
+			scoreFunction.start(numOutputs);
 		}
-		
-		// the +1 is for the calculated score
-		double[] result = new double[numOutputs*RESULTS_PER_OUTPUT + 1];
-		
 		for(int out = 0; out < numOutputs; out++) {
-			// calculate correlation per output
-			double meanDes = Descriptive.mean(desiredLists.get(out));
-			double meanMeas = Descriptive.mean(measuredLists.get(out));
-			double varDes = Descriptive.sampleVariance(desiredLists.get(out), meanDes);
-			double varMeas = Descriptive.sampleVariance(measuredLists.get(out), meanMeas);
-			double stdDes = Descriptive.sampleStandardDeviation(desiredLists.get(out).size(), varDes);
-			double stdMeas = Descriptive.sampleStandardDeviation(measuredLists.get(out).size(), varMeas);
-			double correlation = Descriptive.correlation(desiredLists.get(out), stdDes, measuredLists.get(out), stdMeas);
-			// set correlation to zero when it is negative (to avoid negative times negative is positive later on)
-			if(correlation < 0) {
-				result[out*RESULTS_PER_OUTPUT + CORRELATION] = 0;
-			}
-			else {
-				result[out*RESULTS_PER_OUTPUT + CORRELATION] = correlation;
-			} 
-			// calculate ...
-			double sumMinLow = 0;
-			double sumMaxHigh = 0;
-			int countLow = 0;
-			int countHigh = 0;
-			for(int i = 0; i < numStates-1; i++) {
-				int start = i * measurementsPerState;
-				int end = start + measurementsPerState-1;
-				DoubleArrayList list = (DoubleArrayList) measuredLists.get(out).partFromTo(start, end);
-				if(desiredLists.get(out).get(start) == 0) {
-					sumMinLow += Descriptive.min(list);
-					countLow++;
+			// plot for this output
+			boolean[] plot = plots[out];
+			// ignore first state... initialize the system...
+			for(int state = 1; state < plot.length; state++) {
+				for(ScoreFunction scoreFunction : scoreFunctions) {
+					scoreFunction.state(out, plot[state]);
 				}
-				else {
-					sumMaxHigh += Descriptive.max(list);
-					countHigh++;
+				int stateStart = state * samplesPerState;
+				for(int i = 0; i < samplesPerState; i++) {
+					// the desired value of the last sample of a state is 
+					// always low, as it has always been
+					double desired = plot[state] && i < samplesPerState-1 ? 1 : 0;
+					for(ScoreFunction scoreFunction : scoreFunctions) {
+						scoreFunction.sample(out, desired, samples[out][stateStart + i]);
+					}
 				}
 			}
-			result[out*RESULTS_PER_OUTPUT + MEAN_MIN_LOW] = sumMinLow/countLow;
-			result[out*RESULTS_PER_OUTPUT + MEAN_MAX_HIGH] = sumMaxHigh/countHigh;
-		}
-		
-		// calculate the score
-		double combinedCorrelation = result[CORRELATION];
-		double combinedMinValue = result[MEAN_MIN_LOW];
-		double combinedMaxValue = result[MEAN_MAX_HIGH];
-		for(int i = 1; i < numOutputs; i++) {
-			int start = i * RESULTS_PER_OUTPUT;
-			combinedCorrelation *= result[start + CORRELATION];
-			combinedMinValue += result[start + MEAN_MIN_LOW];
-			combinedMaxValue *= result[start + MEAN_MAX_HIGH];
 		}
-		double totalScore = combinedCorrelation * (combinedMaxValue-combinedMinValue);
-		result[RESULTS_PER_OUTPUT*numOutputs] = totalScore;
-			
-		return result;
 	}
 	
 	/**
 	 * Writes the result of a simulation to the provided writer. A tab separated
 	 * line is written with for each output the correlation, mean min value, 
 	 * mean max value. The last three values are the averaged correlation, mean
-	 * min value, and mean max value over all outputs.
+	 * min value, and mean max value over all outputs. Sweeps write their 
+	 * results to a binary result file instead, see ResultWriter.
 	 * @precondition score is a 3 by (#ouputs + 1) matrix
 	 * @param score
 	 * @param device
@@ -0,0 +1,148 @@
+package bd.gene_network.logic;
+
+import java.util.Map;
+
+import bd.biopart.Device;
+import bd.biopart.Reporter;
+import bd.biopart.TF;
+import bd.model.Model0;
+import bd.simulation.OdeSimulator;
+import fern.network.Network;
+
+/**
+ * Simulates the deterministic mass action equations of a device with an
+ * OdeSimulator, this gives an approximation of the mean trajectory of the
+ * stochastic runs in a fraction of their time. The inputs are set like the
+ * BinaryTimingDiagramObserver does, except that a drained input is held at
+ * zero right away. The outputs are sampled at the same times as the
+ * AmountSampleObserver does.
+ *
+ * Like a DeviceSimulator, it can be reused for devices with the same topology.
+ * @author Bastiaan van den Berg
+ *
+ */
+class OdeDeviceSimulator {
+
+	private OdeSimulator ode;
+
+	// species and binary timing diagram per input and output
+	private int[] inputSpecies;
+	private boolean[][] inputPlots;
+	private int[] outputSpecies;
+	private boolean[][] outputPlots;
+
+	private int stateTime;
+	private int stepSize;
+	private int numSamples;
+
+	/**
+	 * @param net The network of a device.
+	 * @param settings
+	 * @param measurementsPerState The number of samples per state.
+	 */
+	public OdeDeviceSimulator(Network net, LogicGeneNetworkSettings settings,
+			int measurementsPerState) {
+
+		ode = new OdeSimulator(net);
+
+		Map<String, TF> input = settings.getInput();
+		Map<String, Reporter> output = settings.getOutput();
+		Map<String, boolean[]> binaryTimingDiagram = settings.getBinaryTimingDiagram();
+
+		// same ordering as the DeviceSimulator
+		String[] inputKeys = DeviceSimulator.orderedKeys(input.keySet());
+		inputSpecies = new int[inputKeys.length];
+		inputPlots = new boolean[inputKeys.length][];
+		for(int i = 0; i < inputKeys.length; i++) {
+			TF tf = input.get(inputKeys[i]);
+			inputSpecies[i] = net.getSpeciesByName(tf.getSmallMolecule().getName());
+			inputPlots[i] = binaryTimingDiagram.get(inputKeys[i]);
+		}
+		String[] outputKeys = DeviceSimulator.orderedKeys(output.keySet());
+		outputSpecies = new int[outputKeys.length];
+		outputPlots = new boolean[outputKeys.length][];
+		for(int i = 0; i < outputKeys.length; i++) {
+			outputSpecies[i] = net.getSpeciesByName(output.get(outputKeys[i]).getName());
+			outputPlots[i] = binaryTimingDiagram.get(outputKeys[i]);
+		}
+
+		stateTime = settings.getStateTime();
+		stepSize = stateTime/measurementsPerState;
+		numSamples = outputPlots[0].length * measurementsPerState;
+	}
+
+	/**
+	 * Prepares the simulator for another device with the same topology.
+	 * @param device A device with the same topology as the network.
+	 */
+	public void reuse(Device device) {
+		ode.setRateConstants(Model0.rateConstants(device));
+		ode.reset();
+	}
+
+	/**
+	 * Integrates the equations over all states.
+	 * @return Per output the samples of the trajectory.
+	 */
+	public double[][] run() {
+		int numStates = outputPlots[0].length;
+
+		// initial molecule counts
+		for(int i = 0; i < inputSpecies.length; i++) {
+			ode.setAmount(inputSpecies[i], inputPlots[i][0] ?
+					BinaryTimingDiagramObserver.highInput : BinaryTimingDiagramObserver.lowInput);
+		}
+		for(int i = 0; i < outputSpecies.length; i++) {
+			ode.setAmount(outputSpecies[i], outputPlots[i][0] ?
+					BinaryTimingDiagramObserver.highOutput : BinaryTimingDiagramObserver.lowOutput);
+		}
+
+		double[][] samples = new double[outputSpecies.length][numSamples];
+		int state = 0;
+		for(int k = 0; k < numSamples; k++) {
+			double time = k * stepSize;
+			// a state change at the time of a sample comes first
+			while(state + 1 < numStates && (state + 1) * stateTime <= time) {
+				state++;
+				ode.advance(state * stateTime);
+				setInputs(state);
+			}
+			// the steps are not stopped at the sample times, only at the 
+			// state changes
+			ode.advance(time, (state + 1) * stateTime);
+			for(int out = 0; out < outputSpecies.length; out++) {
+				samples[out][k] = ode.getAmount(outputSpecies[out], time);
+			}
+		}
+		return samples;
+	}
+
+	/**
+	 * Sets the inputs for a new state.
+	 * @param state
+	 */
+	private void setInputs(int state) {
+		for(int i = 0; i < inputSpecies.length; i++) {
+			int species = inputSpecies[i];
+			boolean high = inputPlots[i][state];
+			double oldAmount = ode.getAmount(species);
+			if(oldAmount == 0 && high) {
+				ode.setAmount(species, BinaryTimingDiagramObserver.highInput);
+				ode.setHeld(species, false);
+			}
+			else if(oldAmount != 0 && !high) {
+				// the dropped amount is drained before the next reaction in
+				// the stochastic simulations
+				ode.setAmount(species, 0);
+				ode.setHeld(species, true);
+			}
+		}
+	}
+
+	/**
+	 * @return The binary timing diagram of each output.
+	 */
+	public boolean[][] getOutputPlots() {
+		return outputPlots;
+	}
+}
@@ -0,0 +1,204 @@
+package bd.gene_network.logic;
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.DecimalFormat;
+import java.util.Scanner;
+
+import bd.biopart.Device;
+import bd.gene_network.DesignSpace;
+import bd.gene_network.GeneNetworkBuilder;
+import bd.global.Constants;
+
+/**
+ * Search for a good device for a given template with the available bioparts
+ * database, with an evolutionary optimizer or a local search (hill climbing
+ * or simulated annealing) instead of simulating all possible devices.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class OptimizeLogicGeneNetwork {
+
+	/**
+	 * @param args [deviceName] [-method ga|climb|anneal] [-threads n]
+	 * [-seed s] [-population p] [-generations g] [-elite e] [-tournament k]
+	 * [-crossover c] [-mutation m] [-start device] [-steps n]
+	 * [-temperature t] [-cooling f] [-prescreen x] [-cache cacheFile], the user is asked for the
+	 * device name if it is not given. See OptimizerSettings.
+	 */
+	public static void main(String[] args) {
+
+		OptimizerSettings optimizerSettings;
+		try {
+			optimizerSettings = OptimizerSettings.fromArguments(args);
+		}
+		catch(IllegalArgumentException iae) {
+			System.out.println(iae.getMessage());
+			System.out.println("Usage: [deviceName] [-method ga|climb|anneal] [-threads n] [-seed s] " +
+					"[-population p] [-generations g] [-elite e] [-tournament k] [-crossover c] [-mutation m] " +
+					"[-start device] [-steps n] [-temperature t] [-cooling f] [-prescreen x] [-cache cacheFile]");
+			return;
+		}
+
+		GeneNetworkBuilder ldb = null;
+
+		if(optimizerSettings.getDeviceName() != null) {
+			try {
+				ldb = new GeneNetworkBuilder(optimizerSettings.getDeviceName());
+			}
+			catch(FileNotFoundException fnfe) {
+				System.out.println(fnfe.getMessage());
+				return;
+			}
+		}
+		else {
+			// create a scanner to read user input
+			Scanner s = new Scanner(System.in);
+			boolean correct = false;
+
+			while(!correct) {
+				// ask for device name
+				System.out.print("\nProvide the name of the logic device name or 'q' to go back to the main menu: ");
+				// read answer
+				String deviceName = s.next();
+
+				if(deviceName.equals("q")) {
+					correct = true;
+				}
+				else {
+					try {
+						ldb = new GeneNetworkBuilder(deviceName);
+						optimizerSettings.setDeviceName(deviceName);
+						correct = true;
+					}
+					catch(FileNotFoundException fnfe) {
+						System.out.println(fnfe.getMessage());
+					}
+				}
+			}
+		}
+
+		if(ldb == null) {
+			return;
+		}
+
+		System.out.println("\n===> Count all possible devices...");
+		DesignSpace space = ldb.getDesignSpace();
+		System.out.println("number of devices: " + space.size());
+		if(space.size() == 0) {
+			System.out.println("\nNo devices can be build with the available parts in the database.");
+			return;
+		}
+
+		// the start device of a local search
+		boolean localSearch = !optimizerSettings.getMethod().equals(OptimizerSettings.GENETIC_ALGORITHM);
+		Device start = null;
+		if(localSearch && optimizerSettings.getStart() != null) {
+			try {
+				start = Device.fromStringRepresentation(optimizerSettings.getStart());
+			}
+			catch(Exception e) {
+				System.out.println("==> The provided string representation contains an error.");
+				return;
+			}
+			if(!space.contains(start)) {
+				System.out.println("\nThe start device is not one of the devices of " + 
+						optimizerSettings.getDeviceName() + ".");
+				return;
+			}
+		}
+
+		LogicGeneNetworkSettings settings = ldb.getLogicGeneNetworkSettings();
+		int numWorkers = optimizerSettings.getNumWorkers();
+		if(numWorkers > 1 && settings.isVisual()) {
+			System.out.println("\nVisualization is turned off, it is only possible with -threads 1.");
+			settings.setVisual(false);
+		}
+
+		// the scores of all simulated devices, and the statistics per generation
+		System.out.println("\n===> Create output files to write data...");
+		File resultFile = Constants.simulationResultFile(settings.getName() + "_optimized");
+		if(resultFile == null) {
+			return;
+		}
+		String path = resultFile.getPath();
+		File statisticsFile = new File(path.substring(0, path.length() - ".res".length()) +
+				(localSearch ? "_steps.csv" : "_generations.csv"));
+
+		System.out.println("\n*** Logic device optimization ***");
+		if(localSearch) {
+			System.out.println("- Method: " + optimizerSettings.getMethod() + ", threads: " + numWorkers +
+					", seed: " + optimizerSettings.getSeed() + ", steps: " + optimizerSettings.getNumSteps());
+		}
+		else {
+			System.out.println("- Threads: " + numWorkers + ", seed: " + optimizerSettings.getSeed() +
+					", population: " + optimizerSettings.getPopulationSize() + ", generations: " +
+					optimizerSettings.getNumGenerations());
+		}
+
+		DeviceEvaluator evaluator = new DeviceEvaluator(settings, space, numWorkers, optimizerSettings.getSeed());
+		evaluator.setPrescreen(optimizerSettings.getPrescreen());
+		ResultWriter writer = null;
+		BufferedWriter statistics = null;
+		ScoreCache cache = null;
+		try {
+			if(optimizerSettings.getCache() != null) {
+				cache = new ScoreCache(new File(optimizerSettings.getCache()), settings);
+				evaluator.setScoreCache(cache);
+			}
+			writer = new ResultWriter(resultFile);
+			evaluator.setResultWriter(writer);
+			statistics = new BufferedWriter(new FileWriter(statisticsFile));
+
+			Device best;
+			double[] score;
+			if(localSearch) {
+				LocalSearch search = new LocalSearch(ldb, space, evaluator, optimizerSettings);
+				best = search.run(start, statistics);
+				score = search.getBestScore();
+			}
+			else {
+				EvolutionaryOptimizer optimizer = new EvolutionaryOptimizer(ldb, space, evaluator, optimizerSettings);
+				best = optimizer.run(statistics);
+				score = optimizer.getBestScore();
+			}
+
+			DecimalFormat df = new DecimalFormat("0.000");
+			System.out.println("\n- Best device: " + best);
+			System.out.println("- Score: " + df.format(score[score.length-1]));
+			System.out.println("- Devices simulated: " + evaluator.getNumSimulated() + " of " +
+					space.size() + " devices.");
+			if(cache != null) {
+				System.out.println("- Scores found in the cache: " + cache.getNumHits());
+			}
+			System.out.println("\n- Results: " + resultFile.getPath() + ", statistics per " +
+					(localSearch ? "step: " : "generation: ") + statisticsFile.getPath());
+			System.out.println("\n*** Logic device optimization done ***");
+		}
+		catch(IOException ioe) {
+			ioe.printStackTrace();
+			System.out.println("ERROR: An IO error occured, when writing the results.");
+		}
+		finally {
+			evaluator.close();
+			try {
+				if(writer != null) {
+					writer.close();
+				}
+				if(statistics != null) {
+					statistics.close();
+				}
+				if(cache != null) {
+					cache.close();
+				}
+			}
+			catch(IOException ioe) {
+				ioe.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package bd.gene_network.logic;
+
+/**
+ * Run time options of a search for good devices, given as command line
+ * arguments like the SweepSettings.
+ *
+ * Usage: [deviceName] [-method ga|climb|anneal] [-threads n] [-seed s] 
+ * [-population p] [-generations g] [-elite e] [-tournament k] [-crossover c]
+ * [-mutation m] [-start device] [-steps n] [-temperature t] [-cooling f]
+ * [-prescreen x] [-cache cacheFile]
+ *
+ * The method ga (the default) is the evolutionary optimizer. Each generation
+ * the e best devices are kept, the other devices of the new generation are
+ * children of parents that win a tournament between k random devices. A
+ * child is a crossover of two parents with probability c, and it is mutated
+ * with probability m. See EvolutionaryOptimizer.
+ *
+ * The methods climb (hill climbing) and anneal (simulated annealing) refine
+ * one device, the start device (a device string as printed by the other
+ * programs) or a random device, in at most n steps. Simulated annealing 
+ * starts at temperature t, which is multiplied by f after each step. See
+ * LocalSearch.
+ *
+ * With -cache the scores are looked up in and added to a score cache file,
+ * see ScoreCache. The seed should then be given with -seed.
+ *
+ * @author Bastiaan van den Berg
+ */
+public class OptimizerSettings {
+
+	/** The evolutionary optimizer. */
+	public static final String GENETIC_ALGORITHM = "ga";
+	/** Local search that moves to the best neighbour. */
+	public static final String HILL_CLIMBING = "climb";
+	/** Local search that moves to an accepted neighbour. */
+	public static final String SIMULATED_ANNEALING = "anneal";
+
+	private String deviceName;
+	private String method = GENETIC_ALGORITHM;
+	private int numWorkers;
+	private long seed;
+	private int populationSize = 50;
+	private int numGenerations = 20;
+	private int numElite = 2;
+	private int tournamentSize = 3;
+	private double crossoverRate = 0.7;
+	private double mutationRate = 0.8;
+	private String start;
+	private int numSteps = 100;
+	private double temperature = 10;
+	private double cooling = 0.95;
+	private double prescreen = Double.NEGATIVE_INFINITY;
+	private String cache;
+
+	/**
+	 * Default settings: no device name, one worker per processor, and a time
+	 * based seed.
+	 */
+	public OptimizerSettings() {
+		numWorkers = Runtime.getRuntime().availableProcessors();
+		seed = System.currentTimeMillis();
+	}
+
+	/**
+	 * Parses the command line arguments.
+	 * @param args
+	 * @return The optimizer settings.
+	 * @throws IllegalArgumentException If an argument is not recognized or
+	 * out of range.
+	 */
+	public static OptimizerSettings fromArguments(String[] args) {
+		OptimizerSettings settings = new OptimizerSettings();
+		boolean seedGiven = false;
+		for(int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if(arg.equals("-threads")) {
+				settings.numWorkers = Integer.valueOf(value(args, ++i, arg));
+				if(settings.numWorkers < 1) {
+					throw new IllegalArgumentException("The number of threads should be at least 1.");
+				}
+			}
+			else if(arg.equals("-seed")) {
+				settings.seed = Long.valueOf(value(args, ++i, arg));
+				seedGiven = true;
+			}
+			else if(arg.equals("-population")) {
+				settings.populationSize = Integer.valueOf(value(args, ++i, arg));
+				if(settings.populationSize < 2) {
+					throw new IllegalArgumentException("The population size should be at least 2.");
+				}
+			}
+			else if(arg.equals("-generations")) {
+				settings.numGenerations = Integer.valueOf(value(args, ++i, arg));
+				if(settings.numGenerations < 0) {
+					throw new IllegalArgumentException("The number of generations should not be negative.");
+				}
+			}
+			else if(arg.equals("-elite")) {
+				settings.numElite = Integer.valueOf(value(args, ++i, arg));
+				if(settings.numElite < 0) {
+					throw new IllegalArgumentException("The number of elite devices should not be negative.");
+				}
+			}
+			else if(arg.equals("-tournament")) {
+				settings.tournamentSize = Integer.valueOf(value(args, ++i, arg));
+				if(settings.tournamentSize < 1) {
+					throw new IllegalArgumentException("The tournament size should be at least 1.");
+				}
+			}
+			else if(arg.equals("-crossover")) {
+				settings.crossoverRate = probability(value(args, ++i, arg), arg);
+			}
+			else if(arg.equals("-mutation")) {
+				settings.mutationRate = probability(value(args, ++i, arg), arg);
+			}
+			else if(arg.equals("-method")) {
+				settings.method = value(args, ++i, arg);
+				if(!settings.method.equals(GENETIC_ALGORITHM) && !settings.method.equals(HILL_CLIMBING) &&
+						!settings.method.equals(SIMULATED_ANNEALING)) {
+					throw new IllegalArgumentException("Unknown method: " + settings.method);
+				}
+			}
+			else if(arg.equals("-start")) {
+				settings.start = value(args, ++i, arg);
+			}
+			else if(arg.equals("-steps")) {
+				settings.numSteps = Integer.valueOf(value(args, ++i, arg));
+				if(settings.numSteps < 0) {
+					throw new IllegalArgumentException("The number of steps should not be negative.");
+				}
+			}
+			else if(arg.equals("-temperature")) {
+				settings.temperature = Double.valueOf(value(args, ++i, arg));
+				if(!(settings.temperature > 0)) {
+					throw new IllegalArgumentException("The temperature should be positive.");
+				}
+			}
+			else if(arg.equals("-cooling")) {
+				settings.cooling = probability(value(args, ++i, arg), arg);
+			}
+			else if(arg.equals("-prescreen")) {
+				settings.prescreen = Double.valueOf(value(args, ++i, arg));
+			}
+			else if(arg.equals("-cache")) {
+				settings.cache = value(args, ++i, arg);
+			}
+			else if(!arg.startsWith("-") && settings.deviceName == null) {
+				settings.deviceName = arg;
+			}
+			else {
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+		if(settings.numElite >= settings.populationSize) {
+			throw new IllegalArgumentException("The number of elite devices should be below the population size.");
+		}
+		if(settings.cache != null && !seedGiven) {
+			// a time based seed would never find the cached scores
+			throw new IllegalArgumentException("Give the seed with -seed when using -cache.");
+		}
+		return settings;
+	}
+
+	private static String value(String[] args, int index, String option) {
+		if(index >= args.length) {
+			throw new IllegalArgumentException("Missing value for " + option);
+		}
+		return args[index];
+	}
+
+	private static double probability(String value, String option) {
+		double p = Double.valueOf(value);
+		if(p < 0 || p > 1) {
+			throw new IllegalArgumentException("The value of " + option + " should be between 0 and 1.");
+		}
+		return p;
+	}
+
+	/**
+	 * @return The name of the logic device, null if not given.
+	 */
+	public String getDeviceName() {
+		return deviceName;
+	}
+
+	/**
+	 * @param deviceName
+	 */
+	public void setDeviceName(String deviceName) {
+		this.deviceName = deviceName;
+	}
+
+	/**
+	 * @return The search method, GENETIC_ALGORITHM, HILL_CLIMBING or 
+	 * SIMULATED_ANNEALING.
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * @return The number of simulations that run in parallel.
+	 */
+	public int getNumWorkers() {
+		return numWorkers;
+	}
+
+	/**
+	 * @return The seed of the search, and from which the random seed of each
+	 * device simulation is derived.
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * @return The number of devices per generation.
+	 */
+	public int getPopulationSize() {
+		return populationSize;
+	}
+
+	/**
+	 * @return The number of generations after the first, random, generation.
+	 */
+	public int getNumGenerations() {
+		return numGenerations;
+	}
+
+	/**
+	 * @return The number of best devices that are kept in the next generation.
+	 */
+	public int getNumElite() {
+		return numElite;
+	}
+
+	/**
+	 * @return The number of random devices of which the best becomes a parent.
+	 */
+	public int getTournamentSize() {
+		return tournamentSize;
+	}
+
+	/**
+	 * @return The probability that a child is a crossover of two parents.
+	 */
+	public double getCrossoverRate() {
+		return crossoverRate;
+	}
+
+	/**
+	 * @return The probability that a child is mutated.
+	 */
+	public double getMutationRate() {
+		return mutationRate;
+	}
+
+	/**
+	 * @return The string representation of the device where a local search
+	 * starts, null for a random device.
+	 */
+	public String getStart() {
+		return start;
+	}
+
+	/**
+	 * @return The maximal number of steps of a local search.
+	 */
+	public int getNumSteps() {
+		return numSteps;
+	}
+
+	/**
+	 * @return The start temperature of simulated annealing.
+	 */
+	public double getTemperature() {
+		return temperature;
+	}
+
+	/**
+	 * @return The factor by which the temperature is multiplied after each
+	 * step of simulated annealing.
+	 */
+	public double getCooling() {
+		return cooling;
+	}
+
+	/**
+	 * @return The ODE score that a device should reach to be simulated
+	 * stochastically, Double.NEGATIVE_INFINITY if all devices are simulated.
+	 */
+	public double getPrescreen() {
+		return prescreen;
+	}
+
+	/**
+	 * @return The score cache file, null for none.
+	 */
+	public String getCache() {
+		return cache;
+	}
+}
@@ -0,0 +1,375 @@
+package bd.gene_network.logic;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import bd.biopart.Device;
+import bd.biopart.DeviceFingerprint;
+
+/**
+ * Runs the simulations of all devices of a sweep on multiple worker threads.
+ * The devices are submitted to a work stealing pool, so that a worker that is
+ * done with a fast device takes the next one while others are still busy with
+ * slow devices. Only devices within a window after the next device to write
+ * are submitted, so that the devices can be generated lazily and a slow 
+ * device does not let the finished results that wait for it pile up.
+ *
+ * Each device simulation gets its own random seed that is derived from the
+ * seed of the sweep and the fingerprint of the device (see DeviceFingerprint),
+ * so a device gets the same score in every sweep or search with the same seed,
+ * whatever its index. The results are written in device order, so that a 
+ * sweep with the same seed gives the same result file independent of the 
+ * number of workers.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class ParallelSweep {
+
+	// maximum number of devices per worker that are submitted or finished 
+	// but not written yet
+	private static final int DEVICES_PER_WORKER = 16;
+	// number of devices per line of progress dots
+	private static final int DEVICES_PER_LINE = 100;
+
+	private static final DeviceFingerprint fingerprint = new DeviceFingerprint();
+
+	private LogicGeneNetworkSettings settings;
+	private int numWorkers;
+	private long seed;
+	private ScoreCutoff cutoff;
+	private double prescreen = Double.NEGATIVE_INFINITY;
+	private ScoreCache cache;
+	private SweepMetrics metrics;
+
+	// number of devices of which the simulation was stopped early
+	private AtomicLong numStopped = new AtomicLong();
+	// number of devices that were not simulated stochastically
+	private AtomicLong numScreened = new AtomicLong();
+
+	// output
+	private ResultWriter writer;
+	private long numDevices;
+	private long startTime;
+	// index of the first device that is simulated, the ones before are done
+	private long firstDevice;
+	// index after the last device that is simulated
+	private long endDevice = Long.MAX_VALUE;
+
+	// finished results that can not be written yet, by device index
+	private Map<Long, Result> pending;
+	private long nextToWrite;
+	// number of devices after nextToWrite that can be submitted
+	private int window;
+
+	// first error that occurred in one of the workers
+	private volatile Throwable error;
+
+	/**
+	 * @param settings The settings of the logic gene network.
+	 * @param numWorkers The number of simulations that run in parallel.
+	 * @param seed The seed from which the device seeds are derived.
+	 */
+	public ParallelSweep(LogicGeneNetworkSettings settings, int numWorkers, long seed) {
+		if(numWorkers < 1) {
+			throw new IllegalArgumentException("The number of workers should be at least 1.");
+		}
+		this.settings = settings;
+		this.numWorkers = numWorkers;
+		this.seed = seed;
+	}
+
+	/**
+	 * Simulations of devices that are unlikely to reach the cutoff are stopped
+	 * early, their score is an optimistic estimate. The best scores are added to the
+	 * cutoff. Note that when the cutoff is based on the best devices so far,
+	 * which devices are stopped depends on the order in which the simulations
+	 * finish, and thereby on the number of workers.
+	 * @param cutoff The score cutoff, null to simulate all devices completely.
+	 */
+	public void setScoreCutoff(ScoreCutoff cutoff) {
+		this.cutoff = cutoff;
+	}
+
+	/**
+	 * Devices of which the score of the deterministic (ODE) trajectory is 
+	 * below the prescreen score are not simulated stochastically, their ODE
+	 * score is written instead. An ODE score that is not a number, because
+	 * an output does not change at all, is also below it.
+	 * @param prescreen The ODE score that a device should reach, 
+	 * Double.NEGATIVE_INFINITY to simulate all devices stochastically.
+	 */
+	public void setPrescreen(double prescreen) {
+		this.prescreen = prescreen;
+	}
+
+	/**
+	 * Devices of which the score is in the cache, with the same settings and
+	 * device seed, are not simulated again. The scores of the complete 
+	 * simulations are added to the cache.
+	 * @param cache The score cache, null for none. It is not closed.
+	 */
+	public void setScoreCache(ScoreCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * The time of each phase of the devices is added to the metrics: 
+	 * enumerate, prescreen, compile, simulate and score. The writer adds the
+	 * time of writing, see ResultWriter.setMetrics.
+	 * @param metrics The metrics of the sweep, null for none.
+	 */
+	public void setMetrics(SweepMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Starts at a device after the first one, for a sweep that is resumed
+	 * (see SweepCheckpoint) or a shard of a sweep. The devices get the same 
+	 * seeds as in a sweep that is not split or interrupted.
+	 * @param firstDevice The index of the first device that is simulated.
+	 */
+	public void setFirstDevice(long firstDevice) {
+		this.firstDevice = firstDevice;
+	}
+
+	/**
+	 * Simulates only the devices before the end device, for a shard of a 
+	 * sweep, see SweepShards.
+	 * @param endDevice The index after the last device that is simulated.
+	 */
+	public void setEndDevice(long endDevice) {
+		this.endDevice = endDevice;
+	}
+
+	/**
+	 * @return The number of devices that were not simulated stochastically 
+	 * because of their ODE score.
+	 */
+	public long getNumScreened() {
+		return numScreened.get();
+	}
+
+	/**
+	 * @return The number of devices of which the simulation was stopped early.
+	 */
+	public long getNumStopped() {
+		return numStopped.get();
+	}
+
+	/**
+	 * Simulates all devices, from the first device on up to the end device, 
+	 * and writes the results to the writer in the order of the devices.
+	 * @param devices The devices to simulate, from the first device on, see 
+	 * DesignSpace.iterator.
+	 * @param numDevices The number of devices, used to estimate the time left.
+	 * @param writer The writer to which the results are written, it is not 
+	 * closed.
+	 * @throws RuntimeException If the simulation of one of the devices failed.
+	 */
+	public void run(Iterator<Device> devices, long numDevices, ResultWriter writer) {
+		this.writer = writer;
+		this.numDevices = numDevices;
+		this.pending = new HashMap<Long, Result>();
+		this.nextToWrite = firstDevice;
+		this.window = numWorkers * DEVICES_PER_WORKER;
+		this.error = null;
+		this.numStopped.set(0);
+		this.numScreened.set(0);
+		this.startTime = new Date().getTime()/1000;
+
+		ForkJoinPool pool = new ForkJoinPool(numWorkers);
+		try {
+			long index = firstDevice;
+			while(index < endDevice && devices.hasNext() && awaitWindow(index)) {
+				long time = System.nanoTime();
+				Device device = devices.next();
+				if(metrics != null) {
+					metrics.add(SweepMetrics.ENUMERATE, System.nanoTime() - time);
+				}
+				pool.execute(new DeviceTask(index, device));
+				index++;
+			}
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+		}
+		catch(InterruptedException ie) {
+			pool.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Sweep interrupted.", ie);
+		}
+
+		if(error != null) {
+			throw new RuntimeException("Simulation of a device failed.", error);
+		}
+	}
+
+	/**
+	 * Derives the seed of a device simulation from the seed of a sweep or 
+	 * search and the fingerprint of the device, using the SplitMix64 mixing
+	 * function, so that similar devices get unrelated random streams.
+	 * @param seed The seed of a sweep or search.
+	 * @param device
+	 * @return The seed for the simulation of the device.
+	 */
+	public static int deviceSeed(long seed, Device device) {
+		long z = seed + fingerprint.hash(device) * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		return (int) (z ^ (z >>> 32));
+	}
+
+	/**
+	 * Waits until a device is within the window after the next device to 
+	 * write, or until a simulation failed.
+	 * @param index The index of the device.
+	 * @return False if a simulation failed.
+	 * @throws InterruptedException
+	 */
+	private synchronized boolean awaitWindow(long index) throws InterruptedException {
+		while(error == null && index >= nextToWrite + window) {
+			wait();
+		}
+		return error == null;
+	}
+
+	/**
+	 * Stores a finished result and writes all results that are next in line.
+	 * @param result
+	 * @throws IOException If a result could not be written.
+	 */
+	private synchronized void finished(Result result) throws IOException {
+		pending.put(result.index, result);
+		Result next = pending.remove(nextToWrite);
+		while(next != null) {
+			writer.write(next.score, next.device, next.status);
+			if(metrics != null) {
+				metrics.addDevice();
+			}
+			progress(nextToWrite);
+			nextToWrite++;
+			next = pending.remove(nextToWrite);
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Show the user the progress, a dot per device.
+	 * @param counter The index of the device that is written.
+	 */
+	private void progress(long counter) {
+		if(counter % DEVICES_PER_LINE == 0) {
+			System.out.print("Devices " + counter + "..." + (counter+DEVICES_PER_LINE-1) + ": ");
+		}
+		System.out.print(".");
+		if(counter % DEVICES_PER_LINE == DEVICES_PER_LINE-1) {
+			System.out.println(", done.");
+			int runTime = (int) (new Date().getTime()/1000 - startTime);
+			long end = Math.min(numDevices, endDevice);
+			long estTime = (long) ((1.0*runTime / (counter+1-firstDevice))*(end-counter-1));
+			System.out.println("Simulation time (sec): " + runTime);
+			System.out.println("Expected time left (sec): " + estTime);
+		}
+	}
+
+	/**
+	 * Simulation of one device.
+	 */
+	private class DeviceTask implements Runnable {
+
+		private long index;
+		private Device device;
+
+		public DeviceTask(long index, Device device) {
+			this.index = index;
+			this.device = device;
+		}
+
+		public void run() {
+			try {
+				if(error == null && prescreen > Double.NEGATIVE_INFINITY) {
+					double[] score = runOde(device);
+					if(!(score[score.length-1] >= prescreen)) {
+						numScreened.incrementAndGet();
+						finished(new Result(index, device, score, ResultWriter.PRESCREENED));
+						return;
+					}
+				}
+				if(error == null) {
+					double[] score = cache == null ? null : cache.get(device, seed);
+					boolean complete = true;
+					if(score == null) {
+						CorrelationScore scoreFunction = new CorrelationScore();
+						complete = LogicGeneNetworkSimulation.run(device, settings, 
+								deviceSeed(seed, device), cutoff, metrics, scoreFunction);
+						score = scoreFunction.getResult();
+						if(complete && cache != null) {
+							cache.put(device, seed, score);
+						}
+					}
+					if(!complete) {
+						numStopped.incrementAndGet();
+					}
+					else if(cutoff != null) {
+						cutoff.add(score[score.length-1]);
+					}
+					finished(new Result(index, device, score, 
+							complete ? ResultWriter.SIMULATED : ResultWriter.STOPPED));
+				}
+			}
+			catch(Throwable t) {
+				synchronized(ParallelSweep.this) {
+					if(error == null) {
+						error = t;
+					}
+					ParallelSweep.this.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param device
+	 * @return The score of the deterministic (ODE) trajectory of the device,
+	 * from the cache if it was simulated before.
+	 */
+	private double[] runOde(Device device) {
+		double[] score = cache == null ? null : cache.getOde(device);
+		if(score == null) {
+			long time = System.nanoTime();
+			score = LogicGeneNetworkSimulation.runOde(device, settings);
+			if(metrics != null) {
+				metrics.add(SweepMetrics.PRESCREEN, System.nanoTime() - time);
+			}
+			if(cache != null) {
+				cache.putOde(device, score);
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * Score of a simulated device.
+	 */
+	private static class Result {
+
+		private long index;
+		private Device device;
+		private double[] score;
+		// how the score was obtained, see ResultWriter
+		private byte status;
+
+		public Result(long index, Device device, double[] score, byte status) {
+			this.index = index;
+			this.device = device;
+			this.score = score;
+			this.status = status;
+		}
+	}
+}
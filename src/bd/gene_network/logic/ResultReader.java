@@ -0,0 +1,315 @@
+package bd.gene_network.logic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import bd.biopart.Device;
+
+/**
+ * Reads the records of a result file that is written by a ResultWriter, one
+ * record at a time. The main method exports a result file to CSV.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class ResultReader {
+
+	private DataInputStream in;
+	private List<String> names = new ArrayList<String>();
+
+	// the current block
+	private String deviceName;
+	private int numGenerators;
+	private int numSignals;
+	private int numScores;
+	private int recordsLeft;
+
+	// the current record
+	private int[] partIds;
+	private byte status;
+	private float[] score;
+
+	/**
+	 * @param file A result file.
+	 * @throws IOException If the file can not be read or is not a result file.
+	 */
+	public ResultReader(File file) throws IOException {
+		in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		if(in.readInt() != ResultWriter.MAGIC) {
+			in.close();
+			throw new IOException(file.getPath() + " is not a result file.");
+		}
+		int version = in.readInt();
+		if(version != ResultWriter.VERSION) {
+			in.close();
+			throw new IOException(file.getPath() + " has version " + version + ", expected " +
+					ResultWriter.VERSION + ".");
+		}
+	}
+
+	/**
+	 * Reads the next record.
+	 * @return False if there are no more records.
+	 * @throws IOException
+	 */
+	public boolean next() throws IOException {
+		while(recordsLeft == 0) {
+			if(!readBlockHeader()) {
+				return false;
+			}
+		}
+		for(int i = 0; i < partIds.length; i++) {
+			partIds[i] = in.readInt();
+		}
+		status = in.readByte();
+		if(status < 0 || status >= ResultWriter.getNumStatuses()) {
+			throw new IOException("A result has an unknown status: " + status);
+		}
+		for(int i = 0; i < numScores; i++) {
+			score[i] = in.readFloat();
+		}
+		recordsLeft--;
+		return true;
+	}
+
+	/**
+	 * @return False at the end of the file.
+	 */
+	private boolean readBlockHeader() throws IOException {
+		int numNewNames;
+		try {
+			numNewNames = in.readInt();
+		}
+		catch(EOFException eofe) {
+			return false;
+		}
+		for(int i = 0; i < numNewNames; i++) {
+			names.add(in.readUTF());
+		}
+		deviceName = names.get(in.readInt());
+		numGenerators = in.readInt();
+		numSignals = in.readInt();
+		numScores = in.readInt();
+		recordsLeft = in.readInt();
+		partIds = new int[4 * numGenerators + numSignals];
+		score = new float[numScores];
+		return true;
+	}
+
+	/**
+	 * @return The score of the current record.
+	 */
+	public float[] getScore() {
+		return score;
+	}
+
+	/**
+	 * @return How the score of the current record was obtained: 
+	 * ResultWriter.SIMULATED, STOPPED or PRESCREENED.
+	 */
+	public byte getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return The name of the device of the current record.
+	 */
+	public String getDeviceName() {
+		return deviceName;
+	}
+
+	/**
+	 * @return The number of protein generators of the device of the current
+	 * record.
+	 */
+	public int getNumProteinGenerators() {
+		return numGenerators;
+	}
+
+	/**
+	 * @param generator The index of a protein generator.
+	 * @param part 0 for the promoter, 1 for the RBS, 2 for the protein coding
+	 * and 3 for the terminator.
+	 * @return The name of a part of the device of the current record, empty
+	 * if the protein generator does not have this part.
+	 */
+	public String getPartName(int generator, int part) {
+		return names.get(partIds[4 * generator + part]);
+	}
+
+	/**
+	 * @return The names of the signals of the device of the current record.
+	 */
+	public String[] getSignalNames() {
+		String[] result = new String[numSignals];
+		for(int i = 0; i < numSignals; i++) {
+			result[i] = names.get(partIds[4 * numGenerators + i]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return The string representation of the device of the current record,
+	 * the same as Device.toString.
+	 */
+	public String getDeviceString() {
+		StringBuilder result = new StringBuilder();
+		result.append('|').append(deviceName).append('[');
+		for(int pg = 0; pg < numGenerators; pg++) {
+			result.append(pg == 0 ? "(" : ";(");
+			for(int part = 0; part < 4; part++) {
+				result.append(part == 0 ? "" : ",").append(getPartName(pg, part));
+			}
+			result.append(')');
+		}
+		result.append("],{");
+		String[] signals = getSignalNames();
+		for(int i = 0; i < signals.length; i++) {
+			result.append(i == 0 ? "" : ",").append(signals[i]);
+		}
+		result.append("}|");
+		return result.toString();
+	}
+
+	/**
+	 * @return The device of the current record, its parts are read from the
+	 * bioparts database.
+	 */
+	public Device getDevice() {
+		return Device.fromStringRepresentation(getDeviceString());
+	}
+
+	/**
+	 * @return The part names in the order of their ids, as far as they are
+	 * read.
+	 */
+	List<String> getNames() {
+		return names;
+	}
+
+	/**
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * Writes all records of a result file as CSV: a header line, then per
+	 * device the scores, the status of the scores (simulated, stopped or 
+	 * prescreened), the parts of each protein generator and the device 
+	 * string.
+	 * @param file A result file.
+	 * @param writer
+	 * @return The number of records.
+	 * @throws IOException
+	 */
+	public static long toCsv(File file, Writer writer) throws IOException {
+		ResultReader reader = new ResultReader(file);
+		long count = 0;
+		try {
+			int headerScores = -1;
+			int headerGenerators = -1;
+			StringBuilder line = new StringBuilder();
+			while(reader.next()) {
+				float[] score = reader.getScore();
+				int numGenerators = reader.getNumProteinGenerators();
+				if(score.length != headerScores || numGenerators != headerGenerators) {
+					writer.write(csvHeader(score.length, numGenerators));
+					headerScores = score.length;
+					headerGenerators = numGenerators;
+				}
+				line.setLength(0);
+				for(float s : score) {
+					line.append(s).append(',');
+				}
+				line.append(ResultWriter.statusName(reader.getStatus())).append(',');
+				for(int pg = 0; pg < numGenerators; pg++) {
+					for(int part = 0; part < 4; part++) {
+						line.append(reader.getPartName(pg, part)).append(',');
+					}
+				}
+				line.append('"').append(reader.getDeviceString()).append("\"\n");
+				writer.write(line.toString());
+				count++;
+			}
+			writer.flush();
+		}
+		finally {
+			reader.close();
+		}
+		return count;
+	}
+
+	/**
+	 * @return The names of the columns, for a default score (see
+	 * CorrelationScore) or other scores.
+	 */
+	private static String csvHeader(int numScores, int numGenerators) {
+		StringBuilder header = new StringBuilder();
+		int perOutput = CorrelationScore.RESULTS_PER_OUTPUT;
+		if((numScores - 1) % perOutput == 0) {
+			for(int out = 0; out < (numScores - 1) / perOutput; out++) {
+				header.append("correlation" + out + ",mean_min_low" + out + ",mean_max_high" + out + ",");
+			}
+			header.append("score,");
+		}
+		else {
+			for(int i = 0; i < numScores; i++) {
+				header.append("score" + i + ",");
+			}
+		}
+		header.append("status,");
+		for(int pg = 0; pg < numGenerators; pg++) {
+			header.append("promoter" + pg + ",rbs" + pg + ",protein_coding" + pg + ",terminator" + pg + ",");
+		}
+		header.append("device\n");
+		return header.toString();
+	}
+
+	/**
+	 * Exports a result file to CSV.
+	 * @param args resultFile [csvFile], the CSV is written to the standard
+	 * output if no CSV file is given.
+	 */
+	public static void main(String[] args) {
+		if(args.length < 1) {
+			System.out.println("Usage: resultFile [csvFile]");
+			return;
+		}
+		try {
+			Writer writer;
+			if(args.length > 1) {
+				writer = new BufferedWriter(new FileWriter(args[1]));
+			}
+			else {
+				writer = new BufferedWriter(new OutputStreamWriter(System.out));
+			}
+			try {
+				long count = toCsv(new File(args[0]), writer);
+				if(args.length > 1) {
+					System.out.println("- Exported " + count + " devices to " + args[1]);
+				}
+			}
+			finally {
+				writer.flush();
+				if(args.length > 1) {
+					writer.close();
+				}
+			}
+		}
+		catch(IOException ioe) {
+			ioe.printStackTrace();
+			System.out.println("An input/output error occured when exporting the result file.");
+		}
+	}
+}
@@ -0,0 +1,521 @@
+package bd.gene_network.logic;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import bd.biopart.DatabaseItem;
+import bd.biopart.Device;
+import bd.biopart.EnvironmentalSignal;
+import bd.biopart.ProteinGenerator;
+
+/**
+ * Writes the results of a sweep to a binary, append-only result file. A text
+ * line per device with the full device string makes the result files of large
+ * sweeps huge and slow to write, a record in the result file only holds the
+ * ids of the parts of the device, the status of the score and the score as 
+ * floats. The status tells how the score was obtained: by a complete 
+ * stochastic simulation, by a simulation that was stopped early (an
+ * optimistic estimate, see EarlyStop) or by the ODE prescreen (usually 
+ * somewhat below the stochastic score). Only scores with the same status
+ * should be compared.
+ *
+ * The records are written in blocks by a background thread, so that the
+ * simulation threads never wait for the disk. Use ResultReader to read a
+ * result file or to export it to CSV.
+ *
+ * A sweep checkpoint can be saved regularly after a block is written, a
+ * resumed sweep appends to the result file after cutting it back to the
+ * length at the checkpoint.
+ *
+ * File layout: a header (magic number, version) followed by blocks. A block
+ * starts with the part names that are used for the first time (their ids
+ * follow those of the earlier names), the id of the device name, the number
+ * of protein generators, signals and scores of the records, and the number of
+ * records. A record holds the ids of the promoter, RBS, protein coding and
+ * terminator of each protein generator, the ids of the signals, the status 
+ * (a byte) and the scores.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class ResultWriter {
+
+	static final int MAGIC = 0x42445253;
+	static final int VERSION = 2;
+
+	/** The status of a score of a complete stochastic simulation. */
+	public static final byte SIMULATED = 0;
+	/** The status of a score of a simulation that was stopped early. */
+	public static final byte STOPPED = 1;
+	/** The status of an ODE score of a device that was not simulated 
+	 * stochastically. */
+	public static final byte PRESCREENED = 2;
+	private static final String[] STATUS_NAMES = {"simulated", "stopped", "prescreened"};
+
+	// maximum number of records per block
+	private static final int BLOCK_SIZE = 4096;
+	// maximum number of records that wait for the writer thread
+	private static final int QUEUE_SIZE = 4 * BLOCK_SIZE;
+	// minimal time between checkpoints (ms)
+	private static final long CHECKPOINT_INTERVAL = 60000;
+
+	// the last record, tells the writer thread to stop
+	private static final Record END = new Record(null, null, SIMULATED);
+
+	private File file;
+	private FileOutputStream fileOut;
+	private DataOutputStream out;
+	private BlockingQueue<Record> queue = new ArrayBlockingQueue<Record>(QUEUE_SIZE);
+	private Thread thread;
+	private volatile IOException error;
+	private long numRecords;
+
+	// used by the writer thread only
+	private Map<String, Integer> ids = new HashMap<String, Integer>();
+	private List<String> newNames = new ArrayList<String>();
+	// the bytes and records in the file after the last block
+	private long length;
+	private long numWritten;
+	private SweepCheckpoint checkpoint;
+	private long lastCheckpoint;
+	private SweepMetrics metrics;
+
+	/**
+	 * Creates the result file and starts the writer thread.
+	 * @param file A new result file.
+	 * @throws IOException If the file can not be created.
+	 */
+	public ResultWriter(File file) throws IOException {
+		this.file = file;
+		open(false);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		start();
+	}
+
+	/**
+	 * Appends to an existing result file and starts the writer thread. The 
+	 * file is cut back to the given length first, the end of the file after
+	 * a checkpoint can be incomplete.
+	 * @param file A result file.
+	 * @param length The length of the file at a checkpoint.
+	 * @param numRecords The number of records before that length.
+	 * @throws IOException If the file can not be read, or if it does not hold
+	 * the given number of records.
+	 */
+	public ResultWriter(File file, long length, long numRecords) throws IOException {
+		this.file = file;
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			if(raf.length() < length) {
+				throw new IOException(file.getPath() + " is shorter than at the checkpoint.");
+			}
+			raf.setLength(length);
+		}
+		finally {
+			raf.close();
+		}
+
+		// the part names and ids that are used so far
+		ResultReader reader = new ResultReader(file);
+		long count = 0;
+		try {
+			while(reader.next()) {
+				count++;
+			}
+			for(String name : reader.getNames()) {
+				ids.put(name, ids.size());
+			}
+		}
+		finally {
+			reader.close();
+		}
+		if(count != numRecords) {
+			throw new IOException(file.getPath() + " holds " + count + " results, expected " + 
+					numRecords + ".");
+		}
+
+		open(true);
+		this.length = length;
+		this.numWritten = numRecords;
+		this.numRecords = numRecords;
+		start();
+	}
+
+	/**
+	 * Opens the output stream, which counts the bytes that reach the file.
+	 * @param append
+	 * @throws IOException
+	 */
+	private void open(boolean append) throws IOException {
+		fileOut = new FileOutputStream(file, append);
+		OutputStream counter = new FilterOutputStream(fileOut) {
+			@Override
+			public void write(int b) throws IOException {
+				out.write(b);
+				length++;
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				out.write(b, off, len);
+				length += len;
+			}
+		};
+		out = new DataOutputStream(new BufferedOutputStream(counter, 1 << 16));
+	}
+
+	/**
+	 * Starts the writer thread.
+	 */
+	private void start() {
+		thread = new Thread(new Runnable() {
+			public void run() {
+				writeBlocks();
+			}
+		}, "ResultWriter " + file.getName());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Saves the checkpoint after the first block is written, then regularly
+	 * after a block is written, and when the writer is closed. Set it before
+	 * the first result is written.
+	 * @param checkpoint
+	 */
+	public void setCheckpoint(SweepCheckpoint checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * Adds the time of writing each block, including the checkpoint, to the
+	 * write phase of the metrics. Set it before the first result is written.
+	 * @param metrics The metrics of the sweep, null for none.
+	 */
+	public void setMetrics(SweepMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return The result file.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return The number of records that are written (or waiting to be
+	 * written).
+	 */
+	public long getNumRecords() {
+		return numRecords;
+	}
+
+	/**
+	 * Adds the result of a device, it is written by the writer thread. The
+	 * results are written in the order in which they are added.
+	 * @param score The score of the device.
+	 * @param device
+	 * @param status SIMULATED, STOPPED or PRESCREENED.
+	 * @throws IOException If writing an earlier result failed.
+	 */
+	public void write(double[] score, Device device, byte status) throws IOException {
+		if(status < 0 || status >= STATUS_NAMES.length) {
+			throw new IllegalArgumentException("Unknown status: " + status);
+		}
+		write(new Record(score, device, status));
+	}
+
+	/**
+	 * @param status SIMULATED, STOPPED or PRESCREENED.
+	 * @return The name of the status, as in the CSV export.
+	 */
+	public static String statusName(byte status) {
+		return status >= 0 && status < STATUS_NAMES.length ? STATUS_NAMES[status] : "unknown";
+	}
+
+	/**
+	 * @return The number of statuses, the statuses are 0 up to this number.
+	 */
+	public static int getNumStatuses() {
+		return STATUS_NAMES.length;
+	}
+
+	/**
+	 * Adds the current record of a reader, to combine result files.
+	 * @param reader
+	 * @throws IOException If writing an earlier result failed.
+	 */
+	public void write(ResultReader reader) throws IOException {
+		write(new Record(reader));
+	}
+
+	private synchronized void write(Record record) throws IOException {
+		checkError();
+		try {
+			queue.put(record);
+			numRecords++;
+		}
+		catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while adding a result.");
+		}
+	}
+
+	/**
+	 * Writes the results that are still waiting, stops the writer thread and
+	 * closes the file.
+	 * @throws IOException If writing a result or closing the file failed.
+	 */
+	public synchronized void close() throws IOException {
+		if(thread == null) {
+			return;
+		}
+		try {
+			queue.put(END);
+			thread.join();
+		}
+		catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while closing the result file.");
+		}
+		finally {
+			thread = null;
+		}
+		checkError();
+	}
+
+	private void checkError() throws IOException {
+		if(error != null) {
+			throw new IOException("Writing " + file.getPath() + " failed: " + error.getMessage());
+		}
+	}
+
+	/**
+	 * The writer thread: takes the waiting records and writes them in blocks,
+	 * until the last record.
+	 */
+	private void writeBlocks() {
+		List<Record> block = new ArrayList<Record>(BLOCK_SIZE);
+		boolean end = false;
+		try {
+			while(!end) {
+				// wait for one record, then take all that are waiting
+				block.add(queue.take());
+				queue.drainTo(block, BLOCK_SIZE - block.size());
+				if(block.get(block.size()-1) == END) {
+					block.remove(block.size()-1);
+					end = true;
+				}
+				if(error == null) {
+					long time = System.nanoTime();
+					writeBlock(block);
+					if(metrics != null) {
+						metrics.add(SweepMetrics.WRITE, System.nanoTime() - time);
+					}
+				}
+				block.clear();
+			}
+			if(error == null) {
+				saveCheckpoint();
+			}
+		}
+		catch(InterruptedException ie) {
+			error = new IOException("Result writer interrupted.");
+		}
+		finally {
+			try {
+				out.close();
+			}
+			catch(IOException ioe) {
+				if(error == null) {
+					error = ioe;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes a list of records, a new block is started when the device name
+	 * or the number of protein generators, signals or scores changes.
+	 * @param records
+	 */
+	private void writeBlock(List<Record> records) {
+		try {
+			int start = 0;
+			while(start < records.size()) {
+				Record first = records.get(start);
+				int end = start + 1;
+				while(end < records.size() && records.get(end).sameShape(first)) {
+					end++;
+				}
+				writeBlock(records, start, end);
+				start = end;
+			}
+			out.flush();
+			numWritten += records.size();
+			if(checkpoint != null) {
+				for(Record record : records) {
+					checkpoint.written(record.score, record.status);
+				}
+			}
+		}
+		catch(IOException ioe) {
+			error = ioe;
+			return;
+		}
+		if(System.currentTimeMillis() - lastCheckpoint >= CHECKPOINT_INTERVAL) {
+			saveCheckpoint();
+		}
+	}
+
+	/**
+	 * Saves the checkpoint, after the written blocks have reached the disk.
+	 * A checkpoint that can not be saved does not stop the sweep.
+	 */
+	private void saveCheckpoint() {
+		if(checkpoint == null) {
+			return;
+		}
+		try {
+			fileOut.getChannel().force(false);
+			checkpoint.save(numWritten, length);
+		}
+		catch(IOException ioe) {
+			System.out.println("\nThe sweep checkpoint could not be saved: " + ioe.getMessage());
+		}
+		lastCheckpoint = System.currentTimeMillis();
+	}
+
+	private void writeBlock(List<Record> records, int start, int end) throws IOException {
+		Record first = records.get(start);
+
+		// ids of the parts, new names are written before the records
+		int[][] recordIds = new int[end-start][];
+		int deviceId = id(first.deviceName);
+		for(int i = start; i < end; i++) {
+			String[] partNames = records.get(i).partNames;
+			int[] partIds = new int[partNames.length];
+			for(int j = 0; j < partNames.length; j++) {
+				partIds[j] = id(partNames[j]);
+			}
+			recordIds[i-start] = partIds;
+		}
+
+		out.writeInt(newNames.size());
+		for(String name : newNames) {
+			out.writeUTF(name);
+		}
+		newNames.clear();
+		out.writeInt(deviceId);
+		out.writeInt(first.numGenerators);
+		out.writeInt(first.partNames.length - 4 * first.numGenerators);
+		out.writeInt(first.score.length);
+		out.writeInt(end-start);
+		for(int i = start; i < end; i++) {
+			for(int id : recordIds[i-start]) {
+				out.writeInt(id);
+			}
+			out.writeByte(records.get(i).status);
+			for(double s : records.get(i).score) {
+				out.writeFloat((float) s);
+			}
+		}
+	}
+
+	/**
+	 * @param name
+	 * @return The id of the name, a new id if the name is used for the first
+	 * time.
+	 */
+	private int id(String name) {
+		Integer id = ids.get(name);
+		if(id == null) {
+			id = ids.size();
+			ids.put(name, id);
+			newNames.add(name);
+		}
+		return id;
+	}
+
+	/**
+	 * The score of a device, with the names of its parts.
+	 */
+	private static class Record {
+
+		private double[] score;
+		private byte status;
+		private String deviceName;
+		// per protein generator the promoter, RBS, protein coding and 
+		// terminator, then the signals
+		private String[] partNames;
+		private int numGenerators;
+
+		public Record(double[] score, Device device, byte status) {
+			this.score = score;
+			this.status = status;
+			if(device != null) {
+				deviceName = device.getName();
+				numGenerators = device.getProteinGenerators().size();
+				int numSignals = device.getSignals() == null ? 0 : device.getSignals().size();
+				partNames = new String[4 * numGenerators + numSignals];
+				int j = 0;
+				for(ProteinGenerator pg : device.getProteinGenerators()) {
+					partNames[j++] = name(pg.getPromoter());
+					partNames[j++] = name(pg.getRBS());
+					partNames[j++] = name(pg.getProteinCoding());
+					partNames[j++] = name(pg.getTerminator());
+				}
+				if(numSignals > 0) {
+					for(EnvironmentalSignal es : device.getSignals()) {
+						partNames[j++] = name(es);
+					}
+				}
+			}
+		}
+
+		public Record(ResultReader reader) {
+			float[] readScore = reader.getScore();
+			score = new double[readScore.length];
+			for(int i = 0; i < score.length; i++) {
+				score[i] = readScore[i];
+			}
+			status = reader.getStatus();
+			deviceName = reader.getDeviceName();
+			numGenerators = reader.getNumProteinGenerators();
+			String[] signals = reader.getSignalNames();
+			partNames = new String[4 * numGenerators + signals.length];
+			for(int pg = 0; pg < numGenerators; pg++) {
+				for(int part = 0; part < 4; part++) {
+					partNames[4 * pg + part] = reader.getPartName(pg, part);
+				}
+			}
+			System.arraycopy(signals, 0, partNames, 4 * numGenerators, signals.length);
+		}
+
+		/**
+		 * @param part A part, or null.
+		 * @return The name of the part, the empty name if it is null.
+		 */
+		private static String name(DatabaseItem part) {
+			return part == null ? "" : part.getName();
+		}
+
+		public boolean sameShape(Record other) {
+			return score.length == other.score.length && numGenerators == other.numGenerators &&
+					partNames.length == other.partNames.length && deviceName.equals(other.deviceName);
+		}
+	}
+}
@@ -0,0 +1,340 @@
+package bd.gene_network.logic;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import bd.biopart.DatabaseItem;
+import bd.biopart.Device;
+import bd.biopart.DeviceFingerprint;
+
+/**
+ * Scores of simulated devices that are kept on disk, so that a device that
+ * was simulated before, in this or an earlier sweep or search or by another
+ * process, is not simulated again. A score is found by the fingerprint of
+ * the device (see DeviceFingerprint) together with the settings of the logic
+ * gene network and the seed of the sweep or search. The seed of the 
+ * simulation is derived from that seed and the device (see ParallelSweep), 
+ * so a cached score is exactly the score that a new simulation would give,
+ * whatever the index of the device. ODE scores do not depend on a seed.
+ *
+ * The file is a hash table with a fixed number of slots that is mapped in
+ * memory, a slot holds the first 16 bytes of the SHA-256 fingerprint and the
+ * score. Processes on the same machine can share a cache file: a score is
+ * added while holding an exclusive lock on the file and looked up while
+ * holding a shared lock, so that a slot is never read half written. Scores
+ * are not added anymore when the table is three quarters full, create a
+ * larger cache file then.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class ScoreCache {
+
+	/** The number of slots of a new cache file. */
+	public static final int DEFAULT_CAPACITY = 1 << 18;
+
+	// change when the models or the scores change, to not use older scores
+	private static final String FORMAT = "score cache 2";
+	private static final long MAGIC = 0x474E4453636F7265L;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+	// the offset of the number of scores in the header
+	private static final int SIZE_OFFSET = 20;
+	private static final int KEY_SIZE = 16;
+	// the longest score that fits in a slot
+	private static final int MAX_SCORE_LENGTH = 16;
+	private static final int SLOT_SIZE = KEY_SIZE + 8 + 8 * MAX_SCORE_LENGTH;
+
+	private File file;
+	private RandomAccessFile raf;
+	private FileChannel channel;
+	private MappedByteBuffer buffer;
+	private int capacity;
+
+	private DeviceFingerprint fingerprint = new DeviceFingerprint();
+	private String context;
+	private long numHits;
+	private long numMisses;
+	private boolean full;
+
+	/**
+	 * Opens a cache file, it is created with the default capacity if it does
+	 * not exist.
+	 * @param file
+	 * @param settings The settings of the logic gene network of which scores
+	 * are looked up and added.
+	 * @throws IOException If the file can not be opened, or is not a cache file.
+	 */
+	public ScoreCache(File file, LogicGeneNetworkSettings settings) throws IOException {
+		this(file, settings, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Opens a cache file, it is created if it does not exist.
+	 * @param file
+	 * @param settings The settings of the logic gene network of which scores
+	 * are looked up and added.
+	 * @param capacity The number of slots of a new cache file.
+	 * @throws IOException If the file can not be opened, or is not a cache file.
+	 * @throws IllegalArgumentException If the capacity is not positive or the
+	 * file would be larger than 2GB.
+	 */
+	public ScoreCache(File file, LogicGeneNetworkSettings settings, int capacity) throws IOException {
+		if(capacity < 1 || (long) capacity * SLOT_SIZE + HEADER_SIZE > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("A cache file can have 1 to " +
+					(Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE + " slots.");
+		}
+		this.file = file;
+		this.context = context(settings);
+		this.raf = new RandomAccessFile(file, "rw");
+		this.channel = raf.getChannel();
+		try {
+			FileLock lock = channel.lock();
+			try {
+				if(raf.length() == 0) {
+					// a new cache file
+					raf.setLength(HEADER_SIZE + (long) capacity * SLOT_SIZE);
+					raf.writeLong(MAGIC);
+					raf.writeInt(VERSION);
+					raf.writeInt(capacity);
+					raf.writeInt(MAX_SCORE_LENGTH);
+					raf.writeInt(0);
+				}
+				raf.seek(0);
+				if(raf.length() < HEADER_SIZE || raf.readLong() != MAGIC || raf.readInt() != VERSION) {
+					throw new IOException(file.getPath() + " is not a score cache file.");
+				}
+				this.capacity = raf.readInt();
+				if(raf.readInt() != MAX_SCORE_LENGTH || raf.length() != HEADER_SIZE + (long) this.capacity * SLOT_SIZE) {
+					throw new IOException(file.getPath() + " is not a score cache file.");
+				}
+			}
+			finally {
+				lock.release();
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+		}
+		catch(IOException ioe) {
+			raf.close();
+			throw ioe;
+		}
+	}
+
+	/**
+	 * @return What the scores depend on besides the device: the settings of
+	 * the logic gene network that change the model or its score.
+	 */
+	private String context(LogicGeneNetworkSettings settings) {
+		StringBuilder result = new StringBuilder(FORMAT);
+		result.append("\nname=").append(settings.getName());
+		// the vertices and edges of the template
+		result.append("\ntemplate=").append(settings.getGeneNetwork());
+		result.append("\ninput=").append(sorted(settings.getInput()));
+		result.append("\noutput=").append(sorted(settings.getOutput()));
+		List<String> plots = new ArrayList<String>();
+		for(Map.Entry<String, boolean[]> entry : settings.getBinaryTimingDiagram().entrySet()) {
+			StringBuilder plot = new StringBuilder(entry.getKey()).append(':');
+			for(boolean b : entry.getValue()) {
+				plot.append(b ? '1' : '0');
+			}
+			plots.add(plot.toString());
+		}
+		Collections.sort(plots);
+		result.append("\nbinary_timing_diagram=").append(plots);
+		result.append("\nstate_time=").append(settings.getStateTime());
+		result.append("\nsimulator=").append(settings.getSimulator());
+		return result.toString();
+	}
+
+	private String sorted(Map<String, ? extends DatabaseItem> items) {
+		List<String> result = new ArrayList<String>();
+		for(Map.Entry<String, ? extends DatabaseItem> entry : items.entrySet()) {
+			result.add(entry.getKey() + ":" + fingerprint.canonicalForm(entry.getValue()));
+		}
+		Collections.sort(result);
+		return result.toString();
+	}
+
+	/**
+	 * @param device
+	 * @param seed The seed of the sweep or search, see 
+	 * ParallelSweep.deviceSeed(long, Device).
+	 * @return The score of the device, null if it is not in the cache.
+	 */
+	public double[] get(Device device, long seed) {
+		return get(key(device, "seed=" + seed));
+	}
+
+	/**
+	 * Adds the score of a device, only scores of complete simulations should
+	 * be added.
+	 * @param device
+	 * @param seed The seed of the sweep or search, see 
+	 * ParallelSweep.deviceSeed(long, Device).
+	 * @param score
+	 */
+	public void put(Device device, long seed, double[] score) {
+		put(key(device, "seed=" + seed), score);
+	}
+
+	/**
+	 * @param device
+	 * @return The score of the deterministic (ODE) trajectory of the device,
+	 * null if it is not in the cache.
+	 */
+	public double[] getOde(Device device) {
+		return get(key(device, "ode"));
+	}
+
+	/**
+	 * Adds the score of the deterministic (ODE) trajectory of a device.
+	 * @param device
+	 * @param score
+	 */
+	public void putOde(Device device, double[] score) {
+		put(key(device, "ode"), score);
+	}
+
+	/**
+	 * @return The number of scores that were found.
+	 */
+	public synchronized long getNumHits() {
+		return numHits;
+	}
+
+	/**
+	 * @return The number of scores that were not found.
+	 */
+	public synchronized long getNumMisses() {
+		return numMisses;
+	}
+
+	/**
+	 * @return The number of scores in the cache file.
+	 */
+	public synchronized int size() {
+		return buffer.getInt(SIZE_OFFSET);
+	}
+
+	/**
+	 * @return The file of the cache.
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Writes the added scores to disk and closes the file.
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		buffer.force();
+		raf.close();
+	}
+
+	private byte[] key(Device device, String simulation) {
+		return fingerprint.fingerprint(context + "\n" + simulation, device);
+	}
+
+	/**
+	 * @param key
+	 * @return The slot of the key, or of the empty slot where it belongs.
+	 */
+	private int find(byte[] key) {
+		long hash = 0;
+		for(int i = 0; i < 8; i++) {
+			hash = (hash << 8) | (key[i] & 0xFF);
+		}
+		int slot = (int) ((hash >>> 1) % capacity);
+		while(true) {
+			int offset = HEADER_SIZE + slot * SLOT_SIZE;
+			if(buffer.getInt(offset + KEY_SIZE) == 0) {
+				return slot;
+			}
+			boolean equal = true;
+			for(int i = 0; i < KEY_SIZE && equal; i++) {
+				equal = buffer.get(offset + i) == key[i];
+			}
+			if(equal) {
+				return slot;
+			}
+			slot = (slot + 1) % capacity;
+		}
+	}
+
+	private synchronized double[] get(byte[] key) {
+		try {
+			// other processes add scores to the same file
+			FileLock lock = channel.lock(0, Long.MAX_VALUE, true);
+			try {
+				int offset = HEADER_SIZE + find(key) * SLOT_SIZE;
+				int length = buffer.getInt(offset + KEY_SIZE);
+				if(length == 0) {
+					numMisses++;
+					return null;
+				}
+				double[] score = new double[length];
+				for(int i = 0; i < length; i++) {
+					score[i] = buffer.getDouble(offset + KEY_SIZE + 8 + 8 * i);
+				}
+				numHits++;
+				return score;
+			}
+			finally {
+				lock.release();
+			}
+		}
+		catch(IOException ioe) {
+			// the device is simulated
+			ioe.printStackTrace();
+			numMisses++;
+			return null;
+		}
+	}
+
+	private synchronized void put(byte[] key, double[] score) {
+		if(score.length == 0 || score.length > MAX_SCORE_LENGTH || full) {
+			return;
+		}
+		try {
+			// other processes add scores to the same file
+			FileLock lock = channel.lock();
+			try {
+				int size = buffer.getInt(SIZE_OFFSET);
+				if(size >= capacity / 4 * 3) {
+					full = true;
+					System.out.println("\nThe score cache " + file.getPath() + " is full, new scores are " +
+							"not cached.");
+					return;
+				}
+				int offset = HEADER_SIZE + find(key) * SLOT_SIZE;
+				if(buffer.getInt(offset + KEY_SIZE) != 0) {
+					// added by another process or thread
+					return;
+				}
+				for(int i = 0; i < score.length; i++) {
+					buffer.putDouble(offset + KEY_SIZE + 8 + 8 * i, score[i]);
+				}
+				for(int i = 0; i < KEY_SIZE; i++) {
+					buffer.put(offset + i, key[i]);
+				}
+				buffer.putInt(offset + KEY_SIZE, score.length);
+				buffer.putInt(SIZE_OFFSET, size + 1);
+			}
+			finally {
+				lock.release();
+			}
+		}
+		catch(IOException ioe) {
+			// the score is not cached, the sweep goes on
+			ioe.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package bd.gene_network.logic;
+
+import java.util.PriorityQueue;
+
+/**
+ * The score that a device should be able to reach to be simulated completely.
+ * The cutoff is a fixed threshold, or the score of the N-th best device so
+ * far if that is higher. Simulations of devices that are unlikely to reach the
+ * cutoff are stopped early, see EarlyStop. The cutoff is shared by all
+ * device simulations of a sweep.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class ScoreCutoff {
+
+	private double threshold;
+	private int topN;
+	private int minRuns;
+	// the best topN scores so far, the lowest first
+	private PriorityQueue<Double> best;
+	private volatile double cutoff;
+
+	/**
+	 * @param threshold The minimal score, Double.NEGATIVE_INFINITY for none.
+	 * @param topN The number of best devices that are kept, 0 for none.
+	 * @param minRuns The number of simulation runs of a device that are 
+	 * always done.
+	 */
+	public ScoreCutoff(double threshold, int topN, int minRuns) {
+		if(topN < 0) {
+			throw new IllegalArgumentException("The number of best devices should not be negative.");
+		}
+		if(minRuns < 1) {
+			throw new IllegalArgumentException("The minimal number of runs should be at least 1.");
+		}
+		this.threshold = threshold;
+		this.topN = topN;
+		this.minRuns = minRuns;
+		this.best = new PriorityQueue<Double>();
+		this.cutoff = threshold;
+	}
+
+	/**
+	 * @return A new cutoff with the same threshold, number of best devices 
+	 * and minimal number of runs, without the scores of this cutoff.
+	 */
+	public ScoreCutoff emptyCopy() {
+		return new ScoreCutoff(threshold, topN, minRuns);
+	}
+
+	/**
+	 * @return The score that a device should be able to reach.
+	 */
+	public double getCutoff() {
+		return cutoff;
+	}
+
+	/**
+	 * @return The number of simulation runs of a device that are always done,
+	 * before a simulation can be stopped.
+	 */
+	public int getMinRuns() {
+		return minRuns;
+	}
+	
+	/**
+	 * Adds the score of a simulated device, this raises the cutoff when the
+	 * device is one of the best topN devices.
+	 * @param score The score of a device.
+	 */
+	public synchronized void add(double score) {
+		if(topN == 0 || Double.isNaN(score)) {
+			return;
+		}
+		if(best.size() < topN) {
+			best.add(score);
+		}
+		else if(score > best.peek()) {
+			best.poll();
+			best.add(score);
+		}
+		if(best.size() == topN) {
+			cutoff = Math.max(threshold, best.peek());
+		}
+	}
+	
+	/**
+	 * @return The best topN scores so far, in no particular order. Adding 
+	 * them to a new cutoff with the same settings gives the same cutoff.
+	 */
+	public synchronized double[] getBest() {
+		double[] result = new double[best.size()];
+		int i = 0;
+		for(double score : best) {
+			result[i++] = score;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,45 @@
+package bd.gene_network.logic;
+
+/**
+ * A function that scores the simulation of a logic gene network device. The
+ * samples of the output species are passed one by one, in time order per
+ * output, so that a score function only has to keep track of the statistics
+ * it needs and never has to store the trajectories. Multiple score functions
+ * can be calculated on the samples of the same simulation.
+ *
+ * For each simulation, start is called first. Then for each output the
+ * samples of each state are passed: state is called at the start of each
+ * state, followed by a sample call for each sample in that state. Finally,
+ * getResult returns the score.
+ * @author Bastiaan van den Berg
+ *
+ */
+public interface ScoreFunction {
+
+	/**
+	 * Called before the samples of a simulation are passed. Resets the
+	 * function, so that the same object can be used for multiple simulations.
+	 * @param numOutputs The number of output species.
+	 */
+	public void start(int numOutputs);
+
+	/**
+	 * Called at the start of a state of one of the outputs.
+	 * @param output The index of the output.
+	 * @param high True if the output should be high in this state.
+	 */
+	public void state(int output, boolean high);
+
+	/**
+	 * Passes a sample of one of the outputs.
+	 * @param output The index of the output.
+	 * @param desired The desired value, 0 for low and 1 for high.
+	 * @param measured The measured (averaged) amount of the output species.
+	 */
+	public void sample(int output, double desired, double measured);
+
+	/**
+	 * @return The score, calculated from all samples passed since start.
+	 */
+	public double[] getResult();
+}
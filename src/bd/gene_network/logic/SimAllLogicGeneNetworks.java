@@ -1,13 +1,12 @@
 package bd.gene_network.logic;
 
 
-import java.io.BufferedWriter;
+import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.Date;
-import java.util.List;
+import java.io.IOException;
 import java.util.Scanner;
 
-import bd.biopart.Device;
+import bd.gene_network.DesignSpace;
 import bd.gene_network.GeneNetworkBuilder;
 import bd.global.Constants;
 
@@ -21,33 +20,96 @@ public class SimAllLogicGeneNetworks {
 
 	
 	/**
-	 * @param args
+	 * @param args [deviceName] [-threads n] [-seed s] [-threshold x] [-top n]
+	 * [-minruns k] [-prescreen p] [-resume resultFile] [-shards n] 
+	 * [-join resultFile] [-cache cacheFile] [-representatives] [-metrics seconds], the user 
+	 * is asked for the device name if it is not given. See SweepSettings.
 	 */
 	public static void main(String[] args) {
 		
-		// create a scanner to read user input
-		Scanner s = new Scanner(System.in);
+		SweepSettings sweepSettings;
+		try {
+			sweepSettings = SweepSettings.fromArguments(args);
+		}
+		catch(IllegalArgumentException iae) {
+			System.out.println(iae.getMessage());
+			System.out.println("Usage: [deviceName] [-threads n] [-seed s] [-threshold x] [-top n] " +
+					"[-minruns k] [-prescreen p] [-resume resultFile] [-shards n] [-join resultFile] " +
+					"[-cache cacheFile] [-representatives] [-metrics seconds]");
+			return;
+		}
+		
+		// a resumed sweep continues with the settings of its checkpoint
+		SweepCheckpoint checkpoint = null;
+		if(sweepSettings.getResume() != null) {
+			try {
+				checkpoint = SweepCheckpoint.load(new File(sweepSettings.getResume()));
+			}
+			catch(IOException ioe) {
+				System.out.println("The sweep can not be resumed: " + ioe.getMessage());
+				return;
+			}
+			SweepSettings resumed = checkpoint.getSweepSettings();
+			resumed.setNumWorkers(sweepSettings.getNumWorkers());
+			resumed.setResume(sweepSettings.getResume());
+			resumed.setCache(sweepSettings.getCache());
+			resumed.setMetricsInterval(sweepSettings.getMetricsInterval());
+			sweepSettings = resumed;
+		}
+		
+		// a process that joins a sharded sweep reads the settings of the sweep
+		SweepShards shards = null;
+		if(sweepSettings.getJoin() != null) {
+			try {
+				shards = SweepShards.open(new File(sweepSettings.getJoin()));
+			}
+			catch(IOException ioe) {
+				System.out.println("The sweep can not be joined: " + ioe.getMessage());
+				return;
+			}
+			SweepSettings joined = shards.getSweepSettings();
+			joined.setNumWorkers(sweepSettings.getNumWorkers());
+			joined.setJoin(sweepSettings.getJoin());
+			joined.setCache(sweepSettings.getCache());
+			joined.setMetricsInterval(sweepSettings.getMetricsInterval());
+			sweepSettings = joined;
+		}
 		
 		GeneNetworkBuilder ldb = null;
-		boolean correct = false;
 		
-		while(!correct) {
-			// ask for device (string representation)
-			System.out.print("\nProvide the name of the logic device name or 'q' to go back to the main menu: ");
-			// read answer
-			String deviceName = s.next();
-			
-			if(deviceName.equals("q")) {
-				correct = true;
+		if(sweepSettings.getDeviceName() != null) {
+			try {
+				ldb = new GeneNetworkBuilder(sweepSettings.getDeviceName());
 			}
-			else {
-				// logic device builder
-				try {
-					ldb = new GeneNetworkBuilder(deviceName);
+			catch(FileNotFoundException fnfe) {
+				System.out.println(fnfe.getMessage());
+				return;
+			}
+		}
+		else {
+			// create a scanner to read user input
+			Scanner s = new Scanner(System.in);
+			boolean correct = false;
+			
+			while(!correct) {
+				// ask for device (string representation)
+				System.out.print("\nProvide the name of the logic device name or 'q' to go back to the main menu: ");
+				// read answer
+				String deviceName = s.next();
+				
+				if(deviceName.equals("q")) {
 					correct = true;
 				}
-				catch(FileNotFoundException fnfe) {
-					System.out.println(fnfe.getMessage());
+				else {
+					// logic device builder
+					try {
+						ldb = new GeneNetworkBuilder(deviceName);
+						sweepSettings.setDeviceName(deviceName);
+						correct = true;
+					}
+					catch(FileNotFoundException fnfe) {
+						System.out.println(fnfe.getMessage());
+					}
 				}
 			}
 		}
@@ -56,62 +118,279 @@ public class SimAllLogicGeneNetworks {
 			return;
 		}
 		
-		//System.out.println("\nWARNING: This will only work for small gene " +
-		//		"networks\n         and a small parts registry, otherwise an" +
-		//		" out\n         of memory error will occur.");
+		// count all possible device instantiations for the gene network using
+		// bioparts database, the devices are built one by one during the sweep
+		System.out.println("\n===> Count all possible devices...");
+		DesignSpace space = ldb.getDesignSpace(sweepSettings.isRepresentatives());
+		long numDevices = space.size();
+		System.out.println("number of devices: " + numDevices);
+		if(sweepSettings.isRepresentatives()) {
+			System.out.println("representative wirings: " + space.getNumWirings() + " of " + 
+					space.getNumRepresentedWirings() + ", representing " + space.getNumRepresented() + 
+					" devices");
+		}
 		
-		// get all possible device instantiations for the gene network using
-		// bioparts database (great heap overflow risk...)
-		System.out.println("\n===> Get a list with all possible devices...");
-		List<Device> allDevices = ldb.getAllGeneNetworks();
-		int numDevices = allDevices.size();
+		if(checkpoint != null && checkpoint.getNumDevices() != numDevices) {
+			System.out.println("\nThe sweep can not be resumed, it had " + checkpoint.getNumDevices() + 
+					" devices. Has the bioparts database changed?");
+			return;
+		}
+		if(checkpoint != null && checkpoint.getNumCompleted() == numDevices) {
+			System.out.println("\nThe sweep is already finished.");
+			return;
+		}
+		if(shards != null && shards.getNumDevices() != numDevices) {
+			System.out.println("\nThe sweep can not be joined, it has " + shards.getNumDevices() + 
+					" devices. Is the bioparts database the same?");
+			return;
+		}
+		if(shards != null && shards.isMerged()) {
+			System.out.println("\nThe sweep is already finished.");
+			return;
+		}
 		
 		if(numDevices > 0) {
 		
-			// create data file and writer to that file
-			System.out.println("\n===> Create output file to write data...");
-			String fileName = ldb.getLogicGeneNetworkSettings().getName() + "_allDevices";
-			BufferedWriter writer = Constants.simulationDataFile(fileName);
-					
-			System.out.println("\n*** Logic device simulation ***");
-			System.out.println("- Running simulations,  which takes a long time.");
-			
-			// device counter
-			int counter = 0;
+			LogicGeneNetworkSettings settings = ldb.getLogicGeneNetworkSettings();
 			
-			// start time, used to inform the user about the time that it will take
-			long startTime = new Date().getTime()/1000;
+			// plots can not be shown for simulations that run in parallel
+			int numWorkers = sweepSettings.getNumWorkers();
+			if(numWorkers > 1 && settings.isVisual()) {
+				System.out.println("\nVisualization is turned off, it is only possible with -threads 1.");
+				settings.setVisual(false);
+			}
+			if(sweepSettings.getScoreCutoff() != null && settings.getSimulator().isEnsemble() && 
+					!settings.isVisual()) {
+				System.out.println("\nThe runs of the ensemble simulator can not be stopped early, use " +
+						"another simulator in the settings file or no -threshold and -top.");
+				return;
+			}
 			
-			// run simulation for each device
-			for(Device device : allDevices) {
-				
-				// show the user the progress, print a dot per device
-				if(counter % 100 == 0) {
-					System.out.print("Devices " + counter + "..." + (counter+99) + ": ");
+			if(shards != null || sweepSettings.getNumShards() > 0) {
+				if(!simulateShards(space, settings, sweepSettings, shards, numDevices)) {
+					return;
+				}
+			}
+			else {
+				ScoreCutoff cutoff = sweepSettings.getScoreCutoff();
+				File resultFile;
+				ResultWriter writer;
+				try {
+					if(checkpoint == null) {
+						// create result file and writer to that file
+						System.out.println("\n===> Create output file to write data...");
+						resultFile = Constants.simulationResultFile(settings.getName() + "_allDevices");
+						if(resultFile == null) {
+							return;
+						}
+						writer = new ResultWriter(resultFile);
+						checkpoint = new SweepCheckpoint(resultFile, sweepSettings, numDevices);
+					}
+					else {
+						// append to the result file, after the devices that are done
+						System.out.println("\n===> Resume the sweep after " + checkpoint.getNumCompleted() + 
+								" devices...");
+						resultFile = new File(sweepSettings.getResume());
+						writer = resumeWriter(resultFile, checkpoint, cutoff);
+					}
+				}
+				catch(IOException ioe) {
+					ioe.printStackTrace();
+					System.out.println("ERROR: An IO error occured, when opening the result file.");
+					return;
 				}
-				System.out.print(".");
-				
-				// run simulation
-				double[] score = LogicGeneNetworkSimulation.run(device, ldb.getLogicGeneNetworkSettings());
 				
-				// write result to file
-				LogicGeneNetworkSimulation.writeResult(score, device, writer);
+				System.out.println("\n*** Logic device simulation ***");
+				System.out.println("- Running simulations,  which takes a long time.");
+				System.out.println("- Threads: " + numWorkers + ", seed: " + sweepSettings.getSeed());
+				System.out.println("- A stopped sweep is continued with -resume " + resultFile.getPath());
 				
-				// timing, to inform the user
-				if(counter % 100 == 99) {
-					System.out.println(", done.");
-					int runTime = (int) (new Date().getTime()/1000 - startTime);
-					int estTime = (int) ((1.0*runTime / counter)*(numDevices-counter));
-					System.out.println("Simulation time (sec): " + runTime);
-					System.out.println("Expected time left (sec): " + estTime);
-				}
-				// increase device counter
-				counter++;
-			}		
+				simulate(space, settings, sweepSettings, cutoff, checkpoint, writer, 
+						checkpoint.getNumCompleted(), numDevices);
+				System.out.println("\n- Results: " + resultFile.getPath() + 
+						", export them to CSV with bd.gene_network.logic.ResultReader.");
+			}
 			System.out.println("\n*** Logic device simulation done ***");
 		}
 		else {
 			System.out.println("\nNo devices can be build with the available parts in the database.");
 		}
 	}
+	
+	/**
+	 * Simulates the shards of a sharded sweep that are not done or claimed by
+	 * other processes, and merges the results when all shards are done.
+	 * @param space
+	 * @param settings
+	 * @param sweepSettings
+	 * @param shards The shards of the sweep that is joined, null to create a
+	 * new sharded sweep.
+	 * @param numDevices
+	 * @return False if the sweep could not be created or joined.
+	 */
+	private static boolean simulateShards(DesignSpace space, LogicGeneNetworkSettings settings, 
+			SweepSettings sweepSettings, SweepShards shards, long numDevices) {
+		try {
+			if(shards == null) {
+				System.out.println("\n===> Create output file and shard directory...");
+				File resultFile = Constants.simulationResultFile(settings.getName() + "_allDevices");
+				if(resultFile == null) {
+					return false;
+				}
+				int numShards = (int) Math.min(sweepSettings.getNumShards(), numDevices);
+				shards = SweepShards.create(resultFile, sweepSettings, numDevices, numShards);
+			}
+			
+			System.out.println("\n*** Logic device simulation ***");
+			System.out.println("- Running simulations,  which takes a long time.");
+			System.out.println("- Threads: " + sweepSettings.getNumWorkers() + ", seed: " + 
+					sweepSettings.getSeed() + ", shards: " + shards.getNumShards());
+			System.out.println("- Other processes join the sweep with -join " + 
+					shards.getResultFile().getPath());
+			
+			SweepShards.Claim claim;
+			while((claim = shards.claim()) != null) {
+				try {
+					simulateShard(space, settings, sweepSettings, shards, claim.getShard());
+				}
+				finally {
+					claim.release();
+				}
+			}
+			
+			if(!shards.merge(10) && !shards.isMerged()) {
+				System.out.println("\n- The other shards are still simulated, the process that " +
+						"finishes last merges the results.");
+			}
+			else {
+				System.out.println("\n- Results: " + shards.getResultFile().getPath() + 
+						", export them to CSV with bd.gene_network.logic.ResultReader.");
+			}
+		}
+		catch(IOException ioe) {
+			ioe.printStackTrace();
+			System.out.println("ERROR: An IO error occured in the shard directory.");
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Simulates a shard that is claimed, it is resumed from its checkpoint
+	 * if it was started before.
+	 * @throws IOException If the result file of the shard can not be opened.
+	 */
+	private static void simulateShard(DesignSpace space, LogicGeneNetworkSettings settings, 
+			SweepSettings sweepSettings, SweepShards shards, int shard) throws IOException {
+		File shardFile = shards.getShardFile(shard);
+		long start = shards.getStart(shard);
+		long end = shards.getEnd(shard);
+		ScoreCutoff cutoff = sweepSettings.getScoreCutoff();
+		SweepCheckpoint checkpoint;
+		ResultWriter writer;
+		if(SweepCheckpoint.getFile(shardFile).exists()) {
+			checkpoint = SweepCheckpoint.load(shardFile);
+			writer = resumeWriter(shardFile, checkpoint, cutoff);
+		}
+		else {
+			checkpoint = new SweepCheckpoint(shardFile, sweepSettings, end - start);
+			writer = new ResultWriter(shardFile);
+		}
+		long first = start + checkpoint.getNumCompleted();
+		System.out.println("\n===> Shard " + shard + ": devices " + first + "..." + (end-1));
+		simulate(space, settings, sweepSettings, cutoff, checkpoint, writer, first, end);
+	}
+	
+	/**
+	 * Opens the result file of a stopped sweep to append to it, and restores
+	 * the score cutoff.
+	 * @param resultFile
+	 * @param checkpoint The checkpoint of the sweep.
+	 * @param cutoff The score cutoff, or null.
+	 * @return The writer.
+	 * @throws IOException If the result file does not match the checkpoint.
+	 */
+	private static ResultWriter resumeWriter(File resultFile, SweepCheckpoint checkpoint, 
+			ScoreCutoff cutoff) throws IOException {
+		ResultWriter writer = new ResultWriter(resultFile, checkpoint.getResultLength(), 
+				checkpoint.getNumCompleted());
+		if(cutoff != null) {
+			for(double score : checkpoint.getBest()) {
+				cutoff.add(score);
+			}
+		}
+		return writer;
+	}
+	
+	/**
+	 * Simulates a range of devices, the writer is closed afterwards.
+	 * @param space
+	 * @param settings
+	 * @param sweepSettings
+	 * @param cutoff The score cutoff, or null.
+	 * @param checkpoint The checkpoint that is saved by the writer.
+	 * @param writer
+	 * @param first The index of the first device.
+	 * @param end The index after the last device.
+	 */
+	private static void simulate(DesignSpace space, LogicGeneNetworkSettings settings, 
+			SweepSettings sweepSettings, ScoreCutoff cutoff, SweepCheckpoint checkpoint, 
+			ResultWriter writer, long first, long end) {
+		checkpoint.setScoreCutoff(cutoff);
+		writer.setCheckpoint(checkpoint);
+		
+		// run simulation for each device
+		ParallelSweep sweep = new ParallelSweep(settings, sweepSettings.getNumWorkers(), 
+				sweepSettings.getSeed());
+		sweep.setScoreCutoff(cutoff);
+		sweep.setFirstDevice(first);
+		sweep.setEndDevice(end);
+		sweep.setPrescreen(sweepSettings.getPrescreen());
+		ScoreCache cache = null;
+		if(sweepSettings.getCache() != null) {
+			try {
+				cache = new ScoreCache(new File(sweepSettings.getCache()), settings);
+				sweep.setScoreCache(cache);
+			}
+			catch(IOException ioe) {
+				System.out.println("The score cache can not be used: " + ioe.getMessage());
+			}
+		}
+		SweepMetrics metrics = new SweepMetrics(settings.getName());
+		metrics.register();
+		if(sweepSettings.getMetricsInterval() > 0) {
+			metrics.startLog(sweepSettings.getMetricsInterval());
+		}
+		sweep.setMetrics(metrics);
+		writer.setMetrics(metrics);
+		try {
+			sweep.run(space.iterator(first), end, writer);
+		}
+		finally {
+			metrics.close();
+			// the results of the finished devices are written in any case
+			try {
+				writer.close();
+				if(cache != null) {
+					cache.close();
+				}
+			}
+			catch(IOException ioe) {
+				ioe.printStackTrace();
+			}
+		}
+		if(cache != null) {
+			System.out.println("\n- Scores found in the cache: " + cache.getNumHits() + ", cache size: " + 
+					cache.size() + " scores.");
+		}
+		if(sweepSettings.getPrescreen() > Double.NEGATIVE_INFINITY) {
+			System.out.println("\n- Devices below the ODE prescreen score: " + sweep.getNumScreened() + 
+					" of " + (end - first) + " devices.");
+		}
+		if(cutoff != null) {
+			System.out.println("\n- Simulations stopped early: " + sweep.getNumStopped() + 
+					" of " + (end - first) + " devices.");
+		}
+		System.out.println("\n- Metrics: " + metrics.getSummary());
+	}
 }
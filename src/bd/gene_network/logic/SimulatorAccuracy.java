@@ -0,0 +1,133 @@
+package bd.gene_network.logic;
+
+
+import java.io.FileNotFoundException;
+import java.text.DecimalFormat;
+
+import bd.biopart.Device;
+import bd.gene_network.DesignSpace;
+import bd.gene_network.GeneNetworkBuilder;
+import bd.simulation.SimulatorType;
+
+/**
+ * Checks the accuracy and speed of the simulation algorithms against the exact
+ * direct method. A number of devices, spread over all possible devices, is
+ * simulated with each algorithm using a number of different seeds. For each
+ * device and algorithm the mean and standard deviation of the score are given,
+ * together with Welch's t statistic of the difference with the direct method.
+ * A |t| above 3 means that the scores of the algorithm differ significantly
+ * from the exact scores.
+ *
+ * The score of the deterministic (ODE) trajectory of each device is given as
+ * well, to choose a prescreen threshold for sweeps (see SweepSettings).
+ * @author Bastiaan van den Berg
+ *
+ */
+public class SimulatorAccuracy {
+
+	// |t| above this value counts as a significant difference
+	private static final double SIGNIFICANT = 3.0;
+
+	/**
+	 * @param args deviceName [numDevices] [numSeeds], 10 devices and 10 seeds
+	 * by default.
+	 */
+	public static void main(String[] args) {
+		if(args.length < 1) {
+			System.out.println("Usage: deviceName [numDevices] [numSeeds]");
+			return;
+		}
+		int numDevices = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int numSeeds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		GeneNetworkBuilder ldb = null;
+		try {
+			ldb = new GeneNetworkBuilder(args[0]);
+		}
+		catch(FileNotFoundException fnfe) {
+			System.out.println(fnfe.getMessage());
+			return;
+		}
+		LogicGeneNetworkSettings settings = ldb.getLogicGeneNetworkSettings();
+		settings.setVisual(false);
+
+		DesignSpace space = ldb.getDesignSpace();
+		long total = space.size();
+		long step = Math.max(1, total / numDevices);
+		SimulatorType[] types = SimulatorType.values();
+		long[] time = new long[types.length];
+		int[] significant = new int[types.length];
+		long odeTime = 0;
+		DecimalFormat df = new DecimalFormat("0.000");
+
+		int device = 0;
+		for(long i = 0; i < total && device < numDevices; i += step) {
+			Device d = space.unrank(i);
+			device++;
+			System.out.println("\n" + d);
+			double[][] scores = new double[types.length][numSeeds];
+			for(int type = 0; type < types.length; type++) {
+				settings.setSimulator(types[type]);
+				long start = System.nanoTime();
+				for(int seed = 0; seed < numSeeds; seed++) {
+					double[] result = LogicGeneNetworkSimulation.run(d, settings, seed);
+					scores[type][seed] = result[result.length-1];
+				}
+				time[type] += System.nanoTime() - start;
+
+				double mean = mean(scores[type]);
+				double sd = Math.sqrt(variance(scores[type], mean));
+				double t = welch(scores[0], scores[type]);
+				if(Math.abs(t) > SIGNIFICANT) {
+					significant[type]++;
+				}
+				System.out.println("- " + types[type].getName() + ": mean " + df.format(mean) +
+						", sd " + df.format(sd) + ", t " + df.format(t));
+			}
+
+			long start = System.nanoTime();
+			double[] result = LogicGeneNetworkSimulation.runOde(d, settings);
+			odeTime += System.nanoTime() - start;
+			System.out.println("- ode: score " + df.format(result[result.length-1]));
+		}
+
+		System.out.println("\n*** " + device + " devices, " + numSeeds + " seeds ***");
+		for(int type = 0; type < types.length; type++) {
+			System.out.println("- " + types[type].getName() + ": " + time[type]/1000000 + " ms, " +
+					df.format((double)time[0]/time[type]) + "x, significantly different: " +
+					significant[type] + " of " + device + " devices");
+		}
+		System.out.println("- ode: " + odeTime/1000000 + " ms, " + 
+				df.format((double)time[0]/numSeeds/odeTime) + "x of one direct simulation");
+	}
+
+	private static double mean(double[] x) {
+		double sum = 0;
+		for(double v : x) {
+			sum += v;
+		}
+		return sum / x.length;
+	}
+
+	private static double variance(double[] x, double mean) {
+		double sum = 0;
+		for(double v : x) {
+			sum += (v-mean) * (v-mean);
+		}
+		return sum / (x.length-1);
+	}
+
+	/**
+	 * @return Welch's t statistic of the difference between the means of two
+	 * samples, zero if both samples have no variance.
+	 */
+	private static double welch(double[] x, double[] y) {
+		double mx = mean(x);
+		double my = mean(y);
+		double se = Math.sqrt(variance(x, mx)/x.length + variance(y, my)/y.length);
+		if(se == 0 || Double.isNaN(se)) {
+			return 0;
+		}
+		return (my-mx) / se;
+	}
+}
@@ -0,0 +1,205 @@
+package bd.gene_network.logic;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * The progress of a sweep, saved next to its result file, so that a sweep
+ * that is stopped can be resumed. The results are written in device order,
+ * so the progress is the number of devices of which the result is in the
+ * result file, together with the length of the file at that point. Devices
+ * that finished out of order, but were not written yet, are simulated again
+ * when the sweep is resumed.
+ *
+ * The random seed of a device simulation only depends on the seed of the
+ * sweep and the device (see ParallelSweep), so the checkpoint
+ * holds the sweep settings instead of random number generator states. The
+ * best scores of the devices in the result file are saved as well, to restore
+ * the score cutoff. The scores of devices that finished out of order are not
+ * part of them, these devices are simulated again and add their score to the
+ * cutoff then.
+ *
+ * The checkpoint is a properties file, it is written to a temporary file
+ * first and then replaces the old checkpoint, so that a damaged checkpoint is
+ * never used.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class SweepCheckpoint {
+
+	private File file;
+	private SweepSettings sweepSettings;
+	private long numDevices;
+	private long numCompleted;
+	private long resultLength;
+	private double[] best = new double[0];
+
+	// the best scores of the devices in the result file, null for none
+	private ScoreCutoff cutoff;
+
+	/**
+	 * @param resultFile The result file of the sweep.
+	 * @param sweepSettings The settings of the sweep.
+	 * @param numDevices The number of devices of the sweep.
+	 */
+	public SweepCheckpoint(File resultFile, SweepSettings sweepSettings, long numDevices) {
+		this.file = getFile(resultFile);
+		this.sweepSettings = sweepSettings;
+		this.numDevices = numDevices;
+	}
+
+	/**
+	 * @param resultFile The result file of a sweep.
+	 * @return The checkpoint file of the sweep.
+	 */
+	public static File getFile(File resultFile) {
+		return new File(resultFile.getPath() + ".checkpoint");
+	}
+
+	/**
+	 * Loads the checkpoint of a sweep.
+	 * @param resultFile The result file of the sweep.
+	 * @return The checkpoint.
+	 * @throws IOException If there is no checkpoint or it can not be read.
+	 */
+	public static SweepCheckpoint load(File resultFile) throws IOException {
+		File file = getFile(resultFile);
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			properties.load(in);
+		}
+		finally {
+			in.close();
+		}
+		try {
+			SweepSettings settings = SweepSettings.load(properties);
+			SweepCheckpoint checkpoint = new SweepCheckpoint(resultFile, settings,
+					Long.parseLong(properties.getProperty("devices")));
+			checkpoint.numCompleted = Long.parseLong(properties.getProperty("completed"));
+			checkpoint.resultLength = Long.parseLong(properties.getProperty("length"));
+			String best = properties.getProperty("best").trim();
+			String[] scores = best.isEmpty() ? new String[0] : best.split(",");
+			checkpoint.best = new double[scores.length];
+			for(int i = 0; i < scores.length; i++) {
+				checkpoint.best[i] = Double.parseDouble(scores[i]);
+			}
+			return checkpoint;
+		}
+		catch(RuntimeException re) {
+			// a missing or wrong value
+			throw new IOException("The checkpoint " + file.getPath() + " is damaged: " + re);
+		}
+	}
+
+	/**
+	 * Adds the score of a device of which the result is written to the result
+	 * file, see ResultWriter. Only complete simulations count, like in the 
+	 * score cutoff of the sweep.
+	 * @param score The score of the device.
+	 * @param status ResultWriter.SIMULATED, STOPPED or PRESCREENED.
+	 */
+	public void written(double[] score, byte status) {
+		if(cutoff != null && status == ResultWriter.SIMULATED) {
+			cutoff.add(score[score.length-1]);
+		}
+	}
+
+	/**
+	 * Saves the progress of the sweep.
+	 * @param numCompleted The number of devices of which the result is in the
+	 * result file.
+	 * @param resultLength The length of the result file.
+	 * @throws IOException If the checkpoint can not be written.
+	 */
+	public synchronized void save(long numCompleted, long resultLength) throws IOException {
+		this.numCompleted = numCompleted;
+		this.resultLength = resultLength;
+		if(cutoff != null) {
+			best = cutoff.getBest();
+		}
+
+		Properties properties = new Properties();
+		sweepSettings.store(properties);
+		properties.setProperty("devices", Long.toString(numDevices));
+		properties.setProperty("completed", Long.toString(numCompleted));
+		properties.setProperty("length", Long.toString(resultLength));
+		StringBuilder scores = new StringBuilder();
+		for(int i = 0; i < best.length; i++) {
+			scores.append(i == 0 ? "" : ",").append(best[i]);
+		}
+		properties.setProperty("best", scores.toString());
+
+		File tmpFile = new File(file.getPath() + ".tmp");
+		OutputStream out = new FileOutputStream(tmpFile);
+		try {
+			properties.store(out, "Sweep checkpoint");
+		}
+		finally {
+			out.close();
+		}
+		// the old checkpoint is replaced at once
+		Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, 
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Keeps the best scores of the written devices for the cutoff of the 
+	 * sweep, starting with the best scores of this checkpoint. Set it before
+	 * the first result is written.
+	 * @param cutoff The score cutoff of the sweep, null for none.
+	 */
+	public void setScoreCutoff(ScoreCutoff cutoff) {
+		if(cutoff == null) {
+			this.cutoff = null;
+			return;
+		}
+		this.cutoff = cutoff.emptyCopy();
+		for(double score : best) {
+			this.cutoff.add(score);
+		}
+	}
+
+	/**
+	 * @return The settings of the sweep.
+	 */
+	public SweepSettings getSweepSettings() {
+		return sweepSettings;
+	}
+
+	/**
+	 * @return The number of devices of the sweep.
+	 */
+	public long getNumDevices() {
+		return numDevices;
+	}
+
+	/**
+	 * @return The number of devices of which the result is in the result file.
+	 */
+	public long getNumCompleted() {
+		return numCompleted;
+	}
+
+	/**
+	 * @return The length of the result file at the checkpoint.
+	 */
+	public long getResultLength() {
+		return resultLength;
+	}
+
+	/**
+	 * @return The best scores of the devices in the result file at the 
+	 * checkpoint.
+	 */
+	public double[] getBest() {
+		return best;
+	}
+}
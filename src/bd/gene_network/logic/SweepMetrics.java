@@ -0,0 +1,292 @@
+package bd.gene_network.logic;
+
+import java.lang.management.ManagementFactory;
+import java.text.DecimalFormat;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Timers and counters of a sweep, to see where the time of a slow sweep goes
+ * without a profiler. The time of each phase of a device is measured:
+ * enumerate (building the device from the design space), compile (the model,
+ * network and simulator, or reusing those of the same topology), simulate
+ * (the stochastic runs), score and prescreen (the ODE simulation and score).
+ * The write phase is the time of the writer thread per block of the result
+ * file (see ResultWriter), not per device. Per phase the count, total, 
+ * maximum and a histogram of the times are kept, the histogram has a bucket
+ * per power of two nanoseconds. The number of reactions that fired per 
+ * simulated device is kept in the same way, including the reactions that 
+ * fired in the leaps of tau leaping. The ensemble simulator does not report
+ * its reactions, its devices are not counted.
+ *
+ * The metrics are published as an MBean (bd.gene_network.logic:type=
+ * SweepMetrics,name=deviceName), that can be watched with jconsole, and can
+ * be logged on one line at a fixed interval. All methods are thread-safe, the
+ * simulation threads add their times concurrently.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class SweepMetrics implements SweepMetricsMBean {
+
+	/** Building a device from the design space. */
+	public static final int ENUMERATE = 0;
+	/** Building or reusing the model, network and simulator. */
+	public static final int COMPILE = 1;
+	/** The stochastic simulation runs. */
+	public static final int SIMULATE = 2;
+	/** Scoring the samples. */
+	public static final int SCORE = 3;
+	/** Writing a block of results, by the writer thread. */
+	public static final int WRITE = 4;
+	/** The ODE simulation and score of the prescreen. */
+	public static final int PRESCREEN = 5;
+
+	private static final String[] PHASES = {"enumerate", "compile", "simulate", "score", "write", "prescreen"};
+	private static final int NUM_BUCKETS = 64;
+
+	private String name;
+	private long startTime = System.nanoTime();
+
+	// per phase
+	private AtomicLongArray counts = new AtomicLongArray(PHASES.length);
+	private AtomicLongArray nanos = new AtomicLongArray(PHASES.length);
+	private AtomicLongArray max = new AtomicLongArray(PHASES.length);
+	private AtomicLongArray[] histograms = new AtomicLongArray[PHASES.length];
+
+	private AtomicLong numDevices = new AtomicLong();
+	private AtomicLong numSimulated = new AtomicLong();
+	private AtomicLong numReactionEvents = new AtomicLong();
+	private AtomicLongArray reactionEventHistogram = new AtomicLongArray(NUM_BUCKETS);
+
+	private ObjectName objectName;
+	private Timer timer;
+
+	/**
+	 * @param name The name of the device, the name of the MBean.
+	 */
+	public SweepMetrics(String name) {
+		this.name = name;
+		for(int i = 0; i < PHASES.length; i++) {
+			histograms[i] = new AtomicLongArray(NUM_BUCKETS);
+		}
+	}
+
+	/**
+	 * Adds the time of a phase.
+	 * @param phase One of ENUMERATE, COMPILE, SIMULATE, SCORE, WRITE and
+	 * PRESCREEN.
+	 * @param time The time (ns).
+	 */
+	public void add(int phase, long time) {
+		counts.incrementAndGet(phase);
+		nanos.addAndGet(phase, time);
+		histograms[phase].incrementAndGet(bucket(time));
+		long current = max.get(phase);
+		while(time > current && !max.compareAndSet(phase, current, time)) {
+			current = max.get(phase);
+		}
+	}
+
+	/**
+	 * Counts a device of which the result is written.
+	 */
+	public void addDevice() {
+		numDevices.incrementAndGet();
+	}
+
+	/**
+	 * Adds the number of reactions that fired in the simulation of a device.
+	 * @param events
+	 */
+	public void addReactionEvents(long events) {
+		numSimulated.incrementAndGet();
+		numReactionEvents.addAndGet(events);
+		reactionEventHistogram.incrementAndGet(bucket(events));
+	}
+
+	/**
+	 * Publishes the metrics as an MBean of the platform MBean server, a
+	 * message is printed if that is not possible.
+	 */
+	public void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			objectName = new ObjectName("bd.gene_network.logic:type=SweepMetrics,name=" + ObjectName.quote(name));
+			if(server.isRegistered(objectName)) {
+				// of an earlier sweep in this process
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(this, objectName);
+		}
+		catch(JMException jme) {
+			System.out.println("The sweep metrics can not be published over JMX: " + jme.getMessage());
+			objectName = null;
+		}
+	}
+
+	/**
+	 * Prints the summary of the metrics at a fixed interval, until close is
+	 * called.
+	 * @param seconds The interval (sec).
+	 */
+	public void startLog(int seconds) {
+		timer = new Timer("sweep metrics", true);
+		timer.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				System.out.println("\n[metrics] " + getSummary());
+			}
+		}, seconds * 1000L, seconds * 1000L);
+	}
+
+	/**
+	 * Stops the log and removes the MBean.
+	 */
+	public void close() {
+		if(timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+		if(objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			}
+			catch(JMException jme) {
+				// already removed
+			}
+			objectName = null;
+		}
+	}
+
+	public String[] getPhases() {
+		return PHASES.clone();
+	}
+
+	public long[] getPhaseCounts() {
+		long[] result = new long[PHASES.length];
+		for(int i = 0; i < result.length; i++) {
+			result[i] = counts.get(i);
+		}
+		return result;
+	}
+
+	public double[] getPhaseSeconds() {
+		double[] result = new double[PHASES.length];
+		for(int i = 0; i < result.length; i++) {
+			result[i] = nanos.get(i) / 1e9;
+		}
+		return result;
+	}
+
+	public double[] getPhaseMeanMillis() {
+		double[] result = new double[PHASES.length];
+		for(int i = 0; i < result.length; i++) {
+			long count = counts.get(i);
+			result[i] = count == 0 ? 0 : nanos.get(i) / 1e6 / count;
+		}
+		return result;
+	}
+
+	public double[] getPhaseMedianMillis() {
+		return percentileMillis(0.5);
+	}
+
+	public double[] getPhaseP99Millis() {
+		return percentileMillis(0.99);
+	}
+
+	public double[] getPhaseMaxMillis() {
+		double[] result = new double[PHASES.length];
+		for(int i = 0; i < result.length; i++) {
+			result[i] = max.get(i) / 1e6;
+		}
+		return result;
+	}
+
+	public long getNumDevices() {
+		return numDevices.get();
+	}
+
+	public double getDevicesPerSecond() {
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		return seconds > 0 ? numDevices.get() / seconds : 0;
+	}
+
+	public long getNumReactionEvents() {
+		return numReactionEvents.get();
+	}
+
+	public double getReactionEventsPerDevice() {
+		long simulated = numSimulated.get();
+		return simulated == 0 ? 0 : (double) numReactionEvents.get() / simulated;
+	}
+
+	public double getReactionEventsPerDeviceMedian() {
+		return percentile(reactionEventHistogram, 0.5);
+	}
+
+	public String getSummary() {
+		DecimalFormat df = new DecimalFormat("0.###");
+		StringBuilder result = new StringBuilder();
+		result.append(name).append(": ").append(getNumDevices()).append(" devices, ");
+		result.append(df.format(getDevicesPerSecond())).append(" devices/s");
+		if(numSimulated.get() > 0) {
+			result.append(", ").append(df.format(getReactionEventsPerDevice())).append(" reactions/device");
+		}
+		double[] mean = getPhaseMeanMillis();
+		double[] p99 = getPhaseP99Millis();
+		for(int i = 0; i < PHASES.length; i++) {
+			if(counts.get(i) > 0) {
+				result.append(", ").append(PHASES[i]).append(' ').append(df.format(mean[i]));
+				result.append(" ms (p99 ").append(df.format(p99[i])).append(')');
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * @return Per phase the percentile of the times (ms).
+	 */
+	private double[] percentileMillis(double p) {
+		double[] result = new double[PHASES.length];
+		for(int i = 0; i < result.length; i++) {
+			result[i] = percentile(histograms[i], p) / 1e6;
+		}
+		return result;
+	}
+
+	/**
+	 * @return The upper bound of the bucket of the histogram that holds the
+	 * percentile p, 0 for an empty histogram.
+	 */
+	private static double percentile(AtomicLongArray histogram, double p) {
+		long total = 0;
+		long[] counts = new long[NUM_BUCKETS];
+		for(int i = 0; i < NUM_BUCKETS; i++) {
+			counts[i] = histogram.get(i);
+			total += counts[i];
+		}
+		long seen = 0;
+		for(int i = 0; i < NUM_BUCKETS; i++) {
+			seen += counts[i];
+			if(total > 0 && seen >= p * total) {
+				return Math.pow(2, i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return The bucket of a value, bucket k holds the values from 2^(k-1)
+	 * to 2^k - 1, bucket 0 the values below 1.
+	 */
+	private static int bucket(long value) {
+		return value <= 0 ? 0 : Math.min(NUM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+	}
+}
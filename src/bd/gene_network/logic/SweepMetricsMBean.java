@@ -0,0 +1,80 @@
+package bd.gene_network.logic;
+
+/**
+ * The management interface of the SweepMetrics, as it is shown by JMX
+ * clients such as jconsole. The arrays have an element per phase, in the
+ * order of getPhases.
+ * @author Bastiaan van den Berg
+ *
+ */
+public interface SweepMetricsMBean {
+
+	/**
+	 * @return The names of the phases.
+	 */
+	public String[] getPhases();
+
+	/**
+	 * @return The number of times each phase was timed.
+	 */
+	public long[] getPhaseCounts();
+
+	/**
+	 * @return The total time of each phase (sec), summed over the threads.
+	 */
+	public double[] getPhaseSeconds();
+
+	/**
+	 * @return The mean time of each phase (ms).
+	 */
+	public double[] getPhaseMeanMillis();
+
+	/**
+	 * @return The median time of each phase (ms), the upper bound of its
+	 * histogram bucket.
+	 */
+	public double[] getPhaseMedianMillis();
+
+	/**
+	 * @return The 99th percentile of the time of each phase (ms), the upper
+	 * bound of its histogram bucket.
+	 */
+	public double[] getPhaseP99Millis();
+
+	/**
+	 * @return The longest time of each phase (ms).
+	 */
+	public double[] getPhaseMaxMillis();
+
+	/**
+	 * @return The number of devices that are done.
+	 */
+	public long getNumDevices();
+
+	/**
+	 * @return The devices per second since the start of the sweep.
+	 */
+	public double getDevicesPerSecond();
+
+	/**
+	 * @return The number of reactions that fired in the stochastic
+	 * simulations.
+	 */
+	public long getNumReactionEvents();
+
+	/**
+	 * @return The mean number of reactions that fired per simulated device.
+	 */
+	public double getReactionEventsPerDevice();
+
+	/**
+	 * @return The median number of reactions that fired per simulated device,
+	 * the upper bound of its histogram bucket.
+	 */
+	public double getReactionEventsPerDeviceMedian();
+
+	/**
+	 * @return The metrics on one line, as they are logged.
+	 */
+	public String getSummary();
+}
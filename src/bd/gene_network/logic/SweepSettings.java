@@ -0,0 +1,412 @@
+package bd.gene_network.logic;
+
+import java.util.Properties;
+
+/**
+ * Run time options of a simulation sweep over all possible devices. These are
+ * given as command line arguments, while the settings of the logic gene
+ * network itself are read from its settings file.
+ *
+ * Usage: [deviceName] [-threads n] [-seed s] [-threshold x] [-top n] 
+ * [-minruns k] [-prescreen p] [-resume resultFile] [-shards n] 
+ * [-join resultFile] [-cache cacheFile] [-representatives] [-metrics seconds]
+ *
+ * With -threshold and/or -top the simulation of a device is stopped early 
+ * when it is unlikely to reach the threshold score or the score of the n-th best 
+ * device so far, after at least k simulation runs (default 1). This is not
+ * possible with the ensemble simulator, that simulates all runs together.
+ *
+ * With -prescreen the deterministic (ODE) trajectory of each device is 
+ * scored first, and devices with an ODE score below p are not simulated 
+ * stochastically. The ODE score is usually somewhat below the stochastic 
+ * score, see SimulatorAccuracy to choose p.
+ *
+ * With -resume a stopped sweep is continued, see SweepCheckpoint. The 
+ * settings of the sweep are then read from its checkpoint, only the number 
+ * of threads can be changed.
+ *
+ * With -shards the devices are split in n shards, that can be simulated by
+ * several processes, see SweepShards. Other processes work on the shards as 
+ * well with -join, they read the settings from the shard directory.
+ *
+ * With -cache the scores are looked up in and added to a score cache file,
+ * devices that were simulated before with the same settings and seed are
+ * not simulated again, see ScoreCache. The seed should then be given with
+ * -seed, unless it is read with -resume or -join. The cache is not part of
+ * the settings of a sweep, each process of a sweep can use its own cache or
+ * none.
+ *
+ * With -representatives only one wiring of each class of equivalent wirings
+ * is simulated, see WiringSymmetry. The devices of the other wirings have 
+ * different parts with parameters from the same ranges, their scores are not
+ * known but they are not expected to be better.
+ *
+ * The time of each phase of the sweep is measured, see SweepMetrics, and 
+ * published as an MBean. With -metrics a summary of the metrics is also 
+ * printed every given number of seconds. Like the cache, this is not part of
+ * the settings of a sweep.
+ *
+ * @author Bastiaan van den Berg
+ */
+public class SweepSettings {
+
+	private String deviceName;
+	private int numWorkers;
+	private long seed;
+	private double threshold = Double.NEGATIVE_INFINITY;
+	private int topN;
+	private int minRuns = 1;
+	private double prescreen = Double.NEGATIVE_INFINITY;
+	private String resume;
+	private int numShards;
+	private String join;
+	private String cache;
+	private boolean representatives;
+	private int metricsInterval;
+
+	/**
+	 * Default settings: no device name, one worker per processor, and a time
+	 * based seed.
+	 */
+	public SweepSettings() {
+		numWorkers = Runtime.getRuntime().availableProcessors();
+		seed = System.currentTimeMillis();
+	}
+
+	/**
+	 * Parses the command line arguments.
+	 * @param args
+	 * @return The sweep settings.
+	 * @throws IllegalArgumentException If an argument is not recognized.
+	 */
+	public static SweepSettings fromArguments(String[] args) {
+		SweepSettings settings = new SweepSettings();
+		boolean seedGiven = false;
+		for(int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if(arg.equals("-threads")) {
+				settings.numWorkers = Integer.valueOf(value(args, ++i, arg));
+				if(settings.numWorkers < 1) {
+					throw new IllegalArgumentException("The number of threads should be at least 1.");
+				}
+			}
+			else if(arg.equals("-seed")) {
+				settings.seed = Long.valueOf(value(args, ++i, arg));
+				seedGiven = true;
+			}
+			else if(arg.equals("-threshold")) {
+				settings.threshold = Double.valueOf(value(args, ++i, arg));
+			}
+			else if(arg.equals("-top")) {
+				settings.topN = Integer.valueOf(value(args, ++i, arg));
+				if(settings.topN < 1) {
+					throw new IllegalArgumentException("The number of best devices should be at least 1.");
+				}
+			}
+			else if(arg.equals("-minruns")) {
+				settings.minRuns = Integer.valueOf(value(args, ++i, arg));
+				if(settings.minRuns < 1) {
+					throw new IllegalArgumentException("The minimal number of runs should be at least 1.");
+				}
+			}
+			else if(arg.equals("-prescreen")) {
+				settings.prescreen = Double.valueOf(value(args, ++i, arg));
+			}
+			else if(arg.equals("-resume")) {
+				settings.resume = value(args, ++i, arg);
+			}
+			else if(arg.equals("-shards")) {
+				settings.numShards = Integer.valueOf(value(args, ++i, arg));
+				if(settings.numShards < 1) {
+					throw new IllegalArgumentException("The number of shards should be at least 1.");
+				}
+			}
+			else if(arg.equals("-join")) {
+				settings.join = value(args, ++i, arg);
+			}
+			else if(arg.equals("-cache")) {
+				settings.cache = value(args, ++i, arg);
+			}
+			else if(arg.equals("-representatives")) {
+				settings.representatives = true;
+			}
+			else if(arg.equals("-metrics")) {
+				settings.metricsInterval = Integer.valueOf(value(args, ++i, arg));
+				if(settings.metricsInterval < 1) {
+					throw new IllegalArgumentException("The metrics interval should be at least 1 second.");
+				}
+			}
+			else if(!arg.startsWith("-") && settings.deviceName == null) {
+				settings.deviceName = arg;
+			}
+			else {
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+		if((settings.resume != null ? 1 : 0) + (settings.numShards > 0 ? 1 : 0) + 
+				(settings.join != null ? 1 : 0) > 1) {
+			throw new IllegalArgumentException("Use only one of -resume, -shards and -join.");
+		}
+		if(settings.cache != null && !seedGiven && settings.resume == null && settings.join == null) {
+			// a time based seed would never find the cached scores
+			throw new IllegalArgumentException("Give the seed with -seed when using -cache.");
+		}
+		return settings;
+	}
+
+	/**
+	 * Stores the settings that determine the results of a sweep, the device 
+	 * name, seed, cutoff, prescreen and whether only representative wirings
+	 * are simulated.
+	 * @param properties
+	 */
+	void store(Properties properties) {
+		properties.setProperty("device", deviceName);
+		properties.setProperty("seed", Long.toString(seed));
+		properties.setProperty("threshold", Double.toString(threshold));
+		properties.setProperty("top", Integer.toString(topN));
+		properties.setProperty("minruns", Integer.toString(minRuns));
+		properties.setProperty("prescreen", Double.toString(prescreen));
+		properties.setProperty("representatives", Boolean.toString(representatives));
+	}
+
+	/**
+	 * Reads the settings that are stored with store, the other settings get 
+	 * their default value.
+	 * @param properties
+	 * @return The settings.
+	 * @throws RuntimeException If a setting is missing or wrong.
+	 */
+	static SweepSettings load(Properties properties) {
+		SweepSettings settings = new SweepSettings();
+		settings.deviceName = properties.getProperty("device");
+		if(settings.deviceName == null) {
+			throw new IllegalArgumentException("No device name.");
+		}
+		settings.seed = Long.parseLong(properties.getProperty("seed"));
+		settings.threshold = Double.parseDouble(properties.getProperty("threshold"));
+		settings.topN = Integer.parseInt(properties.getProperty("top"));
+		settings.minRuns = Integer.parseInt(properties.getProperty("minruns"));
+		settings.prescreen = Double.parseDouble(properties.getProperty("prescreen"));
+		// not stored by older sweeps
+		settings.representatives = Boolean.parseBoolean(properties.getProperty("representatives", "false"));
+		return settings;
+	}
+
+	private static String value(String[] args, int index, String option) {
+		if(index >= args.length) {
+			throw new IllegalArgumentException("Missing value for " + option);
+		}
+		return args[index];
+	}
+
+	/**
+	 * @return The name of the logic device, null if not given.
+	 */
+	public String getDeviceName() {
+		return deviceName;
+	}
+
+	/**
+	 * @param deviceName
+	 */
+	public void setDeviceName(String deviceName) {
+		this.deviceName = deviceName;
+	}
+
+	/**
+	 * @return The number of simulations that run in parallel.
+	 */
+	public int getNumWorkers() {
+		return numWorkers;
+	}
+
+	/**
+	 * @param numWorkers
+	 */
+	public void setNumWorkers(int numWorkers) {
+		this.numWorkers = numWorkers;
+	}
+
+	/**
+	 * @return The seed from which the random seed of each device simulation is
+	 * derived.
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * @param seed
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	/**
+	 * @return The score cutoff below which device simulations are stopped 
+	 * early, null if all devices should be simulated completely.
+	 */
+	public ScoreCutoff getScoreCutoff() {
+		if(threshold == Double.NEGATIVE_INFINITY && topN == 0) {
+			return null;
+		}
+		return new ScoreCutoff(threshold, topN, minRuns);
+	}
+
+	/**
+	 * @return The minimal score of a device that is simulated completely, 
+	 * Double.NEGATIVE_INFINITY for none.
+	 */
+	public double getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * @param threshold The minimal score of a device that is simulated 
+	 * completely.
+	 */
+	public void setThreshold(double threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * @return The number of best devices, 0 for none.
+	 */
+	public int getTopN() {
+		return topN;
+	}
+
+	/**
+	 * @param topN The number of best devices, devices that can not beat the
+	 * n-th best device so far are stopped early. 0 for none.
+	 */
+	public void setTopN(int topN) {
+		this.topN = topN;
+	}
+
+	/**
+	 * @return The number of simulation runs of a device that are always done.
+	 */
+	public int getMinRuns() {
+		return minRuns;
+	}
+
+	/**
+	 * @param minRuns The number of simulation runs of a device that are 
+	 * always done.
+	 */
+	public void setMinRuns(int minRuns) {
+		this.minRuns = minRuns;
+	}
+
+	/**
+	 * @return The ODE score that a device should reach to be simulated 
+	 * stochastically, Double.NEGATIVE_INFINITY if all devices are simulated.
+	 */
+	public double getPrescreen() {
+		return prescreen;
+	}
+
+	/**
+	 * @param prescreen The ODE score that a device should reach to be 
+	 * simulated stochastically.
+	 */
+	public void setPrescreen(double prescreen) {
+		this.prescreen = prescreen;
+	}
+
+	/**
+	 * @return The result file of the sweep that is resumed, null for a new 
+	 * sweep.
+	 */
+	public String getResume() {
+		return resume;
+	}
+
+	/**
+	 * @param resume The result file of the sweep that is resumed, null for a
+	 * new sweep.
+	 */
+	public void setResume(String resume) {
+		this.resume = resume;
+	}
+
+	/**
+	 * @return The number of shards of a new sharded sweep, 0 for a sweep that
+	 * is not sharded.
+	 */
+	public int getNumShards() {
+		return numShards;
+	}
+
+	/**
+	 * @param numShards The number of shards of a new sharded sweep, 0 for a 
+	 * sweep that is not sharded.
+	 */
+	public void setNumShards(int numShards) {
+		this.numShards = numShards;
+	}
+
+	/**
+	 * @return The result file of the sharded sweep that is joined, null for 
+	 * none.
+	 */
+	public String getJoin() {
+		return join;
+	}
+
+	/**
+	 * @param join The result file of the sharded sweep that is joined, null 
+	 * for none.
+	 */
+	public void setJoin(String join) {
+		this.join = join;
+	}
+
+	/**
+	 * @return The score cache file, null for none.
+	 */
+	public String getCache() {
+		return cache;
+	}
+
+	/**
+	 * @param cache The score cache file, null for none.
+	 */
+	public void setCache(String cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * @return True if only one wiring of each class of equivalent wirings is
+	 * simulated.
+	 */
+	public boolean isRepresentatives() {
+		return representatives;
+	}
+
+	/**
+	 * @param representatives True to simulate only one wiring of each class
+	 * of equivalent wirings.
+	 */
+	public void setRepresentatives(boolean representatives) {
+		this.representatives = representatives;
+	}
+
+	/**
+	 * @return The interval at which the metrics are printed (sec), 0 to not
+	 * print them.
+	 */
+	public int getMetricsInterval() {
+		return metricsInterval;
+	}
+
+	/**
+	 * @param metricsInterval The interval at which the metrics are printed 
+	 * (sec), 0 to not print them.
+	 */
+	public void setMetricsInterval(int metricsInterval) {
+		this.metricsInterval = metricsInterval;
+	}
+}
@@ -0,0 +1,415 @@
+package bd.gene_network.logic;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Properties;
+
+/**
+ * A sweep that is split in shards, so that several processes can simulate it
+ * together, on one machine or on several machines that share a file system.
+ * The devices are split in consecutive ranges of device indices, the split
+ * only depends on the number of devices and the number of shards. The seed of
+ * a device simulation only depends on the seed of the sweep and the device,
+ * so the results do not depend on which process simulates which shard.
+ *
+ * The shards are kept in a directory next to the result file of the sweep. It
+ * holds the settings of the sweep, and per shard a result file with its
+ * checkpoint (see SweepCheckpoint) and a lock file. A process claims a shard
+ * by locking its lock file. The operating system releases the lock when the
+ * process dies, another process then resumes the shard from its checkpoint.
+ * When all shards are done, the process that finishes last merges the results
+ * of the shards in device order into the result file, and ranks the devices
+ * that are simulated completely. The scores of devices that were stopped 
+ * early or prescreened are estimates, they are merged but not ranked.
+ *
+ * Note that a score cutoff is kept per shard, it is not shared between the
+ * processes.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class SweepShards {
+
+	private static final String SETTINGS_FILE = "sweep.properties";
+	private static final String MERGE_LOCK_FILE = "merge.lock";
+
+	private File resultFile;
+	private File directory;
+	private SweepSettings sweepSettings;
+	private long numDevices;
+	private int numShards;
+	// number of merged results per status, see ResultWriter
+	private long[] statusCounts = new long[ResultWriter.getNumStatuses()];
+
+	private SweepShards(File resultFile, SweepSettings sweepSettings, long numDevices, int numShards) {
+		this.resultFile = resultFile;
+		this.directory = getDirectory(resultFile);
+		this.sweepSettings = sweepSettings;
+		this.numDevices = numDevices;
+		this.numShards = numShards;
+	}
+
+	/**
+	 * @param resultFile The result file of a sweep.
+	 * @return The shard directory of the sweep.
+	 */
+	public static File getDirectory(File resultFile) {
+		return new File(resultFile.getPath() + ".shards");
+	}
+
+	/**
+	 * Creates the shard directory of a new sweep.
+	 * @param resultFile The result file of the sweep, the merged results are
+	 * written to it.
+	 * @param sweepSettings The settings of the sweep.
+	 * @param numDevices The number of devices of the sweep.
+	 * @param numShards The number of shards, at most the number of devices.
+	 * @return The shards.
+	 * @throws IOException If the shard directory can not be created.
+	 */
+	public static SweepShards create(File resultFile, SweepSettings sweepSettings, long numDevices,
+			int numShards) throws IOException {
+		if(numShards < 1 || numShards > numDevices) {
+			throw new IllegalArgumentException("The number of shards should be between 1 and the " +
+					"number of devices.");
+		}
+		SweepShards shards = new SweepShards(resultFile, sweepSettings, numDevices, numShards);
+		File directory = shards.directory;
+		if(!directory.mkdir()) {
+			throw new IOException("The shard directory " + directory.getPath() + " can not be created.");
+		}
+
+		Properties properties = new Properties();
+		sweepSettings.store(properties);
+		properties.setProperty("devices", Long.toString(numDevices));
+		properties.setProperty("shards", Integer.toString(numShards));
+		// the settings appear at once for processes that join
+		File tmpFile = new File(directory, SETTINGS_FILE + ".tmp");
+		OutputStream out = new FileOutputStream(tmpFile);
+		try {
+			properties.store(out, "Sharded sweep");
+		}
+		finally {
+			out.close();
+		}
+		Files.move(tmpFile.toPath(), new File(directory, SETTINGS_FILE).toPath(),
+				StandardCopyOption.ATOMIC_MOVE);
+		return shards;
+	}
+
+	/**
+	 * Opens the shard directory of a sweep, to join it.
+	 * @param resultFile The result file of the sweep.
+	 * @return The shards.
+	 * @throws IOException If the sweep is not sharded or its settings can not
+	 * be read.
+	 */
+	public static SweepShards open(File resultFile) throws IOException {
+		File file = new File(getDirectory(resultFile), SETTINGS_FILE);
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try {
+			properties.load(in);
+		}
+		finally {
+			in.close();
+		}
+		try {
+			return new SweepShards(resultFile, SweepSettings.load(properties),
+					Long.parseLong(properties.getProperty("devices")),
+					Integer.parseInt(properties.getProperty("shards")));
+		}
+		catch(RuntimeException re) {
+			throw new IOException("The shard settings " + file.getPath() + " are damaged: " + re);
+		}
+	}
+
+	/**
+	 * @return The settings of the sweep.
+	 */
+	public SweepSettings getSweepSettings() {
+		return sweepSettings;
+	}
+
+	/**
+	 * @return The number of devices of the sweep.
+	 */
+	public long getNumDevices() {
+		return numDevices;
+	}
+
+	/**
+	 * @return The number of shards.
+	 */
+	public int getNumShards() {
+		return numShards;
+	}
+
+	/**
+	 * @return The result file of the sweep.
+	 */
+	public File getResultFile() {
+		return resultFile;
+	}
+
+	/**
+	 * @param shard
+	 * @return The index of the first device of the shard, the first shards
+	 * get one device more if the devices can not be split evenly.
+	 */
+	public long getStart(int shard) {
+		return numDevices / numShards * shard + Math.min(shard, numDevices % numShards);
+	}
+
+	/**
+	 * @param shard
+	 * @return The index after the last device of the shard.
+	 */
+	public long getEnd(int shard) {
+		return getStart(shard + 1);
+	}
+
+	/**
+	 * @param shard
+	 * @return The result file of the shard.
+	 */
+	public File getShardFile(int shard) {
+		return new File(directory, "shard" + shard + ".res");
+	}
+
+	/**
+	 * @param shard
+	 * @return True if the results of all devices of the shard are written.
+	 * @throws IOException If the checkpoint of the shard can not be read.
+	 */
+	public boolean isDone(int shard) throws IOException {
+		File shardFile = getShardFile(shard);
+		if(!SweepCheckpoint.getFile(shardFile).exists()) {
+			return false;
+		}
+		return SweepCheckpoint.load(shardFile).getNumCompleted() == getEnd(shard) - getStart(shard);
+	}
+
+	/**
+	 * Claims the first shard that is not done and not claimed by another
+	 * process.
+	 * @return The claim, release it when the shard is done or the simulation
+	 * failed. Null if there is no shard left.
+	 * @throws IOException If a lock file can not be used.
+	 */
+	public Claim claim() throws IOException {
+		for(int shard = 0; shard < numShards; shard++) {
+			RandomAccessFile file = new RandomAccessFile(new File(directory, "shard" + shard + ".lock"), "rw");
+			FileLock lock = file.getChannel().tryLock();
+			if(lock == null) {
+				file.close();
+			}
+			else if(isDone(shard)) {
+				lock.release();
+				file.close();
+			}
+			else {
+				return new Claim(shard, file, lock);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return True if the results of the shards are merged into the result
+	 * file.
+	 */
+	public boolean isMerged() {
+		return resultFile.length() > 0;
+	}
+
+	/**
+	 * Merges the results of the shards in device order into the result file,
+	 * if all shards are done and they are not merged yet. The merged results
+	 * are written to a temporary file first, so that the result file is
+	 * complete when it is not empty. The best devices that are simulated 
+	 * completely are shown.
+	 * @param top The number of best devices that are shown.
+	 * @return True if the results are merged now.
+	 * @throws IOException If a result file can not be read or written.
+	 */
+	public boolean merge(int top) throws IOException {
+		RandomAccessFile lockFile = new RandomAccessFile(new File(directory, MERGE_LOCK_FILE), "rw");
+		try {
+			// one process merges, the others wait and find the results merged
+			FileLock lock = lockFile.getChannel().lock();
+			try {
+				if(isMerged()) {
+					return false;
+				}
+				for(int shard = 0; shard < numShards; shard++) {
+					if(!isDone(shard)) {
+						return false;
+					}
+				}
+				List<RankedDevice> best = merge(new File(resultFile.getPath() + ".tmp"), top);
+				Files.move(new File(resultFile.getPath() + ".tmp").toPath(), resultFile.toPath(),
+						StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+				System.out.println("\n- Merged the results of " + numShards + " shards into " +
+						resultFile.getPath());
+				for(byte status = 0; status < statusCounts.length; status++) {
+					System.out.println("- " + ResultWriter.statusName(status) + ": " + statusCounts[status] + 
+							" devices");
+				}
+				System.out.println("- Best simulated devices:");
+				for(int i = 0; i < best.size(); i++) {
+					System.out.println((i+1) + ". " + best.get(i).score + " " + best.get(i).device);
+				}
+				return true;
+			}
+			finally {
+				lock.release();
+			}
+		}
+		finally {
+			lockFile.close();
+		}
+	}
+
+	/**
+	 * @param file The file to which the results of all shards are written.
+	 * @param top The number of best devices that are returned.
+	 * @return The best devices that are simulated completely, the best first.
+	 */
+	private List<RankedDevice> merge(File file, int top) throws IOException {
+		// the best devices so far, the lowest score first
+		PriorityQueue<RankedDevice> best = new PriorityQueue<RankedDevice>(top + 1, RankedDevice.ORDER);
+		statusCounts = new long[ResultWriter.getNumStatuses()];
+		ResultWriter writer = new ResultWriter(file);
+		try {
+			long count = 0;
+			for(int shard = 0; shard < numShards; shard++) {
+				ResultReader reader = new ResultReader(getShardFile(shard));
+				try {
+					while(reader.next()) {
+						writer.write(reader);
+						count++;
+						statusCounts[reader.getStatus()]++;
+						float[] score = reader.getScore();
+						float total = score[score.length-1];
+						if(reader.getStatus() != ResultWriter.SIMULATED) {
+							continue;
+						}
+						if(top > 0 && !Float.isNaN(total) && (best.size() < top || total > best.peek().score)) {
+							best.add(new RankedDevice(total, reader.getDeviceString()));
+							if(best.size() > top) {
+								best.poll();
+							}
+						}
+					}
+				}
+				finally {
+					reader.close();
+				}
+			}
+			if(count != numDevices) {
+				throw new IOException("The shards hold " + count + " results, expected " + numDevices + ".");
+			}
+		}
+		finally {
+			writer.close();
+		}
+
+		List<RankedDevice> result = new ArrayList<RankedDevice>(best);
+		Collections.sort(result, Collections.reverseOrder(RankedDevice.ORDER));
+		return result;
+	}
+
+	/**
+	 * Merges the results of a sharded sweep, when all of its shards are done.
+	 * @param args resultFile [top], shows the best 10 devices by default.
+	 */
+	public static void main(String[] args) {
+		if(args.length < 1) {
+			System.out.println("Usage: resultFile [top]");
+			return;
+		}
+		try {
+			SweepShards shards = open(new File(args[0]));
+			int top = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+			if(!shards.merge(top)) {
+				System.out.println(shards.isMerged() ? "The results are already merged." :
+						"Not all shards are done, continue the sweep with -join " + args[0]);
+			}
+		}
+		catch(IOException ioe) {
+			ioe.printStackTrace();
+			System.out.println("An input/output error occured when merging the shards.");
+		}
+	}
+
+	/**
+	 * A shard that is claimed by this process.
+	 */
+	public static class Claim {
+
+		private int shard;
+		private RandomAccessFile file;
+		private FileLock lock;
+
+		private Claim(int shard, RandomAccessFile file, FileLock lock) {
+			this.shard = shard;
+			this.file = file;
+			this.lock = lock;
+		}
+
+		/**
+		 * @return The index of the shard.
+		 */
+		public int getShard() {
+			return shard;
+		}
+
+		/**
+		 * Releases the shard, so that another process can claim it if it is
+		 * not done.
+		 * @throws IOException
+		 */
+		public void release() throws IOException {
+			try {
+				lock.release();
+			}
+			finally {
+				file.close();
+			}
+		}
+	}
+
+	/**
+	 * The total score of a device.
+	 */
+	private static class RankedDevice {
+
+		private static final Comparator<RankedDevice> ORDER = new Comparator<RankedDevice>() {
+			public int compare(RankedDevice d1, RankedDevice d2) {
+				return Float.compare(d1.score, d2.score);
+			}
+		};
+
+		private float score;
+		private String device;
+
+		public RankedDevice(float score, String device) {
+			this.score = score;
+			this.device = device;
+		}
+	}
+}
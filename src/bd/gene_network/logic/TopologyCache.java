@@ -0,0 +1,164 @@
+package bd.gene_network.logic;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import fern.network.Network;
+
+import bd.biopart.Device;
+import bd.model.Model0;
+import bd.model.ModelNetwork;
+import bd.simulation.SimulatorType;
+
+/**
+ * Keeps the device simulators of the most recently simulated topologies. The
+ * devices of a sweep mostly differ in the promoters and RBSs that are picked
+ * from a library, these devices have the same topology and reuse the network
+ * and (ensemble or ODE) simulator of the first of them. The model of such a device 
+ * is not built, only its rate constants are calculated.
+ *
+ * A cache is not thread-safe, each simulation thread should have its own.
+ * @author Bastiaan van den Berg
+ *
+ */
+class TopologyCache {
+
+	// number of topologies that is kept
+	private static final int MAX_TOPOLOGIES = 32;
+
+	// the simulators are only valid for these settings
+	private LogicGeneNetworkSettings settings;
+	private SimulatorType simulator;
+
+	// device simulator per topology key, the least recently used first
+	private Map<String, DeviceSimulator> simulators = lruMap();
+	private Map<String, EnsembleDeviceSimulator> ensembles = lruMap();
+	private Map<String, OdeDeviceSimulator> odes = lruMap();
+
+	private long hits;
+	private long misses;
+
+	/**
+	 * Returns a device simulator for a device, a cached one for a device with
+	 * the same topology or a new one.
+	 * @param device
+	 * @param settings
+	 * @param seed The seed for the random number generator of the simulator.
+	 * @param measurementsPerState The number of samples per state.
+	 * @return The device simulator, ready to simulate the device.
+	 */
+	public DeviceSimulator get(Device device, LogicGeneNetworkSettings settings, int seed,
+			int measurementsPerState) {
+		checkSettings(settings);
+		String key = Model0.topologyKey(device);
+		DeviceSimulator deviceSimulator = simulators.get(key);
+		if(deviceSimulator != null) {
+			deviceSimulator.reuse(device, seed);
+			hits++;
+		}
+		else {
+			ModelNetwork net = (ModelNetwork)new Model0(device).toNetwork();
+			deviceSimulator = new DeviceSimulator(net, settings, seed, measurementsPerState);
+			simulators.put(key, deviceSimulator);
+			misses++;
+		}
+		return deviceSimulator;
+	}
+
+	/**
+	 * Returns an ensemble simulator for a device, a cached one for a device 
+	 * with the same topology or a new one.
+	 * @param device
+	 * @param settings
+	 * @param seed The seed for the random number generators of the runs.
+	 * @param measurementsPerState The number of samples per state.
+	 * @param numRuns The number of runs.
+	 * @return The ensemble simulator, ready to simulate the device.
+	 */
+	public EnsembleDeviceSimulator getEnsemble(Device device, LogicGeneNetworkSettings settings, 
+			int seed, int measurementsPerState, int numRuns) {
+		checkSettings(settings);
+		String key = Model0.topologyKey(device);
+		EnsembleDeviceSimulator ensemble = ensembles.get(key);
+		if(ensemble != null) {
+			ensemble.reuse(device, seed);
+			hits++;
+		}
+		else {
+			Network net = new Model0(device).toNetwork();
+			ensemble = new EnsembleDeviceSimulator(net, settings, seed, measurementsPerState, numRuns);
+			ensembles.put(key, ensemble);
+			misses++;
+		}
+		return ensemble;
+	}
+
+	/**
+	 * Returns an ODE simulator for a device, a cached one for a device with
+	 * the same topology or a new one.
+	 * @param device
+	 * @param settings
+	 * @param measurementsPerState The number of samples per state.
+	 * @return The ODE simulator, ready to simulate the device.
+	 */
+	public OdeDeviceSimulator getOde(Device device, LogicGeneNetworkSettings settings, 
+			int measurementsPerState) {
+		checkSettings(settings);
+		String key = Model0.topologyKey(device);
+		OdeDeviceSimulator ode = odes.get(key);
+		if(ode != null) {
+			ode.reuse(device);
+			hits++;
+		}
+		else {
+			Network net = new Model0(device).toNetwork();
+			ode = new OdeDeviceSimulator(net, settings, measurementsPerState);
+			odes.put(key, ode);
+			misses++;
+		}
+		return ode;
+	}
+
+	/**
+	 * Clears the cache when the settings have changed.
+	 * @param settings
+	 */
+	private void checkSettings(LogicGeneNetworkSettings settings) {
+		if(settings != this.settings || settings.getSimulator() != simulator) {
+			simulators.clear();
+			ensembles.clear();
+			odes.clear();
+			this.settings = settings;
+			this.simulator = settings.getSimulator();
+		}
+	}
+
+	/**
+	 * @return A map that removes the least recently used entry when it holds
+	 * more than MAX_TOPOLOGIES entries.
+	 */
+	private static <V> Map<String, V> lruMap() {
+		return new LinkedHashMap<String, V>(MAX_TOPOLOGIES * 2, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+				return size() > MAX_TOPOLOGIES;
+			}
+		};
+	}
+
+	/**
+	 * @return The number of devices that reused a simulator.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return The number of devices that needed a new simulator.
+	 */
+	public long getMisses() {
+		return misses;
+	}
+}
@@ -69,4 +69,27 @@ public class Constants {
 		dataFile.setReadOnly();
 		return writer;
 	}
+	
+	/**
+	 * Creates a new result file, see ResultWriter.
+	 * @param fileName
+	 * @return The file, null if it could not be created.
+	 */
+	public static File simulationResultFile(String fileName) {
+		int counter = 0;
+		String path = Constants.TMP_DATA_DIR + File.separator + fileName;
+		File resultFile = new File(path + counter + ".res");
+		try {
+			while(!resultFile.createNewFile()) {
+				counter++;
+				resultFile = new File(path + counter + ".res");
+			}
+		}
+		catch(IOException ioe) {
+			ioe.printStackTrace();
+			System.out.println("ERROR: An IO error occured, when creating the result file.");
+			return null;
+		}
+		return resultFile;
+	}
 }
@@ -17,9 +17,16 @@ import bd.global.Constants;
 public class FernMLWriter implements ModelWriter {
 	
 	public void writeModel(Model model) {
-		Document document = buildDocument(model);
-		File file = new File(Constants.TMP_MODEL_DIR + model.device.getName() + ".fernml");
-		writeDocument(document, file);
+		writeModel(model, new File(Constants.TMP_MODEL_DIR + model.device.getName() + ".fernml"));
+	}
+	
+	/**
+	 * Writes the model to the given file instead of the model directory.
+	 * @param model
+	 * @param file
+	 */
+	public void writeModel(Model model, File file) {
+		writeDocument(buildDocument(model), file);
 	}
 	
 	private Document buildDocument(Model model) {
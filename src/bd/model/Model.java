@@ -4,6 +4,8 @@ package bd.model;
 import java.util.ArrayList;
 import java.util.List;
 
+import fern.network.Network;
+
 import bd.biopart.Device;
 
 public abstract class Model {
@@ -28,6 +30,14 @@ public abstract class Model {
 		return reactionList;
 	}
 	
+	/**
+	 * @return A network that can be simulated, built in memory from the 
+	 * species and reactions of this model.
+	 */
+	public Network toNetwork() {
+		return new ModelNetwork(this);
+	}
+	
 	public String toString() {
 		String result = "\nModel: (" + speciesList.size() + " species, " + reactionList.size() + " reactions" + ")\n";
 		result += "@species\n";
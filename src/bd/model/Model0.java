@@ -1,31 +1,49 @@
 package bd.model;
 
-import fern.network.fernml.FernMLNetwork;
 import fern.network.sbml.SBMLNetwork;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
-import org.jdom.JDOMException;
-
 import bd.biopart.Device;
 import bd.biopart.EnvironmentalSignal;
 import bd.biopart.Operator;
+import bd.biopart.Promoter;
 import bd.biopart.Protein;
 import bd.biopart.ProteinGenerator;
 import bd.biopart.TF;
 import bd.global.Constants;
 
+/**
+ * The default model of a device. Devices with the same wiring (the same TFs
+ * on the operators of each promoter, and the same proteins and signals) get
+ * the same species and reactions, only the rate constants differ. Such 
+ * devices have the same topology key, and rateConstants returns the rate 
+ * constants of a device in the order of the reactions of the model, without
+ * building the model.
+ */
 public class Model0 extends Model {
 
 	private final String EMPTY_SET = "empty_set";
 	private final int NUM_PLASMIDS = 1;
 	
+	// only the rate constants of the reactions are collected, no species
+	// and reactions are created
+	private boolean ratesOnly;
+	private List<Double> rates = new ArrayList<Double>();
+	
 	public Model0(Device device) {
+		this(device, false);
+	}
+	
+	private Model0(Device device, boolean ratesOnly) {
 		
 		super(device);
+		this.ratesOnly = ratesOnly;
 		
 		// Add protein generators
 		int counter = 0;
@@ -43,7 +61,108 @@ public class Model0 extends Model {
 		}
 		
 		// Add species: empty set
-		speciesList.add(new Species(EMPTY_SET,0));
+		addSpecies(EMPTY_SET,0);
+	}
+	
+	/**
+	 * Returns the rate constants of the reactions of the model of a device, in
+	 * the same order as the reactions of new Model0(device). The model itself
+	 * is not built.
+	 * @param device
+	 * @return The rate constants.
+	 */
+	public static double[] rateConstants(Device device) {
+		List<Double> rates = new Model0(device, true).rates;
+		double[] result = new double[rates.size()];
+		for(int i = 0; i < result.length; i++) {
+			result[i] = rates.get(i);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns a key that is the same for devices that have models with the 
+	 * same species and reactions (apart from the rate constants), and 
+	 * different otherwise. It lists everything that determines the species
+	 * and reactions of the model, in the order in which they are added.
+	 * @param device
+	 * @return The topology key.
+	 */
+	public static String topologyKey(Device device) {
+		StringBuilder key = new StringBuilder();
+		for(ProteinGenerator pg : device.getProteinGenerators()) {
+			Promoter promoter = pg.getPromoter();
+			List<Operator> operators = promoter.getOperators();
+			key.append('(');
+			for(Operator operator : operators) {
+				key.append(operator.getTF().getName()).append(',');
+			}
+			// occupations without transcription have no transcription reaction
+			int numOccupations = 1 << operators.size();
+			for(int i = 0; i < numOccupations; i++) {
+				double ktc = operators.isEmpty() ? promoter.getKTranscription() : 
+					promoter.getKTranscription(occupation(i, operators.size()));
+				key.append(ktc > 0 ? '1' : '0');
+			}
+			key.append(',').append(pg.getProteinCoding().getProtein().getName()).append(')');
+		}
+		HashSet<Protein> proteinSet = new HashSet<Protein>();
+		device.getAllProteins(proteinSet);
+		for(Protein protein : proteinSet) {
+			key.append(protein.getName()).append(',');
+		}
+		if(device.getSignals() != null) {
+			for(EnvironmentalSignal signal : device.getSignals()) {
+				key.append('{').append(signal.getName());
+				for(TF tf : device.getSignalTFs(signal)) {
+					key.append(',').append(tf.getName()).append(tf.getKUnbindSignal() > 0 ? "+" : "-");
+				}
+				key.append('}');
+			}
+		}
+		return key.toString();
+	}
+	
+	/**
+	 * Adds a species, unless only the rate constants are collected.
+	 * @param name
+	 * @param initialAmount
+	 */
+	private void addSpecies(String name, int initialAmount) {
+		if(!ratesOnly) {
+			speciesList.add(new Species(name, initialAmount));
+		}
+	}
+	
+	/**
+	 * Adds a reaction with the given rate constant. The rate constant is 
+	 * checked here, so that a new model and the rate constants for a reused
+	 * network (see ModelNetwork.setRateConstants) accept the same devices.
+	 * @param rateConstant
+	 * @return The reaction, the reactants and products still have to be set,
+	 * or null if only the rate constants are collected.
+	 * @throws IllegalArgumentException If the rate constant is not positive.
+	 */
+	private Reaction addReaction(double rateConstant) {
+		checkRateConstant(rateConstant);
+		rates.add(rateConstant);
+		if(ratesOnly) {
+			return null;
+		}
+		Reaction r = new Reaction(rateConstant);
+		reactionList.add(r);
+		return r;
+	}
+	
+	/**
+	 * @param rateConstant
+	 * @throws IllegalArgumentException If the rate constant is not positive,
+	 * or not a number.
+	 */
+	public static void checkRateConstant(double rateConstant) {
+		if(!(rateConstant > 0)) {
+			throw new IllegalArgumentException("There is a non positive rate constant: " + rateConstant + ".");
+		}
 	}
 	
 	private void addProteins() {
@@ -56,28 +175,31 @@ public class Model0 extends Model {
 		for(Protein protein : proteinSet) {
 			
 			// Add species: protein
-			speciesList.add(new Species(protein.getName(), 0));
+			addSpecies(protein.getName(), 0);
 			
 			Reaction r;
 			
 			if(!protein.isMonomer()) {
 				// Add reaction: protein association
-				r = new Reaction(protein.getKBindProtein());
-				r.setReactants(protein.getP1().getName(), protein.getP2().getName());
-				r.setProducts(protein.getName());
-				reactionList.add(r);
+				r = addReaction(protein.getKBindProtein());
+				if(r != null) {
+					r.setReactants(protein.getP1().getName(), protein.getP2().getName());
+					r.setProducts(protein.getName());
+				}
 				// Add reaction: protein dissociation
-				r = new Reaction(protein.getKUnbindProtein());
-				r.setReactants(protein.getName());
-				r.setProducts(protein.getP1().getName(), protein.getP2().getName());
-				reactionList.add(r);
+				r = addReaction(protein.getKUnbindProtein());
+				if(r != null) {
+					r.setReactants(protein.getName());
+					r.setProducts(protein.getP1().getName(), protein.getP2().getName());
+				}
 			}
 			
 			// Add reaction: protein degradation
-			r = new Reaction(protein.getKDegProtein());
-			r.setReactants(protein.getName());
-			r.setProducts(EMPTY_SET);
-			reactionList.add(r);
+			r = addReaction(protein.getKDegProtein());
+			if(r != null) {
+				r.setReactants(protein.getName());
+				r.setProducts(EMPTY_SET);
+			}
 		}
 	}
 	
@@ -94,18 +216,23 @@ public class Model0 extends Model {
 		// number of operators
 		int numOperators = pg.getPromoter().getOperators().size();
 		// number of possible operator occupations
-		int numOccupations = (int)Math.pow(2, numOperators);
+		int numOccupations = 1 << numOperators;
+		
+		// occupation of the operators (TFs bound to them) and gene names
+		String[] occupations = new String[numOccupations];
+		String[] genes = new String[numOccupations];
+		for(int i = 0; i < numOccupations; i++) {
+			occupations[i] = occupation(i, numOperators);
+			genes[i] = ratesOnly ? null : "pg" + counter + "_gene_" + occupations[i];
+		}
+		String mRNA = "pg" + counter + "_mRNA";
 		
 		Reaction r;
 		
 		for(int i = 0; i < numOccupations; i++) {
 			
-			// occupation of the operator (TFs bound to them)
-			String occupation = occupation(i, numOperators);
-			String name = "pg" + counter + "_gene_" + occupation;
-			
 			// add species: gene
-			speciesList.add(new Species(name, i == 0 ? NUM_PLASMIDS : 0));
+			addSpecies(genes[i], i == 0 ? NUM_PLASMIDS : 0);
 			
 			// add reaction: transcription
 			double ktc;
@@ -114,64 +241,70 @@ public class Model0 extends Model {
 				
 			}
 			else {
-				ktc = pg.getPromoter().getKTranscription(occupation);
+				ktc = pg.getPromoter().getKTranscription(occupations[i]);
 			}
 			if(ktc > 0) {
-				r = new Reaction(ktc);
-				r.setReactants(name);
-				r.setProducts(name, "pg" + counter + "_mRNA");
-				reactionList.add(r);
+				r = addReaction(ktc);
+				if(r != null) {
+					r.setReactants(genes[i]);
+					r.setProducts(genes[i], mRNA);
+				}
 			}
 		}
 			
 		// TF binding to operators
 		for(int i = 0; i < numOccupations; i++) {
 			for(int j = 0; j < numOccupations; j++) {
-				if(neighbors(i, j, numOperators) && j < i) { // only one direction
-					String oldO = occupation(j,numOperators);
-					String newO = occupation(i,numOperators);
-					Operator operator = pg.getPromoter().getOperators().get(whichOperator(oldO,newO));
+				if(neighbors(i, j) && j < i) { // only one direction
+					String oldGene = genes[j];
+					String newGene = genes[i];
+					Operator operator = pg.getPromoter().getOperators().get(whichOperator(i, j, numOperators));
+					TF tf = operator.getTF();
 					
 					// Check if we have an activating signal
-					boolean activated = operator.getTF().signalReceiver() && !operator.getTF().bindsSmallMolecule();
+					boolean activated = tf.signalReceiver() && !tf.bindsSmallMolecule();
 					// Add signal to TF name in case of activated TF
-					String tfName = operator.getTF().getName();
+					String tfName = tf.getName();
 					if(activated) {
-						 tfName += "_" + operator.getTF().getSmallMolecule().getName();
+						 tfName += "_" + tf.getSmallMolecule().getName();
 					}
 					
 					// add reaction: binding TF to DNA
-					r = new Reaction(operator.getKBindTF());
-					r.setReactants("pg" + counter + "_gene_" + oldO, tfName);
-					r.setProducts("pg" + counter + "_gene_" + newO);
-					reactionList.add(r);
+					r = addReaction(operator.getKBindTF());
+					if(r != null) {
+						r.setReactants(oldGene, tfName);
+						r.setProducts(newGene);
+					}
 					
 					// add reaction: TF dissociation from DNA
-					r = new Reaction(operator.getKUnbindTF());
-					r.setReactants("pg" + counter + "_gene_" + newO);
-					r.setProducts("pg" + counter + "_gene_" + oldO, tfName);
-					reactionList.add(r);
+					r = addReaction(operator.getKUnbindTF());
+					if(r != null) {
+						r.setReactants(newGene);
+						r.setProducts(oldGene, tfName);
+					}
 					
 					// add reaction: bound TF degradation (similar to dissociation)
-					r = new Reaction(operator.getTF().getKDegProtein());
-					r.setReactants("pg" + counter + "_gene_" + newO);
-					if(activated) {
-						// signal does not degrade!
-						r.setProducts("pg" + counter + "_gene_" + oldO, operator.getTF().getSmallMolecule().getName() , EMPTY_SET);
-					}
-					else {
-						r.setProducts("pg" + counter + "_gene_" + oldO, EMPTY_SET);
+					r = addReaction(tf.getKDegProtein());
+					if(r != null) {
+						r.setReactants(newGene);
+						if(activated) {
+							// signal does not degrade!
+							r.setProducts(oldGene, tf.getSmallMolecule().getName() , EMPTY_SET);
+						}
+						else {
+							r.setProducts(oldGene, EMPTY_SET);
+						}
 					}
-					reactionList.add(r);
 					
 					// add reaction: TF induction by signal (only when signal is present in device)
-					if(operator.getTF().signalReceiver() && 
-							signals.contains(operator.getTF().getSmallMolecule()) &&
-							operator.getTF().bindsSmallMolecule()) {
-						r = new Reaction(operator.getTF().getKBindSignal());
-						r.setReactants("pg" + counter + "_gene_" + newO, operator.getTF().getSmallMolecule().getName());
-						r.setProducts("pg" + counter + "_gene_" + oldO, operator.getTF().getName()+"_"+operator.getTF().getSmallMolecule().getName());
-						reactionList.add(r);
+					if(tf.signalReceiver() && 
+							signals.contains(tf.getSmallMolecule()) &&
+							tf.bindsSmallMolecule()) {
+						r = addReaction(tf.getKBindSignal());
+						if(r != null) {
+							r.setReactants(newGene, tf.getSmallMolecule().getName());
+							r.setProducts(oldGene, tf.getName()+"_"+tf.getSmallMolecule().getName());
+						}
 					}
 				}
 			}
@@ -181,22 +314,24 @@ public class Model0 extends Model {
 	private void addRBS(ProteinGenerator pg, int counter) {
 		
 		// add species: mRNA
-		speciesList.add(new Species("pg" + counter + "_mRNA", 0));
+		addSpecies("pg" + counter + "_mRNA", 0);
 		
 		// add reaction: translation (mRNA -> protein)
-		Reaction r = new Reaction(pg.getRBS().getKTranslation());
-		r.setReactants("pg" + counter + "_mRNA");
-		r.setProducts("pg" + counter + "_mRNA", pg.getProteinCoding().getProtein().getName());
-		reactionList.add(r);
+		Reaction r = addReaction(pg.getRBS().getKTranslation());
+		if(r != null) {
+			r.setReactants("pg" + counter + "_mRNA");
+			r.setProducts("pg" + counter + "_mRNA", pg.getProteinCoding().getProtein().getName());
+		}
 	}
 	
 	private void addProteinCoding(ProteinGenerator pg, int counter) {
 		
 		// add reaction: mRNA degradation
-		Reaction r = new Reaction(pg.getProteinCoding().getKDegMrna());
-		r.setReactants("pg" + counter + "_mRNA");
-		r.setProducts(EMPTY_SET);
-		reactionList.add(r);
+		Reaction r = addReaction(pg.getProteinCoding().getKDegMrna());
+		if(r != null) {
+			r.setReactants("pg" + counter + "_mRNA");
+			r.setProducts(EMPTY_SET);
+		}
 	}
 	
 	private void addSignals() {
@@ -204,33 +339,36 @@ public class Model0 extends Model {
 		for(EnvironmentalSignal signal : device.getSignals()) {
 				
 			// add species: signal
-			speciesList.add(new Species(signal.getName(), 0));
+			addSpecies(signal.getName(), 0);
 			
 			Set<TF> signalTFs = device.getSignalTFs(signal);
 			for(TF tf : signalTFs) {
 				
 				// add species: TF signal complex
-				speciesList.add(new Species(tf.getName()+"_"+signal.getName(), 0));
+				addSpecies(tf.getName()+"_"+signal.getName(), 0);
 				
 				// add reaction: signal (free)TF binding
-				Reaction r = new Reaction(tf.getKBindSignal());
-				r.setReactants(tf.getName(), signal.getName());
-				r.setProducts(tf.getName() + "_" + signal.getName());
-				reactionList.add(r);
+				Reaction r = addReaction(tf.getKBindSignal());
+				if(r != null) {
+					r.setReactants(tf.getName(), signal.getName());
+					r.setProducts(tf.getName() + "_" + signal.getName());
+				}
 
 				// add reaction: dissociate inducer from TF 
 				if(tf.getKUnbindSignal() > 0) {
-					r = new Reaction(tf.getKUnbindSignal());
-					r.setReactants(tf.getName() + "_" + signal.getName());
-					r.setProducts(tf.getName(), signal.getName());
-					reactionList.add(r);
+					r = addReaction(tf.getKUnbindSignal());
+					if(r != null) {
+						r.setReactants(tf.getName() + "_" + signal.getName());
+						r.setProducts(tf.getName(), signal.getName());
+					}
 				}
 				
 				// add reaction: degradation free TF-signal complex
-				r = new Reaction(tf.getKDegProtein());
-				r.setReactants(tf.getName() + "_" + signal.getName());
-				r.setProducts(signal.getName(), EMPTY_SET);
-				reactionList.add(r);
+				r = addReaction(tf.getKDegProtein());
+				if(r != null) {
+					r.setReactants(tf.getName() + "_" + signal.getName());
+					r.setProducts(signal.getName(), EMPTY_SET);
+				}
 			}
 		}
 	}
@@ -241,7 +379,7 @@ public class Model0 extends Model {
 	 * @param numOperators
 	 * @return
 	 */
-	private String occupation(int i, int numOperators) {
+	private static String occupation(int i, int numOperators) {
 		String result = Integer.toBinaryString(i);
 		int extraLength = numOperators - result.length();
 		for(int j = 0; j < extraLength; j++) {
@@ -251,47 +389,31 @@ public class Model0 extends Model {
 	}
 	
 	/**
-	 * 
 	 * @param i
 	 * @param j
-	 * @param numOperators
-	 * @return
+	 * @return True if occupations i and j differ in one operator.
 	 */
-	private boolean neighbors(int i, int j, int numOperators) {
-		String bin1 = occupation(i, numOperators);
-		String bin2 = occupation(j, numOperators);
-		int distance = 0;
-		for(int k = 0; k < numOperators; k++) {
-			if(bin1.charAt(k) != bin2.charAt(k)) {
-				distance++;
-			}
-		}
-		return distance == 1;
+	private boolean neighbors(int i, int j) {
+		return Integer.bitCount(i ^ j) == 1;
 	}
 	
 	/**
-	 * 
-	 * @param oc1
-	 * @param oc2
-	 * @return
+	 * @param i
+	 * @param j
+	 * @param numOperators
+	 * @return The first operator in which occupations i and j differ, the 
+	 * first operator is the leftmost character of the occupation string.
 	 */
-	private int whichOperator(String oc1, String oc2) {
-		for(int i = 0; i < oc1.length(); i++) {
-			if(oc1.charAt(i) != oc2.charAt(i)) {
-				return i;
-			}
-		}
-		return -1;
+	private int whichOperator(int i, int j, int numOperators) {
+		return numOperators - 32 + Integer.numberOfLeadingZeros(i ^ j);
 	}
 	
 	public void toFernMl() {
 		new FernMLWriter().writeModel(this);
 	}
 	
-	public void toSBML() throws IOException, JDOMException {	
-		this.toFernMl();
-		FernMLNetwork fernNetwork = new FernMLNetwork(new File(Constants.TMP_MODEL_DIR + device.getName() + ".fernml"));
-		SBMLNetwork sbmlNetwork = new SBMLNetwork(fernNetwork);
+	public void toSBML() throws IOException {	
+		SBMLNetwork sbmlNetwork = new SBMLNetwork(toNetwork());
 		sbmlNetwork.saveToFile(new File(Constants.TMP_MODEL_DIR + device.getName() + ".sbml"));
 	}
 }
@@ -0,0 +1,167 @@
+package bd.model;
+
+import java.util.HashMap;
+import java.util.List;
+
+import fern.network.AbstractNetworkImpl;
+import fern.network.AmountManager;
+import fern.network.AnnotationManagerImpl;
+import fern.network.ArrayKineticConstantPropensityCalculator;
+
+/**
+ * A FERN network that is built directly from the species and reactions of a
+ * model. The model is not written to a FernML file and parsed again, which
+ * makes this the fast way to get a network that can be simulated. The species
+ * and reactions get the same indices as they would get in the FernML network
+ * that is written by the FernMLWriter.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class ModelNetwork extends AbstractNetworkImpl {
+
+	private Model model;
+	private long[] initialAmount;
+
+	/**
+	 * Builds the network for the given model.
+	 * @param model The model that should be simulated.
+	 */
+	public ModelNetwork(Model model) {
+		super(model.getDevice().getName());
+		this.model = model;
+		createAnnotationManager();
+		createSpeciesMapping();
+		createAmountManager();
+		createAdjacencyLists();
+		createPropensityCalulator();
+	}
+
+	/**
+	 * @return The model from which this network is built. After 
+	 * setRateConstants the rate constants of the network can differ from the
+	 * ones in the model.
+	 */
+	public Model getModel() {
+		return model;
+	}
+
+	/**
+	 * Replaces the rate constants of all reactions, so that the network can be
+	 * reused for a device with the same topology, see Model0.topologyKey.
+	 * @param rateConstants The new rate constants, in the order of the 
+	 * reactions of the model.
+	 */
+	public void setRateConstants(double[] rateConstants) {
+		if(rateConstants.length != getNumReactions()) {
+			throw new IllegalArgumentException("Expected " + getNumReactions() + 
+					" rate constants, got " + rateConstants.length + ".");
+		}
+		for(double k : rateConstants) {
+			Model0.checkRateConstant(k);
+		}
+		ArrayKineticConstantPropensityCalculator calculator = 
+			(ArrayKineticConstantPropensityCalculator)propensitiyCalculator;
+		for(int i = 0; i < rateConstants.length; i++) {
+			calculator.setConstant(i, rateConstants[i]);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see fern.network.AbstractNetworkImpl#getNumSpecies()
+	 */
+	@Override
+	public int getNumSpecies() {
+		return indexToSpeciesId.length;
+	}
+
+	/* (non-Javadoc)
+	 * @see fern.network.Network#getInitialAmount(int)
+	 */
+	public long getInitialAmount(int species) {
+		return initialAmount[species];
+	}
+
+	/* (non-Javadoc)
+	 * @see fern.network.Network#setInitialAmount(int, long)
+	 */
+	public void setInitialAmount(int species, long value) {
+		initialAmount[species] = value;
+	}
+
+	/* (non-Javadoc)
+	 * @see fern.network.AbstractNetworkImpl#createAnnotationManager()
+	 */
+	@Override
+	protected void createAnnotationManager() {
+		annotationManager = new AnnotationManagerImpl();
+	}
+
+	/* (non-Javadoc)
+	 * @see fern.network.AbstractNetworkImpl#createSpeciesMapping()
+	 */
+	@Override
+	protected void createSpeciesMapping() {
+		List<Species> species = model.getSpecies();
+		speciesIdToIndex = new HashMap<String,Integer>(species.size() * 2);
+		indexToSpeciesId = new String[species.size()];
+		initialAmount = new long[species.size()];
+		for(int i = 0; i < species.size(); i++) {
+			Species s = species.get(i);
+			speciesIdToIndex.put(s.getName(), i);
+			indexToSpeciesId[i] = s.getName();
+			initialAmount[i] = s.getInitialAmount();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see fern.network.AbstractNetworkImpl#createAmountManager()
+	 */
+	@Override
+	protected void createAmountManager() {
+		amountManager = new AmountManager(this);
+	}
+
+	/* (non-Javadoc)
+	 * @see fern.network.AbstractNetworkImpl#createAdjacencyLists()
+	 */
+	@Override
+	protected void createAdjacencyLists() {
+		List<Reaction> reactions = model.getReactions();
+		adjListRea = new int[reactions.size()][];
+		adjListPro = new int[reactions.size()][];
+		for(int i = 0; i < reactions.size(); i++) {
+			Reaction r = reactions.get(i);
+			adjListRea[i] = speciesReferences(r.getReactants());
+			adjListPro[i] = speciesReferences(r.getProducts());
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see fern.network.AbstractNetworkImpl#createPropensityCalulator()
+	 */
+	@Override
+	protected void createPropensityCalulator() {
+		List<Reaction> reactions = model.getReactions();
+		double[] constants = new double[reactions.size()];
+		for(int i = 0; i < reactions.size(); i++) {
+			constants[i] = reactions.get(i).getRateConstant();
+		}
+		propensitiyCalculator = new ArrayKineticConstantPropensityCalculator(adjListRea, constants);
+	}
+
+	/**
+	 * @param names Species names.
+	 * @return The species indices.
+	 */
+	private int[] speciesReferences(List<String> names) {
+		int[] result = new int[names.size()];
+		for(int i = 0; i < result.length; i++) {
+			Integer index = speciesIdToIndex.get(names.get(i));
+			if(index == null) {
+				throw new IllegalArgumentException("Reaction refers to an unknown species: " + names.get(i));
+			}
+			result[i] = index;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,143 @@
+package bd.simulation;
+
+import fern.simulation.Simulator;
+import fern.simulation.Simulator.FireType;
+import fern.simulation.observer.Observer;
+
+/**
+ * Observes the amounts of molecule species at fixed time intervals, like
+ * FERN's AmountIntervalObserver. The difference is that the samples are
+ * stored in preallocated arrays, one per species, instead of in a log that
+ * can only be read back as text via a GnuPlot object.
+ *
+ * Just like the AmountIntervalObserver, repeated simulation runs are
+ * averaged, using the same running average, so that the averaged samples are
+ * exactly the same as the ones that are exported by the AmountIntervalObserver.
+ * The observer also asks the simulator for the same theta events, so adding
+ * it instead of an AmountIntervalObserver does not change the simulation.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class AmountSampleObserver extends Observer {
+
+	private int[] species;
+	private double interval;
+
+	// samples of the current run, per species
+	private double[][] current;
+	private int numCurrent;
+	// averaged samples over all finished runs, per species
+	private double[][] average;
+	private int numAverage;
+	// number of finished runs since the last reset
+	private int runs;
+
+	/**
+	 * @param sim The simulator.
+	 * @param interval The time between two samples.
+	 * @param numSamples The number of samples per run that is stored, later
+	 * samples of a run are ignored.
+	 * @param species The indices of the species to observe.
+	 */
+	public AmountSampleObserver(Simulator sim, double interval, int numSamples, int... species) {
+		super(sim);
+		if(species.length == 0) {
+			throw new IllegalArgumentException("At least one species has to be specified.");
+		}
+		this.species = species;
+		this.interval = interval;
+		current = new double[species.length][numSamples];
+		average = new double[species.length][numSamples];
+	}
+
+	@Override
+	public void started() {
+		numCurrent = 0;
+		setTheta(0);
+	}
+
+	@Override
+	public void theta(double theta) {
+		if(numCurrent < current[0].length) {
+			Simulator s = getSimulator();
+			for(int i = 0; i < species.length; i++) {
+				current[i][numCurrent] = s.getAmount(species[i]);
+			}
+			numCurrent++;
+		}
+		setTheta(theta + interval);
+	}
+
+	/**
+	 * Forgets the averaged samples of the previous runs, so that the observer
+	 * can be reused for the simulation of another device.
+	 */
+	public void reset() {
+		numCurrent = 0;
+		numAverage = 0;
+		runs = 0;
+	}
+
+	@Override
+	public void finished() {
+		// counted here instead of getNumSimulations(), that can not be reset
+		for(int i = 0; i < species.length; i++) {
+			double[] cur = current[i];
+			double[] avg = average[i];
+			for(int j = 0; j < numCurrent; j++) {
+				if(j < numAverage) {
+					avg[j] = (cur[j] + avg[j]*runs)/(runs+1);
+				}
+				else {
+					avg[j] = cur[j];
+				}
+			}
+		}
+		numAverage = Math.max(numAverage, numCurrent);
+		runs++;
+	}
+
+	@Override
+	public void step() {
+	}
+
+	@Override
+	public void activateReaction(int mu, double tau, FireType fireType, int times) {
+	}
+
+	/**
+	 * @return The number of averaged samples per species.
+	 */
+	public int getNumSamples() {
+		return numAverage;
+	}
+
+	/**
+	 * Returns the averaged samples of one of the observed species. The array
+	 * is owned by the observer and is updated after each run.
+	 * @param index The index of the species in the species given to the
+	 * constructor.
+	 * @return The averaged samples.
+	 */
+	public double[] getSamples(int index) {
+		return average[index];
+	}
+
+	/**
+	 * @return The number of samples of the current run so far.
+	 */
+	public int getNumCurrentSamples() {
+		return numCurrent;
+	}
+
+	/**
+	 * Returns the samples of the current run of one of the observed species.
+	 * Only the first getNumCurrentSamples() samples are from the current run.
+	 * @param index The index of the species in the species given to the
+	 * constructor.
+	 * @return The samples of the current run.
+	 */
+	public double[] getCurrentSamples(int index) {
+		return current[index];
+	}
+}
@@ -11,7 +11,6 @@ import fern.network.FeatureNotSupportedException;
 import fern.network.Network;
 import fern.network.fernml.FernMLNetwork;
 import fern.simulation.Simulator;
-import fern.simulation.algorithm.GillespieSimple;
 import fern.simulation.observer.AmountIntervalObserver;
 import fern.tools.NetworkTools;
 import fern.tools.gnuplot.GnuPlot;
@@ -33,13 +32,15 @@ public class DeviceSimulation {
 		int simTime = 50000;
 		String[] obsProtein = {"reporter0","sm_iim0","sm_iim1"};
 		String simDataFile = "test.dat";
+		SimulatorType simulator = SimulatorType.DIRECT;
+		int seed = (int)System.nanoTime();
 		/*** end configuration ***/
 
 		File file = new File(Constants.TMP_MODEL_DIR + deviceName + ".fernml");
 		Network net = new FernMLNetwork(file);
 		NetworkTools.dumpNetwork(net);
 
-		Simulator sim = new GillespieSimple(net);
+		Simulator sim = simulator.create(net, seed);
 
 		// add observers
 		AmountIntervalObserver amountObs = new AmountIntervalObserver(sim,stepSize,obsProtein);
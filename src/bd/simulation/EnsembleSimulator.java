@@ -0,0 +1,342 @@
+package bd.simulation;
+
+import cern.jet.random.engine.MersenneTwister;
+import fern.network.Network;
+
+/**
+ * Simulates a number of independent replicates of a network together, with
+ * the exact optimized direct method (see GillespieOptimizedDirect). The
+ * replicates are advanced in lockstep to the same times, so that events that
+ * are the same for all replicates, such as the input changes of a timing
+ * diagram and the sampling of the outputs, are handled once for the whole
+ * ensemble instead of once per run with observers.
+ *
+ * The state is kept in arrays per replicate (amounts per species, propensities
+ * per reaction) and the topology (reactants, changes, dependencies) is shared.
+ * Each replicate has its own rate constants, so that the replicates can also
+ * be devices with the same topology, and its own random number generator.
+ * The propensities are calculated like FERN's mass action propensities.
+ *
+ * Species can be drained: their amount is set to zero before every reaction
+ * of the replicate, just like the BinaryTimingDiagramObserver does before
+ * every step of a simulator.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class EnsembleSimulator {
+
+	// the sum of the propensities is recalculated after this number of steps,
+	// to get rid of the rounding errors of the updates
+	private static final int STEPS_PER_SUM = 10000;
+
+	private int numReplicates;
+	private int numSpecies;
+	private int numReactions;
+
+	// per reaction the distinct reactants, how many of each are needed, and
+	// the faculty of that number (in FERN's order)
+	private int[][] reactants;
+	private int[][] reactantCount;
+	private double[][] reactantFaculty;
+	// per reaction the species that change and the net change
+	private int[][] changed;
+	private int[][] change;
+	// reactions of which the propensity changes when a reaction fires
+	private int[][] dependent;
+	// reactions of which the propensity changes when the amount of a species
+	// is set
+	private int[][] reactantOf;
+	private int[] initialAmount;
+
+	// per replicate
+	private double[][] constants;
+	private int[][] amount;
+	private double[][] a;
+	private double[] aSum;
+	private double[] t;
+	private int[] steps;
+	private MersenneTwister[] rnd;
+	// drained species per replicate
+	private int[][] drained;
+	private int[] numDrained;
+
+	/**
+	 * Creates an ensemble of replicates of a network, all with the rate
+	 * constants of the network.
+	 * @param net A network with mass action kinetics.
+	 * @param numReplicates
+	 * @param seed The seed from which the seeds of the replicates are drawn.
+	 */
+	public EnsembleSimulator(Network net, int numReplicates, int seed) {
+		this.numReplicates = numReplicates;
+		numSpecies = net.getNumSpecies();
+		numReactions = net.getNumReactions();
+
+		MassActionReactions reactions = new MassActionReactions(net);
+		reactants = reactions.reactants;
+		reactantCount = reactions.reactantCount;
+		reactantFaculty = reactions.reactantFaculty;
+		changed = reactions.changed;
+		change = reactions.change;
+		initialAmount = reactions.initialAmount;
+		dependent = GillespieOptimizedDirect.dependentReactions(net);
+		reactantOf = GillespieOptimizedDirect.reactantOf(net);
+
+		constants = new double[numReplicates][];
+		for(int r = 0; r < numReplicates; r++) {
+			constants[r] = reactions.constants.clone();
+		}
+		amount = new int[numReplicates][numSpecies];
+		a = new double[numReplicates][numReactions];
+		aSum = new double[numReplicates];
+		t = new double[numReplicates];
+		steps = new int[numReplicates];
+		rnd = new MersenneTwister[numReplicates];
+		drained = new int[numReplicates][numSpecies];
+		numDrained = new int[numReplicates];
+		reset(seed);
+	}
+
+	/**
+	 * Restarts all replicates at time zero with the initial amounts, and
+	 * seeds their random number generators.
+	 * @param seed The seed from which the seeds of the replicates are drawn.
+	 */
+	public void reset(int seed) {
+		MersenneTwister seeds = new MersenneTwister(seed);
+		for(int r = 0; r < numReplicates; r++) {
+			rnd[r] = new MersenneTwister(seeds.nextInt());
+			System.arraycopy(initialAmount, 0, amount[r], 0, numSpecies);
+			t[r] = 0;
+			numDrained[r] = 0;
+			updatePropensities(r);
+		}
+	}
+
+	/**
+	 * Sets the rate constants of one replicate, the replicate should be reset
+	 * afterwards.
+	 * @param replicate
+	 * @param rateConstants The rate constants in the order of the reactions.
+	 */
+	public void setRateConstants(int replicate, double[] rateConstants) {
+		if(rateConstants.length != numReactions) {
+			throw new IllegalArgumentException("Expected " + numReactions +
+					" rate constants, got " + rateConstants.length + ".");
+		}
+		System.arraycopy(rateConstants, 0, constants[replicate], 0, numReactions);
+	}
+
+	/**
+	 * Sets the rate constants of all replicates, the replicates should be
+	 * reset afterwards.
+	 * @param rateConstants The rate constants in the order of the reactions.
+	 */
+	public void setRateConstants(double[] rateConstants) {
+		for(int r = 0; r < numReplicates; r++) {
+			setRateConstants(r, rateConstants);
+		}
+	}
+
+	/**
+	 * @return The number of replicates.
+	 */
+	public int getNumReplicates() {
+		return numReplicates;
+	}
+
+	/**
+	 * @param replicate
+	 * @return The time of a replicate.
+	 */
+	public double getTime(int replicate) {
+		return t[replicate];
+	}
+
+	/**
+	 * @param replicate
+	 * @param species
+	 * @return The amount of a species in a replicate.
+	 */
+	public int getAmount(int replicate, int species) {
+		return amount[replicate][species];
+	}
+
+	/**
+	 * Sets the amount of a species in a replicate.
+	 * @param replicate
+	 * @param species
+	 * @param value
+	 */
+	public void setAmount(int replicate, int species, int value) {
+		if(amount[replicate][species] == value) {
+			return;
+		}
+		amount[replicate][species] = value;
+		updatePropensities(replicate, reactantOf[species]);
+	}
+
+	/**
+	 * Sets the amount of a species in all replicates.
+	 * @param species
+	 * @param value
+	 */
+	public void setAmount(int species, int value) {
+		for(int r = 0; r < numReplicates; r++) {
+			setAmount(r, species, value);
+		}
+	}
+
+	/**
+	 * Drains a species of a replicate, or stops draining it. The amount of a
+	 * drained species is set to zero before every reaction.
+	 * @param replicate
+	 * @param species
+	 * @param drain
+	 */
+	public void setDrained(int replicate, int species, boolean drain) {
+		int[] list = drained[replicate];
+		int index = -1;
+		for(int i = 0; i < numDrained[replicate]; i++) {
+			if(list[i] == species) {
+				index = i;
+			}
+		}
+		if(drain && index < 0) {
+			list[numDrained[replicate]++] = species;
+		}
+		else if(!drain && index >= 0) {
+			list[index] = list[--numDrained[replicate]];
+		}
+	}
+
+	/**
+	 * @param replicate
+	 * @param species
+	 * @return True if the species is drained in the replicate.
+	 */
+	public boolean isDrained(int replicate, int species) {
+		for(int i = 0; i < numDrained[replicate]; i++) {
+			if(drained[replicate][i] == species) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Advances all replicates to the given time. Reactions that would happen
+	 * after this time are drawn again when the replicate is advanced further,
+	 * which is exact because the reaction times are memoryless.
+	 * @param time
+	 */
+	public void advance(double time) {
+		for(int r = 0; r < numReplicates; r++) {
+			advance(r, time);
+		}
+	}
+
+	/**
+	 * Advances one replicate to the given time.
+	 * @param r The replicate.
+	 * @param time
+	 */
+	private void advance(int r, double time) {
+		int[] x = amount[r];
+		double[] ar = a[r];
+		MersenneTwister random = rnd[r];
+		while(true) {
+			for(int i = 0; i < numDrained[r]; i++) {
+				setAmount(r, drained[r][i], 0);
+			}
+			if(steps[r] >= STEPS_PER_SUM) {
+				updatePropensities(r);
+			}
+			steps[r]++;
+
+			double tau = (1 / aSum[r]) * Math.log(1 / random.nextDouble());
+			if(t[r] + tau > time) {
+				t[r] = time;
+				return;
+			}
+
+			// select the reaction
+			double test = random.nextDouble() * aSum[r];
+			double sum = 0;
+			int mu = -1;
+			for(int j = 0; j < numReactions; j++) {
+				if(ar[j] > 0) {
+					sum += ar[j];
+					mu = j;
+					if(sum >= test) {
+						break;
+					}
+				}
+			}
+			if(mu < 0) {
+				throw new RuntimeException("No reaction could be selected!");
+			}
+
+			// fire it
+			int[] species = changed[mu];
+			int[] delta = change[mu];
+			for(int i = 0; i < species.length; i++) {
+				x[species[i]] += delta[i];
+			}
+			updatePropensities(r, dependent[mu]);
+			t[r] += tau;
+		}
+	}
+
+	/**
+	 * Recalculates all propensities of a replicate and their sum.
+	 * @param r The replicate.
+	 */
+	private void updatePropensities(int r) {
+		double[] ar = a[r];
+		double sum = 0;
+		for(int j = 0; j < numReactions; j++) {
+			ar[j] = propensity(r, j);
+			sum += ar[j];
+		}
+		aSum[r] = sum;
+		steps[r] = 0;
+	}
+
+	/**
+	 * Recalculates the propensities of some reactions of a replicate and
+	 * updates their sum.
+	 * @param r The replicate.
+	 * @param reactions The reactions.
+	 */
+	private void updatePropensities(int r, int[] reactions) {
+		double[] ar = a[r];
+		for(int j : reactions) {
+			double old = ar[j];
+			ar[j] = propensity(r, j);
+			aSum[r] += ar[j] - old;
+		}
+	}
+
+	/**
+	 * @param r The replicate.
+	 * @param j The reaction.
+	 * @return The mass action propensity, calculated like FERN does.
+	 */
+	private double propensity(int r, int j) {
+		double re = constants[r][j];
+		int[] x = amount[r];
+		int[] species = reactants[j];
+		int[] count = reactantCount[j];
+		for(int i = 0; i < species.length; i++) {
+			for(int f = 0; f < count[i]; f++) {
+				re *= ((double)x[species[i]] - f);
+			}
+			re /= reactantFaculty[j][i];
+		}
+		if(re < 0) {
+			throw new RuntimeException("Propensity < 0");
+		}
+		return re;
+	}
+}
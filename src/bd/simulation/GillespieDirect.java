@@ -0,0 +1,115 @@
+package bd.simulation;
+
+import cern.jet.random.engine.MersenneTwister;
+import fern.network.Network;
+import fern.simulation.Simulator;
+import fern.simulation.controller.SimulationController;
+
+/**
+ * Gillespie's direct method, the same algorithm as FERN's GillespieSimple.
+ * The difference is that each simulator has its own random number generator,
+ * GillespieSimple uses the random number generator that is shared by all
+ * simulators. This makes it possible to run simulations in parallel, each
+ * with its own reproducible random stream.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class GillespieDirect extends Simulator implements Seedable {
+
+	private MersenneTwister rnd;
+	private double a_sum = 0;
+	private boolean changed = false;
+
+	/**
+	 * Creates a simulator with a randomly seeded random number generator.
+	 * @param net The network to simulate.
+	 */
+	public GillespieDirect(Network net) {
+		this(net, (int)System.nanoTime());
+	}
+
+	/**
+	 * @param net The network to simulate.
+	 * @param seed The seed of the random number generator.
+	 */
+	public GillespieDirect(Network net, int seed) {
+		super(net);
+		rnd = new MersenneTwister(seed);
+	}
+
+	/**
+	 * Restart the random stream with a new seed.
+	 * @param seed
+	 */
+	public void setSeed(int seed) {
+		rnd = new MersenneTwister(seed);
+	}
+
+	/* (non-Javadoc)
+	 * @see fern.simulation.Simulator#reinitialize()
+	 */
+	@Override
+	public void reinitialize() {
+		changed = true;
+	}
+
+	/* (non-Javadoc)
+	 * @see fern.simulation.Simulator#performStep(fern.simulation.controller.SimulationController)
+	 */
+	@Override
+	public void performStep(SimulationController control) {
+
+		// calculate all propensities and their sum
+		a_sum = 0;
+		for(int i = 0; i < a.length; i++) {
+			a[i] = getPropensityCalculator().calculatePropensity(i, getAmountManager(), this);
+			a_sum += a[i];
+		}
+
+		// time to the next reaction
+		double tau = (1 / a_sum) * Math.log(1 / rnd.nextDouble());
+
+		if(!Double.isInfinite(tau)) {
+			// handle the observer events (input changes) before the next reaction
+			changed = false;
+			while(t <= getNextThetaEvent() && t + tau > getNextThetaEvent() && !changed) {
+				thetaEvent();
+			}
+			if(changed) {
+				performStep(control);
+				return;
+			}
+			int mu = nextReaction();
+			fireReaction(mu, t + tau, FireType.GillespieSimple);
+		}
+
+		// advance the time
+		t += tau;
+		if(Double.isInfinite(tau)) {
+			thetaEvent();
+		}
+	}
+
+	/**
+	 * @return The index of the reaction that fires next.
+	 */
+	private int nextReaction() {
+		double test = rnd.nextDouble() * a_sum;
+		double sum = 0;
+		for(int i = 0; i < a.length; i++) {
+			sum += a[i];
+			if(sum >= test) {
+				return i;
+			}
+		}
+		throw new RuntimeException("No reaction could be selected!");
+	}
+
+	/* (non-Javadoc)
+	 * @see fern.simulation.Simulator#getName()
+	 */
+	@Override
+	public String getName() {
+		return "direct method";
+	}
+}
@@ -0,0 +1,288 @@
+package bd.simulation;
+
+import java.util.List;
+
+import cern.jet.random.engine.MersenneTwister;
+import fern.network.Network;
+import fern.simulation.Simulator;
+import fern.simulation.algorithm.DependencyGraph;
+import fern.simulation.controller.SimulationController;
+
+/**
+ * Gillespie's direct method with the usual optimizations, it gives exact
+ * trajectories just like GillespieDirect but does less work per reaction:
+ * <ul>
+ * <li>After a reaction fires, only the propensities of the reactions that
+ * depend on it are recalculated, using a dependency graph.</li>
+ * <li>The sum of the propensities is updated instead of recalculated.</li>
+ * <li>The reactions are kept sorted on how often they fire (sorting direct
+ * method), a reaction that fires moves one place to the front. The fast TF
+ * binding and unbinding reactions are then found after a few steps.</li>
+ * </ul>
+ * Amount changes by observers, such as the input changes at the state
+ * transitions, only update the propensities of the reactions that consume the
+ * changed species. The next reaction time is drawn again after an observer
+ * event.
+ *
+ * Each simulator has its own random number generator, like GillespieDirect.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class GillespieOptimizedDirect extends Simulator implements Seedable {
+
+	// the sum of the propensities is recalculated after this number of steps,
+	// to get rid of the rounding errors of the updates
+	private static final int STEPS_PER_SUM = 10000;
+
+	protected MersenneTwister rnd;
+	protected double a_sum = 0;
+	private boolean changed = true;
+	private int steps;
+
+	// reactions of which the propensity changes when a reaction fires
+	private int[][] dependent;
+	// reactions of which the propensity changes when the amount of a species
+	// is set
+	private int[][] reactantOf;
+	// reactions in search order, the ones that fire often first
+	private int[] order;
+
+	/**
+	 * Creates a simulator with a randomly seeded random number generator.
+	 * @param net The network to simulate.
+	 */
+	public GillespieOptimizedDirect(Network net) {
+		this(net, (int)System.nanoTime());
+	}
+
+	/**
+	 * @param net The network to simulate.
+	 * @param seed The seed of the random number generator.
+	 */
+	public GillespieOptimizedDirect(Network net, int seed) {
+		super(net);
+		rnd = new MersenneTwister(seed);
+		dependent = dependentReactions(net);
+		reactantOf = reactantOf(net);
+		order = new int[net.getNumReactions()];
+		resetOrder();
+	}
+
+	/**
+	 * @param net
+	 * @return Per reaction the reactions of which the propensity changes when
+	 * it fires.
+	 */
+	static int[][] dependentReactions(Network net) {
+		int numReactions = net.getNumReactions();
+		DependencyGraph graph = new DependencyGraph(net);
+		int[][] dependent = new int[numReactions][];
+		for(int i = 0; i < numReactions; i++) {
+			List<Integer> list = graph.getDependent(i);
+			dependent[i] = new int[list.size()];
+			for(int j = 0; j < dependent[i].length; j++) {
+				dependent[i][j] = list.get(j);
+			}
+		}
+		return dependent;
+	}
+
+	/**
+	 * @param net
+	 * @return Per species the reactions it is a reactant of, so the reactions
+	 * of which the propensity changes when its amount changes.
+	 */
+	static int[][] reactantOf(Network net) {
+		int numReactions = net.getNumReactions();
+		int numSpecies = net.getNumSpecies();
+		int[] count = new int[numSpecies];
+		for(int i = 0; i < numReactions; i++) {
+			for(int s : distinctReactants(net, i)) {
+				count[s]++;
+			}
+		}
+		int[][] reactantOf = new int[numSpecies][];
+		for(int s = 0; s < numSpecies; s++) {
+			reactantOf[s] = new int[count[s]];
+			count[s] = 0;
+		}
+		for(int i = 0; i < numReactions; i++) {
+			for(int s : distinctReactants(net, i)) {
+				reactantOf[s][count[s]++] = i;
+			}
+		}
+		return reactantOf;
+	}
+
+	/**
+	 * @return The reactants of a reaction, each species only once.
+	 */
+	private static int[] distinctReactants(Network net, int reaction) {
+		int[] reactants = net.getReactants(reaction);
+		int[] result = new int[reactants.length];
+		int n = 0;
+		for(int r : reactants) {
+			boolean seen = false;
+			for(int k = 0; k < n && !seen; k++) {
+				seen = result[k] == r;
+			}
+			if(!seen) {
+				result[n++] = r;
+			}
+		}
+		int[] copy = new int[n];
+		System.arraycopy(result, 0, copy, 0, n);
+		return copy;
+	}
+
+	/**
+	 * Restart the random stream with a new seed. The search order of the
+	 * reactions is reset as well, it also determines which reactions fire.
+	 * @param seed
+	 */
+	public void setSeed(int seed) {
+		rnd = new MersenneTwister(seed);
+		resetOrder();
+	}
+
+	private void resetOrder() {
+		for(int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see fern.simulation.Simulator#initialize()
+	 */
+	@Override
+	public void initialize() {
+		super.initialize();
+		changed = true;
+	}
+
+	/* (non-Javadoc)
+	 * @see fern.simulation.Simulator#reinitialize()
+	 */
+	@Override
+	public void reinitialize() {
+		changed = true;
+	}
+
+	/* (non-Javadoc)
+	 * @see fern.simulation.Simulator#setAmount(int, long)
+	 */
+	@Override
+	public void setAmount(int species, long amount) {
+		// observers set some amounts before every step, mostly to the same value
+		if(getAmountManager().getAmount(species) == amount) {
+			return;
+		}
+		super.setAmount(species, amount);
+		if(!changed) {
+			updatePropensities(reactantOf[species]);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see fern.simulation.Simulator#performStep(fern.simulation.controller.SimulationController)
+	 */
+	@Override
+	public void performStep(SimulationController control) {
+		if(changed || steps >= STEPS_PER_SUM) {
+			updatePropensities();
+		}
+		steps++;
+
+		double theta = getNextThetaEvent();
+		double tau = (1 / a_sum) * Math.log(1 / rnd.nextDouble());
+
+		// the observer events (input changes) are handled first, the next
+		// reaction time is drawn again from the moment of the event
+		if(t + tau > theta) {
+			t = theta;
+			thetaEvent();
+			return;
+		}
+		if(Double.isInfinite(tau)) {
+			// nothing happens anymore
+			t = tau;
+			return;
+		}
+
+		int mu = nextReaction();
+		fireReaction(mu, t + tau, FireType.GillespieEnhanced);
+		updatePropensities(dependent[mu]);
+		t += tau;
+	}
+
+	/**
+	 * Recalculates the propensities of some reactions and updates their sum.
+	 * @param reactions The reactions.
+	 */
+	private void updatePropensities(int[] reactions) {
+		for(int alpha : reactions) {
+			double old = a[alpha];
+			a[alpha] = getPropensityCalculator().calculatePropensity(alpha, getAmountManager(), this);
+			a_sum += a[alpha] - old;
+		}
+	}
+
+	/**
+	 * Recalculates all propensities and their sum.
+	 */
+	protected void updatePropensities() {
+		a_sum = 0;
+		for(int i = 0; i < a.length; i++) {
+			a[i] = getPropensityCalculator().calculatePropensity(i, getAmountManager(), this);
+			a_sum += a[i];
+		}
+		changed = false;
+		steps = 0;
+	}
+
+	/**
+	 * @return The index of the reaction that fires next.
+	 */
+	private int nextReaction() {
+		double test = rnd.nextDouble() * a_sum;
+		double sum = 0;
+		int last = -1;
+		for(int i = 0; i < order.length; i++) {
+			int mu = order[i];
+			if(a[mu] > 0) {
+				sum += a[mu];
+				last = i;
+				if(sum >= test) {
+					return moveForward(i);
+				}
+			}
+		}
+		// only possible because of rounding errors in the sum
+		if(last < 0) {
+			throw new RuntimeException("No reaction could be selected!");
+		}
+		return moveForward(last);
+	}
+
+	/**
+	 * Moves a reaction one place to the front of the search order.
+	 * @param i The place of the reaction in the search order.
+	 * @return The reaction.
+	 */
+	private int moveForward(int i) {
+		int mu = order[i];
+		if(i > 0) {
+			order[i] = order[i-1];
+			order[i-1] = mu;
+		}
+		return mu;
+	}
+
+	/* (non-Javadoc)
+	 * @see fern.simulation.Simulator#getName()
+	 */
+	@Override
+	public String getName() {
+		return "optimized direct method";
+	}
+}
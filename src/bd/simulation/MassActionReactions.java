@@ -0,0 +1,106 @@
+package bd.simulation;
+
+import java.util.Map;
+
+import fern.network.AbstractKineticConstantPropensityCalculator;
+import fern.network.Network;
+import fern.tools.NumberTools;
+
+/**
+ * The reactions of a network with mass action kinetics in arrays, for the
+ * simulators that do not use FERN's propensity calculator. The reactants of
+ * each reaction are listed in the same order as FERN's propensity calculator
+ * uses, so that the propensities are calculated in the same way.
+ * @author Bastiaan van den Berg
+ *
+ */
+class MassActionReactions {
+
+	int numSpecies;
+	int numReactions;
+
+	// per reaction the distinct reactants, how many of each are needed, and
+	// the faculty of that number
+	int[][] reactants;
+	int[][] reactantCount;
+	double[][] reactantFaculty;
+	// per reaction the species that change and the net change, boundary
+	// species do not change
+	int[][] changed;
+	int[][] change;
+
+	// per species
+	int[] initialAmount;
+	// per reaction
+	double[] constants;
+
+	/**
+	 * @param net A network with mass action kinetics.
+	 */
+	MassActionReactions(Network net) {
+		numSpecies = net.getNumSpecies();
+		numReactions = net.getNumReactions();
+
+		boolean[] boundary = new boolean[numSpecies];
+		for(int i = 0; i < numSpecies; i++) {
+			boundary[i] = net.getAnnotationManager().containsSpeciesAnnotation(i, "BoundaryCondition");
+		}
+
+		reactants = new int[numReactions][];
+		reactantCount = new int[numReactions][];
+		reactantFaculty = new double[numReactions][];
+		changed = new int[numReactions][];
+		change = new int[numReactions][];
+		int[] netChange = new int[numSpecies];
+		for(int j = 0; j < numReactions; j++) {
+			// the same histogram as FERN's propensity calculator
+			Map<Integer, Integer> histogram = NumberTools.createHistogramAsMap(net.getReactants(j));
+			reactants[j] = new int[histogram.size()];
+			reactantCount[j] = new int[histogram.size()];
+			reactantFaculty[j] = new double[histogram.size()];
+			int k = 0;
+			for(int species : histogram.keySet()) {
+				reactants[j][k] = species;
+				reactantCount[j][k] = histogram.get(species);
+				reactantFaculty[j][k] = NumberTools.faculty(reactantCount[j][k]);
+				k++;
+			}
+
+			for(int r : net.getReactants(j)) {
+				netChange[r]--;
+			}
+			for(int p : net.getProducts(j)) {
+				netChange[p]++;
+			}
+			int n = 0;
+			for(int i = 0; i < numSpecies; i++) {
+				if(netChange[i] != 0 && !boundary[i]) {
+					n++;
+				}
+			}
+			changed[j] = new int[n];
+			change[j] = new int[n];
+			n = 0;
+			for(int i = 0; i < numSpecies; i++) {
+				if(netChange[i] != 0 && !boundary[i]) {
+					changed[j][n] = i;
+					change[j][n] = netChange[i];
+					n++;
+				}
+				netChange[i] = 0;
+			}
+		}
+
+		initialAmount = new int[numSpecies];
+		for(int i = 0; i < numSpecies; i++) {
+			initialAmount[i] = (int)net.getInitialAmount(i);
+		}
+
+		AbstractKineticConstantPropensityCalculator calculator =
+			(AbstractKineticConstantPropensityCalculator)net.getPropensityCalculator();
+		constants = new double[numReactions];
+		for(int j = 0; j < numReactions; j++) {
+			constants[j] = calculator.getConstant(j);
+		}
+	}
+}
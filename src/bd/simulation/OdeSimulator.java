@@ -0,0 +1,428 @@
+package bd.simulation;
+
+import fern.network.Network;
+
+/**
+ * Integrates the deterministic mass action equations of a network, the
+ * reaction rate equations that describe the mean amounts when the amounts are
+ * large. The rate of a reaction is its propensity with continuous amounts,
+ * k * x^n / n! for n molecules of a reactant x.
+ *
+ * The equations of gene networks are stiff, the TF binding reactions are
+ * much faster than transcription and degradation, so a stiff solver is used:
+ * the modified Rosenbrock method of order 2(3) of Shampine and Reichelt (as in
+ * Matlab's ode23s), with step size control on the third order error estimate.
+ * The Jacobian is calculated exactly. Amounts between the steps are 
+ * interpolated with the (second order) interpolation formula of the method.
+ *
+ * Species can be held: their amount does not change, this is used for drained
+ * input signals.
+ * @author Bastiaan van den Berg
+ *
+ */
+public class OdeSimulator {
+
+	// method constants
+	private static final double D = 1 / (2 + Math.sqrt(2));
+	private static final double E32 = 6 + Math.sqrt(2);
+
+	// error tolerances, in molecules
+	private static final double REL_TOL = 1e-3;
+	private static final double ABS_TOL = 1e-3;
+	// first step size (sec)
+	private static final double FIRST_STEP = 1;
+
+	private int numSpecies;
+	private int numReactions;
+	private MassActionReactions reactions;
+	private double[] constants;
+	private boolean[] held;
+
+	private double t;
+	private double[] y;
+	// suggested size of the next step
+	private double h;
+	private int numSteps;
+
+	// the last step, for the interpolation
+	private double tPrevious;
+	private double hPrevious;
+	private double[] yPrevious;
+	private double[] k1Previous;
+	private double[] k2Previous;
+
+	// work arrays
+	private double[] f0;
+	private double[] f1;
+	private double[] f2;
+	private double[] k1;
+	private double[] k2;
+	private double[] k3;
+	private double[] yNew;
+	private double[] rhs;
+	private double[][] w;
+	private int[] pivot;
+
+	/**
+	 * @param net A network with mass action kinetics.
+	 */
+	public OdeSimulator(Network net) {
+		reactions = new MassActionReactions(net);
+		numSpecies = reactions.numSpecies;
+		numReactions = reactions.numReactions;
+		constants = reactions.constants.clone();
+		held = new boolean[numSpecies];
+		y = new double[numSpecies];
+		f0 = new double[numSpecies];
+		f1 = new double[numSpecies];
+		f2 = new double[numSpecies];
+		k1 = new double[numSpecies];
+		k2 = new double[numSpecies];
+		k3 = new double[numSpecies];
+		yNew = new double[numSpecies];
+		rhs = new double[numSpecies];
+		w = new double[numSpecies][numSpecies];
+		pivot = new int[numSpecies];
+		yPrevious = new double[numSpecies];
+		k1Previous = new double[numSpecies];
+		k2Previous = new double[numSpecies];
+		reset();
+	}
+
+	/**
+	 * Restarts at time zero with the initial amounts, no species are held.
+	 */
+	public void reset() {
+		t = 0;
+		h = FIRST_STEP;
+		hPrevious = 0;
+		numSteps = 0;
+		for(int i = 0; i < numSpecies; i++) {
+			y[i] = reactions.initialAmount[i];
+			held[i] = false;
+		}
+	}
+
+	/**
+	 * Sets the rate constants, the simulator should be reset afterwards.
+	 * @param rateConstants The rate constants in the order of the reactions.
+	 */
+	public void setRateConstants(double[] rateConstants) {
+		if(rateConstants.length != numReactions) {
+			throw new IllegalArgumentException("Expected " + numReactions +
+					" rate constants, got " + rateConstants.length + ".");
+		}
+		System.arraycopy(rateConstants, 0, constants, 0, numReactions);
+	}
+
+	/**
+	 * @return The time.
+	 */
+	public double getTime() {
+		return t;
+	}
+
+	/**
+	 * @return The number of accepted steps since the last reset.
+	 */
+	public int getNumSteps() {
+		return numSteps;
+	}
+
+	/**
+	 * @param species
+	 * @return The amount of a species.
+	 */
+	public double getAmount(int species) {
+		return y[species];
+	}
+
+	/**
+	 * Sets the amount of a species, the amounts during the last step are no
+	 * longer available.
+	 * @param species
+	 * @param value
+	 */
+	public void setAmount(int species, double value) {
+		y[species] = value;
+		hPrevious = 0;
+	}
+
+	/**
+	 * Holds the amount of a species, or releases it.
+	 * @param species
+	 * @param hold
+	 */
+	public void setHeld(int species, boolean hold) {
+		held[species] = hold;
+	}
+
+	/**
+	 * Integrates the equations up to the given time.
+	 * @param time
+	 * @throws IllegalStateException If the step size becomes too small.
+	 */
+	public void advance(double time) {
+		advance(time, time);
+	}
+
+	/**
+	 * Integrates the equations up to at least the given time, but not beyond
+	 * the limit. The amounts between the start and the end of the last step 
+	 * are available with getAmount(species, time), so that samples can be 
+	 * taken without stopping the integration at the sample times.
+	 * @param time
+	 * @param limit The time that is not passed, such as the time of the next
+	 * change of the amounts.
+	 * @throws IllegalStateException If the step size becomes too small.
+	 */
+	public void advance(double time, double limit) {
+		if(time <= t) {
+			return;
+		}
+		derivatives(y, f0);
+		while(t < time) {
+			double step = Math.min(h, limit - t);
+			boolean last = step == limit - t;
+			if(step <= Math.ulp(t) * 16) {
+				throw new IllegalStateException("Step size too small at time " + t + ".");
+			}
+			double error = step(step);
+			if(error <= 1) {
+				// accepted, keep the step for the interpolation
+				tPrevious = t;
+				hPrevious = step;
+				System.arraycopy(y, 0, yPrevious, 0, numSpecies);
+				System.arraycopy(k1, 0, k1Previous, 0, numSpecies);
+				System.arraycopy(k2, 0, k2Previous, 0, numSpecies);
+				t = last ? limit : t + step;
+				for(int i = 0; i < numSpecies; i++) {
+					// rounding errors can make amounts slightly negative
+					y[i] = yNew[i] < 0 ? 0 : yNew[i];
+				}
+				// a last step that was shortened to end at the limit only 
+				// lowers the suggested step size
+				double next = step * Math.min(5, Math.max(0.2, 0.8 * Math.pow(error, -1.0/3)));
+				if(!last || next < h) {
+					h = next;
+				}
+				// the derivatives at the end of the step are those at the 
+				// start of the next
+				derivatives(y, f0);
+				numSteps++;
+			}
+			else {
+				h = step * Math.max(0.2, 0.8 * Math.pow(error, -1.0/3));
+			}
+		}
+	}
+
+	/**
+	 * Returns the amount of a species at a time during the last step, with 
+	 * the interpolation formula of the method.
+	 * @param species
+	 * @param time A time during the last step, or the current time.
+	 * @return The amount of the species.
+	 */
+	public double getAmount(int species, double time) {
+		if(time >= t || hPrevious == 0) {
+			return y[species];
+		}
+		double s = (time - tPrevious) / hPrevious;
+		double amount = yPrevious[species] + hPrevious * 
+				(s * (1 - s) / (1 - 2 * D) * k1Previous[species] + 
+				s * (s - 2 * D) / (1 - 2 * D) * k2Previous[species]);
+		return amount < 0 ? 0 : amount;
+	}
+
+	/**
+	 * Calculates a step from the current amounts into yNew.
+	 * @param step The step size.
+	 * @return The scaled error of the step, the step is accepted if it is at
+	 * most 1.
+	 */
+	private double step(double step) {
+		// W = I - h d J
+		jacobian(y, w);
+		for(int i = 0; i < numSpecies; i++) {
+			for(int j = 0; j < numSpecies; j++) {
+				w[i][j] *= -step * D;
+			}
+			w[i][i] += 1;
+		}
+		if(!decompose()) {
+			return Double.POSITIVE_INFINITY;
+		}
+
+		// k1 = W\F0
+		solve(f0, k1);
+
+		// F1 = f(y + h/2 k1), k2 = W\(F1 - k1) + k1
+		for(int i = 0; i < numSpecies; i++) {
+			yNew[i] = y[i] + 0.5 * step * k1[i];
+		}
+		derivatives(yNew, f1);
+		for(int i = 0; i < numSpecies; i++) {
+			rhs[i] = f1[i] - k1[i];
+		}
+		solve(rhs, k2);
+		for(int i = 0; i < numSpecies; i++) {
+			k2[i] += k1[i];
+			yNew[i] = y[i] + step * k2[i];
+		}
+
+		// F2 = f(ynew), k3 = W\(F2 - e32 (k2 - F1) - 2 (k1 - F0))
+		derivatives(yNew, f2);
+		for(int i = 0; i < numSpecies; i++) {
+			rhs[i] = f2[i] - E32 * (k2[i] - f1[i]) - 2 * (k1[i] - f0[i]);
+		}
+		solve(rhs, k3);
+
+		// error estimate h/6 (k1 - 2 k2 + k3)
+		double error = 0;
+		for(int i = 0; i < numSpecies; i++) {
+			double e = step / 6 * (k1[i] - 2 * k2[i] + k3[i]);
+			double scale = ABS_TOL + REL_TOL * Math.max(Math.abs(y[i]), Math.abs(yNew[i]));
+			error = Math.max(error, Math.abs(e) / scale);
+		}
+		if(Double.isNaN(error)) {
+			return Double.POSITIVE_INFINITY;
+		}
+		return error;
+	}
+
+	/**
+	 * @param x The amounts.
+	 * @param dx Gets the derivatives of the amounts.
+	 */
+	private void derivatives(double[] x, double[] dx) {
+		for(int i = 0; i < numSpecies; i++) {
+			dx[i] = 0;
+		}
+		for(int j = 0; j < numReactions; j++) {
+			double rate = constants[j];
+			int[] species = reactions.reactants[j];
+			int[] count = reactions.reactantCount[j];
+			for(int i = 0; i < species.length; i++) {
+				rate *= Math.pow(x[species[i]], count[i]) / reactions.reactantFaculty[j][i];
+			}
+			int[] changed = reactions.changed[j];
+			int[] change = reactions.change[j];
+			for(int i = 0; i < changed.length; i++) {
+				dx[changed[i]] += change[i] * rate;
+			}
+		}
+		for(int i = 0; i < numSpecies; i++) {
+			if(held[i]) {
+				dx[i] = 0;
+			}
+		}
+	}
+
+	/**
+	 * @param x The amounts.
+	 * @param jac Gets the Jacobian of the derivatives.
+	 */
+	private void jacobian(double[] x, double[][] jac) {
+		for(int i = 0; i < numSpecies; i++) {
+			for(int j = 0; j < numSpecies; j++) {
+				jac[i][j] = 0;
+			}
+		}
+		for(int j = 0; j < numReactions; j++) {
+			int[] species = reactions.reactants[j];
+			int[] count = reactions.reactantCount[j];
+			int[] changed = reactions.changed[j];
+			int[] change = reactions.change[j];
+			for(int r = 0; r < species.length; r++) {
+				// derivative of the rate to reactant r
+				double d = constants[j];
+				for(int i = 0; i < species.length; i++) {
+					double factor = i == r ?
+							count[i] * Math.pow(x[species[i]], count[i] - 1) :
+							Math.pow(x[species[i]], count[i]);
+					d *= factor / reactions.reactantFaculty[j][i];
+				}
+				for(int i = 0; i < changed.length; i++) {
+					jac[changed[i]][species[r]] += change[i] * d;
+				}
+			}
+		}
+		for(int i = 0; i < numSpecies; i++) {
+			if(held[i]) {
+				for(int j = 0; j < numSpecies; j++) {
+					jac[i][j] = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * LU decomposition of w in place, with partial pivoting.
+	 * @return False if w is singular.
+	 */
+	private boolean decompose() {
+		for(int k = 0; k < numSpecies; k++) {
+			int p = k;
+			for(int i = k + 1; i < numSpecies; i++) {
+				if(Math.abs(w[i][k]) > Math.abs(w[p][k])) {
+					p = i;
+				}
+			}
+			if(w[p][k] == 0) {
+				return false;
+			}
+			pivot[k] = p;
+			if(p != k) {
+				double[] row = w[p];
+				w[p] = w[k];
+				w[k] = row;
+			}
+			double[] rowK = w[k];
+			for(int i = k + 1; i < numSpecies; i++) {
+				double[] rowI = w[i];
+				double factor = rowI[k] / rowK[k];
+				rowI[k] = factor;
+				if(factor != 0) {
+					for(int j = k + 1; j < numSpecies; j++) {
+						rowI[j] -= factor * rowK[j];
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Solves W x = b with the LU decomposition of W.
+	 * @param b
+	 * @param x Gets the solution.
+	 */
+	private void solve(double[] b, double[] x) {
+		System.arraycopy(b, 0, x, 0, numSpecies);
+		for(int k = 0; k < numSpecies; k++) {
+			int p = pivot[k];
+			if(p != k) {
+				double tmp = x[p];
+				x[p] = x[k];
+				x[k] = tmp;
+			}
+		}
+		for(int i = 0; i < numSpecies; i++) {
+			double sum = x[i];
+			double[] row = w[i];
+			for(int j = 0; j < i; j++) {
+				sum -= row[j] * x[j];
+			}
+			x[i] = sum;
+		}
+		for(int i = numSpecies - 1; i >= 0; i--) {
+			double sum = x[i];
+			double[] row = w[i];
+			for(int j = i + 1; j < numSpecies; j++) {
+				sum -= row[j] * x[j];
+			}
+			x[i] = sum / row[i];
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package bd.simulation;
+
+/**
+ * A simulator with its own random number generator, that can be restarted
+ * with a new seed. A simulator that is reused for another device is reseeded,
+ * so that it gives the same results as a new simulator with that seed.
+ * @author Bastiaan van den Berg
+ *
+ */
+public interface Seedable {
+
+	/**
+	 * Restart the random stream with a new seed.
+	 * @param seed
+	 */
+	public void setSeed(int seed);
+}
@@ -0,0 +1,100 @@
+package bd.simulation;
+
+import fern.network.Network;
+import fern.simulation.Simulator;
+
+/**
+ * The stochastic simulation algorithms that can be used to simulate a
+ * network. Each type has a name that is used in the settings files.
+ * <ul>
+ * <li>direct: Gillespie's direct method (GillespieDirect), exact.</li>
+ * <li>optimized_direct: the direct method with a dependency graph and sorted
+ * reactions (GillespieOptimizedDirect), exact and faster.</li>
+ * <li>tau_leaping: adaptive tau-leaping with exact steps when the amounts are
+ * small (TauLeaping), an approximation but much faster for large amounts.</li>
+ * <li>ensemble: all runs of a device are simulated together in lockstep with
+ * the optimized direct method (EnsembleSimulator), exact. The runs can not be
+ * stopped early. An ensemble is created with createEnsemble, create gives a
+ * simulator of one run of the ensemble: the optimized direct method.</li>
+ * </ul>
+ * @author Bastiaan van den Berg
+ *
+ */
+public enum SimulatorType {
+
+	DIRECT("direct"),
+	OPTIMIZED_DIRECT("optimized_direct"),
+	TAU_LEAPING("tau_leaping"),
+	ENSEMBLE("ensemble");
+
+	private String name;
+
+	private SimulatorType(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return The name of the type, as used in the settings files.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Creates a simulator of this type that simulates one run at a time. For
+	 * the ensemble type this is the algorithm of each replicate of the 
+	 * ensemble, the optimized direct method, for example to visualize the 
+	 * runs one by one.
+	 * @param net The network to simulate.
+	 * @param seed The seed of the random number generator of the simulator.
+	 * @return The simulator.
+	 */
+	public Simulator create(Network net, int seed) {
+		switch(this) {
+		case ENSEMBLE:
+		case OPTIMIZED_DIRECT:
+			return new GillespieOptimizedDirect(net, seed);
+		case TAU_LEAPING:
+			return new TauLeaping(net, seed);
+		default:
+			return new GillespieDirect(net, seed);
+		}
+	}
+
+	/**
+	 * Creates an ensemble simulator that simulates all runs together.
+	 * @param net The network to simulate.
+	 * @param numRuns The number of runs (replicates).
+	 * @param seed The seed from which the seeds of the runs are drawn.
+	 * @return The ensemble simulator.
+	 * @throws IllegalStateException If this is not the ensemble type.
+	 */
+	public EnsembleSimulator createEnsemble(Network net, int numRuns, int seed) {
+		if(this != ENSEMBLE) {
+			throw new IllegalStateException("The " + name + " simulator simulates one run at a time, use create.");
+		}
+		return new EnsembleSimulator(net, numRuns, seed);
+	}
+
+	/**
+	 * @return True if all runs of a device are simulated together, they can
+	 * then not be stopped early.
+	 */
+	public boolean isEnsemble() {
+		return this == ENSEMBLE;
+	}
+
+	/**
+	 * @param name The name of a simulator type.
+	 * @return The type with the given name.
+	 * @throws IllegalArgumentException If there is no type with this name.
+	 */
+	public static SimulatorType fromName(String name) {
+		for(SimulatorType type : values()) {
+			if(type.name.equals(name)) {
+				return type;
+			}
+		}
+		throw new IllegalArgumentException("Unknown simulator: " + name);
+	}
+}
@@ -0,0 +1,367 @@
+package bd.simulation;
+
+import cern.jet.random.Poisson;
+import fern.network.Network;
+import fern.simulation.controller.SimulationController;
+
+/**
+ * Adaptive tau-leaping (Cao, Gillespie and Petzold, 2006). Instead of firing
+ * one reaction at a time, all reactions fire a Poisson distributed number of
+ * times within a time step tau. The step is chosen so that the expected
+ * relative change of the propensities stays below EPSILON, so the result is
+ * an approximation of the exact trajectories that gets better for a smaller
+ * EPSILON.
+ *
+ * Reactions that can fire only a few more times before one of their reactants
+ * runs out (critical reactions) are not leaped, at most one of them fires
+ * per step. When the expected leap would be hardly larger than an exact step,
+ * because of the leap size, the next critical reaction or the next observer
+ * event, a number of exact steps of the optimized direct method are done
+ * instead. This makes the method exact for the small amounts of genes and
+ * bound TFs, and fast for the large amounts of proteins and mRNA.
+ *
+ * Observer events (input changes) are handled exactly: a step never passes
+ * the time of the next event. The observers are not told about the separate
+ * reactions of a leap (activateReaction), only about the exact steps. The
+ * reactions that fired in leaps are counted, see getNumLeapedReactions().
+ * @author Bastiaan van den Berg
+ *
+ */
+public class TauLeaping extends GillespieOptimizedDirect {
+
+	// bound on the relative change of the propensities within a leap
+	private static final double EPSILON = 0.03;
+	// a reaction is critical when it can fire less than this number of times
+	private static final int CRITICAL = 10;
+	// exact steps are done when the expected leap is less than SSA_FACTOR 
+	// exact steps
+	private static final double SSA_FACTOR = 10;
+	// the number of exact steps that is done then
+	private static final int SSA_STEPS = 100;
+
+	private int numSpecies;
+	private int numReactions;
+	private boolean[] boundary;
+	// per reaction the species that are consumed and how many of them
+	private int[][] consumed;
+	private int[][] consumedCount;
+	// per reaction the species that change and the net change
+	private int[][] changed;
+	private int[][] change;
+	// per species the highest order of the reactions it is a reactant of, and
+	// whether such a reaction consumes more than one of it
+	private int[] highestOrder;
+	private boolean[] highestOrderTwice;
+
+	private Poisson poisson;
+	private int ssaSteps;
+	private long numLeapedReactions;
+
+	// work arrays
+	private boolean[] critical;
+	private double[] mean;
+	private double[] variance;
+	private long[] amount;
+	private int[] fired;
+
+	/**
+	 * Creates a simulator with a randomly seeded random number generator.
+	 * @param net The network to simulate.
+	 */
+	public TauLeaping(Network net) {
+		this(net, (int)System.nanoTime());
+	}
+
+	/**
+	 * @param net The network to simulate.
+	 * @param seed The seed of the random number generator.
+	 */
+	public TauLeaping(Network net, int seed) {
+		super(net, seed);
+		poisson = new Poisson(1, rnd);
+		numSpecies = net.getNumSpecies();
+		numReactions = net.getNumReactions();
+
+		boundary = new boolean[numSpecies];
+		for(int i = 0; i < numSpecies; i++) {
+			boundary[i] = net.getAnnotationManager().containsSpeciesAnnotation(i, "BoundaryCondition");
+		}
+
+		consumed = new int[numReactions][];
+		consumedCount = new int[numReactions][];
+		changed = new int[numReactions][];
+		change = new int[numReactions][];
+		highestOrder = new int[numSpecies];
+		highestOrderTwice = new boolean[numSpecies];
+		int[] count = new int[numSpecies];
+		int[] net_change = new int[numSpecies];
+		for(int j = 0; j < numReactions; j++) {
+			int[] reactants = net.getReactants(j);
+			int[] products = net.getProducts(j);
+			for(int r : reactants) {
+				count[r]++;
+				net_change[r]--;
+			}
+			for(int p : products) {
+				net_change[p]++;
+			}
+			consumed[j] = distinct(reactants, count, false);
+			consumedCount[j] = new int[consumed[j].length];
+			for(int k = 0; k < consumed[j].length; k++) {
+				int s = consumed[j][k];
+				consumedCount[j][k] = count[s];
+				if(reactants.length > highestOrder[s]) {
+					highestOrder[s] = reactants.length;
+					highestOrderTwice[s] = count[s] > 1;
+				}
+				else if(reactants.length == highestOrder[s] && count[s] > 1) {
+					highestOrderTwice[s] = true;
+				}
+			}
+			int[] all = new int[reactants.length + products.length];
+			System.arraycopy(reactants, 0, all, 0, reactants.length);
+			System.arraycopy(products, 0, all, reactants.length, products.length);
+			changed[j] = distinct(all, net_change, true);
+			change[j] = new int[changed[j].length];
+			for(int k = 0; k < changed[j].length; k++) {
+				change[j][k] = net_change[changed[j][k]];
+			}
+			for(int s : all) {
+				count[s] = 0;
+				net_change[s] = 0;
+			}
+		}
+
+		critical = new boolean[numReactions];
+		mean = new double[numSpecies];
+		variance = new double[numSpecies];
+		amount = new long[numSpecies];
+		fired = new int[numReactions];
+	}
+
+	/**
+	 * Returns the distinct non-boundary species of a list, optionally only
+	 * the ones with a non-zero value.
+	 * @param species The list of species.
+	 * @param value A value per species.
+	 * @param nonZero True to skip the species with a zero value.
+	 * @return The distinct species.
+	 */
+	private int[] distinct(int[] species, int[] value, boolean nonZero) {
+		int[] result = new int[species.length];
+		int n = 0;
+		for(int i = 0; i < species.length; i++) {
+			int s = species[i];
+			boolean seen = false;
+			for(int k = 0; k < n && !seen; k++) {
+				seen = result[k] == s;
+			}
+			if(!seen && !boundary[s] && (!nonZero || value[s] != 0)) {
+				result[n++] = s;
+			}
+		}
+		int[] copy = new int[n];
+		System.arraycopy(result, 0, copy, 0, n);
+		return copy;
+	}
+
+	/* (non-Javadoc)
+	 * @see bd.simulation.GillespieOptimizedDirect#setSeed(int)
+	 */
+	@Override
+	public void setSeed(int seed) {
+		super.setSeed(seed);
+		poisson = new Poisson(1, rnd);
+	}
+
+	/* (non-Javadoc)
+	 * @see bd.simulation.GillespieOptimizedDirect#initialize()
+	 */
+	@Override
+	public void initialize() {
+		super.initialize();
+		ssaSteps = 0;
+	}
+
+	/**
+	 * @return The number of reactions that fired in leaps since the simulator
+	 * was created, in all runs. The reactions of the exact steps are reported
+	 * to the observers instead.
+	 */
+	public long getNumLeapedReactions() {
+		return numLeapedReactions;
+	}
+
+	/* (non-Javadoc)
+	 * @see bd.simulation.GillespieOptimizedDirect#performStep(fern.simulation.controller.SimulationController)
+	 */
+	@Override
+	public void performStep(SimulationController control) {
+		if(ssaSteps > 0) {
+			ssaSteps--;
+			super.performStep(control);
+			return;
+		}
+
+		updatePropensities();
+		if(a_sum == 0) {
+			// let the direct method jump to the next event
+			super.performStep(control);
+			return;
+		}
+
+		// find the critical reactions
+		double criticalSum = 0;
+		for(int j = 0; j < numReactions; j++) {
+			critical[j] = false;
+			if(a[j] > 0) {
+				for(int k = 0; k < consumed[j].length && !critical[j]; k++) {
+					long x = getAmountManager().getAmount(consumed[j][k]);
+					critical[j] = x / consumedCount[j][k] < CRITICAL;
+				}
+				if(critical[j]) {
+					criticalSum += a[j];
+				}
+			}
+		}
+
+		// the expected leap is limited by the leap size, the next critical
+		// reaction and the next observer event
+		double tau1 = leapSize();
+		double theta = getNextThetaEvent();
+		double expected = Math.min(tau1, theta - t);
+		if(criticalSum > 0) {
+			expected = Math.min(expected, 1 / criticalSum);
+		}
+		if(expected < SSA_FACTOR / a_sum) {
+			ssaSteps = SSA_STEPS - 1;
+			super.performStep(control);
+			return;
+		}
+
+		while(true) {
+			double tau2 = criticalSum > 0 ? Math.log(1 / rnd.nextDouble()) / criticalSum : Double.POSITIVE_INFINITY;
+			double tau = Math.min(tau1, tau2);
+			boolean atTheta = t + tau >= theta;
+			if(atTheta) {
+				tau = theta - t;
+			}
+			if(Double.isInfinite(tau)) {
+				// nothing happens anymore
+				t = tau;
+				return;
+			}
+
+			for(int i = 0; i < numSpecies; i++) {
+				amount[i] = getAmountManager().getAmount(i);
+			}
+			for(int j = 0; j < numReactions; j++) {
+				fired[j] = 0;
+				if(a[j] > 0 && !critical[j] && tau > 0) {
+					fired[j] = poisson.nextInt(a[j] * tau);
+				}
+			}
+			if(!atTheta && tau2 <= tau1) {
+				fired[nextCriticalReaction(criticalSum)] = 1;
+			}
+
+			boolean negative = false;
+			for(int j = 0; j < numReactions; j++) {
+				if(fired[j] > 0) {
+					for(int k = 0; k < changed[j].length; k++) {
+						amount[changed[j][k]] += (long)change[j][k] * fired[j];
+					}
+				}
+			}
+			for(int i = 0; i < numSpecies && !negative; i++) {
+				negative = amount[i] < 0;
+			}
+			if(negative) {
+				// the leap was too large, try again with a smaller one
+				tau1 /= 2;
+				continue;
+			}
+
+			for(int i = 0; i < numSpecies; i++) {
+				if(amount[i] != getAmountManager().getAmount(i)) {
+					getAmountManager().setAmount(i, amount[i]);
+				}
+			}
+			for(int j = 0; j < numReactions; j++) {
+				numLeapedReactions += fired[j];
+			}
+			if(atTheta) {
+				t = theta;
+				thetaEvent();
+			}
+			else {
+				t += tau;
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Calculates the largest leap for which the expected relative change of
+	 * the propensities is below EPSILON, based on the non-critical reactions.
+	 * @return The leap size, infinite if there are no non-critical reactions.
+	 */
+	private double leapSize() {
+		for(int i = 0; i < numSpecies; i++) {
+			mean[i] = 0;
+			variance[i] = 0;
+		}
+		for(int j = 0; j < numReactions; j++) {
+			if(a[j] > 0 && !critical[j]) {
+				for(int k = 0; k < changed[j].length; k++) {
+					int v = change[j][k];
+					mean[changed[j][k]] += v * a[j];
+					variance[changed[j][k]] += v * v * a[j];
+				}
+			}
+		}
+		double tau = Double.POSITIVE_INFINITY;
+		for(int i = 0; i < numSpecies; i++) {
+			if(highestOrder[i] > 0 && variance[i] > 0) {
+				long x = getAmountManager().getAmount(i);
+				double g = highestOrder[i];
+				if(highestOrderTwice[i] && x > 1) {
+					g += (highestOrder[i] - 1.0) / (x - 1);
+				}
+				double bound = Math.max(EPSILON * x / g, 1);
+				tau = Math.min(tau, bound / Math.abs(mean[i]));
+				tau = Math.min(tau, bound * bound / variance[i]);
+			}
+		}
+		return tau;
+	}
+
+	/**
+	 * @param criticalSum The sum of the propensities of the critical reactions.
+	 * @return A critical reaction, chosen with a probability proportional to
+	 * its propensity.
+	 */
+	private int nextCriticalReaction(double criticalSum) {
+		double test = rnd.nextDouble() * criticalSum;
+		double sum = 0;
+		int last = -1;
+		for(int j = 0; j < numReactions; j++) {
+			if(critical[j]) {
+				sum += a[j];
+				last = j;
+				if(sum >= test) {
+					return j;
+				}
+			}
+		}
+		return last;
+	}
+
+	/* (non-Javadoc)
+	 * @see bd.simulation.GillespieOptimizedDirect#getName()
+	 */
+	@Override
+	public String getName() {
+		return "adaptive tau-leaping";
+	}
+}